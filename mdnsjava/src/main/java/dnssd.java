@@ -13,9 +13,10 @@ import org.xbill.DNS.Type;
 
 import net.posick.mDNS.Browse;
 import net.posick.mDNS.Constants;
-import net.posick.mDNS.DNSSDListener;
+import net.posick.mDNS.DNSSDUpdateListener;
 import net.posick.mDNS.Lookup;
 import net.posick.mDNS.MulticastDNSService;
+import net.posick.mDNS.ServiceDiff;
 import net.posick.mDNS.ServiceInstance;
 import net.posick.mDNS.ServiceName;
 import net.posick.mDNS.Lookup.Domain;
@@ -186,7 +187,7 @@ public class dnssd
                             System.out.println("Services Found:");
                             ExecutionTimer._start();
                             MulticastDNSService mDNSService = new MulticastDNSService();
-                            Object id = mDNSService.startServiceDiscovery(new Browse(serviceTypes), new DNSSDListener()
+                            Object id = mDNSService.startServiceDiscovery(new Browse(serviceTypes), new DNSSDUpdateListener()
                             {
                                 public void handleException(final Object id, final Exception e)
                                 {
@@ -213,6 +214,12 @@ public class dnssd
                                 {
                                     System.out.println("Service Removed - " + service);
                                 }
+                                
+                                
+                                public void serviceUpdated(final Object id, final ServiceInstance service, final ServiceDiff diff)
+                                {
+                                    System.out.println("Service Updated - " + diff);
+                                }
                             });
                             System.out.println("\nStarting Browse for " + timingBuilder.toString() + " - took " + ExecutionTimer._took(TimeUnit.SECONDS) + " seconds.");
                             while (true)
@@ -0,0 +1,27 @@
+package net.posick.mDNS;
+
+import org.xbill.DNS.Message;
+
+import net.posick.mDNS.utils.ListenableFuture;
+
+/**
+ * A Querier whose queries may be sent asynchronously, returning a future response. Queriers that
+ * do not implement this interface are adapted by the lookups, using their ResolverListener
+ * based sendAsync operation.
+ * 
+ * @author Steve Posick
+ */
+public interface AsyncQuerier extends Querier
+{
+    /**
+     * Asynchronously sends a query, returning a future that completes with the response as soon as
+     * all questions are uniquely answered, once responses stop arriving for the quiet time, or
+     * with the answers received once the response wait time has elapsed. Cancelling the future
+     * stops waiting for responses.
+     * 
+     * @param query The query to send
+     * 
+     * @return The future response
+     */
+    public ListenableFuture<Message> sendAsync(Message query);
+}
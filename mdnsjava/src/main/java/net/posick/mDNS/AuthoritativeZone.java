@@ -0,0 +1,370 @@
+package net.posick.mDNS;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.xbill.DNS.Compression;
+import org.xbill.DNS.DNSOutput;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Header;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.MulticastDNSUtils;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Opcode;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * The AuthoritativeZone holds the records this host is authoritative for, the records of the
+ * services it registered, separately from the cache of records heard on the network. The records
+ * are indexed by name, so answering a query is an exact match lookup per question that neither
+ * searches nor locks the cache.
+ *
+ * Records stay in the zone until they are withdrawn by a goodbye, a record with a TTL of zero.
+ * Reads are lock free and may run concurrently with updates.
+ *
+ * Each record is encoded once, as it is added, into a {@link RecordTemplate}. Responses made of
+ * zone records are written by {@link #toWire(Message)} from the templates, so the cost of
+ * answering does not grow with the complexity of the records.
+ *
+ * @author Steve Posick
+ */
+public class AuthoritativeZone
+{
+    private static final Record[] NO_RECORDS = new Record[0];
+    
+    private final ConcurrentMap<Name, RecordTemplate[]> records = new ConcurrentHashMap<Name, RecordTemplate[]>();
+    
+    
+    /**
+     * Returns the response to the query from the records of the zone, the records answering the
+     * questions and, in the additional section, the records of their targets [RFC 6763 Section
+     * 12]. The response has no answers and the rcode NXDOMAIN if the zone cannot answer any
+     * question.
+     *
+     * @param query The query
+     * @return The response
+     */
+    public Message answer(final Message query)
+    {
+        Message response = new Message(query.getHeader().getID());
+        Header header = response.getHeader();
+        header.setRcode(Rcode.NXDOMAIN);
+        
+        Set<Record> answers = new LinkedHashSet<Record>();
+        for (Record question : MulticastDNSUtils.extractRecords(query, Section.QUESTION))
+        {
+            for (Record answer : lookup(question.getName(), question.getType()))
+            {
+                answers.add(answer);
+            }
+        }
+        
+        if (!answers.isEmpty())
+        {
+            header.setRcode(Rcode.NOERROR);
+            header.setOpcode(Opcode.QUERY);
+            header.setFlag(Flags.QR);
+            header.setFlag(Flags.AA);
+            
+            Set<Record> additionals = new LinkedHashSet<Record>();
+            Set<Name> visited = new HashSet<Name>();
+            for (Record answer : answers)
+            {
+                response.addRecord(answer, Section.ANSWER);
+                addAdditionalRecords(answer, additionals, visited);
+            }
+            
+            for (Record additional : additionals)
+            {
+                if (!answers.contains(additional))
+                {
+                    response.addRecord(additional, Section.ADDITIONAL);
+                }
+            }
+        }
+        
+        return response;
+    }
+    
+    
+    public void clear()
+    {
+        records.clear();
+    }
+    
+    
+    /**
+     * Returns all records of the zone.
+     */
+    public Record[] getRecords()
+    {
+        List<Record> results = new ArrayList<Record>();
+        for (RecordTemplate[] named : records.values())
+        {
+            for (RecordTemplate template : named)
+            {
+                results.add(template.getRecord());
+            }
+        }
+        
+        return results.toArray(new Record[results.size()]);
+    }
+    
+    
+    /**
+     * Returns the records with the name and type, all records with the name if the type is ANY.
+     *
+     * @param name The name
+     * @param type The type
+     * @return The records
+     */
+    public Record[] lookup(final Name name, final int type)
+    {
+        RecordTemplate[] named = records.get(name);
+        if (named == null)
+        {
+            return NO_RECORDS;
+        }
+        
+        List<Record> results = new ArrayList<Record>(named.length);
+        for (RecordTemplate template : named)
+        {
+            Record record = template.getRecord();
+            if ((type == Type.ANY) || (record.getType() == type))
+            {
+                results.add(record);
+            }
+        }
+        
+        return results.toArray(new Record[results.size()]);
+    }
+    
+    
+    /**
+     * Returns the records of the zone answering the questions of the query, to be sent as Known
+     * Answers. Records of the zone never expire, so all answering records are returned.
+     *
+     * @param query The query
+     * @return The Known Answers
+     */
+    public Record[] queryKnownAnswers(final Message query)
+    {
+        List<Record> results = new ArrayList<Record>();
+        for (Record question : MulticastDNSUtils.extractRecords(query, Section.QUESTION))
+        {
+            for (Record record : lookup(question.getName(), question.getType()))
+            {
+                results.add(record);
+            }
+        }
+        
+        return results.toArray(new Record[results.size()]);
+    }
+    
+    
+    public int size()
+    {
+        int size = 0;
+        for (RecordTemplate[] named : records.values())
+        {
+            size += named.length;
+        }
+        
+        return size;
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + " [names: " + records.keySet() + "]";
+    }
+    
+    
+    /**
+     * Returns the wire format of a response built by {@link #answer(Message)}, assembled from the
+     * templates of its records with the owner names compressed. The OPT record, if any, is written
+     * as is. Returns null if the response has questions or records not held by the zone, which
+     * must be converted by {@link Message#toWire()}.
+     *
+     * @param response The response
+     * @return The wire format of the response, or null
+     */
+    public byte[] toWire(final Message response)
+    {
+        Header header = response.getHeader();
+        if (header.getCount(Section.QUESTION) > 0)
+        {
+            return null;
+        }
+        
+        DNSOutput out = new DNSOutput();
+        out.writeByteArray(header.toWire());
+        Compression compression = new Compression();
+        for (int section : new int[] {Section.ANSWER,
+                                      Section.AUTHORITY,
+                                      Section.ADDITIONAL})
+        {
+            for (Record record : response.getSectionArray(section))
+            {
+                if (record.getType() == Type.OPT)
+                {
+                    out.writeByteArray(record.toWire(section));
+                } else
+                {
+                    RecordTemplate template = getTemplate(record);
+                    if (template == null)
+                    {
+                        return null;
+                    }
+                    template.toWire(out, compression);
+                }
+            }
+        }
+        
+        return out.toByteArray();
+    }
+    
+    
+    /**
+     * Applies the records of an announcement or goodbye to the zone. Records with a TTL of zero
+     * are removed, other records are added or replace the equal record. Records with the cache
+     * flush bit set replace all records of the zone with the same name and type that are not part
+     * of the update [RFC 6762 Section 10.2].
+     *
+     * @param updates The records
+     */
+    public synchronized void update(final Record... updates)
+    {
+        if ((updates == null) || (updates.length == 0))
+        {
+            return;
+        }
+        
+        Record[] normalized = new Record[updates.length];
+        for (int index = 0; index < updates.length; index++ )
+        {
+            normalized[index] = MulticastDNSUtils.clone(updates[index]);
+            MulticastDNSUtils.setDClassForRecord(normalized[index], normalized[index].getDClass() & 0x7FFF);
+        }
+        
+        // Flushed RRsets keep only the records of the update
+        for (int index = 0; index < updates.length; index++ )
+        {
+            Record record = normalized[index];
+            if (((updates[index].getDClass() & Constants.CACHE_FLUSH) != 0) && (record.getTTL() > 0))
+            {
+                RecordTemplate[] named = records.get(record.getName());
+                if (named != null)
+                {
+                    List<RecordTemplate> retained = new ArrayList<RecordTemplate>();
+                    for (RecordTemplate existing : named)
+                    {
+                        if ((existing.getRecord().getType() != record.getType()) || contains(normalized, existing.getRecord()))
+                        {
+                            retained.add(existing);
+                        }
+                    }
+                    put(record.getName(), retained);
+                }
+            }
+        }
+        
+        for (Record record : normalized)
+        {
+            List<RecordTemplate> updated = new ArrayList<RecordTemplate>();
+            RecordTemplate[] named = records.get(record.getName());
+            if (named != null)
+            {
+                for (RecordTemplate existing : named)
+                {
+                    if (!existing.getRecord().equals(record))
+                    {
+                        updated.add(existing);
+                    }
+                }
+            }
+            
+            if (record.getTTL() > 0)
+            {
+                updated.add(new RecordTemplate(record));
+            }
+            put(record.getName(), updated);
+        }
+    }
+    
+    
+    /**
+     * Adds the records of the target of the record, and of their targets, to the additional
+     * records.
+     */
+    private void addAdditionalRecords(final Record record, final Set<Record> additionals, final Set<Name> visited)
+    {
+        Name target = MulticastDNSUtils.getTargetFromRecord(record);
+        if ((target == null) || !visited.add(target))
+        {
+            return;
+        }
+        
+        for (Record additional : lookup(target, Type.ANY))
+        {
+            additionals.add(additional);
+            addAdditionalRecords(additional, additionals, visited);
+        }
+    }
+    
+    
+    /**
+     * Returns the template of the record, if the record is held by the zone.
+     */
+    private RecordTemplate getTemplate(final Record record)
+    {
+        RecordTemplate[] named = records.get(record.getName());
+        if (named != null)
+        {
+            for (RecordTemplate template : named)
+            {
+                if (template.getRecord() == record)
+                {
+                    return template;
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    
+    private void put(final Name name, final List<RecordTemplate> named)
+    {
+        if (named.isEmpty())
+        {
+            records.remove(name);
+        } else
+        {
+            records.put(name, named.toArray(new RecordTemplate[named.size()]));
+        }
+    }
+    
+    
+    private static boolean contains(final Record[] updates, final Record record)
+    {
+        for (Record update : updates)
+        {
+            if ((update.getTTL() > 0) && update.equals(record))
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+}
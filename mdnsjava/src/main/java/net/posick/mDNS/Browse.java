@@ -1,9 +1,13 @@
 package net.posick.mDNS;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,12 +17,17 @@ import org.xbill.DNS.Header;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.MulticastDNSUtils;
 import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.ResolverListener;
 import org.xbill.DNS.Section;
 import org.xbill.DNS.Type;
 
+import net.posick.mDNS.net.NetworkMonitor;
+import net.posick.mDNS.net.NetworkMonitor.NetworkChangeListener;
 import net.posick.mDNS.utils.Executors;
+import net.posick.mDNS.utils.ListenableFuture;
+import net.posick.mDNS.utils.ListenableFuture.FutureListener;
 import net.posick.mDNS.utils.ListenerProcessor;
 
 @SuppressWarnings({"unchecked", "rawtypes"})
@@ -26,36 +35,110 @@ public class Browse extends MulticastDNSLookupBase
 {
     static final Logger logger = Logger.getLogger(Browse.class.getName());
     
+    /**
+     * The key of a shared Browse Operation, the Querier and the name, type and class of the question.
+     * 
+     * @author Steve Posick
+     */
+    protected static class BrowseKey
+    {
+        private final Querier querier;
+        
+        private final Name name;
+        
+        private final int type;
+        
+        private final int dclass;
+        
+        
+        protected BrowseKey(final Querier querier, final Record question)
+        {
+            this.querier = querier;
+            this.name = question.getName();
+            this.type = question.getType();
+            this.dclass = question.getDClass() & 0x7FFF;
+        }
+        
+        
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            } else if (o instanceof BrowseKey)
+            {
+                BrowseKey that = (BrowseKey) o;
+                return (querier == that.querier) && (type == that.type) && (dclass == that.dclass) && name.equals(that.name);
+            }
+            
+            return false;
+        }
+        
+        
+        @Override
+        public int hashCode()
+        {
+            return (((System.identityHashCode(querier) * 31) + name.hashCode()) * 31 + type) * 31 + dclass;
+        }
+        
+        
+        @Override
+        public String toString()
+        {
+            return name + " " + Type.string(type) + " " + DClass.string(dclass);
+        }
+    }
+    
+    
     /**
      * The Browse Operation manages individual browse sessions.  Retrying broadcasts. 
      * Refer to the mDNS specification [RFC 6762]
      * 
+     * Queries include the Known Answers from the cache, and the interval between queries doubles
+     * up to one hour, restarting from one second when the network changes [RFC 6762 Section 5.2].
+     * 
+     * Browse Operations are shared by all Browse instances browsing the same question on the same
+     * Querier. A single query schedule is broadcast and the responses are fanned out to the
+     * listeners of all subscribed Browse instances. The operation is closed when its last
+     * subscriber unsubscribes.
+     * 
      * @author Steve Posick
      */
-    protected class BrowseOperation implements ResolverListener, Runnable
+    protected static class BrowseOperation implements ResolverListener, NetworkChangeListener, Runnable
     {
+        private final BrowseKey key;
+        
+        private final Querier querier;
+        
+        private final Message[] queries;
+        
+        private final QuestionMatcher matcher;
+        
         private int broadcastDelay = 0;
         
         private ListenerProcessor<ResolverListener> listenerProcessor = new ListenerProcessor<ResolverListener>(ResolverListener.class);
         
         private long lastBroadcast;
         
+        private ScheduledFuture<?> broadcastFuture;
         
-        BrowseOperation()
-        {
-            this(null);
-        }
-
-
-        BrowseOperation(ResolverListener listener)
+        private volatile boolean closed = false;
+        
+        private int subscribers;
+        
+        private final Executors executors = Executors.newInstance();
+        
+        
+        BrowseOperation(final BrowseKey key, final Querier querier, final Record question)
         {
-            if (listener != null)
-            {
-                registerListener(listener);
-            }
+            this.key = key;
+            this.querier = querier;
+            this.queries = new Message[] {Message.newQuery(question)};
+            this.matcher = new QuestionMatcher(queries);
         }
-
-
+        
+        
         Message[] getQueries()
         {
             return queries;
@@ -64,47 +147,13 @@ public class Browse extends MulticastDNSLookupBase
         
         boolean answersQuery(Record record)
         {
-            if (record != null)
-            {
-                for (Message query : queries)
-                {
-                    for (Record question : MulticastDNSUtils.extractRecords(query, Section.QUESTION))
-                    {
-                        Name questionName = question.getName();
-                        Name recordName = record.getName();
-                        int questionType = question.getType();
-                        int recordType = record.getType();
-                        int questionDClass = question.getDClass();
-                        int recordDClass = record.getDClass();
-                        
-                        if ((questionType == Type.ANY || questionType == recordType) &&
-                            (questionName.equals(recordName) || questionName.subdomain(recordName) ||
-                            recordName.toString().endsWith("." + questionName.toString())) &&
-                            (questionDClass == DClass.ANY || (questionDClass & 0x7FFF) == (recordDClass & 0x7FFF)))
-                        {
-                            return true;
-                        }
-                    }
-                }
-            }
-            
-            return false;
+            return matcher.answers(record);
         }
         
         
         boolean matchesBrowse(Message message)
         {
-            Record[] thatAnswers = MulticastDNSUtils.extractRecords(message, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL);
-            
-            for (Record thatAnswer : thatAnswers)
-            {
-                if (answersQuery(thatAnswer))
-                {
-                    return true;
-                }
-            }
-            
-            return false;
+            return matcher.answers(message);
         }
         
         
@@ -143,8 +192,37 @@ public class Browse extends MulticastDNSLookupBase
         }
         
         
-        public void run()
+        public void networkChanged()
+        {
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    return;
+                }
+                
+                if (broadcastFuture != null)
+                {
+                    broadcastFuture.cancel(false);
+                }
+                broadcastDelay = 0;
+            }
+            
+            if (logger.isLoggable(Level.FINE))
+            {
+                logger.logp(Level.FINE, getClass().getName(), "networkChanged", "Network changed, restarting Browse queries.");
+            }
+            executors.execute(this);
+        }
+        
+        
+        public synchronized void run()
         {
+            if (closed)
+            {
+                return;
+            }
+            
             if (logger.isLoggable(Level.FINE))
             {
                 long now = System.currentTimeMillis();
@@ -155,7 +233,7 @@ public class Browse extends MulticastDNSLookupBase
             try
             {
                 broadcastDelay = broadcastDelay > 0 ? Math.min(broadcastDelay * 2, 3600) : 1;
-                executors.schedule(this, broadcastDelay, TimeUnit.SECONDS);
+                broadcastFuture = executors.schedule(this, broadcastDelay, TimeUnit.SECONDS);
                 
                 if (logger.isLoggable(Level.FINE))
                 {
@@ -164,7 +242,7 @@ public class Browse extends MulticastDNSLookupBase
                 
                 for (Message query : queries)
                 {
-                    querier.broadcast((Message) query.clone(), false);
+                    querier.broadcast((Message) query.clone(), true);
                 }
             } catch (Exception e)
             {
@@ -173,8 +251,44 @@ public class Browse extends MulticastDNSLookupBase
         }
 
 
+        /**
+         * Starts the operation, listening for responses and network changes and broadcasting the
+         * first query. An operation closed before it is started, by a concurrent unsubscribe, is not
+         * started, so its listeners are never registered.
+         */
+        void start()
+        {
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    return;
+                }
+                
+                querier.registerListener(this);
+                NetworkMonitor.getInstance().addListener(this);
+            }
+            executors.execute(this);
+        }
+        
+        
         public void close()
         {
+            ScheduledFuture<?> future;
+            synchronized (this)
+            {
+                closed = true;
+                future = broadcastFuture;
+            }
+            
+            querier.unregisterListener(this);
+            NetworkMonitor.getInstance().removeListener(this);
+            
+            if (future != null)
+            {
+                future.cancel(false);
+            }
+            
             try
             {
                 listenerProcessor.close();
@@ -185,9 +299,48 @@ public class Browse extends MulticastDNSLookupBase
         }
     }
     
+    /**
+     * Delivers each response to a Browse listener once, even when the response answers several of
+     * the shared Browse Operations the Browse is subscribed to.
+     * 
+     * @author Steve Posick
+     */
+    protected static class BrowseSubscriber implements ResolverListener
+    {
+        private final ResolverListener listener;
+        
+        private final AtomicReference<Message> lastMessage = new AtomicReference<Message>();
+        
+        
+        protected BrowseSubscriber(final ResolverListener listener)
+        {
+            this.listener = listener;
+        }
+        
+        
+        public void handleException(final Object id, final Exception e)
+        {
+            listener.handleException(id, e);
+        }
+        
+        
+        public void receiveMessage(final Object id, final Message message)
+        {
+            if (lastMessage.getAndSet(message) != message)
+            {
+                listener.receiveMessage(id, message);
+            }
+        }
+    }
+    
+    
+    protected static final Map<BrowseKey, BrowseOperation> sharedOperations = new HashMap<BrowseKey, BrowseOperation>();
+    
     protected List browseOperations = new LinkedList();
-   
-
+    
+    protected List browseSubscribers = new LinkedList();
+    
+    
     protected Browse()
     throws IOException
     {
@@ -268,11 +421,16 @@ public class Browse extends MulticastDNSLookupBase
             throw new NullPointerException("Error sending asynchronous query, No queries specified!");
         }
         
-        BrowseOperation browseOperation = new BrowseOperation(listener);
-        browseOperations.add(browseOperation);
-        querier.registerListener(browseOperation);
-        
-        executors.execute(browseOperation);
+        BrowseSubscriber subscriber = new BrowseSubscriber(listener);
+        for (Message query : queries)
+        {
+            for (Record question : MulticastDNSUtils.extractRecords(query, Section.QUESTION))
+            {
+                BrowseOperation browseOperation = subscribe(querier, question, subscriber);
+                browseOperations.add(browseOperation);
+                browseSubscribers.add(subscriber);
+            }
+        }
     }
     
     Executors executors = Executors.newInstance();
@@ -280,16 +438,103 @@ public class Browse extends MulticastDNSLookupBase
     public void close()
     throws IOException
     {
-        for (Object o : browseOperations)
+        synchronized (this)
         {
-            BrowseOperation browseOperation = (BrowseOperation) o;
-            try
+            for (int index = 0; index < browseOperations.size(); index++ )
             {
-                browseOperation.close();
-            } catch (Exception e)
+                try
+                {
+                    unsubscribe((BrowseOperation) browseOperations.get(index), (ResolverListener) browseSubscribers.get(index));
+                } catch (Exception e)
+                {
+                    // ignore
+                }
+            }
+            browseOperations.clear();
+            browseSubscribers.clear();
+        }
+    }
+    
+    
+    /**
+     * Subscribes the listener to the shared Browse Operation for the question, starting the
+     * operation if it is not running. A listener joining a running operation is sent the current
+     * answers, as the operation's next query may be up to an hour away.
+     * 
+     * @param querier The Querier
+     * @param question The question
+     * @param listener The listener
+     * @return The shared Browse Operation
+     */
+    protected static BrowseOperation subscribe(final Querier querier, final Record question, final ResolverListener listener)
+    {
+        BrowseKey key = new BrowseKey(querier, question);
+        BrowseOperation browseOperation;
+        boolean started;
+        synchronized (sharedOperations)
+        {
+            browseOperation = sharedOperations.get(key);
+            started = browseOperation == null;
+            if (started)
             {
-                // ignore
+                browseOperation = new BrowseOperation(key, querier, question);
+                sharedOperations.put(key, browseOperation);
+            }
+            browseOperation.subscribers++ ;
+            browseOperation.registerListener(listener);
+        }
+        
+        if (started)
+        {
+            browseOperation.start();
+        } else
+        {
+            final BrowseOperation operation = browseOperation;
+            sendAsync(querier, browseOperation.getQueries()[0]).addListener(new FutureListener<Message>()
+            {
+                public void operationComplete(final ListenableFuture<Message> future)
+                {
+                    Message response = future.getNow(null);
+                    if ((response != null) && (response.getRcode() == Rcode.NOERROR) && operation.matchesBrowse(response))
+                    {
+                        listener.receiveMessage(operation, response);
+                    }
+                }
+            });
+        }
+        
+        if (logger.isLoggable(Level.FINE))
+        {
+            logger.logp(Level.FINE, Browse.class.getName(), "subscribe", (started ? "Started" : "Joined") + " shared Browse Operation for \"" + key + "\".");
+        }
+        
+        return browseOperation;
+    }
+    
+    
+    /**
+     * Unsubscribes the listener from the shared Browse Operation, closing the operation when its
+     * last subscriber unsubscribes.
+     * 
+     * @param browseOperation The shared Browse Operation
+     * @param listener The listener
+     */
+    protected static void unsubscribe(final BrowseOperation browseOperation, final ResolverListener listener)
+    {
+        boolean close;
+        synchronized (sharedOperations)
+        {
+            browseOperation.unregisterListener(listener);
+            close = --browseOperation.subscribers <= 0;
+            if (close && (sharedOperations.get(browseOperation.key) == browseOperation))
+            {
+                sharedOperations.remove(browseOperation.key);
             }
         }
+        
+        if (close)
+        {
+            browseOperation.close();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+package net.posick.mDNS;
+
+import org.xbill.DNS.Message;
+
+/**
+ * A Querier that caches the records it receives and answers queries from its cache. Queriers that
+ * do not implement this interface are treated by the lookups as having nothing cached.
+ * 
+ * @author Steve Posick
+ */
+public interface CachingQuerier extends Querier
+{
+    /**
+     * Answers the query from the records already cached, without sending it.
+     * 
+     * @param query The query
+     * 
+     * @return The response, NXDOMAIN if no records are cached
+     */
+    public Message queryCache(Message query);
+    
+    
+    /**
+     * Answers the query from the records this host is authoritative for, the records of the
+     * services it registered, ignoring the records heard from the network.
+     * 
+     * @param query The query
+     * 
+     * @return The response, NXDOMAIN if this host is not authoritative for any answer
+     */
+    public Message queryAuthoritative(Message query);
+}
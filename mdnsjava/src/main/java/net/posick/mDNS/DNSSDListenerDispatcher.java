@@ -0,0 +1,243 @@
+package net.posick.mDNS;
+
+import org.xbill.DNS.Message;
+
+import net.posick.mDNS.utils.ListenerProcessor;
+import net.posick.mDNS.utils.ListenerProcessor.DispatcherFactory;
+import net.posick.mDNS.utils.ListenerProcessor.Event;
+
+/**
+ * Typed dispatcher for DNSSDListeners, calling the listeners of a ListenerProcessor directly rather
+ * than through a reflective Proxy. Updates are only delivered to DNSSDUpdateListeners. The
+ * dispatcher is registered with the ListenerProcessor by register().
+ * 
+ * @author Steve Posick
+ */
+public class DNSSDListenerDispatcher implements DNSSDUpdateListener
+{
+    /**
+     * The asynchronous delivery of a ServiceEvent. Undelivered events for the same service are
+     * coalesced using the rules of the ServiceEventPublisher, a discovery followed by an update is
+     * delivered as the discovery of the updated service, consecutive updates are delivered as one
+     * update spanning both, a discovery followed by a removal is not delivered, and a removal
+     * followed by a rediscovery is delivered as an update.
+     */
+    protected static class ServiceEventDelivery extends Event
+    {
+        private final ServiceEvent event;
+        
+        
+        protected ServiceEventDelivery(final ServiceEvent event)
+        {
+            super(event.getServiceName());
+            this.event = event;
+        }
+        
+        
+        @Override
+        protected Event coalesce(final Event queued)
+        {
+            if (queued instanceof ServiceEventDelivery)
+            {
+                ServiceEvent combined = ServiceEventPublisher.coalesce(((ServiceEventDelivery) queued).event, event);
+                return combined != null ? new ServiceEventDelivery(combined) : null;
+            }
+            
+            return this;
+        }
+        
+        
+        @Override
+        protected void deliver(final Object listener)
+        throws Exception
+        {
+            switch (event.getType())
+            {
+                case DISCOVERED:
+                    ((DNSSDListener) listener).serviceDiscovered(event.getId(), event.getService());
+                    break;
+                case UPDATED:
+                    if (listener instanceof DNSSDUpdateListener)
+                    {
+                        ((DNSSDUpdateListener) listener).serviceUpdated(event.getId(), event.getService(), event.getDiff());
+                    }
+                    break;
+                case REMOVED:
+                    ((DNSSDListener) listener).serviceRemoved(event.getId(), event.getService());
+                    break;
+            }
+        }
+    }
+    
+    
+    private static final DispatcherFactory<DNSSDListener> FACTORY = new DispatcherFactory<DNSSDListener>()
+    {
+        public DNSSDListener newDispatcher(final ListenerProcessor<DNSSDListener> processor)
+        {
+            return new DNSSDListenerDispatcher(processor);
+        }
+    };
+    
+    private final ListenerProcessor<DNSSDListener> processor;
+    
+    
+    protected DNSSDListenerDispatcher(final ListenerProcessor<DNSSDListener> processor)
+    {
+        this.processor = processor;
+    }
+    
+    
+    public void handleException(final Object id, final Exception e)
+    {
+        if (processor.isAsynchronous())
+        {
+            processor.dispatchAsync(new Event(null)
+            {
+                @Override
+                protected void deliver(final Object listener)
+                throws Exception
+                {
+                    ((DNSSDListener) listener).handleException(id, e);
+                }
+            });
+            return;
+        }
+        
+        Object[] tempListeners = processor.getListeners();
+        for (Object listener : tempListeners)
+        {
+            try
+            {
+                ((DNSSDListener) listener).handleException(id, e);
+            } catch (Exception ex)
+            {
+                if (ListenerProcessor.stopDispatch(ex))
+                {
+                    break;
+                }
+            }
+        }
+    }
+    
+    
+    public void receiveMessage(final Object id, final Message m)
+    {
+        if (processor.isAsynchronous())
+        {
+            processor.dispatchAsync(new Event(null)
+            {
+                @Override
+                protected void deliver(final Object listener)
+                throws Exception
+                {
+                    ((DNSSDListener) listener).receiveMessage(id, m);
+                }
+            });
+            return;
+        }
+        
+        Object[] tempListeners = processor.getListeners();
+        for (Object listener : tempListeners)
+        {
+            try
+            {
+                ((DNSSDListener) listener).receiveMessage(id, m);
+            } catch (Exception e)
+            {
+                if (ListenerProcessor.stopDispatch(e))
+                {
+                    break;
+                }
+            }
+        }
+    }
+    
+    
+    public void serviceDiscovered(final Object id, final ServiceInstance service)
+    {
+        if (processor.isAsynchronous())
+        {
+            processor.dispatchAsync(new ServiceEventDelivery(new ServiceEvent(ServiceEvent.Type.DISCOVERED, id, service)));
+            return;
+        }
+        
+        Object[] tempListeners = processor.getListeners();
+        for (Object listener : tempListeners)
+        {
+            try
+            {
+                ((DNSSDListener) listener).serviceDiscovered(id, service);
+            } catch (Exception e)
+            {
+                if (ListenerProcessor.stopDispatch(e))
+                {
+                    break;
+                }
+            }
+        }
+    }
+    
+    
+    public void serviceRemoved(final Object id, final ServiceInstance service)
+    {
+        if (processor.isAsynchronous())
+        {
+            processor.dispatchAsync(new ServiceEventDelivery(new ServiceEvent(ServiceEvent.Type.REMOVED, id, service)));
+            return;
+        }
+        
+        Object[] tempListeners = processor.getListeners();
+        for (Object listener : tempListeners)
+        {
+            try
+            {
+                ((DNSSDListener) listener).serviceRemoved(id, service);
+            } catch (Exception e)
+            {
+                if (ListenerProcessor.stopDispatch(e))
+                {
+                    break;
+                }
+            }
+        }
+    }
+    
+    
+    public void serviceUpdated(final Object id, final ServiceInstance service, final ServiceDiff diff)
+    {
+        if (processor.isAsynchronous())
+        {
+            processor.dispatchAsync(new ServiceEventDelivery(new ServiceEvent(ServiceEvent.Type.UPDATED, id, service, diff)));
+            return;
+        }
+        
+        Object[] tempListeners = processor.getListeners();
+        for (Object listener : tempListeners)
+        {
+            if (!(listener instanceof DNSSDUpdateListener))
+            {
+                continue;
+            }
+            
+            try
+            {
+                ((DNSSDUpdateListener) listener).serviceUpdated(id, service, diff);
+            } catch (Exception e)
+            {
+                if (ListenerProcessor.stopDispatch(e))
+                {
+                    break;
+                }
+            }
+        }
+    }
+    
+    
+    /**
+     * Registers the DNSSDListenerDispatcher as the DispatcherFactory for DNSSDListeners.
+     */
+    public static void register()
+    {
+        ListenerProcessor.registerDispatcherFactory(DNSSDListener.class, FACTORY);
+    }
+}
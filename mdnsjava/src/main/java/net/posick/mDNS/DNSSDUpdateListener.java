@@ -0,0 +1,20 @@
+package net.posick.mDNS;
+
+/**
+ * A DNSSDListener that is also notified when the records of a discovered service change. Listeners
+ * that only implement DNSSDListener receive the discovery and removal events.
+ * 
+ * @author Steve Posick
+ */
+public interface DNSSDUpdateListener extends DNSSDListener
+{
+    /**
+     * Called when the records of a discovered service change, for example when its text
+     * attributes, port, priority, weight or addresses change.
+     * 
+     * @param id The id of the discovery operation
+     * @param service The updated service
+     * @param diff The fields that changed
+     */
+    public void serviceUpdated(Object id, ServiceInstance service, ServiceDiff diff);
+}
@@ -1,15 +1,18 @@
 package net.posick.mDNS;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.xbill.DNS.DClass;
 import org.xbill.DNS.Message;
@@ -23,6 +26,8 @@ import org.xbill.DNS.Section;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 
+import net.posick.mDNS.utils.ListenableFuture;
+import net.posick.mDNS.utils.ListenableFuture.FutureListener;
 import net.posick.mDNS.utils.Wait;
 
 @SuppressWarnings({"unchecked", "rawtypes"})
@@ -212,6 +217,7 @@ public class Lookup extends MulticastDNSLookupBase
     {
         final Set domains = Collections.synchronizedSet(new HashSet());
         final List exceptions = Collections.synchronizedList(new LinkedList());
+        final Wait.Signal received = new Wait.Signal();
         
         if ((queries != null) && (queries.length > 0))
         {
@@ -238,7 +244,10 @@ public class Lookup extends MulticastDNSLookupBase
                             // Check if domain is already in the list, add if not, otherwise manipulate booleans.
                             try
                             {
-                                domains.add(new Domain(new Name(value)));
+                                if (domains.add(new Domain(new Name(value))))
+                                {
+                                    received.signal();
+                                }
                             } catch (TextParseException e)
                             {
                                 e.printStackTrace(System.err);
@@ -248,7 +257,7 @@ public class Lookup extends MulticastDNSLookupBase
                 }
             });
             
-            Wait.forResponse(domains);
+            Wait.forResponse(received);
         }
         
         for (Name name : searchPath)
@@ -260,44 +269,117 @@ public class Lookup extends MulticastDNSLookupBase
     }
     
     
+    /**
+     * Looks up the records, waiting at most for the query timeout plus the response wait time
+     * (mdns_resolve_wait).
+     * 
+     * @return The records
+     * @throws SocketTimeoutException If the lookup did not complete in time
+     */
     public Record[] lookupRecords()
     throws IOException
     {
-        final Queue messages = new ConcurrentLinkedQueue();
-        final Queue exceptions = new ConcurrentLinkedQueue();
+        ListenableFuture<Record[]> future = lookupRecordsAsync();
+        try
+        {
+            return future.get(Querier.DEFAULT_TIMEOUT + Wait.responseWaitTime(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e)
+        {
+            future.cancel(false);
+            throw new SocketTimeoutException("Lookup timed out");
+        } catch (InterruptedException e)
+        {
+            IOException ioe = new InterruptedIOException(e.getMessage());
+            ioe.setStackTrace(e.getStackTrace());
+            throw ioe;
+        } catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            IOException ioe = new IOException(cause.getMessage());
+            ioe.setStackTrace(cause.getStackTrace());
+            throw ioe;
+        }
+    }
+    
+    
+    /**
+     * Looks up the records asynchronously, returning a future that completes once all queries
+     * are answered or have timed out. Cancelling the future cancels the outstanding queries.
+     * 
+     * @return The future records
+     */
+    public ListenableFuture<Record[]> lookupRecordsAsync()
+    {
+        final ListenableFuture<Record[]> future = new ListenableFuture<Record[]>();
+        final List<ListenableFuture<Message>> requests = new ArrayList<ListenableFuture<Message>>(queries.length);
+        for (Message query : queries)
+        {
+            requests.add(sendAsync(getQuerier(), query));
+        }
         
-        lookupRecordsAsync(new ResolverListener()
+        final int[] remaining = new int[] {requests.size()};
+        FutureListener<Message> requestListener = new FutureListener<Message>()
         {
-            public void handleException(final Object id, final Exception e)
+            public void operationComplete(final ListenableFuture<Message> request)
             {
-                exceptions.add(e);
+                synchronized (remaining)
+                {
+                    if (--remaining[0] > 0)
+                    {
+                        return;
+                    }
+                }
+                
+                List records = new ArrayList();
+                Throwable failure = null;
+                for (ListenableFuture<Message> r : requests)
+                {
+                    Message m = r.getNow(null);
+                    if (m == null)
+                    {
+                        failure = failure == null ? r.getCause() : failure;
+                    } else if (m.getRcode() == Rcode.NOERROR)
+                    {
+                        records.addAll(Arrays.asList(MulticastDNSUtils.extractRecords(m, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL)));
+                    }
+                }
+                
+                if (records.isEmpty() && (failure != null))
+                {
+                    future.setException(failure);
+                } else
+                {
+                    future.set((Record[]) records.toArray(new Record[records.size()]));
+                }
             }
-            
-            
-            public void receiveMessage(final Object id, final Message m)
+        };
+        
+        future.addListener(new FutureListener<Record[]>()
+        {
+            public void operationComplete(final ListenableFuture<Record[]> f)
             {
-                messages.add(m);
+                for (ListenableFuture<Message> request : requests)
+                {
+                    request.cancel(false);
+                }
             }
         });
         
-        Wait.forResponse(messages);
-
-        List records = new ArrayList();
+        if (requests.isEmpty())
+        {
+            future.set(new Record[0]);
+        }
         
-        for (Object o : messages)
+        for (ListenableFuture<Message> request : requests)
         {
-            Message m = (Message) o;
-            switch (m.getRcode())
-            {
-                case Rcode.NOERROR:
-                    records.addAll(Arrays.asList(MulticastDNSUtils.extractRecords(m, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL)));
-                    break;
-                case Rcode.NXDOMAIN:
-                    break;
-            }
+            request.addListener(requestListener);
         }
         
-        return (Record[]) records.toArray(new Record[records.size()]);
+        return future;
     }
     
     
@@ -345,6 +427,41 @@ public class Lookup extends MulticastDNSLookupBase
     }
     
     
+    /**
+     * Looks up the services asynchronously, returning a future that completes once all queries
+     * are answered or have timed out.
+     * 
+     * @return The future service instances
+     */
+    public ListenableFuture<ServiceInstance[]> lookupServicesAsync()
+    {
+        final ListenableFuture<ServiceInstance[]> future = new ListenableFuture<ServiceInstance[]>();
+        final ListenableFuture<Record[]> records = lookupRecordsAsync();
+        records.addListener(new FutureListener<Record[]>()
+        {
+            public void operationComplete(final ListenableFuture<Record[]> f)
+            {
+                if (f.isSuccess())
+                {
+                    future.set(extractServiceInstances(f.getNow(null)));
+                } else
+                {
+                    future.setException(f.getCause());
+                }
+            }
+        });
+        future.addListener(new FutureListener<ServiceInstance[]>()
+        {
+            public void operationComplete(final ListenableFuture<ServiceInstance[]> f)
+            {
+                records.cancel(false);
+            }
+        });
+        
+        return future;
+    }
+    
+    
     public static Record[] lookupRecords(Name name)
     throws IOException
     {
@@ -12,6 +12,7 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -401,6 +402,8 @@ public class MulticastDNSCache extends Cache implements Closeable
     
     private Executors executors = Executors.newInstance();
     
+    private ScheduledFuture<?> monitorFuture;
+    
     
     /**
      * Creates an empty Cache for class IN.
@@ -493,6 +496,12 @@ public class MulticastDNSCache extends Cache implements Closeable
     {
         if (this != DEFAULT_MDNS_CACHE)
         {
+            if (monitorFuture != null)
+            {
+                monitorFuture.cancel(false);
+                monitorFuture = null;
+            }
+            
             // Run final cache check, sending mDNS messages if needed
             if (cacheMonitor != null)
             {
@@ -652,6 +661,57 @@ public class MulticastDNSCache extends Cache implements Closeable
     }
     
     
+    /**
+     * Returns the Known Answers for the query, the cached answers whose remaining TTL is more than
+     * half of their original TTL [RFC 6762 Section 7.1]. The TTL of each returned record is set to
+     * the time remaining before it expires.
+     * 
+     * @param query The query
+     * @param credibility The minimum credibility of the records
+     * @return The Known Answers
+     */
+    public Record[] queryKnownAnswers(final Message query, final int credibility)
+    {
+        LinkedList results = new LinkedList();
+        
+        Record[] questions = MulticastDNSUtils.extractRecords(query, Section.QUESTION);
+        for (Record question : questions)
+        {
+            SetResponse response = lookupRecords(question.getName(), question.getType(), credibility);
+            if (response.isSuccessful())
+            {
+                for (RRset rrs : response.answers())
+                {
+                    try
+                    {
+                        ElementHelper element;
+                        synchronized (this)
+                        {
+                            element = findElementCopy(rrs.getName(), rrs.getType(), 0);
+                        }
+                        
+                        int expiresIn = element != null ? element.getExpiresIn() : 0;
+                        if ((expiresIn * 2L) > rrs.getTTL())
+                        {
+                            for (Record record : MulticastDNSUtils.extractRecords(rrs))
+                            {
+                                Record knownAnswer = MulticastDNSUtils.clone(record);
+                                MulticastDNSUtils.setTLLForRecord(knownAnswer, expiresIn);
+                                results.add(knownAnswer);
+                            }
+                        }
+                    } catch (Exception e)
+                    {
+                        logger.log(Level.FINE, "Error reading expiry of cached RRset \"" + rrs.getName() + "\" - " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        
+        return (Record[]) results.toArray(new Record[results.size()]);
+    }
+    
+    
     public void removeElementCopy(final Name name, final int type)
     {
         try
@@ -764,7 +824,7 @@ public class MulticastDNSCache extends Cache implements Closeable
     protected void populateReflectedFields()
     throws NoSuchFieldException, NoSuchMethodException
     {
-        executors.scheduleAtFixedRate(new MonitorTask(), 1, 1, TimeUnit.SECONDS);
+        monitorFuture = executors.scheduleAtFixedRate(new MonitorTask(), 1, 1, TimeUnit.SECONDS);
         
         Class clazz = getClass().getSuperclass();
         
@@ -9,6 +9,8 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,15 +23,21 @@ import org.xbill.DNS.Name;
 import org.xbill.DNS.NameTooLongException;
 import org.xbill.DNS.Options;
 import org.xbill.DNS.PTRRecord;
+import org.xbill.DNS.Rcode;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.ResolverConfig;
+import org.xbill.DNS.ResolverListener;
 import org.xbill.DNS.SRVRecord;
 import org.xbill.DNS.Section;
 import org.xbill.DNS.TXTRecord;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 
+import net.posick.mDNS.utils.Executors;
+import net.posick.mDNS.utils.ListenableFuture;
+import net.posick.mDNS.utils.ListenableFuture.FutureListener;
 import net.posick.mDNS.utils.Misc;
+import net.posick.mDNS.utils.Wait;
 
 @SuppressWarnings({"unchecked", "rawtypes"})
 public abstract class MulticastDNSLookupBase implements Closeable, Constants
@@ -741,4 +749,128 @@ public abstract class MulticastDNSLookupBase implements Closeable, Constants
         
         return (ServiceInstance[]) services.values().toArray(new ServiceInstance[services.size()]);
     }
+    
+    
+    /**
+     * Answers the query from the Querier's cache. Queriers that are not CachingQueriers have
+     * nothing cached, the response is NXDOMAIN.
+     * 
+     * @param querier The Querier
+     * @param query The query
+     * @return The response
+     */
+    protected static Message queryCache(final Querier querier, final Message query)
+    {
+        if (querier instanceof CachingQuerier)
+        {
+            return ((CachingQuerier) querier).queryCache(query);
+        }
+        
+        return noAnswer(query);
+    }
+    
+    
+    /**
+     * Answers the query from the records the Querier is authoritative for. Queriers that are not
+     * CachingQueriers hold no records, the response is NXDOMAIN.
+     * 
+     * @param querier The Querier
+     * @param query The query
+     * @return The response
+     */
+    protected static Message queryAuthoritative(final Querier querier, final Message query)
+    {
+        if (querier instanceof CachingQuerier)
+        {
+            return ((CachingQuerier) querier).queryAuthoritative(query);
+        }
+        
+        return noAnswer(query);
+    }
+    
+    
+    /**
+     * Returns the largest DNS message, in bytes, that the Querier can send on every interface, or
+     * the default size if the Querier does not know the payload sizes of its interfaces.
+     * 
+     * @param querier The Querier
+     * @param defaultSize The size used when the Querier does not know its payload sizes
+     * @return The largest DNS message that can be sent on every interface
+     */
+    protected static int getMaxPayloadSize(final Querier querier, final int defaultSize)
+    {
+        int maxPayloadSize = 0;
+        if (querier instanceof MulticastDNSQuerier)
+        {
+            maxPayloadSize = ((MulticastDNSQuerier) querier).getMaxPayloadSize();
+        } else if (querier instanceof MulticastDNSMulticastOnlyQuerier)
+        {
+            maxPayloadSize = ((MulticastDNSMulticastOnlyQuerier) querier).getMaxPayloadSize();
+        }
+        
+        return maxPayloadSize > 0 ? maxPayloadSize : defaultSize;
+    }
+    
+    
+    private static Message noAnswer(final Message query)
+    {
+        Message response = new Message(query.getHeader().getID());
+        response.getHeader().setRcode(Rcode.NXDOMAIN);
+        for (Record question : MulticastDNSUtils.extractRecords(query, Section.QUESTION))
+        {
+            response.addRecord(question, Section.QUESTION);
+        }
+        return response;
+    }
+    
+    
+    /**
+     * Asynchronously sends the query using the Querier. Queriers that are not AsyncQueriers are
+     * adapted using their ResolverListener based sendAsync operation, the future completes with
+     * the first response and cancelling it does not stop the Querier. The ResolverListener may
+     * never be called, so the adapted future completes with the cached answers once the response
+     * wait time (mdns_resolve_wait) elapses.
+     * 
+     * @param querier The Querier
+     * @param query The query to send
+     * @return The future response
+     */
+    protected static ListenableFuture<Message> sendAsync(final Querier querier, final Message query)
+    {
+        if (querier instanceof AsyncQuerier)
+        {
+            return ((AsyncQuerier) querier).sendAsync(query);
+        }
+        
+        final ListenableFuture<Message> future = new ListenableFuture<Message>();
+        final ScheduledFuture<?> deadline = Executors.newInstance().schedule(new Runnable()
+        {
+            public void run()
+            {
+                future.set(queryCache(querier, query));
+            }
+        }, Wait.responseWaitTime(), TimeUnit.MILLISECONDS);
+        future.addListener(new FutureListener<Message>()
+        {
+            public void operationComplete(final ListenableFuture<Message> f)
+            {
+                deadline.cancel(false);
+            }
+        });
+        
+        querier.sendAsync(query, new ResolverListener()
+        {
+            public void handleException(final Object id, final Exception e)
+            {
+                future.setException(e);
+            }
+            
+            
+            public void receiveMessage(final Object id, final Message m)
+            {
+                future.set(m);
+            }
+        });
+        return future;
+    }
 }
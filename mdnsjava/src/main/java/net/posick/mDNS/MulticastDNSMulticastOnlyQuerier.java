@@ -5,14 +5,21 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
 import org.xbill.DNS.Cache;
 import org.xbill.DNS.Credibility;
 import org.xbill.DNS.Flags;
@@ -37,6 +44,8 @@ import net.posick.mDNS.net.DatagramProcessor;
 import net.posick.mDNS.net.Packet;
 import net.posick.mDNS.net.PacketListener;
 import net.posick.mDNS.utils.Executors;
+import net.posick.mDNS.utils.ListenableFuture;
+import net.posick.mDNS.utils.ListenableFuture.FutureListener;
 import net.posick.mDNS.utils.ListenerProcessor;
 import net.posick.mDNS.utils.Misc;
 import net.posick.mDNS.utils.Wait;
@@ -54,77 +63,10 @@ import net.posick.mDNS.utils.Wait;
  * @author Steve Posick
  */
 @SuppressWarnings({"unchecked", "rawtypes"})
-public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
+public class MulticastDNSMulticastOnlyQuerier implements AsyncQuerier, CachingQuerier, PacketListener
 {
     private static final Logger logger = Misc.getLogger(MulticastDNSMulticastOnlyQuerier.class, true); 
     
-    public class ListenerWrapper implements ResolverListener
-    {
-        private final Object id;
-        
-        private final Message query;
-        
-        private final ResolverListener listener;
-        
-        
-        public ListenerWrapper(final Object id, final Message query, final ResolverListener listener)
-        {
-            this.id = id;
-            this.query = query;
-            this.listener = listener;
-        }
-        
-        
-        @Override
-        public boolean equals(final Object o)
-        {
-            if ((this == o) || (listener == o))
-            {
-                return true;
-            } else if (o instanceof ListenerWrapper)
-            {
-                return listener == ((ListenerWrapper) o).listener;
-            }
-            
-            return false;
-        }
-        
-        
-        public void handleException(final Object id, final Exception e)
-        {
-            if ((this.id == null) || this.id.equals(id))
-            {
-                listener.handleException(this.id, e);
-                unregisterListener(this);
-            }
-        }
-        
-        
-        @Override
-        public int hashCode()
-        {
-            return listener.hashCode();
-        }
-        
-        
-        public void receiveMessage(final Object id, final Message m)
-        {
-            Header h = m.getHeader();
-            if (h.getFlag(Flags.QR) || h.getFlag(Flags.AA) || h.getFlag(Flags.AD))
-            {
-                if (MulticastDNSUtils.answersAny(query, m))
-                {
-                    listener.receiveMessage(this.id, m);
-                    unregisterListener(this);
-                }
-            } else
-            {
-                return;
-            }
-        }
-    }
-    
-    
     /**
      * Resolver Listener that replies to queries from the network.
      * 
@@ -144,6 +86,20 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
         
         
         public void receiveMessage(final Object id, final Message message)
+        {
+            receiveMessage(null, id, message);
+        }
+        
+        
+        /**
+         * Answers a query received on the specified interface. The response is scoped to,
+         * and only written to, the interface the query arrived on.
+         * 
+         * @param ifaceAddress The address of the interface the query was received on, null for all interfaces
+         * @param id The message id
+         * @param message The query
+         */
+        public void receiveMessage(final InetAddress ifaceAddress, final Object id, final Message message)
         {
             int rcode = message.getRcode();
             Header header = message.getHeader();
@@ -178,10 +134,11 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
                 {
                     case Opcode.IQUERY:
                     case Opcode.QUERY:
-                        Message response = cache.queryCache(message, Credibility.AUTH_AUTHORITY);
+                        Message response = zone.answer(message);
                         
                         if (response != null)
                         {
+                            scopeToInterface(response, ifaceAddress);
                             Header responseHeader = response.getHeader();
                             if ((responseHeader.getCount(Section.ANSWER) > 0) || (responseHeader.getCount(Section.AUTHORITY) > 0) || (responseHeader.getCount(Section.ADDITIONAL) > 0))
                             {
@@ -192,7 +149,7 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
                                 responseHeader.setFlag(Flags.AA);
                                 responseHeader.setFlag(Flags.QR);
                                 // System.out.println("-----> Writing Response <-----\nQuery:\n" + message + "\nResponse:\n" + response);
-                                writeResponse(response);
+                                writeResponse(response, ifaceAddress);
                             } else
                             {
                                 if (mdnsVerbose)
@@ -229,6 +186,19 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
         
         
         public void receiveMessage(final Object id, final Message message)
+        {
+            receiveMessage(null, message);
+        }
+        
+        
+        /**
+         * Caches the records of a response received on the specified interface in that
+         * interface's cache partition.
+         * 
+         * @param ifaceAddress The address of the interface the response was received on, null if unknown
+         * @param message The response
+         */
+        public void receiveMessage(final InetAddress ifaceAddress, final Message message)
         {
             Header header = message.getHeader();
             int rcode = message.getRcode();
@@ -248,7 +218,7 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
                 case Opcode.STATUS:
                     if (header.getFlag(Flags.QR) || header.getFlag(Flags.AA))
                     {
-                        updateCache(MulticastDNSUtils.extractRecords(message, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL), Credibility.NONAUTH_AUTHORITY);
+                        updateCache(getInterfaceCache(ifaceAddress), MulticastDNSUtils.extractRecords(message, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL), Credibility.NONAUTH_AUTHORITY);
                     } else
                     {
                         return;
@@ -269,45 +239,13 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
     }
     
     
-    /** The default EDNS payload size */
-    public static final int DEFAULT_EDNS_PAYLOADSIZE = 1280;
-    
-    protected boolean mdnsVerbose = false;
-    
-    protected boolean cacheVerbose = false;
-    
-    protected ListenerProcessor<ResolverListener> resolverListenerProcessor = new ListenerProcessor<ResolverListener>(ResolverListener.class);
-    
-    protected ResolverListener resolverListenerDispatcher = resolverListenerProcessor.getDispatcher();
-    
-    protected MulticastDNSCache cache;
-    
-    protected Cacher cacher;
-    
-    protected MulticastDNSResponder responder;
-    
-    protected InetAddress multicastAddress;
-    
-    protected int port = MulticastDNSService.DEFAULT_PORT;
-    
-    protected OPTRecord queryOPT;
-    
-    protected TSIG tsig;
-    
-    protected boolean ignoreTruncation = false;
-    
-    protected long timeoutValue = DEFAULT_TIMEOUT;
-    
-    protected long responseWaitTime = DEFAULT_RESPONSE_WAIT_TIME;
-    
-    protected long retryInterval = DEFAULT_RETRY_INTERVAL;
-    
-    protected List<DatagramProcessor> multicastProcessors = new ArrayList<DatagramProcessor>();
-    
-    protected Executors executors = Executors.newInstance();
-    
-    
-    private final CacheMonitor cacheMonitor = new CacheMonitor()
+    /**
+     * Monitors a cache, refreshing authoritative records in accordance to RFC 6762 Section 5.2
+     * and notifying local clients of expired records.
+     * 
+     * @author Steve Posick
+     */
+    protected class CacheRefreshMonitor implements CacheMonitor
     {
         private final List authRecords = new ArrayList();
         
@@ -402,12 +340,14 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
                     {
                         logger.logp(Level.INFO, getClass().getName(), "end", "CacheMonitor Locally Broadcasting Non-Authoritative Records:\n" + m);
                     }
+                    pendingQueries.dispatch(m);
                     resolverListenerProcessor.getDispatcher().receiveMessage(h.getID(), m);
                 }
             } catch (IOException e)
             {
                 IOException ioe = new IOException("Exception \"" + e.getMessage() + "\" occured while refreshing cached entries.");
                 ioe.setStackTrace(e.getStackTrace());
+                pendingQueries.dispatchException("", ioe);
                 resolverListenerDispatcher.handleException("", ioe);
                 
                 if (mdnsVerbose)
@@ -469,7 +409,123 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
             double percentage = (double) expiresIn / (double) ttl;
             return (percentage <= .07f) || ((percentage >= .10f) && (percentage <= .12f)) || ((percentage >= .15f) && (percentage <= .17f)) || ((percentage >= .20f) && (percentage <= .22f));
         }
-    };
+    }
+    
+    
+    /**
+     * Drops the copies of a datagram received by more than one socket. Every socket bound to the
+     * mDNS port may receive every multicast datagram received by the host, whichever interface
+     * joined the group, so a datagram can be received once per processor.
+     * 
+     * @author Steve Posick
+     */
+    protected static class DuplicateFilter
+    {
+        private final Packet[] recent = new Packet[DUPLICATE_FILTER_SIZE];
+        
+        private int next;
+        
+        
+        /**
+         * Returns true if a copy of the packet, from the same source and with the same data, was
+         * received within the duplicate window, otherwise remembers the packet.
+         * 
+         * @param packet The packet
+         * @return true if the packet is a copy of a packet already received
+         */
+        protected synchronized boolean isDuplicate(final Packet packet)
+        {
+            for (Packet other : recent)
+            {
+                if ((other != null) && (Math.abs(packet.getTime() - other.getTime()) <= DUPLICATE_WINDOW) && isCopy(packet, other))
+                {
+                    return true;
+                }
+            }
+            
+            recent[next] = packet;
+            next = (next + 1) % recent.length;
+            return false;
+        }
+        
+        
+        private static boolean isCopy(final Packet packet, final Packet other)
+        {
+            if ((packet.getLength() != other.getLength()) || (packet.getPort() != other.getPort()) || !packet.getAddress().equals(other.getAddress()))
+            {
+                return false;
+            }
+            
+            byte[] data = packet.getData();
+            byte[] otherData = other.getData();
+            for (int index = 0; index < packet.getLength(); index++ )
+            {
+                if (data[packet.getOffset() + index] != otherData[other.getOffset() + index])
+                {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+    }
+    
+    
+    /** The default EDNS payload size */
+    public static final int DEFAULT_EDNS_PAYLOADSIZE = 1280;
+    
+    /** The number of packets remembered to detect the copies of a datagram received by several sockets */
+    protected static final int DUPLICATE_FILTER_SIZE = 32;
+    
+    /** The time, in milliseconds, within which the copies of a datagram are received by several sockets */
+    protected static final long DUPLICATE_WINDOW = 50;
+    
+    protected boolean mdnsVerbose = false;
+    
+    protected boolean cacheVerbose = false;
+    
+    protected ListenerProcessor<ResolverListener> resolverListenerProcessor = new ListenerProcessor<ResolverListener>(ResolverListener.class);
+    
+    protected ResolverListener resolverListenerDispatcher = resolverListenerProcessor.getDispatcher();
+    
+    protected PendingQueryTable pendingQueries = new PendingQueryTable();
+    
+    protected MulticastDNSCache cache;
+    
+    protected Map<InetAddress, MulticastDNSCache> interfaceCaches = new HashMap<InetAddress, MulticastDNSCache>();
+    
+    protected AuthoritativeZone zone = new AuthoritativeZone();
+    
+    protected Cacher cacher;
+    
+    protected MulticastDNSResponder responder;
+    
+    protected InetAddress multicastAddress;
+    
+    protected int port = MulticastDNSService.DEFAULT_PORT;
+    
+    protected OPTRecord queryOPT;
+    
+    protected TSIG tsig;
+    
+    protected boolean ignoreTruncation = false;
+    
+    protected long timeoutValue = DEFAULT_TIMEOUT;
+    
+    protected long responseWaitTime = DEFAULT_RESPONSE_WAIT_TIME;
+    
+    protected long retryInterval = DEFAULT_RETRY_INTERVAL;
+    
+    protected List<DatagramProcessor> multicastProcessors = new ArrayList<DatagramProcessor>();
+    
+    protected DuplicateFilter duplicates = new DuplicateFilter();
+    
+    protected Executors executors = Executors.newInstance();
+    
+    private ScheduledFuture<?> verboseMonitorFuture;
+    
+    
+    private final CacheMonitor cacheMonitor = new CacheRefreshMonitor();
     
     
     public MulticastDNSMulticastOnlyQuerier()
@@ -493,7 +549,7 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
         
         mdnsVerbose = Options.check("mdns_verbose") || Options.check("verbose");
         cacheVerbose = Options.check("mdns_cache_verbose") || Options.check("cache_verbose");
-        executors.scheduleAtFixedRate(new Runnable()
+        verboseMonitorFuture = executors.scheduleAtFixedRate(new Runnable()
         {
             public void run()
             {
@@ -588,16 +644,29 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
             }
         }, getClass().getSimpleName() + " Shutdown Hook"));
         
+        // Records learned on a link are cached in a partition for that link's interface, so
+        // that they are never served or used as known answers on another link.
+        for (DatagramProcessor multicastProcessor : multicastProcessors)
+        {
+            try
+            {
+                MulticastDNSCache interfaceCache = new MulticastDNSCache();
+                interfaceCache.setCacheMonitor(new CacheRefreshMonitor());
+                interfaceCaches.put(multicastProcessor.getInterfaceAddress(), interfaceCache);
+            } catch (Exception e)
+            {
+                logger.log(Level.WARNING, "Could not create cache partition for interface \"" + multicastProcessor.getInterfaceAddress() + "\", using shared cache - " + e.getMessage(), e);
+            }
+        }
+        
+        // The Cacher and Responder are called directly by packetReceived, ahead of the registered listeners.
         cacher = new Cacher();
-        registerListener(cacher);
+        responder = new MulticastDNSResponder();
         
         for (DatagramProcessor multicastProcessor : multicastProcessors)
         {
             multicastProcessor.start();
         }
-        
-        responder = new MulticastDNSResponder();
-        registerListener(responder);
     }
     
     
@@ -617,32 +686,43 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
         
         if (isUpdate)
         {
-            updateCache(MulticastDNSUtils.extractRecords(message, new int[] {Section.ZONE,
-                                                                             Section.PREREQ,
-                                                                             Section.UPDATE,
-                                                                             Section.ADDITIONAL}), Credibility.AUTH_AUTHORITY);
+            Record[] records = MulticastDNSUtils.extractRecords(message, new int[] {Section.UPDATE,
+                                                                                    Section.ADDITIONAL});
+            zone.update(records);
+            
+            // Cached copies of withdrawn records, heard on any interface when the records were announced, are removed
+            List<Record> goodbyes = new ArrayList<Record>();
+            for (Record record : records)
+            {
+                if (record.getTTL() == 0)
+                {
+                    goodbyes.add(record);
+                }
+            }
+            Record[] withdrawn = goodbyes.toArray(new Record[goodbyes.size()]);
+            updateCache(cache, withdrawn, Credibility.NONAUTH_AUTHORITY);
+            for (MulticastDNSCache interfaceCache : interfaceCaches.values())
+            {
+                updateCache(interfaceCache, withdrawn, Credibility.NONAUTH_AUTHORITY);
+            }
             writeMessageToWire(convertUpdateToQueryResponse(message));
         } else if (addKnownAnswers)
         {
-            Message knownAnswer = cache.queryCache(message, Credibility.ANY);
-            for (Integer section : new Integer[] {Section.ANSWER,
-                                                  Section.ADDITIONAL,
-                                                  Section.AUTHORITY})
+            // Known answers are link specific, so each interface gets its own copy of the query.
+            for (DatagramProcessor multicastProcessor : multicastProcessors)
             {
-                Record[] records = knownAnswer.getSectionArray(section);
-                if ((records != null) && (records.length > 0))
+                MulticastDNSCache interfaceCache = getInterfaceCache(multicastProcessor.getInterfaceAddress());
+                Set<Record> knownAnswers = new LinkedHashSet<Record>(Arrays.asList(interfaceCache.queryKnownAnswers(message, Credibility.ANY)));
+                knownAnswers.addAll(Arrays.asList(zone.queryKnownAnswers(message)));
+                
+                // Known answers that do not fit are sent in additional packets, as per RFC 6762 Section 7.2
+                int maxSize = queryOPT != null ? queryOPT.getPayloadSize() - queryOPT.toWire(Section.ADDITIONAL).length : multicastProcessor.getMaxPayloadSize();
+                Message[] queries = MulticastDNSUtils.splitKnownAnswers(message, knownAnswers.toArray(new Record[knownAnswers.size()]), maxSize);
+                for (Message query : queries)
                 {
-                    for (Record record : records)
-                    {
-                        if (!message.findRecord(record))
-                        {
-                            message.addRecord(record, section);
-                        }
-                    }
+                    writeMessageToWire(query, Collections.singletonList(multicastProcessor));
                 }
             }
-            
-            writeMessageToWire(message/* , true */);
         } else
         {
             writeMessageToWire(message/* , true */);
@@ -653,6 +733,13 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
     public void close()
     throws IOException
     {
+        if (verboseMonitorFuture != null)
+        {
+            verboseMonitorFuture.cancel(false);
+        }
+        
+        zone.clear();
+        
         try
         {
             cache.close();
@@ -664,6 +751,20 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
             }
         }
         
+        for (MulticastDNSCache interfaceCache : interfaceCaches.values())
+        {
+            try
+            {
+                interfaceCache.close();
+            } catch (Exception e)
+            {
+                if (mdnsVerbose)
+                {
+                    logger.log(Level.WARNING, "Error closing Cache - " + e.getMessage(), e);
+                }
+            }
+        }
+        
         for (DatagramProcessor multicastProcessor : multicastProcessors)
         {
             try
@@ -678,14 +779,21 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
             }
         }
         
+        pendingQueries.close();
         resolverListenerProcessor.close();
     }
     
     
     /**
-     * {@inheritDoc}
+     * Returns the cache shared by all interfaces, which holds only the records received from
+     * sources that are not on the link of any interface. The records learned on a link are cached
+     * in the partition of the link's interface, queryCache answers from the authoritative zone, the
+     * shared cache and the partitions.
+     * 
+     * @return The shared cache
+     * @deprecated The records learned on a link are not in the shared cache, use queryCache
      */
-    
+    @Deprecated
     public Cache getCache()
     {
         return cache;
@@ -716,6 +824,26 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
     }
     
     
+    /**
+     * Returns the largest DNS message, in bytes, that can be sent on every interface, the smallest
+     * maximum payload size of the multicast processors, or 0 if there are no processors.
+     * 
+     * @return The largest DNS message that can be sent on every interface
+     */
+    public int getMaxPayloadSize()
+    {
+        int maxPayloadSize = 0;
+        for (DatagramProcessor multicastProcessor : multicastProcessors)
+        {
+            if ((maxPayloadSize == 0) || (multicastProcessor.getMaxPayloadSize() < maxPayloadSize))
+            {
+                maxPayloadSize = multicastProcessor.getMaxPayloadSize();
+            }
+        }
+        return maxPayloadSize;
+    }
+    
+    
     /**
      * {@inheritDoc}
      */
@@ -761,6 +889,15 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
             }
         }
         
+        for (MulticastDNSCache interfaceCache : interfaceCaches.values())
+        {
+            CacheMonitor monitor = interfaceCache.getCacheMonitor();
+            if ((monitor != null) && !monitor.isOperational())
+            {
+                return false;
+            }
+        }
+        
         return cacheMonitor.isOperational() && executors.isScheduledExecutorOperational() && executors.isExecutorOperational();
     }
     
@@ -787,10 +924,20 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
                 return;
             }
             
+            if (duplicates.isDuplicate(packet))
+            {
+                return;
+            }
+            
             try
             {
                 Message message = parseMessage(data);
-                resolverListenerDispatcher.receiveMessage(message.getHeader().getID(), message);
+                InetAddress ifaceAddress = getArrivalInterface(packet);
+                Object id = message.getHeader().getID();
+                cacher.receiveMessage(ifaceAddress, message);
+                responder.receiveMessage(ifaceAddress, id, message);
+                pendingQueries.dispatch(message);
+                resolverListenerDispatcher.receiveMessage(id, message);
             } catch (IOException e)
             {
                 logger.log(Level.WARNING, "Error parsing mDNS Packet - " + e.getMessage() + "\nPacket Data [" + Arrays.toString(data) + "]", e);
@@ -799,6 +946,49 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
     }
     
     
+    /**
+     * Returns the address of the interface whose link the packet's source is on, preferring the
+     * processors of the source's address family, or null if the source is not on the link of any
+     * interface. The interface is determined by the source address, not by the socket the packet
+     * was received on, as every socket may receive the datagrams of every link.
+     * 
+     * @param packet The packet
+     * @return The address of the interface the packet arrived on, or null if unknown
+     */
+    protected InetAddress getArrivalInterface(final Packet packet)
+    {
+        InetAddress source = packet.getAddress();
+        DatagramProcessor onLink = null;
+        for (DatagramProcessor multicastProcessor : multicastProcessors)
+        {
+            if (multicastProcessor.isOnLink(source))
+            {
+                if (multicastProcessor.getInterfaceAddress().getAddress().length == source.getAddress().length)
+                {
+                    return multicastProcessor.getInterfaceAddress();
+                } else if (onLink == null)
+                {
+                    onLink = multicastProcessor;
+                }
+            }
+        }
+        
+        return onLink != null ? onLink.getInterfaceAddress() : null;
+    }
+    
+    
+    public Message queryCache(final Message query)
+    {
+        return queryCache(query, Credibility.ANY);
+    }
+    
+    
+    public Message queryAuthoritative(final Message query)
+    {
+        return zone.answer(query);
+    }
+    
+    
     public ResolverListener registerListener(final ResolverListener listener)
     {
         return resolverListenerProcessor.registerListener(listener);
@@ -821,31 +1011,31 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
         final int opcode = query.getHeader().getOpcode();
         
         // If all answers for the query are cached, return immediately. Otherwise,
-        // Broadcast the query, waiting minimum response wait time, re-broadcasting the query
-        // periodically to ensure that all mDNS Responders on the network have a chance to respond
-        // (dropped frames/packets, etc...), and then return the answers received from cache.
+        // Broadcast the query, waiting until all questions are uniquely answered, responses stop
+        // arriving or the response wait time elapses, and then return the answers received from cache.
         switch (opcode)
         {
             case Opcode.QUERY:
             case Opcode.IQUERY:
-                Message message = cache.queryCache(query, Credibility.ANY);
-                if (MulticastDNSUtils.answersAll(query, message))
+                Message message = queryCache(query, Credibility.ANY);
+                if (MulticastDNSUtils.answersEveryQuestion(query, message))
                 {
                     return message;
                 } else
                 {
                     final List results = new ArrayList();
                     final List exceptions = new ArrayList();
+                    final Wait.Signal received = new Wait.Signal();
                     
-                    sendAsync(query, new ResolverListener()
+                    PendingQueryTable.PendingQuery pendingQuery = pendingQueries.add(query.getHeader().getID(), query, new ResolverListener()
                     {
                         public void handleException(final Object id, final Exception e)
                         {
                             synchronized (results)
                             {
                                 exceptions.add(e);
-                                results.notifyAll();
                             }
+                            received.signal();
                         }
                         
                         
@@ -854,12 +1044,32 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
                             synchronized (results)
                             {
                                 results.add(m);
-                                results.notifyAll();
                             }
+                            received.signal();
                         }
-                    });
+                    }, Wait.responseWaitTime(), TimeUnit.MILLISECONDS, false);
+                    
+                    try
+                    {
+                        broadcast(query, false);
+                    } catch (IOException e)
+                    {
+                        pendingQuery.cancel();
+                        throw e;
+                    }
                     
-                    Wait.forResponse(results);
+                    // Finish as soon as every question has a unique answer, otherwise once responses stop arriving
+                    Wait.forResponse(received, new Wait.Completion()
+                    {
+                        public boolean isComplete()
+                        {
+                            synchronized (results)
+                            {
+                                return (exceptions.size() > 0) || MulticastDNSUtils.answersEveryQuestionUniquely(query, (Message[]) results.toArray(new Message[results.size()]));
+                            }
+                        }
+                    });
+                    pendingQuery.cancel();
                     
                     if (exceptions.size() > 0)
                     {
@@ -877,7 +1087,7 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
                 throw new IOException("Don't know what to do with Opcode: " + Opcode.string(opcode) + " queries.");
         }
         
-        return cache.queryCache(query, Credibility.ANY);
+        return queryCache(query, Credibility.ANY);
     }
     
     
@@ -890,16 +1100,15 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
         final Message query = (Message) m.clone();
         final Object id = query.getHeader().getID();
         final int opcode = query.getHeader().getOpcode();
-        final ListenerWrapper wrapper = new ListenerWrapper(id, query, listener);
-        registerListener(wrapper);
         
         switch (opcode)
         {
             case Opcode.QUERY:
             case Opcode.IQUERY:
+                final PendingQueryTable.PendingQuery pendingQuery = pendingQueries.add(id, query, listener, Wait.responseWaitTime(), TimeUnit.MILLISECONDS);
                 try
                 {
-                    final Message message = cache.queryCache(query, Credibility.ANY);
+                    final Message message = queryCache(query, Credibility.ANY);
                     if ((message != null) && (message.getRcode() == Rcode.NOERROR) && MulticastDNSUtils.answersAll(query, message))
                     {
                         executors.execute(new Runnable()
@@ -916,21 +1125,12 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
                         broadcast(query, false);
                     } catch (IOException e)
                     {
-                        unregisterListener(wrapper);
+                        pendingQuery.cancel();
                         listener.handleException(id, e);
                     }
-                    
-                    int wait = Options.intValue("mdns_resolve_wait");
-                    long timeOut = System.currentTimeMillis() + (wait > 0 ? wait : Querier.DEFAULT_RESPONSE_WAIT_TIME);
-                    executors.schedule(new Runnable()
-                    {
-                        public void run()
-                        {
-                            unregisterListener(wrapper);
-                        }
-                    }, timeOut, TimeUnit.MILLISECONDS);
                 } catch (Exception e)
                 {
+                    pendingQuery.cancel();
                     listener.handleException(id, e);
                 }
                 break;
@@ -941,13 +1141,10 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
                 } catch (Exception e)
                 {
                     listener.handleException(id, e);
-                    unregisterListener(wrapper);
-                    break;
                 }
                 break;
             default:
                 listener.handleException(id, new IOException("Don't know what to do with Opcode: " + Opcode.string(opcode) + " queries."));
-                unregisterListener(wrapper);
                 break;
         }
         
@@ -955,6 +1152,115 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
     }
     
     
+    /**
+     * {@inheritDoc}
+     */
+    public ListenableFuture<Message> sendAsync(final Message request)
+    {
+        final ListenableFuture<Message> future = new ListenableFuture<Message>();
+        if (request == null)
+        {
+            future.setException(new IOException("Query is null"));
+            return future;
+        }
+        
+        final Message query = (Message) request.clone();
+        final Object id = query.getHeader().getID();
+        final int opcode = query.getHeader().getOpcode();
+        
+        switch (opcode)
+        {
+            case Opcode.QUERY:
+            case Opcode.IQUERY:
+                Message message = queryCache(query, Credibility.ANY);
+                if (MulticastDNSUtils.answersEveryQuestion(query, message))
+                {
+                    future.set(message);
+                    break;
+                }
+                
+                // Responses are cached before being dispatched. Complete as soon as every question has
+                // a unique answer, otherwise once responses stop arriving, with the answers from cache.
+                final long quietTime = Wait.quietTime();
+                final List<Message> responses = new ArrayList<Message>();
+                final ScheduledFuture<?>[] quietTimer = new ScheduledFuture<?>[1];
+                final Runnable completion = new Runnable()
+                {
+                    public void run()
+                    {
+                        future.set(queryCache(query, Credibility.ANY));
+                    }
+                };
+                final PendingQueryTable.PendingQuery pendingQuery = pendingQueries.add(id, query, new ResolverListener()
+                {
+                    public void handleException(final Object id, final Exception e)
+                    {
+                        future.setException(e);
+                    }
+                    
+                    
+                    public void receiveMessage(final Object id, final Message m)
+                    {
+                        synchronized (responses)
+                        {
+                            responses.add(m);
+                            if (!MulticastDNSUtils.answersEveryQuestionUniquely(query, responses.toArray(new Message[responses.size()])))
+                            {
+                                if (quietTimer[0] != null)
+                                {
+                                    quietTimer[0].cancel(false);
+                                }
+                                quietTimer[0] = future.isDone() ? null : executors.schedule(completion, quietTime, TimeUnit.MILLISECONDS);
+                                return;
+                            }
+                        }
+                        completion.run();
+                    }
+                }, Wait.responseWaitTime(), TimeUnit.MILLISECONDS, false);
+                final ScheduledFuture<?> deadline = executors.schedule(completion, Wait.responseWaitTime(), TimeUnit.MILLISECONDS);
+                future.addListener(new FutureListener<Message>()
+                {
+                    public void operationComplete(final ListenableFuture<Message> f)
+                    {
+                        pendingQuery.cancel();
+                        deadline.cancel(false);
+                        synchronized (responses)
+                        {
+                            if (quietTimer[0] != null)
+                            {
+                                quietTimer[0].cancel(false);
+                            }
+                        }
+                    }
+                });
+                
+                try
+                {
+                    broadcast(query, false);
+                } catch (IOException e)
+                {
+                    future.setException(e);
+                }
+                break;
+            case Opcode.UPDATE:
+                try
+                {
+                    broadcast(query, false);
+                    future.set(queryCache(query, Credibility.ANY));
+                } catch (IOException e)
+                {
+                    future.setException(e);
+                }
+                break;
+            default:
+                future.setException(new IOException("Don't know what to do with Opcode: " + Opcode.string(opcode) + " queries."));
+                break;
+        }
+        
+        return future;
+    }
+    
+    
     /**
      * {@inheritDoc}
      */
@@ -1100,10 +1406,44 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
     
     public ResolverListener unregisterListener(final ResolverListener listener)
     {
+        pendingQueries.remove(listener);
         return resolverListenerProcessor.unregisterListener(listener);
     }
     
     
+    /**
+     * Adds the answer, authority and additional records from the source message to the
+     * destination message, skipping records already present.
+     * 
+     * @param destination The message to add records to
+     * @param source The message containing the records
+     */
+    protected void addRecords(final Message destination, final Message source)
+    {
+        if (source == null)
+        {
+            return;
+        }
+        
+        for (int section : new int[] {Section.ANSWER,
+                                      Section.ADDITIONAL,
+                                      Section.AUTHORITY})
+        {
+            Record[] records = source.getSectionArray(section);
+            if ((records != null) && (records.length > 0))
+            {
+                for (Record record : records)
+                {
+                    if (!destination.findRecord(record))
+                    {
+                        destination.addRecord(record, section);
+                    }
+                }
+            }
+        }
+    }
+    
+    
     protected void applyEDNS(final Message query)
     {
         if ((queryOPT == null) || (query.getOPT() != null))
@@ -1114,6 +1454,123 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
     }
     
     
+    /**
+     * Returns the cache partition for the specified interface, or the shared cache if the
+     * interface is unknown or has no partition.
+     * 
+     * @param ifaceAddress The interface address
+     * @return The cache partition for the specified interface
+     */
+    protected MulticastDNSCache getInterfaceCache(final InetAddress ifaceAddress)
+    {
+        MulticastDNSCache interfaceCache = ifaceAddress != null ? interfaceCaches.get(ifaceAddress) : null;
+        return interfaceCache != null ? interfaceCache : cache;
+    }
+    
+    
+    /**
+     * Returns the multicast processor bound to the specified interface.
+     * 
+     * @param ifaceAddress The interface address
+     * @return The multicast processor bound to the specified interface, or null if not found
+     */
+    protected DatagramProcessor getMulticastProcessor(final InetAddress ifaceAddress)
+    {
+        if (ifaceAddress != null)
+        {
+            for (DatagramProcessor multicastProcessor : multicastProcessors)
+            {
+                if (ifaceAddress.equals(multicastProcessor.getInterfaceAddress()))
+                {
+                    return multicastProcessor;
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    
+    /**
+     * Queries the authoritative zone, the shared cache and all interface cache partitions, merging
+     * the results. Used to answer local clients, which may use records learned on any link and the
+     * records registered by this host.
+     * 
+     * @param query The query
+     * @param credibility The minimum credibility of the cached records
+     * @return The merged response
+     */
+    protected Message queryCache(final Message query, final int credibility)
+    {
+        Message message = cache.queryCache(query, credibility);
+        List<Message> partials = new ArrayList<Message>();
+        partials.add(zone.answer(query));
+        for (MulticastDNSCache interfaceCache : interfaceCaches.values())
+        {
+            if (interfaceCache != cache)
+            {
+                partials.add(interfaceCache.queryCache(query, credibility));
+            }
+        }
+        
+        for (Message partial : partials)
+        {
+            if (partial.getRcode() == Rcode.NOERROR)
+            {
+                Header header = message.getHeader();
+                header.setRcode(Rcode.NOERROR);
+                header.setOpcode(Opcode.QUERY);
+                header.setFlag(Flags.QR);
+                addRecords(message, partial);
+            }
+        }
+        
+        return message;
+    }
+    
+    
+    /**
+     * Removes link-local address records that do not belong to the specified interface from a
+     * response, so that link-local addresses do not leak between links.
+     * 
+     * @param response The response
+     * @param ifaceAddress The interface the response will be sent on, null for all interfaces
+     */
+    protected void scopeToInterface(final Message response, final InetAddress ifaceAddress)
+    {
+        DatagramProcessor multicastProcessor = getMulticastProcessor(ifaceAddress);
+        NetworkInterface netIface = multicastProcessor != null ? multicastProcessor.getNetworkInterface() : null;
+        if (netIface == null)
+        {
+            return;
+        }
+        
+        List<InetAddress> ifaceAddresses = Collections.list(netIface.getInetAddresses());
+        for (int section : new int[] {Section.ANSWER,
+                                      Section.ADDITIONAL,
+                                      Section.AUTHORITY})
+        {
+            Record[] records = response.getSectionArray(section);
+            for (Record record : records)
+            {
+                InetAddress address = null;
+                if (record instanceof ARecord)
+                {
+                    address = ((ARecord) record).getAddress();
+                } else if (record instanceof AAAARecord)
+                {
+                    address = ((AAAARecord) record).getAddress();
+                }
+                
+                if ((address != null) && address.isLinkLocalAddress() && !ifaceAddresses.contains(address))
+                {
+                    response.removeRecord(record, section);
+                }
+            }
+        }
+    }
+    
+    
     protected Message convertUpdateToQueryResponse(final Message update)
     {
         Message m = new Message();
@@ -1203,6 +1660,13 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
     
     protected void writeMessageToWire(final Message message/* , boolean remember */)
     throws IOException
+    {
+        writeMessageToWire(message, multicastProcessors);
+    }
+    
+    
+    protected void writeMessageToWire(final Message message, final List<DatagramProcessor> processors)
+    throws IOException
     {
         Header header = message.getHeader();
         header.setID(0);
@@ -1212,8 +1676,13 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
             tsig.apply(message, null);
         }
         
-        byte[] out = message.toWire(Message.MAXLENGTH);
-        for (DatagramProcessor multicastProcessor : multicastProcessors)
+        // Responses answered from the authoritative zone are assembled from pre-encoded records
+        byte[] out = tsig == null ? zone.toWire(message) : null;
+        if (out == null)
+        {
+            out = message.toWire(Message.MAXLENGTH);
+        }
+        for (DatagramProcessor multicastProcessor : processors)
         {
             int maxUDPSize;
             OPTRecord opt = message.getOPT();
@@ -1236,7 +1705,7 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
                     Message[] messages = MulticastDNSUtils.splitMessage(message);
                     for (int index = 0; index < messages.length; index++ )
                     {
-                        writeMessageToWire(messages[index]/* , remember */);
+                        writeMessageToWire(messages[index], processors);
                     }
                     return;
                 }
@@ -1247,6 +1716,7 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
                 multicastProcessor.send(out/* , remember */);
             } catch (Exception e)
             {
+                pendingQueries.dispatchException(message.getHeader().getID(), e);
                 resolverListenerDispatcher.handleException(message.getHeader().getID(), e);
             }
         }
@@ -1258,6 +1728,21 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
      */
     protected void writeResponse(final Message message)
     throws IOException
+    {
+        writeResponse(message, null);
+    }
+    
+    
+    /**
+     * Writes a response to the interface the query was received on, or to all interfaces if the
+     * interface is not specified or unknown.
+     * 
+     * @param message The response
+     * @param ifaceAddress The interface the query was received on
+     * @throws IOException If an error occurs writing the response
+     */
+    protected void writeResponse(final Message message, final InetAddress ifaceAddress)
+    throws IOException
     {
         if (mdnsVerbose)
         {
@@ -1270,11 +1755,18 @@ public class MulticastDNSMulticastOnlyQuerier implements Querier, PacketListener
         header.setFlag(Flags.QR);
         header.setRcode(0);
         
-        writeMessageToWire(message/* , true */);
+        DatagramProcessor multicastProcessor = getMulticastProcessor(ifaceAddress);
+        if (multicastProcessor != null)
+        {
+            writeMessageToWire(message, Collections.singletonList(multicastProcessor));
+        } else
+        {
+            writeMessageToWire(message/* , true */);
+        }
     }
     
     
-    private void updateCache(final Record[] records, final int credibility)
+    private void updateCache(final MulticastDNSCache cache, final Record[] records, final int credibility)
     {
         if ((records != null) && (records.length > 0))
         {
@@ -5,6 +5,8 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,8 +25,12 @@ import org.xbill.DNS.ResolverListener;
 import org.xbill.DNS.Section;
 import org.xbill.DNS.TSIG;
 
+import net.posick.mDNS.utils.Executors;
+import net.posick.mDNS.utils.ListenableFuture;
+import net.posick.mDNS.utils.ListenableFuture.FutureListener;
 import net.posick.mDNS.utils.ListenerProcessor;
 import net.posick.mDNS.utils.Misc;
+import net.posick.mDNS.utils.Wait;
 
 /**
  * The MulticastDNSQuerier is a responder that integrates multicast and unicast DNS in accordance to the
@@ -34,7 +40,7 @@ import net.posick.mDNS.utils.Misc;
  * @author posicks
  */
 @SuppressWarnings({"rawtypes", "unchecked"})
-public class MulticastDNSQuerier implements Querier
+public class MulticastDNSQuerier implements AsyncQuerier, CachingQuerier
 {
     private static final Logger logger = Misc.getLogger(MulticastDNSQuerier.class, Options.check("mds_verbose") || Options.check("verbose"));
     
@@ -48,6 +54,8 @@ public class MulticastDNSQuerier implements Querier
         
         private final LinkedList responses = new LinkedList();
         
+        private final Wait.Signal received = new Wait.Signal();
+        
         private int requestsSent;
         
         private final List requestIDs = new ArrayList();
@@ -67,61 +75,9 @@ public class MulticastDNSQuerier implements Querier
         public Message getResponse(final int timeout)
         throws IOException
         {
-            Message response = (Message) query.clone();
-            Header header = response.getHeader();
             try
             {
-                Message[] messages = getResults(true, timeout);
-                
-                boolean found = false;
-                if ((messages != null) && (messages.length > 0))
-                {
-                    header.setRcode(Rcode.NOERROR);
-                    header.setOpcode(Opcode.QUERY);
-                    header.setFlag(Flags.QR);
-                    
-                    for (Message message : messages)
-                    {
-                        Header h = message.getHeader();
-                        if (h.getRcode() == Rcode.NOERROR)
-                        {
-                            if (h.getFlag(Flags.AA))
-                            {
-                                header.setFlag(Flags.AA);
-                            }
-                            
-                            if (h.getFlag(Flags.AD))
-                            {
-                                header.setFlag(Flags.AD);
-                            }
-                            
-                            for (int section : new int[] {Section.ANSWER,
-                                                          Section.ADDITIONAL,
-                                                          Section.AUTHORITY})
-                            {
-                                Record[] records = message.getSectionArray(section);
-                                if ((records != null) && (records.length > 0))
-                                {
-                                    for (Record record : records)
-                                    {
-                                        if (!response.findRecord(record))
-                                        {
-                                            response.addRecord(record, section);
-                                            found = true;
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-                
-                if (!found)
-                {
-                    header.setRcode(Rcode.NXDOMAIN);
-                }
-                
-                return response;
+                return merge(query, getResults(true, timeout));
             } catch (Exception e)
             {
                 if (e instanceof IOException)
@@ -144,21 +100,10 @@ public class MulticastDNSQuerier implements Querier
             {
                 long now = System.currentTimeMillis();
                 long timeout = now + timeoutValue;
+                int count = received.count();
                 while (!hasResults() && ((now = System.currentTimeMillis()) < timeout))
                 {
-                    synchronized (responses)
-                    {
-                        if (!hasResults())
-                        {
-                            try
-                            {
-                                responses.wait(timeout - now);
-                            } catch (InterruptedException e)
-                            {
-                                // ignore
-                            }
-                        }
-                    }
+                    count = received.await(count, timeout - now);
                 }
             }
             
@@ -200,8 +145,8 @@ public class MulticastDNSQuerier implements Querier
                 synchronized (responses)
                 {
                     responses.add(new Response(id, exception));
-                    responses.notifyAll();
                 }
+                received.signal();
                 
                 if (listener != null)
                 {
@@ -248,8 +193,8 @@ public class MulticastDNSQuerier implements Querier
                 synchronized (responses)
                 {
                     responses.add(new Response(this, message));
-                    responses.notifyAll();
                 }
+                received.signal();
                 
                 if (listener != null)
                 {
@@ -593,6 +538,27 @@ public class MulticastDNSQuerier implements Querier
     }
     
     
+    /**
+     * Returns the largest DNS message, in bytes, that can be sent on every interface, the smallest
+     * maximum payload size of the multicast responders, or 0 if none is known.
+     * 
+     * @return The largest DNS message that can be sent on every interface
+     */
+    public int getMaxPayloadSize()
+    {
+        int maxPayloadSize = 0;
+        for (Querier querier : multicastResponders)
+        {
+            int size = MulticastDNSLookupBase.getMaxPayloadSize(querier, 0);
+            if ((size > 0) && ((maxPayloadSize == 0) || (size < maxPayloadSize)))
+            {
+                maxPayloadSize = size;
+            }
+        }
+        return maxPayloadSize;
+    }
+    
+    
     public Resolver[] getUnicastResolvers()
     {
         return unicastResolvers;
@@ -634,6 +600,30 @@ public class MulticastDNSQuerier implements Querier
     }
     
     
+    public Message queryCache(final Message query)
+    {
+        List<Message> responses = new ArrayList<Message>();
+        for (Querier querier : multicastResponders)
+        {
+            responses.add(MulticastDNSLookupBase.queryCache(querier, query));
+        }
+        
+        return merge(query, responses.toArray(new Message[responses.size()]));
+    }
+    
+    
+    public Message queryAuthoritative(final Message query)
+    {
+        List<Message> responses = new ArrayList<Message>();
+        for (Querier querier : multicastResponders)
+        {
+            responses.add(MulticastDNSLookupBase.queryAuthoritative(querier, query));
+        }
+        
+        return merge(query, responses.toArray(new Message[responses.size()]));
+    }
+    
+    
     public ResolverListener registerListener(final ResolverListener listener)
     {
         for (Querier querier : multicastResponders)
@@ -668,6 +658,120 @@ public class MulticastDNSQuerier implements Querier
     }
     
     
+    /**
+     * {@inheritDoc}
+     */
+    public ListenableFuture<Message> sendAsync(final Message query)
+    {
+        final ListenableFuture<Message> future = new ListenableFuture<Message>();
+        final List<ListenableFuture<Message>> requests = new ArrayList<ListenableFuture<Message>>();
+        
+        if (MulticastDNSService.hasUnicastDomains(query) && (unicastResolvers != null))
+        {
+            for (Resolver resolver : unicastResolvers)
+            {
+                final ListenableFuture<Message> request = new ListenableFuture<Message>();
+                resolver.sendAsync(query, new ResolverListener()
+                {
+                    public void handleException(final Object id, final Exception e)
+                    {
+                        request.setException(e);
+                    }
+                    
+                    
+                    public void receiveMessage(final Object id, final Message m)
+                    {
+                        request.set(m);
+                    }
+                });
+                requests.add(request);
+            }
+        }
+        
+        if (MulticastDNSService.hasMulticastDomains(query) && (multicastResponders != null))
+        {
+            for (Querier responder : multicastResponders)
+            {
+                requests.add(MulticastDNSLookupBase.sendAsync(responder, query));
+            }
+        }
+        
+        if (requests.isEmpty())
+        {
+            future.setException(new IOException("Could not execute query, no Unicast Resolvers or Multicast Queriers were available"));
+            return future;
+        }
+        
+        // Complete as soon as the merged responses answer all questions, or once all requests are done
+        final List<Message> messages = new ArrayList<Message>();
+        final List<Throwable> exceptions = new ArrayList<Throwable>();
+        final int[] remaining = new int[] {requests.size()};
+        FutureListener<Message> requestListener = new FutureListener<Message>()
+        {
+            public void operationComplete(final ListenableFuture<Message> request)
+            {
+                Message response;
+                Throwable failure;
+                synchronized (messages)
+                {
+                    if (request.isSuccess())
+                    {
+                        messages.add(request.getNow(null));
+                    } else if (!request.isCancelled())
+                    {
+                        exceptions.add(request.getCause());
+                    }
+                    remaining[0]-- ;
+                    
+                    response = merge(query, messages.toArray(new Message[messages.size()]));
+                    if ((remaining[0] > 0) && !MulticastDNSUtils.answersEveryQuestion(query, response))
+                    {
+                        return;
+                    }
+                    failure = messages.isEmpty() && !exceptions.isEmpty() ? exceptions.get(0) : null;
+                }
+                
+                if (failure != null)
+                {
+                    future.setException(failure);
+                } else
+                {
+                    future.set(response);
+                }
+            }
+        };
+        
+        final ScheduledFuture<?> deadline = Executors.newInstance().schedule(new Runnable()
+        {
+            public void run()
+            {
+                synchronized (messages)
+                {
+                    future.set(merge(query, messages.toArray(new Message[messages.size()])));
+                }
+            }
+        }, DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+        future.addListener(new FutureListener<Message>()
+        {
+            public void operationComplete(final ListenableFuture<Message> f)
+            {
+                deadline.cancel(false);
+                for (ListenableFuture<Message> request : requests)
+                {
+                    request.cancel(false);
+                }
+            }
+        });
+        
+        for (ListenableFuture<Message> request : requests)
+        {
+            request.addListener(requestListener);
+        }
+        
+        return future;
+    }
+    
+    
     /**
      * {@inheritDoc}
      */
@@ -827,4 +931,68 @@ public class MulticastDNSQuerier implements Querier
         
         return listener;
     }
+    
+    
+    /**
+     * Merges the records of the successful responses into a single response to the query. The
+     * response code is NXDOMAIN if no records were found.
+     * 
+     * @param query The query
+     * @param messages The responses, may be null
+     * @return The merged response
+     */
+    protected static Message merge(final Message query, final Message[] messages)
+    {
+        Message response = (Message) query.clone();
+        Header header = response.getHeader();
+        boolean found = false;
+        if ((messages != null) && (messages.length > 0))
+        {
+            header.setRcode(Rcode.NOERROR);
+            header.setOpcode(Opcode.QUERY);
+            header.setFlag(Flags.QR);
+            
+            for (Message message : messages)
+            {
+                Header h = message.getHeader();
+                if (h.getRcode() == Rcode.NOERROR)
+                {
+                    if (h.getFlag(Flags.AA))
+                    {
+                        header.setFlag(Flags.AA);
+                    }
+                    
+                    if (h.getFlag(Flags.AD))
+                    {
+                        header.setFlag(Flags.AD);
+                    }
+                    
+                    for (int section : new int[] {Section.ANSWER,
+                                                  Section.ADDITIONAL,
+                                                  Section.AUTHORITY})
+                    {
+                        Record[] records = message.getSectionArray(section);
+                        if ((records != null) && (records.length > 0))
+                        {
+                            for (Record record : records)
+                            {
+                                if (!response.findRecord(record))
+                                {
+                                    response.addRecord(record, section);
+                                    found = true;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        
+        if (!found)
+        {
+            header.setRcode(Rcode.NXDOMAIN);
+        }
+        
+        return response;
+    }
 }
@@ -1,42 +1,57 @@
 package net.posick.mDNS;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.xbill.DNS.AAAARecord;
 import org.xbill.DNS.ARecord;
 import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.MulticastDNSUtils;
 import org.xbill.DNS.NSECRecord;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.Options;
 import org.xbill.DNS.PTRRecord;
-import org.xbill.DNS.Rcode;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.ResolverListener;
 import org.xbill.DNS.SRVRecord;
 import org.xbill.DNS.Section;
 import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 import org.xbill.DNS.Update;
 
 import net.posick.mDNS.Lookup.Domain;
 import net.posick.mDNS.utils.Executors;
+import net.posick.mDNS.utils.ListenableFuture;
+import net.posick.mDNS.utils.ListenableFuture.FutureListener;
 import net.posick.mDNS.utils.ListenerProcessor;
 import net.posick.mDNS.utils.Misc;
 
@@ -45,16 +60,365 @@ public class MulticastDNSService extends MulticastDNSLookupBase
 {
     private static final Logger logger = Misc.getLogger(MulticastDNSService.class, Options.check("mdns_verbose") || Options.check("verbose"));
     
+    public static final int DEFAULT_PASSIVE_EXPIRY_INTERVAL = 10000;
+    
+    public static final int PROBE_COUNT = 3;
+    
+    public static final int PROBE_INTERVAL = 250;
+    
+    public static final int MAX_PROBE_CONFLICTS = 15;
+    
+    protected static final int MAX_PACKET_SIZE = 1400;
+    
+    /**
+     * Orders records by class, ignoring the cache flush bit, type and rdata, compared as unsigned
+     * bytes [RFC 6762 Section 8.2.1].
+     */
+    protected static final Comparator<Record> PROBE_RECORD_ORDER = new Comparator<Record>()
+    {
+        public int compare(final Record r1, final Record r2)
+        {
+            int result = (r1.getDClass() & 0x7FFF) - (r2.getDClass() & 0x7FFF);
+            if (result == 0)
+            {
+                result = r1.getType() - r2.getType();
+            }
+            if (result == 0)
+            {
+                byte[] d1 = r1.rdataToWireCanonical();
+                byte[] d2 = r2.rdataToWireCanonical();
+                for (int index = 0; (result == 0) && (index < d1.length) && (index < d2.length); index++ )
+                {
+                    result = (d1[index] & 0xFF) - (d2[index] & 0xFF);
+                }
+                if (result == 0)
+                {
+                    result = d1.length - d2.length;
+                }
+            }
+            
+            return result;
+        }
+    };
+    
+    static
+    {
+        // The service discovery listeners are dispatched by a typed, rather than reflective, dispatcher
+        DNSSDListenerDispatcher.register();
+    }
+    
+    /**
+     * The Prober verifies that the names of the services being registered are unique on the
+     * network before they are announced [RFC 6762 Section 8.1]. All services being probed are
+     * probed together, the questions of all probes and their proposed records are sent in the
+     * same packet, three times, 250 milliseconds apart. A service whose probes are unanswered
+     * for 250 milliseconds after the third probe is unique.
+     * 
+     * When a response holds a different SRV record for the name, the service is renamed, for
+     * example "Printer" becomes "Printer (2)", and probing starts again. When another host probes
+     * for the same name simultaneously, the host whose proposed records are lexicographically
+     * later wins, the other defers for one second and probes again [RFC 6762 Section 8.2].
+     * 
+     * @author Steve Posick
+     */
+    protected class Prober implements ResolverListener, Runnable
+    {
+        /**
+         * A service being probed.
+         */
+        protected class Probe
+        {
+            private final ListenableFuture<ServiceInstance> future = new ListenableFuture<ServiceInstance>();
+            
+            private ServiceInstance service;
+            
+            private Name name;
+            
+            private Record[] records;
+            
+            private SRVRecord srv;
+            
+            private int sent;
+            
+            private int conflicts;
+            
+            private long deferredUntil;
+            
+            
+            protected Probe(final ServiceInstance service)
+            {
+                setService(service);
+            }
+            
+            
+            /**
+             * Renames the service after a conflict, restarting the probes.
+             */
+            protected void conflict()
+            {
+                conflicts++ ;
+                if (Options.check("mdns_no_auto_rename") || (conflicts > MAX_PROBE_CONFLICTS))
+                {
+                    future.setException(new ServiceRegistrationException(ServiceRegistrationException.REASON.SERVICE_NAME_ALREADY_EXISTS, "A service with name \"" + service.getName() + "\" already exists."));
+                    return;
+                }
+                
+                try
+                {
+                    ServiceName newName = nextServiceName(service.getName());
+                    if (logger.isLoggable(Level.FINE))
+                    {
+                        logger.logp(Level.FINE, getClass().getName(), "conflict", "Service name \"" + service.getName() + "\" is in use, probing for \"" + newName + "\".");
+                    }
+                    setService(new ServiceInstance(newName, service.getPriority(), service.getWeight(), service.getPort(), service.getHost(), service.getAddresses(), service.getText()));
+                } catch (TextParseException e)
+                {
+                    future.setException(new ServiceRegistrationException(ServiceRegistrationException.REASON.SERVICE_NAME_ALREADY_EXISTS, e.getMessage(), e));
+                }
+            }
+            
+            
+            protected void defer(final long delay)
+            {
+                sent = 0;
+                deferredUntil = System.currentTimeMillis() + delay;
+            }
+            
+            
+            private void setService(final ServiceInstance service)
+            {
+                this.service = service;
+                this.name = service.getName().getServiceRRName();
+                this.sent = 0;
+                this.deferredUntil = 0;
+                
+                List<Record> proposed = new ArrayList<Record>();
+                srv = new SRVRecord(name, DClass.IN, DEFAULT_SRV_TTL, service.getPriority(), service.getWeight(), service.getPort(), service.getHost());
+                proposed.add(srv);
+                if (service.getText() != null)
+                {
+                    proposed.add(new TXTRecord(name, DClass.IN, DEFAULT_TXT_TTL, Arrays.asList(service.getText())));
+                }
+                records = proposed.toArray(new Record[proposed.size()]);
+                Arrays.sort(records, PROBE_RECORD_ORDER);
+            }
+        }
+        
+        private final List<Probe> probes = new ArrayList<Probe>();
+        
+        private ScheduledFuture<?> future;
+        
+        
+        /**
+         * Stops probing, failing the probes in progress.
+         */
+        public synchronized void close()
+        {
+            for (Probe probe : probes)
+            {
+                probe.future.setException(new ServiceRegistrationException(ServiceRegistrationException.REASON.UNKNOWN, "Probing was stopped before the service \"" + probe.service.getName() + "\" was registered."));
+            }
+            probes.clear();
+            
+            if (future != null)
+            {
+                future.cancel(false);
+                future = null;
+                querier.unregisterListener(this);
+            }
+        }
+        
+        
+        public void handleException(final Object id, final Exception e)
+        {
+            // Probing continues, unanswered probes succeed.
+        }
+        
+        
+        /**
+         * Probes the service name, returning a future that completes with the service, renamed if
+         * the name was in use.
+         * 
+         * @param service The service
+         * @return The future probed service
+         */
+        protected ListenableFuture<ServiceInstance> probe(final ServiceInstance service)
+        {
+            Probe probe = new Probe(service);
+            synchronized (this)
+            {
+                probes.add(probe);
+                if (future == null)
+                {
+                    querier.registerListener(this);
+                    // The first probe is delayed by up to 250ms, to desynchronize simultaneously booting hosts [RFC 6762 Section 8.1].
+                    future = executors.scheduleAtFixedRate(this, (long) (Math.random() * PROBE_INTERVAL), PROBE_INTERVAL, TimeUnit.MILLISECONDS);
+                }
+            }
+            
+            return probe.future;
+        }
+        
+        
+        public void receiveMessage(final Object id, final Message message)
+        {
+            if (message == null)
+            {
+                return;
+            }
+            
+            boolean isResponse = message.getHeader().getFlag(Flags.QR);
+            synchronized (this)
+            {
+                if (probes.isEmpty())
+                {
+                    return;
+                }
+                
+                for (Probe probe : probes)
+                {
+                    if (probe.future.isDone())
+                    {
+                        continue;
+                    }
+                    
+                    if (isResponse)
+                    {
+                        for (Record record : MulticastDNSUtils.extractRecords(message, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL))
+                        {
+                            if ((record.getType() == Type.SRV) && (record.getTTL() > 0) && probe.name.equals(record.getName()) && (PROBE_RECORD_ORDER.compare(probe.srv, record) != 0))
+                            {
+                                probe.conflict();
+                                break;
+                            }
+                        }
+                    } else if (isProbing(message, probe.name))
+                    {
+                        List<Record> theirs = new ArrayList<Record>();
+                        for (Record record : MulticastDNSUtils.extractRecords(message, Section.AUTHORITY))
+                        {
+                            if (probe.name.equals(record.getName()))
+                            {
+                                theirs.add(record);
+                            }
+                        }
+                        
+                        Record[] theirRecords = theirs.toArray(new Record[theirs.size()]);
+                        Arrays.sort(theirRecords, PROBE_RECORD_ORDER);
+                        
+                        // Identical records are our own probe, lexicographically later records win.
+                        if (compareProbeRecords(probe.records, theirRecords) < 0)
+                        {
+                            if (logger.isLoggable(Level.FINE))
+                            {
+                                logger.logp(Level.FINE, getClass().getName(), "receiveMessage", "Lost simultaneous probe tiebreak for \"" + probe.name + "\", probing again in 1 second.");
+                            }
+                            probe.defer(1000);
+                        }
+                    }
+                }
+            }
+        }
+        
+        
+        /**
+         * Sends the probes that are due, one packet for all services, and completes the probes that
+         * went unanswered.
+         */
+        public void run()
+        {
+            List<Probe> completed = new ArrayList<Probe>();
+            List<Message> messages;
+            long now = System.currentTimeMillis();
+            synchronized (this)
+            {
+                List<Message> groups = new ArrayList<Message>();
+                for (Iterator<Probe> i = probes.iterator(); i.hasNext();)
+                {
+                    Probe probe = i.next();
+                    if (probe.future.isDone())
+                    {
+                        i.remove();
+                    } else if (now >= probe.deferredUntil)
+                    {
+                        if (probe.sent >= PROBE_COUNT)
+                        {
+                            i.remove();
+                            completed.add(probe);
+                        } else
+                        {
+                            Message group = new Message();
+                            group.addRecord(Record.newRecord(probe.name, Type.ANY, DClass.IN), Section.QUESTION);
+                            for (Record record : probe.records)
+                            {
+                                group.addRecord(record, Section.AUTHORITY);
+                            }
+                            groups.add(group);
+                            probe.sent++ ;
+                        }
+                    }
+                }
+                messages = MulticastDNSUtils.packMessages(groups, getMaxPacketSize(), Section.QUESTION, Section.AUTHORITY);
+                
+                if (probes.isEmpty() && (future != null))
+                {
+                    future.cancel(false);
+                    future = null;
+                    querier.unregisterListener(this);
+                }
+            }
+            
+            for (Message message : messages)
+            {
+                try
+                {
+                    querier.broadcast(message, false);
+                } catch (IOException e)
+                {
+                    logger.log(Level.WARNING, "Error sending probe - " + e.getMessage(), e);
+                }
+            }
+            
+            for (Probe probe : completed)
+            {
+                probe.future.set(probe.service);
+            }
+        }
+        
+        
+        private boolean isProbing(final Message message, final Name name)
+        {
+            for (Record question : MulticastDNSUtils.extractRecords(message, Section.QUESTION))
+            {
+                if (name.equals(question.getName()))
+                {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+    }
+    
+    
+    /**
+     * Registers a batch of services. The services are probed together, then announced with one
+     * announcement schedule for the whole batch. The records of all services are packed into as
+     * few packets as possible, the address and NSEC records of hosts shared by services are sent
+     * once per packet and the DNS-SD service type PTRs are sent once per service type.
+     * 
+     * @author Steve Posick
+     */
     protected class Register
     {
-        private final ServiceInstance service;
+        private final ServiceInstance[] services;
         
         
-        protected Register(final ServiceInstance service)
+        protected Register(final ServiceInstance... services)
         throws UnknownHostException
         {
             super();
-            this.service = service;
+            this.services = services;
         }
         
         
@@ -65,553 +429,1613 @@ public class MulticastDNSService extends MulticastDNSLookupBase
         
         
         /**
-         * Registers the Service.
+         * Registers the Services.
+         * 
+         * @return The Service Instances actually Registered, in the order of the services
+         * @throws IOException
+         */
+        protected ServiceInstance[] register()
+        throws IOException
+        {
+            /*
+             * Steps to Registering a Service.
+             * 
+             * 1. Probe the service name, see Prober [RFC 6762 Section 8.1].
+             * 2. Send a standard Query Response containing the service records, Opcode: QUERY, Flags: QR, AA, NO ERROR
+             * a. Add TXT record to ANSWER section. TTL: 3600
+             * b. Add SRV record to ANSWER section. TTL: 120
+             * c. Add DNS-SD Services PTR record to ANSWER section. TTL: 3600 Ex. _services._dns-sd.udp.local. IN PTR _mdc._tcp.local.
+             * d. Add PTR record to ANSWER section. Ex. _mdc._tcp.local. IN PTR Test._mdc._tcp.local. TTL: 3600
+             * e. Add A record to ADDITIONAL section. TTL: 120 Ex. hostname.local. IN A 192.168.1.83
+             * f. Add AAAA record to ADDITIONAL section. TTL: 120 Ex. hostname.local. IN AAAA fe80::255:ff:fe4a:6369
+             * g. Add NSEC record to ADDITIONAL section. TTL: 120 Ex. hostname.local. IN NSEC next domain: hostname.local. RRs: A AAAA
+             * h. Add NSEC record to ADDITIONAL section. TTL: 3600 Ex. Test._mdc._tcp.local. IN NSEC next domain: Test._mdc._tcp.local. RRs: TXT SRV
+             * 3. Repeat the announcement one second later [RFC 6762 Section 8.3].
+             */
+            ServiceInstance[] probed = probe();
+            
+            final List replies = new ArrayList();
+            ResolverListener resolverListener = new ResolverListener()
+            {
+                public void handleException(final Object id, final Exception e)
+                {
+                    synchronized (replies)
+                    {
+                        replies.add(e);
+                        replies.notifyAll();
+                    }
+                }
+                
+                
+                public void receiveMessage(final Object id, final Message m)
+                {
+                    synchronized (replies)
+                    {
+                        replies.add(m);
+                        replies.notifyAll();
+                    }
+                }
+            };
+            
+            announce(getAnnouncements(probed), resolverListener);
+            
+            Map<Name, Integer> pending = new LinkedHashMap<Name, Integer>();
+            for (int index = 0; index < probed.length; index++ )
+            {
+                pending.put(probed[index].getName().getServiceRRName(), index);
+            }
+            
+            ServiceInstance[] registered = new ServiceInstance[probed.length];
+            long endTime = System.currentTimeMillis() + 10000;
+            while (!pending.isEmpty() && (System.currentTimeMillis() < endTime))
+            {
+                if (replies.size() == 0)
+                {
+                    try
+                    {
+                        synchronized (replies)
+                        {
+                            replies.wait(Querier.DEFAULT_RETRY_INTERVAL);
+                        }
+                    } catch (InterruptedException e)
+                    {
+                        // ignore
+                    }
+                }
+                
+                Lookup lookup = new Lookup(pending.keySet().toArray(new Name[pending.size()]), Type.ANY);
+                try
+                {
+                    ServiceInstance[] instances = lookup.lookupServices();
+                    if ((instances != null) && (instances.length > 0))
+                    {
+                        if (logger.isLoggable(Level.FINE))
+                        {
+                            logger.logp(Level.FINE, getClass().getName(), "register", "Response received.");
+                        }
+                        
+                        Set<Name> found = new HashSet<Name>();
+                        for (ServiceInstance instance : instances)
+                        {
+                            Name name = instance.getName().getServiceRRName();
+                            if (!found.add(name))
+                            {
+                                logger.logp(Level.WARNING, getClass().getName(), "register", "Warning: More than one service with the name \"" + name + "\" was registered.");
+                                throw new IOException("Too many services returned! + Instances: " + Arrays.toString(instances));
+                            }
+                            
+                            Integer index = pending.remove(name);
+                            if (index != null)
+                            {
+                                registered[index] = instance;
+                            }
+                        }
+                    }
+                } finally
+                {
+                    try
+                    {
+                        lookup.close();
+                    } catch (IOException e)
+                    {
+                        // ignore
+                    }
+                }
+            }
+            
+            if (!pending.isEmpty())
+            {
+                logger.logp(Level.WARNING, getClass().getName(), "register", "Services " + pending.keySet() + " were not found after registration.");
+                throw new ServiceRegistrationException(ServiceRegistrationException.REASON.UNKNOWN);
+            }
+            
+            return registered;
+        }
+        
+        
+        /**
+         * Probes the names of the services, renaming the services whose names are in use.
+         * 
+         * @return The probed services, in the order of the services
+         * @throws IOException
+         */
+        protected ServiceInstance[] probe()
+        throws IOException
+        {
+            for (ServiceInstance service : services)
+            {
+                if (service.getHost() == null)
+                {
+                    throw new IOException("Service Records must have a target, aka. Host value set.");
+                }
+            }
+            
+            ListenableFuture<ServiceInstance>[] probes = new ListenableFuture[services.length];
+            for (int index = 0; index < services.length; index++ )
+            {
+                probes[index] = prober.probe(services[index]);
+            }
+            
+            ServiceInstance[] probed = new ServiceInstance[services.length];
+            for (int index = 0; index < services.length; index++ )
+            {
+                probed[index] = getProbed(services[index], probes[index]);
+            }
+            
+            return probed;
+        }
+        
+        
+        /**
+         * Sends the announcements, at least 2 times, one second apart, as per RFC 6762 Section 8.3.
+         */
+        protected void announce(final Update[] updates, final ResolverListener listener)
+        {
+            for (Update update : updates)
+            {
+                querier.sendAsync(update, listener);
+            }
+            executors.schedule(new Runnable()
+            {
+                public void run()
+                {
+                    for (Update update : updates)
+                    {
+                        querier.sendAsync(update, listener);
+                    }
+                }
+            }, 1000, TimeUnit.MILLISECONDS);
+        }
+        
+        
+        /**
+         * Packs the records of the services into as few announcement packets as possible. The
+         * records of a service are never split across packets, the address and NSEC records of its
+         * host are added to each packet announcing a service on that host.
+         */
+        protected Update[] getAnnouncements(final ServiceInstance[] services)
+        throws IOException
+        {
+            List<Update> groups = new ArrayList<Update>();
+            Set<Record> typePointers = new LinkedHashSet<Record>();
+            Map<Name, List<Record>> hostRecords = new HashMap<Name, List<Record>>();
+            for (ServiceInstance service : services)
+            {
+                ServiceName serviceName = service.getName();
+                Name domain = new Name(serviceName.getDomain());
+                Name fullTypeName = new Name(serviceName.getFullType() + "." + domain);
+                Name typeName = new Name(serviceName.getType() + "." + domain);
+                Name shortSRVName = serviceName.getServiceRRName();
+                
+                Update group = new Update(domain);
+                group.add(new PTRRecord(typeName, DClass.IN, DEFAULT_SRV_TTL, shortSRVName));
+                if (!fullTypeName.equals(typeName))
+                {
+                    group.add(new PTRRecord(fullTypeName, DClass.IN, DEFAULT_SRV_TTL, shortSRVName));
+                }
+                group.add(new SRVRecord(shortSRVName, DClass.IN + CACHE_FLUSH, DEFAULT_SRV_TTL, service.getPriority(), service.getWeight(), service.getPort(), service.getHost()));
+                group.add(new TXTRecord(shortSRVName, DClass.IN + CACHE_FLUSH, DEFAULT_TXT_TTL, Arrays.asList(service.getText())));
+                
+                group.addRecord(new NSECRecord(shortSRVName, DClass.IN + CACHE_FLUSH, DEFAULT_RR_WITHOUT_HOST_TTL, shortSRVName, new int[] {Type.TXT, Type.SRV}), Section.ADDITIONAL);
+                List<Record> host = hostRecords.get(service.getHost());
+                if (host == null)
+                {
+                    host = getHostRecords(service);
+                    hostRecords.put(service.getHost(), host);
+                }
+                for (Record record : host)
+                {
+                    group.addRecord(record, Section.ADDITIONAL);
+                }
+                groups.add(group);
+                
+                // Register Service Types once per batch
+                Name servicesName = new Name(SERVICES_NAME + "." + domain);
+                typePointers.add(new PTRRecord(servicesName, DClass.IN, DEFAULT_SRV_TTL, typeName));
+                if (!fullTypeName.equals(typeName))
+                {
+                    typePointers.add(new PTRRecord(servicesName, DClass.IN, DEFAULT_SRV_TTL, fullTypeName));
+                }
+            }
+            
+            for (Record record : typePointers)
+            {
+                Update group = new Update(new Name(record.getName(), 3));
+                group.add(record);
+                groups.add(group);
+            }
+            
+            List<Update> updates = MulticastDNSUtils.packMessages(groups, getMaxPacketSize(), Section.UPDATE, Section.ADDITIONAL);
+            return updates.toArray(new Update[updates.size()]);
+        }
+        
+        
+        private ServiceInstance getProbed(final ServiceInstance service, final ListenableFuture<ServiceInstance> probe)
+        throws IOException
+        {
+            try
+            {
+                return probe.get();
+            } catch (InterruptedException e)
+            {
+                InterruptedIOException iioe = new InterruptedIOException("Probing for service \"" + service.getName() + "\" was interrupted.");
+                iioe.initCause(e);
+                throw iioe;
+            } catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                {
+                    throw (IOException) cause;
+                }
+                IOException ioe = new IOException(cause.getMessage());
+                ioe.initCause(cause);
+                throw ioe;
+            }
+        }
+    }
+    
+    
+    /**
+     * The records of a discovered service instance. An instance being resolved is complete once its
+     * SRV and TXT records and an address of its host have been received. Once resolved, the records
+     * are kept up to date and a hash of their data is used to detect changes.
+     * 
+     * @author Steve Posick
+     */
+    protected static class InstanceRecords
+    {
+        private final Name name;
+        
+        private final List<Record> pointers = new ArrayList<Record>();
+        
+        private final List<Record> text = new ArrayList<Record>();
+        
+        private final List<Record> addresses = new ArrayList<Record>();
+        
+        private SRVRecord srv;
+        
+        private boolean queried;
+        
+        
+        protected InstanceRecords(final Name name)
+        {
+            this.name = name;
+        }
+        
+        
+        /**
+         * Adds the record if it is part of the service instance.
+         * 
+         * @return true if the record was added
+         */
+        protected boolean add(final Record record)
+        {
+            switch (record.getType())
+            {
+                case Type.PTR:
+                    if (!name.equals(((PTRRecord) record).getTarget()))
+                    {
+                        return false;
+                    }
+                    addRecord(pointers, record);
+                    break;
+                case Type.SRV:
+                    if (!name.equals(record.getName()))
+                    {
+                        return false;
+                    }
+                    srv = (SRVRecord) record;
+                    break;
+                case Type.TXT:
+                    if (!name.equals(record.getName()))
+                    {
+                        return false;
+                    }
+                    addRecord(text, record);
+                    break;
+                case Type.A:
+                case Type.AAAA:
+                    if ((srv == null) || !srv.getTarget().equals(record.getName()))
+                    {
+                        return false;
+                    }
+                    addRecord(addresses, record);
+                    break;
+                default:
+                    return false;
+            }
+            
+            return true;
+        }
+        
+        
+        /**
+         * Adds the questions for the missing records of the service instance to the query.
+         */
+        protected void addQuestions(final Message query, final int dclass)
+        {
+            if (srv == null)
+            {
+                query.addRecord(Record.newRecord(name, Type.SRV, dclass), Section.QUESTION);
+            }
+            
+            if (text.isEmpty())
+            {
+                query.addRecord(Record.newRecord(name, Type.TXT, dclass), Section.QUESTION);
+            }
+            
+            if ((srv != null) && addresses.isEmpty())
+            {
+                query.addRecord(Record.newRecord(srv.getTarget(), Type.A, dclass), Section.QUESTION);
+                query.addRecord(Record.newRecord(srv.getTarget(), Type.AAAA, dclass), Section.QUESTION);
+            }
+        }
+        
+        
+        /**
+         * Returns the host of the service instance, as named by the last SRV record of the records,
+         * or by the current SRV record.
+         */
+        protected Name getTarget(final List<Record> records)
+        {
+            Name target = srv != null ? srv.getTarget() : null;
+            if (records != null)
+            {
+                for (Record record : records)
+                {
+                    if ((record.getType() == Type.SRV) && (record.getTTL() > 0))
+                    {
+                        target = ((SRVRecord) record).getTarget();
+                    }
+                }
+            }
+            
+            return target;
+        }
+        
+        
+        /**
+         * Returns a hash of the data of the SRV, TXT and address records, independent of their TTLs
+         * and order.
+         */
+        protected int hash()
+        {
+            int hash = srv != null ? hash(srv) : 0;
+            for (Record record : text)
+            {
+                hash += 31 * hash(record);
+            }
+            for (Record record : addresses)
+            {
+                hash += 961 * hash(record);
+            }
+            
+            return hash;
+        }
+        
+        
+        protected boolean isComplete()
+        {
+            return (srv != null) && !text.isEmpty() && !addresses.isEmpty();
+        }
+        
+        
+        /**
+         * Returns the service instance assembled from the records received, or null if the SRV record
+         * has not been received.
+         */
+        protected ServiceInstance toServiceInstance()
+        {
+            if (srv == null)
+            {
+                return null;
+            }
+            
+            List<Record> records = new ArrayList<Record>(pointers.size() + text.size() + addresses.size() + 1);
+            records.addAll(pointers);
+            records.add(srv);
+            records.addAll(text);
+            records.addAll(addresses);
+            ServiceInstance[] instances = extractServiceInstances(records.toArray(new Record[records.size()]));
+            return instances.length > 0 ? instances[0] : null;
+        }
+        
+        
+        /**
+         * Applies the records received for the resolved service instance. Records with the cache flush
+         * bit set replace the records of the same kind, records with a TTL of 0 are removed.
+         * 
+         * @param records The SRV, TXT and address records of the service instance
+         * @return true if the data of the records changed
+         */
+        protected boolean update(final List<Record> records)
+        {
+            int before = hash();
+            
+            Name target = getTarget(records);
+            for (Record record : records)
+            {
+                if ((record.getType() == Type.SRV) && (record.getTTL() > 0))
+                {
+                    srv = (SRVRecord) record;
+                }
+            }
+            
+            boolean textFlushed = false;
+            boolean addressesFlushed = false;
+            for (Record record : records)
+            {
+                switch (record.getType())
+                {
+                    case Type.TXT:
+                        textFlushed = updateRecord(text, record, textFlushed);
+                        break;
+                    case Type.A:
+                    case Type.AAAA:
+                        if (record.getName().equals(target))
+                        {
+                            addressesFlushed = updateRecord(addresses, record, addressesFlushed);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            
+            for (Iterator<Record> i = addresses.iterator(); i.hasNext();)
+            {
+                if (!i.next().getName().equals(target))
+                {
+                    i.remove();
+                }
+            }
+            
+            return hash() != before;
+        }
+        
+        
+        private static void addRecord(final List<Record> records, final Record record)
+        {
+            for (ListIterator<Record> i = records.listIterator(); i.hasNext();)
+            {
+                if (sameData(i.next(), record))
+                {
+                    i.set(record);
+                    return;
+                }
+            }
+            records.add(record);
+        }
+        
+        
+        private static int hash(final Record record)
+        {
+            return (31 * record.getType()) + Arrays.hashCode(record.rdataToWireCanonical());
+        }
+        
+        
+        private static boolean sameData(final Record r1, final Record r2)
+        {
+            return (r1.getType() == r2.getType()) && r1.getName().equals(r2.getName()) && Arrays.equals(r1.rdataToWireCanonical(), r2.rdataToWireCanonical());
+        }
+        
+        
+        private static boolean updateRecord(final List<Record> records, final Record record, final boolean flushed)
+        {
+            if (record.getTTL() <= 0)
+            {
+                for (Iterator<Record> i = records.iterator(); i.hasNext();)
+                {
+                    if (sameData(i.next(), record))
+                    {
+                        i.remove();
+                    }
+                }
+                return flushed;
+            }
+            
+            boolean flush = !flushed && ((record.getDClass() & Constants.CACHE_FLUSH) != 0);
+            if (flush)
+            {
+                records.clear();
+            }
+            addRecord(records, record);
+            return flushed || flush;
+        }
+    }
+    
+    
+    /**
+     * The Browse Operation manages individual browse sessions. Retrying broadcasts.
+     * Refer to the mDNS specification [RFC 6762]
+     * 
+     * @author Steve Posick
+     */
+    protected class ServiceDiscoveryOperation implements ResolverListener
+    {
+        private final Browse browser;
+        
+        private final ListenerProcessor<DNSSDListener> listenerProcessor = new ListenerProcessor<DNSSDListener>(DNSSDListener.class);
+        
+        private final Map services = new LinkedHashMap();
+        
+        private final Map<Name, InstanceRecords> pendingInstances = new LinkedHashMap<Name, InstanceRecords>();
+        
+        private final Map<Name, InstanceRecords> resolvedInstances = new HashMap<Name, InstanceRecords>();
+        
+        private volatile QuestionMatcher matcher;
+        
+        private volatile Message[] matcherQueries;
+        
+        private final boolean passive;
+        
+        private ScheduledFuture<?> expiryFuture;
+        
+        /**
+         * Receives the announcements that change the records of the discovered services without
+         * answering the browse, which the Browse does not deliver. Only used in active mode.
+         */
+        private final ResolverListener updateListener = new ResolverListener()
+        {
+            public void receiveMessage(final Object id, final Message message)
+            {
+                if ((message != null) && (message.getHeader().getFlag(Flags.QR) || message.getHeader().getFlag(Flags.AA)) && !matchesBrowse(message))
+                {
+                    ServiceDiscoveryOperation.this.receiveMessage(id, message);
+                }
+            }
+            
+            
+            public void handleException(final Object id, final Exception e)
+            {
+                // Exceptions are reported by the Browse
+            }
+        };
+        
+        
+        ServiceDiscoveryOperation(final Browse browser)
+        {
+            this(browser, null);
+        }
+        
+        
+        ServiceDiscoveryOperation(final Browse browser, final DNSSDListener listener)
+        {
+            this(browser, listener, false);
+        }
+        
+        
+        /**
+         * @param browser The Browse holding the questions
+         * @param listener The listener
+         * @param passive If true, no queries are sent. Services are derived from the cache and
+         *        from the responses overheard on the network.
+         */
+        ServiceDiscoveryOperation(final Browse browser, final DNSSDListener listener, final boolean passive)
+        {
+            this.browser = browser;
+            this.passive = passive;
+            
+            if (listener != null)
+            {
+                registerListener(listener);
+            }
+        }
+        
+        
+        public void close()
+        {
+            try
+            {
+                listenerProcessor.close();
+            } catch (IOException e)
+            {
+                // ignore
+            }
+            
+            if (passive)
+            {
+                querier.unregisterListener(this);
+                synchronized (this)
+                {
+                    if (expiryFuture != null)
+                    {
+                        expiryFuture.cancel(false);
+                        expiryFuture = null;
+                    }
+                }
+            } else
+            {
+                querier.unregisterListener(updateListener);
+                try
+                {
+                    browser.close();
+                } catch (IOException e)
+                {
+                    // ignore
+                }
+            }
+            
+            synchronized (services)
+            {
+                directory.removeAll(this);
+            }
+        }
+        
+        
+        public void handleException(final Object id, final Exception e)
+        {
+            listenerProcessor.getDispatcher().handleException(id, e);
+        }
+        
+        
+        public void receiveMessage(final Object id, final Message message)
+        {
+            if ((message == null) || (passive && !message.getHeader().getFlag(Flags.QR)))
+            {
+                return;
+            }
+            
+            // Strip the records that are not related to the query.
+            Set<Name> additionalNames = new LinkedHashSet<Name>();
+            List<Record> ignoredRecords = new LinkedList<Record>();
+            List<Record> filteredRecords = new LinkedList<Record>();
+            Record[] thatAnswers = MulticastDNSUtils.extractRecords(message, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL);
+            for (Record record : thatAnswers)
+            {
+                if (answersQuery(record))
+                {
+                    Name additionalName = record.getAdditionalName();
+                    if (additionalName != null)
+                    {
+                        additionalNames.add(additionalName);
+                    }
+                    
+                    switch (record.getType())
+                    {
+                        case Type.PTR:
+                            PTRRecord ptr = (PTRRecord) record;
+                            additionalNames.add(ptr.getTarget());
+                            break;
+                        case Type.SRV:
+                            SRVRecord srv = (SRVRecord) record;
+                            additionalNames.add(srv.getTarget());
+                            break;
+                        default:
+                            // ignore
+                            break;
+                    }
+                    filteredRecords.add(record);
+                } else
+                {
+                    ignoredRecords.add(record);
+                }
+            }
+            
+            for (Record record : ignoredRecords)
+            {
+                if (additionalNames.contains(record.getName()))
+                {
+                    filteredRecords.add(record);
+                }
+            }
+            
+            // Changes to the records of discovered services are announced without the PTR records
+            boolean updatesServices;
+            synchronized (services)
+            {
+                updatesServices = updatesResolvedInstances(thatAnswers);
+            }
+            
+            if ((filteredRecords.size() > 0) || updatesServices)
+            {
+                listenerProcessor.getDispatcher().receiveMessage(id, message);
+                
+                Map<Name, ServiceInstance> removedServices = new HashMap<Name, ServiceInstance>();
+                List<ServiceInstance> foundServices = new ArrayList<ServiceInstance>();
+                List<ServiceDiff> updatedServices = new ArrayList<ServiceDiff>();
+                
+                synchronized (services)
+                {
+                    for (Record record : filteredRecords)
+                    {
+                        if (record.getType() == Type.PTR)
+                        {
+                            PTRRecord ptr = (PTRRecord) record;
+                            if (ptr.getTTL() > 0)
+                            {
+                                if (!services.containsKey(ptr.getTarget()) && !pendingInstances.containsKey(ptr.getTarget()))
+                                {
+                                    pendingInstances.put(ptr.getTarget(), new InstanceRecords(ptr.getTarget()));
+                                }
+                            } else
+                            {
+                                pendingInstances.remove(ptr.getTarget());
+                                resolvedInstances.remove(ptr.getTarget());
+                                ServiceInstance service = (ServiceInstance) services.remove(ptr.getTarget());
+                                if (service != null)
+                                {
+                                    directory.remove(this, service.getName());
+                                    removedServices.put(service.getName(), service);
+                                }
+                            }
+                        }
+                    }
+                    
+                    update(thatAnswers, updatedServices);
+                    resolve(thatAnswers, foundServices);
+                }
+                
+                for (ServiceInstance service : foundServices)
+                {
+                    serviceDiscovered(id, service);
+                }
+                
+                DNSSDListener dispatcher = listenerProcessor.getDispatcher();
+                for (ServiceDiff diff : updatedServices)
+                {
+                    if (!(dispatcher instanceof DNSSDUpdateListener))
+                    {
+                        break;
+                    }
+                    
+                    try
+                    {
+                        ((DNSSDUpdateListener) dispatcher).serviceUpdated(id, diff.getCurrent(), diff);
+                    } catch (Exception e)
+                    {
+                        if (logger.isLoggable(Level.FINE))
+                        {
+                            logger.log(Level.WARNING, "Error sending serviceUpdated event - " + e.getMessage(), e);
+                        } else
+                        {
+                            logger.logp(Level.WARNING, getClass().getName(), "receiveMessage", "Error sending serviceUpdated event - " + e.getMessage());
+                        }
+                    }
+                }
+                
+                for (ServiceInstance service : removedServices.values())
+                {
+                    try
+                    {
+                        listenerProcessor.getDispatcher().serviceRemoved(id, service);
+                    } catch (Exception e)
+                    {
+                        if (logger.isLoggable(Level.FINE))
+                        {
+                            logger.log(Level.WARNING, "Error sending serviceRemoved event - " + e.getMessage(), e);
+                        } else
+                        {
+                            logger.logp(Level.WARNING, getClass().getName(), "receiveMessage", "Error sending serviceRemoved event - " + e.getMessage());
+                        }
+                    }
+                }
+                
+                queryPendingInstances(id);
+            }
+        }
+        
+        
+        /**
+         * Adds the records to the pending service instances, moving the completed instances to the
+         * discovered services. Must be called holding the services lock.
          * 
-         * @return The Service Instances actually Registered
-         * @throws IOException
+         * @param records The records
+         * @param foundServices The list the completed service instances are added to
          */
-        protected ServiceInstance register()
-        throws IOException
+        protected void resolve(final Record[] records, final List<ServiceInstance> foundServices)
         {
-            // TODO: Implement Probing and Name Conflict Resolution as per RFC 6762 Section 8.
-            /*
-             * Steps to Registering a Service.
-             * 
-             * 1. Query the service name of type ANY. Ex. Test._mdc._tcp.local IN ANY Flags: QM
-             * a. Add the Service Record to the Authoritative section.
-             * b. Repeat 3 queries with a 250 millisecond delay between each query.
-             * 2. Send a standard Query Response containing the service records, Opcode: QUERY, Flags: QR, AA, NO ERROR
-             * a. Add TXT record to ANSWER section. TTL: 3600
-             * b. Add SRV record to ANSWER section. TTL: 120
-             * c. Add DNS-SD Services PTR record to ANSWER section. TTL: 3600 Ex. _services._dns-sd.udp.local. IN PTR _mdc._tcp.local.
-             * d. Add PTR record to ANSWER section. Ex. _mdc._tcp.local. IN PTR Test._mdc._tcp.local. TTL: 3600
-             * e. Add A record to ADDITIONAL section. TTL: 120 Ex. hostname.local. IN A 192.168.1.83
-             * f. Add AAAA record to ADDITIONAL section. TTL: 120 Ex. hostname.local. IN AAAA fe80::255:ff:fe4a:6369
-             * g. Add NSEC record to ADDITIONAL section. TTL: 120 Ex. hostname.local. IN NSEC next domain: hostname.local. RRs: A AAAA
-             * h. Add NSEC record to ADDITIONAL section. TTL: 3600 Ex. Test._mdc._tcp.local. IN NSEC next domain: Test._mdc._tcp.local. RRs: TXT SRV
-             * b. Repeat 3 queries with a 2 second delay between each query response.
-             */
-            final List replies = new ArrayList();
-            Message query = Message.newQuery(Record.newRecord(service.getName(), Type.ANY, DClass.IN));
-            
-            if (service.getHost() == null)
+            if (pendingInstances.isEmpty())
             {
-                throw new IOException("Service Records must have a target, aka. Host value set.");
+                return;
             }
             
-            SRVRecord srvRecord = new SRVRecord(service.getName(), DClass.IN, 3600, 0, 0, service.getPort(), service.getHost());
-            // TODO: Add support for Unicast answers for first query mDNS.createQuery(DClass.IN + 0x8000, Type.ANY, service.getName());
-            
-            int tries = 0;
-            while (tries++ < 3)
+            // SRV records first, so that the host addresses can be matched to the instances
+            for (int pass = 0; pass < 2; pass++ )
             {
-                querier.sendAsync(query, new ResolverListener()
+                for (Record record : records)
                 {
-                    public void handleException(final Object id, final Exception e)
+                    boolean isSRV = record.getType() == Type.SRV;
+                    if ((record.getTTL() <= 0) || ((pass == 0) != isSRV))
                     {
-                        synchronized (replies)
-                        {
-                            replies.add(e);
-                            replies.notifyAll();
-                        }
+                        continue;
                     }
                     
-                    
-                    public void receiveMessage(final Object id, final Message m)
+                    if (isSRV || (record.getType() == Type.TXT))
                     {
-                        synchronized (replies)
+                        InstanceRecords pending = pendingInstances.get(record.getName());
+                        if (pending != null)
                         {
-                            replies.add(m);
-                            replies.notifyAll();
+                            pending.add(record);
                         }
-                    }
-                });
-                
-                synchronized (replies)
-                {
-                    try
-                    {
-                        replies.wait(Querier.DEFAULT_RESPONSE_WAIT_TIME);
-                    } catch (InterruptedException e)
+                    } else
                     {
-                        // ignore
+                        for (InstanceRecords pending : pendingInstances.values())
+                        {
+                            pending.add(record);
+                        }
                     }
-                    
-                    if (replies.size() > 0)
-                    {
-                        for (Iterator i = replies.iterator(); i.hasNext();)
+                }
+            }
+            
+            for (Iterator<InstanceRecords> i = pendingInstances.values().iterator(); i.hasNext();)
+            {
+                InstanceRecords pending = i.next();
+                if (pending.isComplete())
+                {
+                    i.remove();
+                    discovered(pending, foundServices);
+                }
+            }
+        }
+        
+        
+        /**
+         * Returns true if any of the records is an SRV, TXT or address record of a discovered service
+         * instance. Must be called holding the services lock.
+         * 
+         * @param records The records
+         * @return true if the records may update the discovered service instances
+         */
+        protected boolean updatesResolvedInstances(final Record[] records)
+        {
+            if (resolvedInstances.isEmpty())
+            {
+                return false;
+            }
+            
+            for (Record record : records)
+            {
+                switch (record.getType())
+                {
+                    case Type.SRV:
+                    case Type.TXT:
+                        if (resolvedInstances.containsKey(record.getName()))
                         {
-                            Object o = i.next();
-                            if (o instanceof Exception)
-                            {
-                                if (o instanceof IOException)
-                                {
-                                    throw (IOException) o;
-                                } else
-                                {
-                                    Exception e = (Exception) o;
-                                    IOException ioe = new IOException(e.getMessage());
-                                    ioe.setStackTrace(e.getStackTrace());
-                                    throw ioe;
-                                }
-                            } else
+                            return true;
+                        }
+                        break;
+                    case Type.A:
+                    case Type.AAAA:
+                        for (InstanceRecords instance : resolvedInstances.values())
+                        {
+                            if (record.getName().equals(instance.getTarget(null)))
                             {
-                                Message message = (Message) o;
-                                if (message.getRcode() == Rcode.NOERROR || message.getRcode() == Rcode.FORMERR) // FORMERR Added to support non RFC 6763 compliant service names and structures, such as lacking a TXT reccord.
-                                {
-                                    Record[] records = MulticastDNSUtils.extractRecords(message, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL);
-                                    for (int r = 0; r < records.length; r++ )
-                                    {
-                                        if ((records[r].getType() == Type.SRV) && (records[r].getTTL() > 0))
-                                        {
-                                            if (!srvRecord.equals(records[r]))
-                                            {
-                                                // Another Service with this same name was found, so registration must fail.
-                                                throw new ServiceRegistrationException(ServiceRegistrationException.REASON.SERVICE_NAME_ALREADY_EXISTS, "A service with name \"" + service.getName() + "\" already exists.");
-                                            }
-                                        }
-                                    }
-                                }
+                                return true;
                             }
                         }
-                    }
+                        break;
+                    default:
+                        break;
                 }
             }
             
-            replies.clear();
+            return false;
+        }
+        
+        
+        /**
+         * Applies the records to the discovered service instances. The services whose record data
+         * changed are rebuilt and compared to their previous versions. Must be called holding the
+         * services lock.
+         * 
+         * @param records The records
+         * @param updatedServices The list the differences of the changed services are added to
+         */
+        protected void update(final Record[] records, final List<ServiceDiff> updatedServices)
+        {
+            if (resolvedInstances.isEmpty())
+            {
+                return;
+            }
             
-            ServiceName serviceName = service.getName();
-            Name domain = new Name(serviceName.getDomain());
-            final Update[] updates = new Update[] {new Update(domain),
-                                                   new Update(domain)};
-            Name fullTypeName = new Name(serviceName.getFullType() + "." + domain);
-            Name typeName = new Name(serviceName.getType() + "." + domain);
-            Name shortSRVName = serviceName.getServiceRRName();
+            Map<InstanceRecords, List<Record>> matches = new LinkedHashMap<InstanceRecords, List<Record>>();
+            List<Record> addressRecords = null;
+            for (Record record : records)
+            {
+                switch (record.getType())
+                {
+                    case Type.SRV:
+                    case Type.TXT:
+                        InstanceRecords instance = resolvedInstances.get(record.getName());
+                        if (instance != null)
+                        {
+                            List<Record> matched = matches.get(instance);
+                            if (matched == null)
+                            {
+                                matched = new ArrayList<Record>();
+                                matches.put(instance, matched);
+                            }
+                            matched.add(record);
+                        }
+                        break;
+                    case Type.A:
+                    case Type.AAAA:
+                        if (addressRecords == null)
+                        {
+                            addressRecords = new ArrayList<Record>();
+                        }
+                        addressRecords.add(record);
+                        break;
+                    default:
+                        break;
+                }
+            }
             
-            try
+            if (addressRecords != null)
             {
-                
-                ArrayList<Record> records = new ArrayList<Record>();
-                ArrayList<Record> additionalRecords = new ArrayList<Record>();
-                
-                InetAddress[] addresses = service.getAddresses();
-                
-                if (addresses != null)
+                for (InstanceRecords instance : resolvedInstances.values())
                 {
-                    for (int index = 0; index < addresses.length; index++ )
+                    List<Record> matched = matches.get(instance);
+                    Name target = instance.getTarget(matched);
+                    for (Record record : addressRecords)
                     {
-                        if (addresses[index] != null)
+                        if (record.getName().equals(target))
                         {
-                            if (addresses[index].getAddress().length == 4)
-                            {
-                                additionalRecords.add(new ARecord(service.getHost(), DClass.IN + CACHE_FLUSH, DEFAULT_A_TTL, addresses[index]));
-                            } else
+                            if (matched == null)
                             {
-                                additionalRecords.add(new AAAARecord(service.getHost(), DClass.IN + CACHE_FLUSH, DEFAULT_A_TTL, addresses[index]));
+                                matched = new ArrayList<Record>();
+                                matches.put(instance, matched);
                             }
+                            matched.add(record);
                         }
                     }
                 }
-                
-                records.add(new PTRRecord(typeName, DClass.IN, DEFAULT_SRV_TTL, shortSRVName));
-                if (!fullTypeName.equals(typeName))
-                {
-                    records.add(new PTRRecord(fullTypeName, DClass.IN, DEFAULT_SRV_TTL, shortSRVName));
-                }
-                
-                records.add(new SRVRecord(shortSRVName, DClass.IN + CACHE_FLUSH, DEFAULT_SRV_TTL, 0, 0, service.getPort(), service.getHost()));
-                records.add(new TXTRecord(shortSRVName, DClass.IN + CACHE_FLUSH, DEFAULT_TXT_TTL, Arrays.asList(service.getText())));
-                additionalRecords.add(new NSECRecord(shortSRVName, DClass.IN + CACHE_FLUSH, DEFAULT_RR_WITHOUT_HOST_TTL, shortSRVName, new int[] {Type.TXT, Type.SRV}));
-                additionalRecords.add(new NSECRecord(service.getHost(), DClass.IN + CACHE_FLUSH, DEFAULT_RR_WITH_HOST_TTL, service.getHost(), new int[] {Type.A, Type.AAAA}));
-                
-                for (Record record : records)
+            }
+            
+            for (Map.Entry<InstanceRecords, List<Record>> entry : matches.entrySet())
+            {
+                InstanceRecords instance = entry.getKey();
+                if (instance.update(entry.getValue()))
                 {
-                    updates[0].add(record);
+                    ServiceInstance previous = (ServiceInstance) services.get(instance.name);
+                    ServiceInstance current = instance.toServiceInstance();
+                    if ((previous != null) && (current != null))
+                    {
+                        ServiceDiff diff = new ServiceDiff(previous, current);
+                        if (!diff.isEmpty())
+                        {
+                            services.put(current.getName(), current);
+                            directory.put(this, current);
+                            updatedServices.add(diff);
+                        }
+                    }
                 }
-                
-                for (Record record : additionalRecords)
+            }
+        }
+        
+        
+        /**
+         * Sends a single query for the missing records of all pending service instances not yet
+         * queried. The cache is consulted first. When the query completes, instances that have an
+         * SRV record are reported with the records received, the others are dropped until their
+         * PTR record is received again. In passive mode the query is answered from the cache only.
+         */
+        protected void queryPendingInstances(final Object id)
+        {
+            final List<InstanceRecords> queried = new ArrayList<InstanceRecords>();
+            final Message query = new Message();
+            synchronized (services)
+            {
+                for (InstanceRecords pending : pendingInstances.values())
                 {
-                    updates[0].addRecord(record, Section.ADDITIONAL);
+                    if (!pending.queried)
+                    {
+                        pending.queried = true;
+                        pending.addQuestions(query, dclass);
+                        queried.add(pending);
+                    }
                 }
-                
-                records.clear();
-                additionalRecords.clear();
-                
-                // Register Service Types in a separate request!
-                records.add(new PTRRecord(new Name(SERVICES_NAME + "." + domain), DClass.IN, DEFAULT_SRV_TTL, typeName));
-                if (!fullTypeName.equals(typeName))
+            }
+            
+            if (queried.isEmpty())
+            {
+                return;
+            }
+            
+            if (passive)
+            {
+                queried(id, queried, queryCache(querier, query));
+                return;
+            }
+            
+            sendAsync(querier, query).addListener(new FutureListener<Message>()
+            {
+                public void operationComplete(final ListenableFuture<Message> future)
                 {
-                    records.add(new PTRRecord(new Name(SERVICES_NAME + "." + domain), DClass.IN, DEFAULT_SRV_TTL, fullTypeName));
+                    queried(id, queried, future.getNow(null));
                 }
-                
-                for (Record record : records)
+            });
+        }
+        
+        
+        /**
+         * Applies the response to the query for the missing records of the pending service
+         * instances. Instances that have an SRV record are reported, the others are dropped, or in
+         * passive mode left pending until their records are overheard.
+         */
+        protected void queried(final Object id, final List<InstanceRecords> queried, final Message response)
+        {
+            List<ServiceInstance> foundServices = new ArrayList<ServiceInstance>();
+            synchronized (services)
+            {
+                if (response != null)
                 {
-                    updates[1].add(record);
+                    resolve(MulticastDNSUtils.extractRecords(response, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL), foundServices);
                 }
                 
-                // Updates are sent at least 2 times, one second apart, as per RFC 6762 Section 8.3
-                ResolverListener resolverListener = new ResolverListener()
+                for (InstanceRecords pending : queried)
                 {
-                    public void handleException(final Object id, final Exception e)
+                    if ((pendingInstances.get(pending.name) == pending) && (!passive || (pending.srv != null)))
                     {
-                        synchronized (replies)
-                        {
-                            replies.add(e);
-                            replies.notifyAll();
-                        }
-                    }
-                    
-                    
-                    public void receiveMessage(final Object id, final Message m)
-                    {
-                        synchronized (replies)
+                        pendingInstances.remove(pending.name);
+                        if (pending.srv != null)
                         {
-                            replies.add(m);
-                            replies.notifyAll();
+                            discovered(pending, foundServices);
                         }
                     }
-                };
-                
-                tries = 0;
-                while (tries++ < 2)
+                }
+            }
+            
+            for (ServiceInstance service : foundServices)
+            {
+                serviceDiscovered(id, service);
+            }
+        }
+        
+        
+        /**
+         * Moves the resolved service instance to the discovered services. Must be called holding the
+         * services lock.
+         */
+        private void discovered(final InstanceRecords instance, final List<ServiceInstance> foundServices)
+        {
+            ServiceInstance service = instance.toServiceInstance();
+            if ((service != null) && !services.containsKey(service.getName()))
+            {
+                services.put(service.getName(), service);
+                resolvedInstances.put(instance.name, instance);
+                directory.put(this, service);
+                foundServices.add(service);
+            }
+        }
+        
+        
+        protected void serviceDiscovered(final Object id, final ServiceInstance service)
+        {
+            try
+            {
+                listenerProcessor.getDispatcher().serviceDiscovered(id, service);
+            } catch (Exception e)
+            {
+                if (logger.isLoggable(Level.FINE))
                 {
-                    querier.sendAsync(updates[0], resolverListener);
-                    
-                    long retry = System.currentTimeMillis() + 1000;
-                    while (System.currentTimeMillis() < retry)
+                    logger.log(Level.WARNING, "Error sending serviceDiscovered event - " + e.getMessage(), e);
+                } else
+                {
+                    logger.logp(Level.WARNING, getClass().getName(), "serviceDiscovered", "Error sending serviceDiscovered event - " + e.getMessage());
+                }
+            }
+        }
+        
+        
+        public void start()
+        {
+            if (!passive)
+            {
+                querier.registerListener(updateListener);
+                browser.start(this);
+                return;
+            }
+            
+            querier.registerListener(this);
+            
+            // Start with the services already cached
+            for (Message query : browser.queries)
+            {
+                receiveMessage(this, queryCache(querier, query));
+            }
+            
+            int interval = Options.intValue("mdns_passive_expiry_interval");
+            interval = interval > 0 ? interval : DEFAULT_PASSIVE_EXPIRY_INTERVAL;
+            synchronized (this)
+            {
+                expiryFuture = executors.scheduleAtFixedRate(new Runnable()
+                {
+                    public void run()
                     {
-                        try
-                        {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e)
-                        {
-                            // ignore
-                        }
+                        expire(ServiceDiscoveryOperation.this);
                     }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+        
+        
+        /**
+         * Removes the discovered services whose SRV records expired from the cache. Used in passive
+         * mode, where the services are not queried and may leave without announcing it.
+         */
+        protected void expire(final Object id)
+        {
+            Message query = new Message();
+            synchronized (services)
+            {
+                for (Object name : services.keySet())
+                {
+                    query.addRecord(Record.newRecord((Name) name, Type.SRV, dclass), Section.QUESTION);
                 }
-                querier.sendAsync(updates[1], resolverListener);
-            } catch (Exception e)
+            }
+            
+            if (query.getHeader().getCount(Section.QUESTION) == 0)
+            {
+                return;
+            }
+            
+            Set<Name> cached = new HashSet<Name>();
+            for (Record record : MulticastDNSUtils.extractRecords(queryCache(querier, query), Section.ANSWER))
             {
-                synchronized (replies)
+                if ((record.getType() == Type.SRV) && (record.getTTL() > 0))
                 {
-                    replies.add(e);
-                    replies.notifyAll();
+                    cached.add(record.getName());
                 }
             }
             
-            long endTime = System.currentTimeMillis() + 10000;
-            ServiceInstance[] instances = null;
-            while ((instances == null) && (System.currentTimeMillis() < endTime))
+            List<ServiceInstance> removedServices = new ArrayList<ServiceInstance>();
+            synchronized (services)
             {
-                if (replies.size() == 0)
+                for (Record question : MulticastDNSUtils.extractRecords(query, Section.QUESTION))
                 {
-                    try
+                    Name name = question.getName();
+                    if (!cached.contains(name))
                     {
-                        synchronized (replies)
+                        pendingInstances.remove(name);
+                        resolvedInstances.remove(name);
+                        ServiceInstance service = (ServiceInstance) services.remove(name);
+                        if (service != null)
                         {
-                            replies.wait(Querier.DEFAULT_RETRY_INTERVAL);
+                            directory.remove(this, service.getName());
+                            removedServices.add(service);
                         }
-                    } catch (InterruptedException e)
-                    {
-                        // ignore
                     }
                 }
-                
-                // Original Lookup lookup = new Lookup(new Name[]{serviceName}, Type.ANY);
-                Lookup lookup = new Lookup(new Name[] {shortSRVName}, Type.ANY);
+            }
+            
+            for (ServiceInstance service : removedServices)
+            {
                 try
                 {
-                    instances = lookup.lookupServices();
-                    
-                    if ((instances != null) && (instances.length > 0))
-                    {
-                        if (logger.isLoggable(Level.FINE))
-                        {
-                            logger.logp(Level.FINE, getClass().getName(), "register", "Response received.");
-                        }
-                        
-                        if (instances.length > 1)
-                        {
-                            logger.logp(Level.WARNING, getClass().getName(), "register", "Warning: More than one service with the name \"" + shortSRVName + "\" was registered.");
-                            throw new IOException("Too many services returned! + Instances: " + Arrays.toString(instances));
-                        }
-                        
-                        return instances[0];
-                    }
-                } finally
+                    listenerProcessor.getDispatcher().serviceRemoved(id, service);
+                } catch (Exception e)
                 {
-                    try
+                    if (logger.isLoggable(Level.FINE))
                     {
-                        lookup.close();
-                    } catch (IOException e)
+                        logger.log(Level.WARNING, "Error sending serviceRemoved event - " + e.getMessage(), e);
+                    } else
                     {
-                        // ignore
+                        logger.logp(Level.WARNING, getClass().getName(), "expire", "Error sending serviceRemoved event - " + e.getMessage());
+                    }
+                }
+            }
+        }
+        
+        
+        boolean answersQuery(final Record record)
+        {
+            Message[] queries = browser.queries;
+            QuestionMatcher matcher = this.matcher;
+            if ((matcher == null) || (matcherQueries != queries))
+            {
+                matcher = new QuestionMatcher(queries);
+                this.matcher = matcher;
+                matcherQueries = queries;
+            }
+            
+            return matcher.answers(record);
+        }
+        
+        
+        Browse getBrowser()
+        {
+            return browser;
+        }
+        
+        
+        boolean matchesBrowse(final Message message)
+        {
+            if (message != null)
+            {
+                Record[] thatAnswers = MulticastDNSUtils.extractRecords(message, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL);
+                
+                for (Record thatAnswer : thatAnswers)
+                {
+                    if (answersQuery(thatAnswer))
+                    {
+                        return true;
                     }
                 }
             }
             
-            logger.logp(Level.WARNING, getClass().getName(), "register", "How did the execution path getting here!?");
-            throw new ServiceRegistrationException(ServiceRegistrationException.REASON.UNKNOWN);
+            return false;
+        }
+        
+        
+        DNSSDListener registerListener(final DNSSDListener listener)
+        {
+            return listenerProcessor.registerListener(listener);
+        }
+        
+        
+        DNSSDListener unregisterListener(final DNSSDListener listener)
+        {
+            return listenerProcessor.unregisterListener(listener);
         }
     }
     
     
     /**
-     * The Browse Operation manages individual browse sessions. Retrying broadcasts.
-     * Refer to the mDNS specification [RFC 6762]
+     * Unregisters services by sending goodbye packets, the records of the services with a TTL of
+     * zero [RFC 6762 Section 10.1]. The goodbyes of all services are packed into as few packets as
+     * possible and are sent twice, one second apart, without blocking the caller.
      * 
      * @author Steve Posick
      */
-    protected class ServiceDiscoveryOperation implements ResolverListener
+    protected class Unregister
     {
-        private final Browse browser;
+        private final ServiceName[] serviceNames;
         
-        private final ListenerProcessor<DNSSDListener> listenerProcessor = new ListenerProcessor<DNSSDListener>(DNSSDListener.class);
+        private final ServiceInstance[] services;
         
-        private final Map services = new LinkedHashMap();
+        private final boolean withdrawHosts;
         
         
-        ServiceDiscoveryOperation(final Browse browser)
+        protected Unregister(final ServiceInstance... services)
         {
-            this(browser, null);
+            this(false, services);
         }
         
         
-        ServiceDiscoveryOperation(final Browse browser, final DNSSDListener listener)
+        /**
+         * Unregisters the services, and if withdrawHosts is true, withdraws the address and NSEC
+         * records of their hosts as well.
+         */
+        protected Unregister(final boolean withdrawHosts, final ServiceInstance... services)
         {
-            this.browser = browser;
-            
-            if (listener != null)
+            super();
+            this.withdrawHosts = withdrawHosts;
+            this.services = services;
+            this.serviceNames = new ServiceName[services.length];
+            for (int index = 0; index < services.length; index++ )
             {
-                registerListener(listener);
+                serviceNames[index] = services[index].getName();
             }
         }
         
         
-        public void close()
+        protected Unregister(final ServiceName... serviceNames)
         {
-            try
-            {
-                listenerProcessor.close();
-            } catch (IOException e)
-            {
-                // ignore
-            }
-            
-            try
-            {
-                browser.close();
-            } catch (IOException e)
-            {
-                // ignore
-            }
+            super();
+            this.serviceNames = serviceNames;
+            this.services = null;
+            this.withdrawHosts = false;
         }
         
         
-        public void handleException(final Object id, final Exception e)
+        protected void close()
+        throws IOException
         {
-            listenerProcessor.getDispatcher().handleException(id, e);
         }
         
         
-        public void receiveMessage(final Object id, final Message message)
+        /**
+         * Sends the goodbyes, returning a future that completes once the last goodbye has been
+         * sent. The removal is not verified on the network.
+         * 
+         * @return The future, true if the goodbyes were sent
+         * @throws IOException
+         */
+        protected ListenableFuture<Boolean> unregister()
+        throws IOException
         {
-            if (message == null)
-            {
-                return;
-            }
-            
-            // Strip the records that are not related to the query.
-            Set<Name> additionalNames = new LinkedHashSet<Name>();
-            List<Record> ignoredRecords = new LinkedList<Record>();
-            List<Record> filteredRecords = new LinkedList<Record>();
-            Record[] thatAnswers = MulticastDNSUtils.extractRecords(message, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL);
-            for (Record record : thatAnswers)
+            /*
+             * Steps to Unregistering a Service.
+             * 
+             * 1. Send a standard Query Response containing the service records, Opcode: QUERY, Flags: Response, Authoritative, NO ERROR
+             * a. Add PTR records to ANSWER section. TTL: 0 Ex. _mdc._tcp.local. IN PTR Test._mdc._tcp.local.
+             * b. Add SRV and TXT records to ANSWER section. TTL: 0
+             * 2. Repeat the goodbye one second later.
+             */
+            final Update[] updates = getGoodbyes();
+            final ListenableFuture<Boolean> future = new ListenableFuture<Boolean>();
+            final ResolverListener resolverListener = new ResolverListener()
             {
-                if (answersQuery(record))
+                public void handleException(final Object id, final Exception e)
                 {
-                    Name additionalName = record.getAdditionalName();
-                    if (additionalName != null)
-                    {
-                        additionalNames.add(additionalName);
-                    }
-                    
-                    switch (record.getType())
-                    {
-                        case Type.PTR:
-                            PTRRecord ptr = (PTRRecord) record;
-                            additionalNames.add(ptr.getTarget());
-                            break;
-                        case Type.SRV:
-                            SRVRecord srv = (SRVRecord) record;
-                            additionalNames.add(srv.getTarget());
-                            break;
-                        default:
-                            // ignore
-                            break;
-                    }
-                    filteredRecords.add(record);
-                } else
+                    future.setException(e);
+                }
+                
+                
+                public void receiveMessage(final Object id, final Message m)
                 {
-                    ignoredRecords.add(record);
                 }
+            };
+            
+            for (Update update : updates)
+            {
+                querier.sendAsync(update, resolverListener);
             }
             
-            for (Record record : ignoredRecords)
+            try
             {
-                if (additionalNames.contains(record.getName()))
+                executors.schedule(new Runnable()
                 {
-                    filteredRecords.add(record);
-                }
+                    public void run()
+                    {
+                        for (Update update : updates)
+                        {
+                            querier.sendAsync(update, resolverListener);
+                        }
+                        future.set(Boolean.TRUE);
+                    }
+                }, 1000, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e)
+            {
+                // Shutting down, the first goodbye was sent.
+                future.set(Boolean.TRUE);
             }
             
-            if (filteredRecords.size() > 0)
+            return future;
+        }
+        
+        
+        /**
+         * Returns the goodbye packets for the services. The SRV and TXT records of services
+         * unregistered by name are taken from the cache.
+         */
+        protected Update[] getGoodbyes()
+        throws IOException
+        {
+            List<Update> groups = new ArrayList<Update>();
+            Set<Name> withdrawnHosts = new HashSet<Name>();
+            for (int index = 0; index < serviceNames.length; index++ )
             {
-                listenerProcessor.getDispatcher().receiveMessage(id, message);
+                ServiceName serviceName = serviceNames[index];
+                String domain = serviceName.getDomain();
+                Name fullTypeName = new Name(serviceName.getFullType() + "." + domain);
+                Name typeName = new Name(serviceName.getType() + "." + domain);
+                Name shortSRVName = serviceName.getServiceRRName();
                 
-                Map<Name, ServiceInstance> foundServices = new HashMap<Name, ServiceInstance>();
-                Map<Name, ServiceInstance> removedServices = new HashMap<Name, ServiceInstance>();
+                Update group = new Update(new Name(domain));
+                group.add(new PTRRecord(typeName, DClass.IN, 0, shortSRVName));
+                if (!fullTypeName.equals(typeName))
+                {
+                    group.add(new PTRRecord(fullTypeName, DClass.IN, 0, shortSRVName));
+                }
                 
-                for (Record record : filteredRecords)
+                if (services != null)
                 {
-                    try
+                    ServiceInstance service = services[index];
+                    group.add(new SRVRecord(shortSRVName, DClass.IN, 0, service.getPriority(), service.getWeight(), service.getPort(), service.getHost()));
+                    if (service.getText() != null)
                     {
-                        ServiceInstance service = null;
-                        
-                        switch (record.getType())
-                        {
-                            case Type.PTR:
-                                PTRRecord ptr = (PTRRecord) record;
-                                
-                                if (ptr.getTTL() > 0)
-                                {
-                                    ServiceInstance[] instances = extractServiceInstances(querier.send(Message.newQuery(Record.newRecord(ptr.getTarget(), Type.ANY, dclass))));
-                                    if (instances.length > 0)
-                                    {
-                                        synchronized (services)
-                                        {
-                                            for (int i = 0; i < instances.length; i++ )
-                                            {
-                                                if (!services.containsKey(instances[i].getName()))
-                                                {
-                                                    services.put(instances[i].getName(), instances[i]);
-                                                    foundServices.put(instances[i].getName(), instances[i]);
-                                                }
-                                            }
-                                        }
-                                    }
-                                } else
-                                {
-                                    synchronized (services)
-                                    {
-                                        service = (ServiceInstance) services.get(ptr.getTarget());
-                                        if (service != null)
-                                        {
-                                            services.remove(service.getName());
-                                            removedServices.put(service.getName(), service);
-                                        }
-                                    }
-                                }
-                                break;
-                        }
-                    } catch (IOException e)
+                        group.add(new TXTRecord(shortSRVName, DClass.IN, 0, Arrays.asList(service.getText())));
+                    }
+                    
+                    if (withdrawHosts && withdrawnHosts.add(service.getHost()))
                     {
-                        if (logger.isLoggable(Level.FINE))
-                        {
-                            logger.log(Level.WARNING, "Error parsing SRV record - " + e.getMessage(), e);
-                        } else
+                        for (Record record : getHostRecords(service))
                         {
-                            logger.logp(Level.WARNING, getClass().getName(), "receiveMessage", "Error parsing SRV record - " + e.getMessage());
+                            Record goodbye = MulticastDNSUtils.clone(record);
+                            MulticastDNSUtils.setDClassForRecord(goodbye, DClass.IN);
+                            MulticastDNSUtils.setTLLForRecord(goodbye, 0);
+                            group.add(goodbye);
                         }
                     }
-                }
-                // TODO: Check found services against already found services!
-                for (ServiceInstance service : foundServices.values())
+                } else
                 {
-                    try
-                    {
-                        listenerProcessor.getDispatcher().serviceDiscovered(id, service);
-                    } catch (Exception e)
+                    Message cached = queryCache(querier, Message.newQuery(Record.newRecord(shortSRVName, Type.ANY, DClass.IN)));
+                    if (cached != null)
                     {
-                        if (logger.isLoggable(Level.FINE))
-                        {
-                            logger.log(Level.WARNING, "Error sending serviceDiscovered event - " + e.getMessage(), e);
-                        } else
+                        for (Record record : MulticastDNSUtils.extractRecords(cached, Section.ANSWER))
                         {
-                            logger.logp(Level.WARNING, getClass().getName(), "receiveMessage", "Error sending serviceDiscovered event - " + e.getMessage());
+                            if (shortSRVName.equals(record.getName()) && ((record.getType() == Type.SRV) || (record.getType() == Type.TXT)))
+                            {
+                                Record goodbye = MulticastDNSUtils.clone(record);
+                                MulticastDNSUtils.setDClassForRecord(goodbye, DClass.IN);
+                                MulticastDNSUtils.setTLLForRecord(goodbye, 0);
+                                group.add(goodbye);
+                            }
                         }
                     }
                 }
                 
-                for (ServiceInstance service : removedServices.values())
+                groups.add(group);
+            }
+            
+            List<Update> updates = MulticastDNSUtils.packMessages(groups, getMaxPacketSize(), Section.UPDATE);
+            return updates.toArray(new Update[updates.size()]);
+        }
+    }
+    
+    
+    /**
+     * The SleepProxy registers and defends services on behalf of other hosts, such as devices that
+     * are asleep, for the duration of a lease. The records of the proxied services, including the
+     * address records of their hosts, are held in the authoritative zone, so the responder answers
+     * and defends them as it does the services of this host.
+     * 
+     * Each proxied host is a compact entry holding its services and the expiry of its lease, with
+     * a single timeout on the shared timer. Renewing a lease only moves the expiry, the timeout is
+     * rescheduled when it fires before the expiry. When the lease expires the goodbyes of the
+     * services and of the host's address records are sent.
+     * 
+     * @author Steve Posick
+     */
+    protected class SleepProxy
+    {
+        /**
+         * A proxied host, its services by service RR name and the expiry of its lease.
+         */
+        protected class ProxiedHost
+        {
+            private final Name host;
+            
+            private final Map<Name, ServiceInstance> services = new LinkedHashMap<Name, ServiceInstance>();
+            
+            private volatile long expiry;
+            
+            private ScheduledFuture<?> future;
+            
+            private boolean removed;
+            
+            
+            protected ProxiedHost(final Name host)
+            {
+                this.host = host;
+            }
+            
+            
+            protected synchronized ServiceInstance[] getServices()
+            {
+                return services.values().toArray(new ServiceInstance[services.size()]);
+            }
+            
+            
+            protected synchronized boolean isProxied(final ServiceInstance service)
+            {
+                return services.containsKey(service.getName().getServiceRRName());
+            }
+        }
+        
+        private final ConcurrentMap<Name, ProxiedHost> hosts = new ConcurrentHashMap<Name, ProxiedHost>();
+        
+        
+        protected void close()
+        {
+            for (ProxiedHost proxied : hosts.values())
+            {
+                synchronized (proxied)
                 {
-                    try
-                    {
-                        listenerProcessor.getDispatcher().serviceRemoved(id, service);
-                    } catch (Exception e)
+                    proxied.removed = true;
+                    if (proxied.future != null)
                     {
-                        if (logger.isLoggable(Level.FINE))
-                        {
-                            logger.log(Level.WARNING, "Error sending serviceRemoved event - " + e.getMessage(), e);
-                        } else
-                        {
-                            logger.logp(Level.WARNING, getClass().getName(), "receiveMessage", "Error sending serviceRemoved event - " + e.getMessage());
-                        }
+                        proxied.future.cancel(false);
+                        proxied.future = null;
                     }
                 }
             }
+            hosts.clear();
         }
         
         
-        public void start()
+        protected Name[] getHosts()
         {
-            browser.start(this);
+            return hosts.keySet().toArray(new Name[0]);
         }
         
         
-        boolean answersQuery(final Record record)
+        /**
+         * Registers the services on behalf of their hosts, renewing the leases of the hosts. Services
+         * already proxied are re-announced without being probed again.
+         * 
+         * @param services The services
+         * @param lease The lease duration in milliseconds
+         * @return The service instances actually registered, in the order of the services
+         * @throws IOException
+         */
+        protected ServiceInstance[] register(final ServiceInstance[] services, final long lease)
+        throws IOException
         {
-            if (record != null)
+            List<ServiceInstance> unprobed = new ArrayList<ServiceInstance>();
+            for (ServiceInstance service : services)
+            {
+                ProxiedHost proxied = service.getHost() != null ? hosts.get(service.getHost()) : null;
+                if ((proxied == null) || !proxied.isProxied(service))
+                {
+                    unprobed.add(service);
+                }
+            }
+            
+            Register register = new Register(unprobed.toArray(new ServiceInstance[unprobed.size()]));
+            ServiceInstance[] probed = register.probe();
+            ServiceInstance[] registered = new ServiceInstance[services.length];
+            for (int index = 0, probedIndex = 0; index < services.length; index++ )
+            {
+                registered[index] = (probedIndex < probed.length) && (services[index] == unprobed.get(probedIndex)) ? probed[probedIndex++ ] : services[index];
+            }
+            
+            register.announce(register.getAnnouncements(registered), new ResolverListener()
+            {
+                public void handleException(final Object id, final Exception e)
+                {
+                    logger.log(Level.WARNING, "Error announcing proxied services - " + e.getMessage(), e);
+                }
+                
+                
+                public void receiveMessage(final Object id, final Message m)
+                {
+                }
+            });
+            
+            for (ServiceInstance service : registered)
             {
-                for (Message query : browser.queries)
+                ProxiedHost proxied;
+                do
                 {
-                    for (Record question : MulticastDNSUtils.extractRecords(query, Section.QUESTION))
+                    proxied = hosts.get(service.getHost());
+                    if (proxied == null)
                     {
-                        Name questionName = question.getName();
-                        Name recordName = record.getName();
-                        int questionType = question.getType();
-                        int recordType = record.getType();
-                        int questionDClass = question.getDClass();
-                        int recordDClass = record.getDClass();
-                        
-                        if (((questionType == Type.ANY) || (questionType == recordType)) && (questionName.equals(recordName) || questionName.subdomain(recordName) || recordName.toString().endsWith("." + questionName.toString())) && ((questionDClass == DClass.ANY) || ((questionDClass & 0x7FFF) == (recordDClass & 0x7FFF))))
+                        ProxiedHost added = new ProxiedHost(service.getHost());
+                        proxied = hosts.putIfAbsent(service.getHost(), added);
+                        if (proxied == null)
                         {
-                            return true;
+                            proxied = added;
                         }
                     }
-                }
+                } while (!add(proxied, service, lease));
             }
             
-            return false;
+            return registered;
         }
         
         
-        Browse getBrowser()
-        {
-            return browser;
-        }
-        
-        
-        boolean matchesBrowse(final Message message)
+        /**
+         * Renews the lease of the proxied host.
+         * 
+         * @param host The host
+         * @param lease The lease duration in milliseconds
+         * @return True if the host is proxied
+         */
+        protected boolean renew(final Name host, final long lease)
         {
-            if (message != null)
+            ProxiedHost proxied = hosts.get(host);
+            if (proxied != null)
             {
-                Record[] thatAnswers = MulticastDNSUtils.extractRecords(message, Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL);
-                
-                for (Record thatAnswer : thatAnswers)
+                synchronized (proxied)
                 {
-                    if (answersQuery(thatAnswer))
+                    if (!proxied.removed)
                     {
+                        renew(proxied, lease);
                         return true;
                     }
                 }
@@ -621,129 +2045,135 @@ public class MulticastDNSService extends MulticastDNSLookupBase
         }
         
         
-        DNSSDListener registerListener(final DNSSDListener listener)
-        {
-            return listenerProcessor.registerListener(listener);
-        }
-        
-        
-        DNSSDListener unregisterListener(final DNSSDListener listener)
+        /**
+         * Stops proxying the host, sending the goodbyes of its services and address records.
+         * 
+         * @param host The host
+         * @return The future, true if the goodbyes were sent, false if the host was not proxied
+         * @throws IOException
+         */
+        protected ListenableFuture<Boolean> unregister(final Name host)
+        throws IOException
         {
-            return listenerProcessor.unregisterListener(listener);
+            ProxiedHost proxied = hosts.get(host);
+            if ((proxied == null) || !remove(proxied, true))
+            {
+                ListenableFuture<Boolean> future = new ListenableFuture<Boolean>();
+                future.set(Boolean.FALSE);
+                return future;
+            }
+            
+            return goodbye(proxied);
         }
-    }
-    
-    
-    protected class Unregister
-    {
-        private final ServiceName serviceName;
         
         
-        protected Unregister(final ServiceInstance service)
+        /**
+         * Called by the lease timeout, reschedules the timeout if the lease was renewed, otherwise
+         * expires the host.
+         */
+        protected void expire(final ProxiedHost proxied)
         {
-            this(service.getName());
+            if (remove(proxied, false))
+            {
+                if (logger.isLoggable(Level.FINE))
+                {
+                    logger.logp(Level.FINE, getClass().getName(), "expire", "Lease of proxied host \"" + proxied.host + "\" expired.");
+                }
+                
+                try
+                {
+                    goodbye(proxied);
+                } catch (Exception e)
+                {
+                    logger.log(Level.WARNING, "Error sending goodbyes for proxied host \"" + proxied.host + "\" - " + e.getMessage(), e);
+                }
+            }
         }
         
         
-        protected Unregister(final ServiceName serviceName)
+        private boolean add(final ProxiedHost proxied, final ServiceInstance service, final long lease)
         {
-            super();
-            this.serviceName = serviceName;
+            synchronized (proxied)
+            {
+                if (proxied.removed)
+                {
+                    hosts.remove(proxied.host, proxied);
+                    return false;
+                }
+                
+                proxied.services.put(service.getName().getServiceRRName(), service);
+                renew(proxied, lease);
+                return true;
+            }
         }
         
         
-        protected void close()
+        private ListenableFuture<Boolean> goodbye(final ProxiedHost proxied)
         throws IOException
         {
+            Unregister unregister = new Unregister(true, proxied.getServices());
+            try
+            {
+                return unregister.unregister();
+            } finally
+            {
+                unregister.close();
+            }
         }
         
         
-        protected boolean unregister()
-        throws IOException
+        /**
+         * Removes the host, if its lease has expired or if forced.
+         * 
+         * @return True if the host was removed by this call
+         */
+        private boolean remove(final ProxiedHost proxied, final boolean force)
         {
-            /*
-             * Steps to Registering a Service.
-             * 
-             * 1. Send a standard Query Response containing the service records, Opcode: QUERY, Flags: Response, Authoritative, NO ERROR
-             * a. Add PTR record to ANSWER section. TTL: 0 Ex. _mdc._tcp.local. IN PTR Test._mdc._tcp.local.
-             * b. Repeat 3 queries with a 2 second delay between each query response.
-             */
-            String domain = serviceName.getDomain();
-            Name fullTypeName = new Name(serviceName.getFullType() + "." + domain);
-            Name typeName = new Name(serviceName.getType() + "." + domain);
-            Name shortSRVName = serviceName.getServiceRRName();
-            
-            ArrayList<Record> records = new ArrayList<Record>();
-            ArrayList<Record> additionalRecords = new ArrayList<Record>();
-            
-            records.add(new PTRRecord(typeName, DClass.IN, 0, shortSRVName));
-            if (!fullTypeName.equals(typeName))
-            {
-                records.add(new PTRRecord(fullTypeName, DClass.IN, 0, shortSRVName));
-            }
-            
-            Update update = new Update(new Name(domain));
-            for (Record record : records)
-            {
-                update.add(record);
-            }
-            
-            for (Record record : additionalRecords)
-            {
-                update.addRecord(record, Section.ADDITIONAL);
-            }
-            
-            // Updates are sent at least 2 times, one second apart, as per RFC 6762 Section 8.3
-            ResolverListener resolverListener = new ResolverListener()
+            synchronized (proxied)
             {
-                public void handleException(final Object id, final Exception e)
+                if (proxied.removed)
                 {
+                    return false;
                 }
                 
-                
-                public void receiveMessage(final Object id, final Message m)
+                long remaining = proxied.expiry - System.currentTimeMillis();
+                if (!force && (remaining > 0))
                 {
+                    schedule(proxied, remaining);
+                    return false;
                 }
-            };
-            
-            int tries = 0;
-            while (tries++ < 3)
-            {
-                querier.sendAsync(update, resolverListener);
                 
-                long retry = System.currentTimeMillis() + 2000;
-                while (System.currentTimeMillis() < retry)
+                if (proxied.future != null)
                 {
-                    try
-                    {
-                        Thread.sleep(2000);
-                    } catch (InterruptedException e)
-                    {
-                        // ignore
-                    }
+                    proxied.future.cancel(false);
+                    proxied.future = null;
                 }
+                proxied.removed = true;
+                hosts.remove(proxied.host, proxied);
+                return true;
             }
-            
-            Lookup lookup = new Lookup(new Name[] {typeName, fullTypeName}, Type.PTR, DClass.ANY);
-            try
+        }
+        
+        
+        private void renew(final ProxiedHost proxied, final long lease)
+        {
+            proxied.expiry = System.currentTimeMillis() + lease;
+            if (proxied.future == null)
+            {
+                schedule(proxied, lease);
+            }
+        }
+        
+        
+        private void schedule(final ProxiedHost proxied, final long delay)
+        {
+            proxied.future = executors.schedule(new Runnable()
             {
-                boolean found = false;
-                Record[] results = lookup.lookupRecords();
-                if (results != null)
+                public void run()
                 {
-                    for (Record record : results)
-                    {
-                        if (shortSRVName.equals(((PTRRecord)record).getTarget()))
-                        {
-                            found = true;
-                        }
-                    }
+                    expire(proxied);
                 }
-                return !found;
-            } finally
-            {
-                lookup.close();
-            }
+            }, delay, TimeUnit.MILLISECONDS);
         }
     }
     
@@ -753,6 +2183,17 @@ public class MulticastDNSService extends MulticastDNSLookupBase
     
     protected ArrayList<ServiceDiscoveryOperation> discoveryOperations = new ArrayList<ServiceDiscoveryOperation>();
     
+    protected final Prober prober = new Prober();
+    
+    protected final ServiceDirectory directory = new ServiceDirectory();
+    
+    protected final SleepProxy sleepProxy = new SleepProxy();
+    
+    /**
+     * The latest TXT announcement of each service whose repeat has not been sent yet.
+     */
+    protected final ConcurrentMap<Name, Update> textUpdates = new ConcurrentHashMap<Name, Update>();
+    
     
     public MulticastDNSService()
     throws IOException
@@ -761,88 +2202,263 @@ public class MulticastDNSService extends MulticastDNSLookupBase
     }
     
     
-    public void close()
+    public void close()
+    throws IOException
+    {
+        for (ServiceDiscoveryOperation discoveryOperation : discoveryOperations)
+        {
+            try
+            {
+                discoveryOperation.close();
+            } catch (Exception e)
+            {
+                // ignore
+            }
+        }
+        
+        prober.close();
+        sleepProxy.close();
+        textUpdates.clear();
+    }
+    
+    public Set<Domain> getBrowseDomains(final Set<Name> searchPath)
+    {
+        Set<Domain> results = new LinkedHashSet<Domain>();
+        Name[] defaultDomains = Constants.ALL_MULTICAST_DNS_DOMAINS;
+        for (Name name : defaultDomains)
+        {
+            results.add(new Domain(name));
+        }
+        results.addAll(getDomains(new String[] {Constants.DEFAULT_BROWSE_DOMAIN_NAME,
+                                                Constants.BROWSE_DOMAIN_NAME,
+                                                Constants.LEGACY_BROWSE_DOMAIN_NAME}, searchPath.toArray(new Name[searchPath.size()])));
+        return results;
+    }
+    
+    public Set<Domain> getDefaultBrowseDomains(final Set<Name> searchPath)
+    {
+        Set<Domain> results = new LinkedHashSet<Domain>();
+        Name[] defaultDomains = Constants.ALL_MULTICAST_DNS_DOMAINS;
+        for (Name name : defaultDomains)
+        {
+            results.add(new Domain(name));
+        }
+        searchPath.addAll(Arrays.asList(Constants.ALL_MULTICAST_DNS_DOMAINS));
+        results.addAll(getDomains(new String[] {Constants.DEFAULT_BROWSE_DOMAIN_NAME}, searchPath.toArray(new Name[searchPath.size()])));
+        return results;
+    }
+    
+    
+    public Set<Domain> getDefaultRegistrationDomains(final Set<Name> searchPath)
+    {
+        Set<Domain> results = new LinkedHashSet<Domain>();
+        Name[] defaultDomains = Constants.ALL_MULTICAST_DNS_DOMAINS;
+        for (Name name : defaultDomains)
+        {
+            results.add(new Domain(name));
+        }
+        searchPath.addAll(Arrays.asList(Constants.ALL_MULTICAST_DNS_DOMAINS));
+        results.addAll(getDomains(new String[] {Constants.DEFAULT_REGISTRATION_DOMAIN_NAME}, searchPath.toArray(new Name[searchPath.size()])));
+        return results;
+    }
+    
+    
+    public Set<Domain> getRegistrationDomains(final Set<Name> searchPath)
+    {
+        Set<Domain> results = new LinkedHashSet<Domain>();
+        Name[] defaultDomains = Constants.ALL_MULTICAST_DNS_DOMAINS;
+        for (Name name : defaultDomains)
+        {
+            results.add(new Domain(name));
+        }
+        results.addAll(getDomains(new String[] {Constants.DEFAULT_REGISTRATION_DOMAIN_NAME,
+                                                Constants.REGISTRATION_DOMAIN_NAME}, searchPath.toArray(new Name[searchPath.size()])));
+        return results;
+    }
+    
+    
+    /**
+     * Returns the directory of the services found by the Service Discovery Operations of this
+     * MulticastDNSService. The directory is queried locally, without network traffic.
+     * 
+     * @return The ServiceDirectory
+     */
+    public ServiceDirectory getServiceDirectory()
+    {
+        return directory;
+    }
+    
+    
+    public ServiceInstance register(final ServiceInstance service)
+    throws IOException
+    {
+        Register register = new Register(service);
+        try
+        {
+            return register.register()[0];
+        } finally
+        {
+            register.close();
+        }
+    }
+    
+    
+    /**
+     * Registers a batch of services. The services are probed together and announced together,
+     * sharing the address records of their hosts, in as few packets as possible.
+     * 
+     * @param services The services to register
+     * @return The service instances actually registered, in the order of the services
+     * @throws IOException
+     */
+    public ServiceInstance[] register(final Collection<ServiceInstance> services)
+    throws IOException
+    {
+        if ((services == null) || services.isEmpty())
+        {
+            return new ServiceInstance[0];
+        }
+        
+        Register register = new Register(services.toArray(new ServiceInstance[services.size()]));
+        try
+        {
+            return register.register();
+        } finally
+        {
+            register.close();
+        }
+    }
+    
+    
+    /**
+     * Registers the service asynchronously, returning a future that completes with the service
+     * instance actually registered. Cancelling the future before the registration completes
+     * unregisters the service once it has been registered.
+     * 
+     * @param service The service to register
+     * @return The future registered service instance
+     */
+    public ListenableFuture<ServiceInstance> registerAsync(final ServiceInstance service)
+    {
+        final ListenableFuture<ServiceInstance> future = new ListenableFuture<ServiceInstance>();
+        executors.execute(new Runnable()
+        {
+            public void run()
+            {
+                if (future.isDone())
+                {
+                    return;
+                }
+                
+                try
+                {
+                    ServiceInstance registered = register(service);
+                    if (!future.set(registered) && (registered != null))
+                    {
+                        unregisterAsync(registered);
+                    }
+                } catch (Exception e)
+                {
+                    future.setException(e);
+                }
+            }
+        });
+        
+        return future;
+    }
+    
+    
+    /**
+     * Registers services on behalf of their hosts, hosts that are asleep or otherwise unable to
+     * answer for themselves. The services are probed and announced as registered services are, and
+     * their records and the address records of their hosts are answered and defended until the
+     * lease of their host expires, when their goodbyes are sent. Registering the services of a
+     * proxied host again renews its lease, without probing the services already proxied.
+     * 
+     * @param services The services, whose addresses are the addresses of their hosts
+     * @param lease The lease duration
+     * @param unit The time unit of the lease duration
+     * @return The service instances actually registered, in the order of the services
+     * @throws IOException
+     */
+    public ServiceInstance[] registerProxy(final Collection<ServiceInstance> services, final long lease, final TimeUnit unit)
     throws IOException
     {
-        for (ServiceDiscoveryOperation discoveryOperation : discoveryOperations)
+        if ((services == null) || services.isEmpty())
         {
-            try
-            {
-                discoveryOperation.close();
-            } catch (Exception e)
-            {
-                // ignore
-            }
+            return new ServiceInstance[0];
         }
+        
+        return sleepProxy.register(services.toArray(new ServiceInstance[services.size()]), unit.toMillis(lease));
     }
     
-    public Set<Domain> getBrowseDomains(final Set<Name> searchPath)
-    {
-        Set<Domain> results = new LinkedHashSet<Domain>();
-        Name[] defaultDomains = Constants.ALL_MULTICAST_DNS_DOMAINS;
-        for (Name name : defaultDomains)
-        {
-            results.add(new Domain(name));
-        }
-        results.addAll(getDomains(new String[] {Constants.DEFAULT_BROWSE_DOMAIN_NAME,
-                                                Constants.BROWSE_DOMAIN_NAME,
-                                                Constants.LEGACY_BROWSE_DOMAIN_NAME}, searchPath.toArray(new Name[searchPath.size()])));
-        return results;
-    }
     
-    public Set<Domain> getDefaultBrowseDomains(final Set<Name> searchPath)
+    /**
+     * Renews the lease of a proxied host.
+     * 
+     * @param host The proxied host
+     * @param lease The lease duration
+     * @param unit The time unit of the lease duration
+     * @return True if the host is proxied, false if it is not or its lease has expired
+     */
+    public boolean renewProxy(final Name host, final long lease, final TimeUnit unit)
     {
-        Set<Domain> results = new LinkedHashSet<Domain>();
-        Name[] defaultDomains = Constants.ALL_MULTICAST_DNS_DOMAINS;
-        for (Name name : defaultDomains)
-        {
-            results.add(new Domain(name));
-        }
-        searchPath.addAll(Arrays.asList(Constants.ALL_MULTICAST_DNS_DOMAINS));
-        results.addAll(getDomains(new String[] {Constants.DEFAULT_BROWSE_DOMAIN_NAME}, searchPath.toArray(new Name[searchPath.size()])));
-        return results;
+        return sleepProxy.renew(host, unit.toMillis(lease));
     }
     
     
-    public Set<Domain> getDefaultRegistrationDomains(final Set<Name> searchPath)
+    /**
+     * Stops proxying a host before its lease expires, such as when the host wakes up, sending the
+     * goodbyes of its services and address records without blocking.
+     * 
+     * @param host The proxied host
+     * @return The future, true if the goodbyes were sent, false if the host was not proxied
+     * @throws IOException
+     */
+    public ListenableFuture<Boolean> unregisterProxy(final Name host)
+    throws IOException
     {
-        Set<Domain> results = new LinkedHashSet<Domain>();
-        Name[] defaultDomains = Constants.ALL_MULTICAST_DNS_DOMAINS;
-        for (Name name : defaultDomains)
-        {
-            results.add(new Domain(name));
-        }
-        searchPath.addAll(Arrays.asList(Constants.ALL_MULTICAST_DNS_DOMAINS));
-        results.addAll(getDomains(new String[] {Constants.DEFAULT_REGISTRATION_DOMAIN_NAME}, searchPath.toArray(new Name[searchPath.size()])));
-        return results;
+        return sleepProxy.unregister(host);
     }
     
     
-    public Set<Domain> getRegistrationDomains(final Set<Name> searchPath)
+    public Name[] getProxiedHosts()
     {
-        Set<Domain> results = new LinkedHashSet<Domain>();
-        Name[] defaultDomains = Constants.ALL_MULTICAST_DNS_DOMAINS;
-        for (Name name : defaultDomains)
-        {
-            results.add(new Domain(name));
-        }
-        results.addAll(getDomains(new String[] {Constants.DEFAULT_REGISTRATION_DOMAIN_NAME,
-                                                Constants.REGISTRATION_DOMAIN_NAME}, searchPath.toArray(new Name[searchPath.size()])));
-        return results;
+        return sleepProxy.getHosts();
     }
     
     
-    public ServiceInstance register(final ServiceInstance service)
+    /**
+     * Starts a Service Discovery Browse Operation whose events are published to the Subscribers of
+     * the returned ServiceEventPublisher, as they request them. Closing the publisher stops the
+     * Service Discovery Browse Operation.
+     * 
+     * @param browser An instance of a Browse object containing the mDNS/DNS Queries
+     * @return The ServiceEventPublisher
+     * @throws IOException
+     */
+    public ServiceEventPublisher publishServiceDiscovery(final Browse browser)
     throws IOException
     {
-        Register register = new Register(service);
-        try
-        {
-            return register.register();
-        } finally
+        final Object[] id = new Object[1];
+        ServiceEventPublisher publisher = new ServiceEventPublisher()
         {
-            register.close();
-        }
+            @Override
+            public void close()
+            throws IOException
+            {
+                try
+                {
+                    stopServiceDiscovery(id[0]);
+                } finally
+                {
+                    super.close();
+                }
+            }
+        };
+        id[0] = startServiceDiscovery(browser, publisher);
+        
+        return publisher;
     }
     
     
@@ -870,6 +2486,32 @@ public class MulticastDNSService extends MulticastDNSLookupBase
     }
     
     
+    /**
+     * Starts a passive Service Discovery Operation, which sends no queries. The services are derived
+     * from the records already cached and from the announcements and responses overheard on the
+     * network, and are removed when they announce their departure or their records expire from the
+     * cache. Returns an identifier to be used later to stop the Service Discovery Operation.
+     * 
+     * @param browser An instance of a Browse object containing the mDNS/DNS Questions, which are not sent
+     * @param listener The DNS Service Discovery Listener to which the events are sent.
+     * @return An Object that identifies the Service Discovery Operation.
+     * @throws IOException
+     */
+    public Object startPassiveServiceDiscovery(final Browse browser, final DNSSDListener listener)
+    throws IOException
+    {
+        ServiceDiscoveryOperation discoveryOperation = new ServiceDiscoveryOperation(browser, listener, true);
+        
+        synchronized (discoveryOperations)
+        {
+            discoveryOperations.add(discoveryOperation);
+        }
+        discoveryOperation.start();
+        
+        return discoveryOperation;
+    }
+    
+    
     /**
      * Stops a Service Discovery Browse Operation.
      * 
@@ -908,7 +2550,44 @@ public class MulticastDNSService extends MulticastDNSLookupBase
     public boolean unregister(final ServiceInstance service)
     throws IOException
     {
-        Unregister unregister = new Unregister(service);
+        return getUnregistered(unregisterAsync(service));
+    }
+    
+    
+    public boolean unregister(final ServiceName name)
+    throws IOException
+    {
+        return getUnregistered(unregisterAsync(name));
+    }
+    
+    
+    /**
+     * Unregisters the service without blocking, returning a future that completes once the
+     * goodbyes have been sent.
+     * 
+     * @param service The service to unregister
+     * @return The future, true if the goodbyes were sent
+     * @throws IOException
+     */
+    public ListenableFuture<Boolean> unregisterAsync(final ServiceInstance service)
+    throws IOException
+    {
+        return unregisterAsync(Collections.singletonList(service));
+    }
+    
+    
+    /**
+     * Unregisters a batch of services without blocking, their goodbyes are packed into as few
+     * packets as possible.
+     * 
+     * @param services The services to unregister
+     * @return The future, true if the goodbyes were sent
+     * @throws IOException
+     */
+    public ListenableFuture<Boolean> unregisterAsync(final Collection<ServiceInstance> services)
+    throws IOException
+    {
+        Unregister unregister = new Unregister(services.toArray(new ServiceInstance[services.size()]));
         try
         {
             return unregister.unregister();
@@ -919,7 +2598,15 @@ public class MulticastDNSService extends MulticastDNSLookupBase
     }
     
     
-    public boolean unregister(final ServiceName name)
+    /**
+     * Unregisters the service without blocking, the SRV and TXT goodbyes are sent for the records
+     * still cached.
+     * 
+     * @param name The name of the service to unregister
+     * @return The future, true if the goodbyes were sent
+     * @throws IOException
+     */
+    public ListenableFuture<Boolean> unregisterAsync(final ServiceName name)
     throws IOException
     {
         Unregister unregister = new Unregister(name);
@@ -933,6 +2620,135 @@ public class MulticastDNSService extends MulticastDNSLookupBase
     }
     
     
+    /**
+     * Replaces the TXT record of a registered service with the text attributes. Only the new TXT
+     * record is announced, with the cache flush bit set so that it replaces the previous TXT record
+     * in the authoritative zone and in the caches of the network [RFC 6762 Section 10.2]. The
+     * service is neither probed again nor its other records re-announced. The service must be
+     * registered by this host, its SRV record held in the authoritative zone, services of other
+     * hosts heard on the network are rejected.
+     * 
+     * The announcement is repeated one second later [RFC 6762 Section 8.4], unless the text is
+     * updated again in the meantime, in which case only the latest text is repeated.
+     * 
+     * @param name The name of the registered service
+     * @param text The text attributes, a null value adds the attribute without a value
+     * @throws IOException If the service is not registered or the announcement cannot be sent
+     */
+    public void updateText(final ServiceName name, final Map text)
+    throws IOException
+    {
+        final Name shortSRVName = name.getServiceRRName();
+        boolean registered = false;
+        Message authoritative = queryAuthoritative(querier, Message.newQuery(Record.newRecord(shortSRVName, Type.SRV, DClass.IN)));
+        if (authoritative != null)
+        {
+            for (Record record : MulticastDNSUtils.extractRecords(authoritative, Section.ANSWER))
+            {
+                registered |= (record.getType() == Type.SRV) && shortSRVName.equals(record.getName());
+            }
+        }
+        
+        if (!registered)
+        {
+            throw new IOException("Service \"" + name + "\" is not registered.");
+        }
+        
+        final Update update = new Update(new Name(name.getDomain()));
+        update.add(new TXTRecord(shortSRVName, DClass.IN + CACHE_FLUSH, DEFAULT_TXT_TTL, getTextStrings(text)));
+        textUpdates.put(shortSRVName, update);
+        querier.broadcast(update, false);
+        
+        try
+        {
+            executors.schedule(new Runnable()
+            {
+                public void run()
+                {
+                    if (textUpdates.remove(shortSRVName, update))
+                    {
+                        try
+                        {
+                            querier.broadcast(update, false);
+                        } catch (IOException e)
+                        {
+                            logger.log(Level.WARNING, "Error repeating TXT announcement - " + e.getMessage(), e);
+                        }
+                    }
+                }
+            }, 1000, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e)
+        {
+            // Shutting down, the first announcement was sent.
+            textUpdates.remove(shortSRVName, update);
+        }
+    }
+    
+    
+    private boolean getUnregistered(final ListenableFuture<Boolean> future)
+    throws IOException
+    {
+        try
+        {
+            return future.get().booleanValue();
+        } catch (InterruptedException e)
+        {
+            InterruptedIOException iioe = new InterruptedIOException("Unregistration was interrupted.");
+            iioe.initCause(e);
+            throw iioe;
+        } catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            IOException ioe = new IOException(cause.getMessage());
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+    
+    
+    /**
+     * Returns the address and NSEC records of the service's host.
+     */
+    protected List<Record> getHostRecords(final ServiceInstance service)
+    {
+        List<Record> records = new ArrayList<Record>();
+        InetAddress[] addresses = service.getAddresses();
+        if (addresses != null)
+        {
+            for (int index = 0; index < addresses.length; index++ )
+            {
+                if (addresses[index] != null)
+                {
+                    if (addresses[index].getAddress().length == 4)
+                    {
+                        records.add(new ARecord(service.getHost(), DClass.IN + CACHE_FLUSH, DEFAULT_A_TTL, addresses[index]));
+                    } else
+                    {
+                        records.add(new AAAARecord(service.getHost(), DClass.IN + CACHE_FLUSH, DEFAULT_A_TTL, addresses[index]));
+                    }
+                }
+            }
+        }
+        records.add(new NSECRecord(service.getHost(), DClass.IN + CACHE_FLUSH, DEFAULT_RR_WITH_HOST_TTL, service.getHost(), new int[] {Type.A, Type.AAAA}));
+        
+        return records;
+    }
+    
+    
+    /**
+     * Returns the largest packet, in bytes, that can be sent on every interface of the querier,
+     * MAX_PACKET_SIZE if the querier does not know the payload sizes of its interfaces.
+     */
+    protected int getMaxPacketSize()
+    {
+        return getMaxPayloadSize(querier, MAX_PACKET_SIZE);
+    }
+    
+    
     protected Set<Domain> getDomains(final String[] names, final Name[] path)
     {
         Set<Domain> results = new LinkedHashSet<Domain>();
@@ -989,6 +2805,114 @@ public class MulticastDNSService extends MulticastDNSLookupBase
     }
     
     
+    /**
+     * Returns the name to probe for after a conflict, "Name" becomes "Name (2)" and "Name (2)"
+     * becomes "Name (3)" [RFC 6763 Appendix D].
+     */
+    protected static ServiceName nextServiceName(final ServiceName name)
+    throws TextParseException
+    {
+        String instance = name.getInstance();
+        int number = 2;
+        int start = instance.lastIndexOf(" (");
+        if ((start > 0) && instance.endsWith(")"))
+        {
+            try
+            {
+                number = Integer.parseInt(instance.substring(start + 2, instance.length() - 1)) + 1;
+                instance = instance.substring(0, start);
+            } catch (NumberFormatException e)
+            {
+                // Not a rename suffix, append one.
+            }
+        }
+        
+        // The service RR name is parsed from the unescaped instance, so the type is taken from the service type name
+        String label = (instance + " (" + number + ")").replace("\\", "\\\\").replace(".", "\\.");
+        return new ServiceName(new Name(label, name.getServiceTypeName()));
+    }
+    
+    
+    /**
+     * Returns the TXT record strings of the text attributes, "key=value" or "key" for attributes
+     * without a value. Binary (byte[]) values are sent as their bytes, escaped as "\DDD" where
+     * needed, values of other types as their string form. Empty text is a single empty string
+     * [RFC 6763 Section 6.1].
+     */
+    protected static List<String> getTextStrings(final Map text)
+    {
+        List<String> strings = new ArrayList<String>();
+        if (text != null)
+        {
+            for (Object o : text.entrySet())
+            {
+                Map.Entry entry = (Map.Entry) o;
+                Object value = entry.getValue();
+                if (value == null)
+                {
+                    strings.add(String.valueOf(entry.getKey()));
+                } else if (value instanceof byte[])
+                {
+                    strings.add(entry.getKey() + "=" + escapeText((byte[]) value));
+                } else
+                {
+                    strings.add(entry.getKey() + "=" + value);
+                }
+            }
+        }
+        
+        if (strings.isEmpty())
+        {
+            strings.add("");
+        }
+        
+        return strings;
+    }
+    
+    
+    /**
+     * Returns the bytes as a TXT record string, the bytes that are not printable ASCII, quotes and
+     * backslashes escaped as "\DDD", so that the TXT record holds the bytes unchanged.
+     */
+    protected static String escapeText(final byte[] bytes)
+    {
+        StringBuilder builder = new StringBuilder(bytes.length);
+        for (byte b : bytes)
+        {
+            int value = b & 0xFF;
+            if ((value < 0x20) || (value >= 0x7F) || (value == '"') || (value == '\\'))
+            {
+                builder.append('\\');
+                builder.append((char) ('0' + (value / 100)));
+                builder.append((char) ('0' + ((value / 10) % 10)));
+                builder.append((char) ('0' + (value % 10)));
+            } else
+            {
+                builder.append((char) value);
+            }
+        }
+        return builder.toString();
+    }
+    
+    
+    /**
+     * Compares two sorted sets of proposed records lexicographically [RFC 6762 Section 8.2.1].
+     */
+    protected static int compareProbeRecords(final Record[] ours, final Record[] theirs)
+    {
+        for (int index = 0; (index < ours.length) && (index < theirs.length); index++ )
+        {
+            int result = PROBE_RECORD_ORDER.compare(ours[index], theirs[index]);
+            if (result != 0)
+            {
+                return result;
+            }
+        }
+        
+        return ours.length - theirs.length;
+    }
+    
+    
     public static boolean hasMulticastDomains(final Message query)
     {
         Record[] records = MulticastDNSUtils.extractRecords(query, 0, 1, 2, 3);
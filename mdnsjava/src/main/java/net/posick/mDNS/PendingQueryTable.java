@@ -0,0 +1,469 @@
+package net.posick.mDNS;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Header;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.MulticastDNSUtils;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Opcode;
+import org.xbill.DNS.Options;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.utils.Executors;
+import net.posick.mDNS.utils.Misc;
+
+/**
+ * The PendingQueryTable tracks the asynchronous queries awaiting a response, indexed by the name
+ * and type of their questions, so that an incoming record is routed only to the queries it answers.
+ * A query is completed by the first response that answers any of its questions, or removed
+ * without notification when its timeout expires. Queries added as non-single receive every
+ * matching response until they are cancelled or expire.
+ *
+ * @author Steve Posick
+ */
+public class PendingQueryTable
+{
+    private static final Logger logger = Misc.getLogger(PendingQueryTable.class, Options.check("mdns_verbose"));
+    
+    
+    /**
+     * An asynchronous query awaiting a response.
+     */
+    public class PendingQuery
+    {
+        private final Object id;
+        
+        private final Message query;
+        
+        private final ResolverListener listener;
+        
+        private final QuestionKey[] keys;
+        
+        private final boolean single;
+        
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        
+        private volatile ScheduledFuture<?> timeout;
+        
+        
+        protected PendingQuery(final Object id, final Message query, final ResolverListener listener, final boolean single)
+        {
+            this.id = id;
+            this.query = query;
+            this.listener = listener;
+            this.single = single;
+            
+            Record[] questions = MulticastDNSUtils.extractRecords(query, Section.QUESTION);
+            keys = new QuestionKey[questions.length];
+            for (int index = 0; index < questions.length; index++)
+            {
+                keys[index] = new QuestionKey(questions[index].getName(), questions[index].getType());
+            }
+        }
+        
+        
+        public Object getId()
+        {
+            return id;
+        }
+        
+        
+        public ResolverListener getListener()
+        {
+            return listener;
+        }
+        
+        
+        public Message getQuery()
+        {
+            return query;
+        }
+        
+        
+        public boolean isDone()
+        {
+            return done.get();
+        }
+        
+        
+        /**
+         * Removes the query from the table without notifying its listener.
+         *
+         * @return true if the query was pending
+         */
+        public boolean cancel()
+        {
+            return complete();
+        }
+        
+        
+        protected boolean complete()
+        {
+            if (done.compareAndSet(false, true))
+            {
+                remove(this);
+                if (timeout != null)
+                {
+                    timeout.cancel(false);
+                }
+                return true;
+            }
+            
+            return false;
+        }
+        
+        
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + " [id: " + id + ", questions: " + keys.length + (done.get() ? ", done" : "") + "]";
+        }
+    }
+    
+    
+    /**
+     * The index key of a question, its name and type. Names compare case insensitively.
+     */
+    protected static class QuestionKey
+    {
+        private final Name name;
+        
+        private final int type;
+        
+        
+        protected QuestionKey(final Name name, final int type)
+        {
+            this.name = name;
+            this.type = type;
+        }
+        
+        
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            } else if (o instanceof QuestionKey)
+            {
+                QuestionKey that = (QuestionKey) o;
+                return (type == that.type) && name.equals(that.name);
+            }
+            
+            return false;
+        }
+        
+        
+        @Override
+        public int hashCode()
+        {
+            return (name.hashCode() * 31) + type;
+        }
+        
+        
+        @Override
+        public String toString()
+        {
+            return name + " " + Type.string(type);
+        }
+    }
+    
+    
+    private final Map<QuestionKey, List<PendingQuery>> index = new HashMap<QuestionKey, List<PendingQuery>>();
+    
+    private final Set<PendingQuery> queries = new LinkedHashSet<PendingQuery>();
+    
+    private final Executors executors = Executors.newInstance();
+    
+    
+    public PendingQueryTable()
+    {
+    }
+    
+    
+    /**
+     * Adds a query to the table. The query is removed once it is answered or after the timeout.
+     *
+     * @param id The id reported to the listener
+     * @param query The query
+     * @param listener The listener notified of the first response answering the query
+     * @param timeout The time, relative to now, after which the query expires
+     * @param unit The unit of the timeout
+     * @return The PendingQuery
+     */
+    public PendingQuery add(final Object id, final Message query, final ResolverListener listener, final long timeout, final TimeUnit unit)
+    {
+        return add(id, query, listener, timeout, unit, true);
+    }
+    
+    
+    /**
+     * Adds a query to the table. A single query is removed once it is answered, otherwise the
+     * query receives every response answering it until cancelled. All queries expire after the
+     * timeout.
+     *
+     * @param id The id reported to the listener
+     * @param query The query
+     * @param listener The listener notified of the responses answering the query
+     * @param timeout The time, relative to now, after which the query expires
+     * @param unit The unit of the timeout
+     * @param single true to complete the query with the first response
+     * @return The PendingQuery
+     */
+    public PendingQuery add(final Object id, final Message query, final ResolverListener listener, final long timeout, final TimeUnit unit, final boolean single)
+    {
+        final PendingQuery pendingQuery = new PendingQuery(id, query, listener, single);
+        
+        synchronized (this)
+        {
+            queries.add(pendingQuery);
+            for (QuestionKey key : pendingQuery.keys)
+            {
+                List<PendingQuery> list = index.get(key);
+                if (list == null)
+                {
+                    list = new ArrayList<PendingQuery>(1);
+                    index.put(key, list);
+                }
+                list.add(pendingQuery);
+            }
+        }
+        
+        pendingQuery.timeout = executors.schedule(new Runnable()
+        {
+            public void run()
+            {
+                if (pendingQuery.complete() && logger.isLoggable(Level.FINE))
+                {
+                    logger.logp(Level.FINE, PendingQueryTable.class.getName(), "expire", "Pending query expired - " + pendingQuery);
+                }
+            }
+        }, timeout, unit);
+        
+        // The query may have completed before the timeout was assigned
+        if (pendingQuery.isDone())
+        {
+            pendingQuery.timeout.cancel(false);
+        }
+        
+        return pendingQuery;
+    }
+    
+    
+    /**
+     * Cancels all pending queries.
+     */
+    public void close()
+    {
+        PendingQuery[] pending;
+        synchronized (this)
+        {
+            pending = queries.toArray(new PendingQuery[queries.size()]);
+        }
+        
+        for (PendingQuery pendingQuery : pending)
+        {
+            pendingQuery.cancel();
+        }
+    }
+    
+    
+    /**
+     * Delivers the exception to the pending queries with the specified id, or to all pending
+     * queries with a null id, completing them.
+     *
+     * @param id The id of the failed query
+     * @param e The exception
+     */
+    public void dispatchException(final Object id, final Exception e)
+    {
+        List<PendingQuery> matches = new ArrayList<PendingQuery>();
+        synchronized (this)
+        {
+            for (PendingQuery pendingQuery : queries)
+            {
+                if ((pendingQuery.id == null) || pendingQuery.id.equals(id))
+                {
+                    matches.add(pendingQuery);
+                }
+            }
+        }
+        
+        for (PendingQuery pendingQuery : matches)
+        {
+            if (pendingQuery.complete())
+            {
+                pendingQuery.listener.handleException(pendingQuery.id, e);
+            }
+        }
+    }
+    
+    
+    /**
+     * Delivers a response to the pending queries that have a question answered by any record in its
+     * answer, authority or additional sections, completing the single queries. Only the index
+     * entries for the records' names and types are examined.
+     *
+     * @param message The response
+     * @return true if the response was delivered to at least one pending query
+     */
+    public boolean dispatch(final Message message)
+    {
+        Header header = message.getHeader();
+        if (!header.getFlag(Flags.QR))
+        {
+            return false;
+        }
+        
+        switch (header.getOpcode())
+        {
+            case Opcode.QUERY:
+            case Opcode.IQUERY:
+            case Opcode.NOTIFY:
+            case Opcode.STATUS:
+                break;
+            default:
+                return false;
+        }
+        
+        Set<PendingQuery> matches = null;
+        synchronized (this)
+        {
+            if (index.isEmpty())
+            {
+                return false;
+            }
+            
+            for (int section : new int[] {Section.ANSWER, Section.ADDITIONAL, Section.AUTHORITY})
+            {
+                Record[] records = message.getSectionArray(section);
+                if (records != null)
+                {
+                    for (Record record : records)
+                    {
+                        matches = addMatches(matches, index.get(new QuestionKey(record.getName(), record.getType())));
+                        matches = addMatches(matches, index.get(new QuestionKey(record.getName(), Type.ANY)));
+                    }
+                }
+            }
+        }
+        
+        boolean delivered = false;
+        if (matches != null)
+        {
+            Object id = null;
+            for (PendingQuery pendingQuery : matches)
+            {
+                if (pendingQuery.single ? pendingQuery.complete() : !pendingQuery.isDone())
+                {
+                    id = pendingQuery.id;
+                    pendingQuery.listener.receiveMessage(id, message);
+                    delivered = true;
+                }
+            }
+            
+            if (delivered && logger.isLoggable(Level.FINE))
+            {
+                logger.logp(Level.FINE, getClass().getName(), "dispatch", "Response delivered to " + matches.size() + " pending queries, last id " + id + ".");
+            }
+        }
+        
+        return delivered;
+    }
+    
+    
+    /**
+     * Cancels the pending queries registered with the specified listener.
+     *
+     * @param listener The listener
+     * @return true if a pending query was cancelled
+     */
+    public boolean remove(final ResolverListener listener)
+    {
+        List<PendingQuery> matches = new ArrayList<PendingQuery>();
+        synchronized (this)
+        {
+            for (PendingQuery pendingQuery : queries)
+            {
+                if (pendingQuery.listener == listener)
+                {
+                    matches.add(pendingQuery);
+                }
+            }
+        }
+        
+        boolean removed = false;
+        for (PendingQuery pendingQuery : matches)
+        {
+            removed |= pendingQuery.cancel();
+        }
+        
+        return removed;
+    }
+    
+    
+    /**
+     * Returns the number of pending queries.
+     */
+    public synchronized int size()
+    {
+        return queries.size();
+    }
+    
+    
+    protected synchronized void remove(final PendingQuery pendingQuery)
+    {
+        if (queries.remove(pendingQuery))
+        {
+            for (QuestionKey key : pendingQuery.keys)
+            {
+                List<PendingQuery> list = index.get(key);
+                if (list != null)
+                {
+                    for (Iterator<PendingQuery> i = list.iterator(); i.hasNext();)
+                    {
+                        if (i.next() == pendingQuery)
+                        {
+                            i.remove();
+                            break;
+                        }
+                    }
+                    
+                    if (list.isEmpty())
+                    {
+                        index.remove(key);
+                    }
+                }
+            }
+        }
+    }
+    
+    
+    private static Set<PendingQuery> addMatches(final Set<PendingQuery> matches, final List<PendingQuery> list)
+    {
+        if ((list == null) || list.isEmpty())
+        {
+            return matches;
+        }
+        
+        Set<PendingQuery> result = matches != null ? matches : new LinkedHashSet<PendingQuery>();
+        result.addAll(list);
+        return result;
+    }
+}
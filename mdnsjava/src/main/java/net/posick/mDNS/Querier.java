@@ -25,6 +25,8 @@ public interface Querier extends Resolver, Closeable
     
     static final int DEFAULT_RESPONSE_WAIT_TIME = 500;
     
+    static final int DEFAULT_RESPONSE_QUIET_TIME = 120;
+    
     static final int DEFAULT_RETRY_INTERVAL = 1000;
     
     
@@ -0,0 +1,215 @@
+package net.posick.mDNS;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * Matches records against a set of questions compiled into an index of names. A record answers a
+ * question if its type and class match and its name equals the question name, is a subdomain of
+ * the question name, or is a parent domain of the question name.
+ *
+ * The questions are indexed by their names and by the parent domains of their names. Matching a
+ * record looks up its name and the parent domains of its name, one per label. The questions found
+ * for a name are remembered in a bounded cache, so the names seen repeatedly while browsing are
+ * matched with a single hash lookup and without allocating. The cache is a concurrent map, so
+ * lookups from several threads do not contend for a lock. When the cache is full arbitrary
+ * entries are evicted, an approximation of LRU that is good enough for the few names of a browse.
+ *
+ * @author Steve Posick
+ */
+public class QuestionMatcher
+{
+    public static final int DEFAULT_CACHE_SIZE = 512;
+    
+    private static final Record[] NO_QUESTIONS = new Record[0];
+    
+    private static final int[] SECTIONS = new int[] {Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL};
+    
+    private final Map<Name, Record[]> questionsByName = new HashMap<Name, Record[]>();
+    
+    private final Map<Name, Record[]> questionsByParent = new HashMap<Name, Record[]>();
+    
+    private final ConcurrentMap<Name, Record[]> cache = new ConcurrentHashMap<Name, Record[]>();
+    
+    private final int cacheSize;
+    
+    
+    public QuestionMatcher(final Message... queries)
+    {
+        this(DEFAULT_CACHE_SIZE, queries);
+    }
+    
+    
+    public QuestionMatcher(final int cacheSize, final Message... queries)
+    {
+        this.cacheSize = cacheSize;
+        
+        Map<Name, List<Record>> byName = new HashMap<Name, List<Record>>();
+        Map<Name, List<Record>> byParent = new HashMap<Name, List<Record>>();
+        if (queries != null)
+        {
+            for (Message query : queries)
+            {
+                for (Record question : query.getSectionArray(Section.QUESTION))
+                {
+                    Name name = question.getName();
+                    add(byName, name, question);
+                    for (int labels = 1; labels < name.labels(); labels++ )
+                    {
+                        add(byParent, new Name(name, labels), question);
+                    }
+                }
+            }
+        }
+        
+        compile(byName, questionsByName);
+        compile(byParent, questionsByParent);
+    }
+    
+    
+    /**
+     * Returns true if the record answers any of the questions.
+     *
+     * @param record The record
+     * @return true if the record answers any of the questions
+     */
+    public boolean answers(final Record record)
+    {
+        if (record == null)
+        {
+            return false;
+        }
+        
+        Record[] questions = getQuestions(record.getName());
+        int recordType = record.getType();
+        int recordDClass = record.getDClass() & 0x7FFF;
+        for (Record question : questions)
+        {
+            int questionType = question.getType();
+            int questionDClass = question.getDClass();
+            if (((questionType == Type.ANY) || (questionType == recordType)) && ((questionDClass == DClass.ANY) || ((questionDClass & 0x7FFF) == recordDClass)))
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    
+    /**
+     * Returns true if any record of the answer, authority or additional sections of the message
+     * answers any of the questions.
+     *
+     * @param message The message
+     * @return true if the message answers any of the questions
+     */
+    public boolean answers(final Message message)
+    {
+        if (message == null)
+        {
+            return false;
+        }
+        
+        for (int section : SECTIONS)
+        {
+            for (Record record : message.getSectionArray(section))
+            {
+                if (answers(record))
+                {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    
+    /**
+     * Returns the questions whose names are equal to, a parent domain of or a subdomain of the
+     * name.
+     */
+    protected Record[] getQuestions(final Name name)
+    {
+        Record[] questions = cache.get(name);
+        if (questions != null)
+        {
+            return questions;
+        }
+        
+        List<Record> matches = new ArrayList<Record>();
+        addAll(matches, questionsByParent.get(name));
+        addAll(matches, questionsByName.get(name));
+        for (int labels = 1; labels < name.labels(); labels++ )
+        {
+            addAll(matches, questionsByName.get(new Name(name, labels)));
+        }
+        
+        questions = matches.isEmpty() ? NO_QUESTIONS : matches.toArray(new Record[matches.size()]);
+        for (Iterator<Name> i = cache.keySet().iterator(); (cache.size() >= cacheSize) && i.hasNext();)
+        {
+            i.next();
+            i.remove();
+        }
+        cache.put(name, questions);
+        
+        return questions;
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + " [names: " + questionsByName.keySet() + "]";
+    }
+    
+    
+    private static void add(final Map<Name, List<Record>> index, final Name name, final Record question)
+    {
+        List<Record> questions = index.get(name);
+        if (questions == null)
+        {
+            questions = new ArrayList<Record>();
+            index.put(name, questions);
+        }
+        questions.add(question);
+    }
+    
+    
+    private static void addAll(final List<Record> matches, final Record[] questions)
+    {
+        if (questions != null)
+        {
+            for (Record question : questions)
+            {
+                if (!matches.contains(question))
+                {
+                    matches.add(question);
+                }
+            }
+        }
+    }
+    
+    
+    private static void compile(final Map<Name, List<Record>> index, final Map<Name, Record[]> compiled)
+    {
+        for (Map.Entry<Name, List<Record>> entry : index.entrySet())
+        {
+            List<Record> questions = entry.getValue();
+            compiled.put(entry.getKey(), questions.toArray(new Record[questions.size()]));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package net.posick.mDNS;
+
+import org.xbill.DNS.Compression;
+import org.xbill.DNS.DNSOutput;
+import org.xbill.DNS.MulticastDNSUtils;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * The RecordTemplate holds a record together with its pre-encoded wire format, so that responses
+ * can be assembled by copying the encoded record rather than serializing it again. Only the owner
+ * name and the target name ending the RDATA of PTR, SRV, CNAME, NS and MX records are written
+ * per response, using name compression pointers [RFC 6762 Section 18.14], and the TTL field is
+ * patched as the record is written.
+ *
+ * @author Steve Posick
+ */
+public class RecordTemplate
+{
+    private final Record record;
+    
+    private final byte[] wire;
+    
+    private final int nameLength;
+    
+    private final Name target;
+    
+    private final int targetOffset;
+    
+    
+    public RecordTemplate(final Record record)
+    {
+        this.record = record;
+        wire = record.toWire(Section.ANSWER);
+        nameLength = record.getName().length();
+        
+        Name target = isCompressible(record.getType()) ? MulticastDNSUtils.getTargetFromRecord(record) : null;
+        int targetOffset = -1;
+        if ((target != null) && target.isAbsolute())
+        {
+            byte[] targetWire = target.toWire();
+            int offset = wire.length - targetWire.length;
+            if (offset >= (nameLength + 10))
+            {
+                targetOffset = offset;
+                for (int index = 0; index < targetWire.length; index++ )
+                {
+                    if (wire[offset + index] != targetWire[index])
+                    {
+                        targetOffset = -1;
+                        break;
+                    }
+                }
+            }
+        }
+        this.target = targetOffset >= 0 ? target : null;
+        this.targetOffset = targetOffset;
+    }
+    
+    
+    public Record getRecord()
+    {
+        return record;
+    }
+    
+    
+    /**
+     * Returns the length of the record in wire format, without name compression.
+     */
+    public int length()
+    {
+        return wire.length;
+    }
+    
+    
+    /**
+     * Writes the record, with its TTL.
+     *
+     * @param out The output
+     * @param compression The name compression table of the message
+     */
+    public void toWire(final DNSOutput out, final Compression compression)
+    {
+        toWire(out, compression, record.getTTL());
+    }
+    
+    
+    /**
+     * Writes the record with the specified TTL.
+     *
+     * @param out The output
+     * @param compression The name compression table of the message
+     * @param ttl The TTL
+     */
+    public void toWire(final DNSOutput out, final Compression compression, final long ttl)
+    {
+        record.getName().toWire(out, compression);
+        out.writeByteArray(wire, nameLength, 4);
+        out.writeU32(ttl);
+        
+        if (target == null)
+        {
+            out.writeByteArray(wire, nameLength + 8, wire.length - nameLength - 8);
+        } else
+        {
+            // The RDLENGTH is patched once the compressed target is written
+            int rdlength = out.current();
+            out.writeU16(0);
+            out.writeByteArray(wire, nameLength + 10, targetOffset - nameLength - 10);
+            target.toWire(out, compression);
+            out.writeU16At(out.current() - rdlength - 2, rdlength);
+        }
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + " [" + record + "]";
+    }
+    
+    
+    /**
+     * Returns true if the target name of the type may be compressed. DNAME [RFC 6672] and KX
+     * [RFC 2230] names must not be compressed, SRV names may be in mDNS [RFC 6762 Section 18.14].
+     */
+    private static boolean isCompressible(final int type)
+    {
+        switch (type)
+        {
+            case Type.PTR:
+            case Type.SRV:
+            case Type.CNAME:
+            case Type.NS:
+            case Type.MX:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
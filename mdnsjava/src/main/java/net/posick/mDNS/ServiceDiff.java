@@ -0,0 +1,219 @@
+package net.posick.mDNS;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The field level differences between two versions of a discovered service instance, delivered
+ * with the serviceUpdated event.
+ *
+ * @author Steve Posick
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class ServiceDiff implements Serializable
+{
+    private static final long serialVersionUID = 201610191300L;
+    
+    
+    public static enum Field
+    {
+        HOST,
+        PORT,
+        PRIORITY,
+        WEIGHT,
+        ADDRESSES,
+        TEXT
+    }
+    
+    private final ServiceInstance previous;
+    
+    private final ServiceInstance current;
+    
+    private final EnumSet<Field> changedFields = EnumSet.noneOf(Field.class);
+    
+    private final Set<InetAddress> addedAddresses = new LinkedHashSet<InetAddress>();
+    
+    private final Set<InetAddress> removedAddresses = new LinkedHashSet<InetAddress>();
+    
+    private final Map changedTextAttributes = new LinkedHashMap();
+    
+    
+    /**
+     * Computes the differences between the previous and current versions of the service instance.
+     *
+     * @param previous The previous version
+     * @param current The current version
+     */
+    public ServiceDiff(final ServiceInstance previous, final ServiceInstance current)
+    {
+        this.previous = previous;
+        this.current = current;
+        
+        if (!equals(previous.getHost(), current.getHost()))
+        {
+            changedFields.add(Field.HOST);
+        }
+        
+        if (previous.getPort() != current.getPort())
+        {
+            changedFields.add(Field.PORT);
+        }
+        
+        if (previous.getPriority() != current.getPriority())
+        {
+            changedFields.add(Field.PRIORITY);
+        }
+        
+        if (previous.getWeight() != current.getWeight())
+        {
+            changedFields.add(Field.WEIGHT);
+        }
+        
+        Set<InetAddress> previousAddresses = toSet(previous.getAddresses());
+        Set<InetAddress> currentAddresses = toSet(current.getAddresses());
+        addedAddresses.addAll(currentAddresses);
+        addedAddresses.removeAll(previousAddresses);
+        removedAddresses.addAll(previousAddresses);
+        removedAddresses.removeAll(currentAddresses);
+        if (!addedAddresses.isEmpty() || !removedAddresses.isEmpty())
+        {
+            changedFields.add(Field.ADDRESSES);
+        }
+        
+        Map previousText = previous.getTextAttributes();
+        Map currentText = current.getTextAttributes();
+        for (Object key : currentText.keySet())
+        {
+            Object value = currentText.get(key);
+            if (!previousText.containsKey(key) || !equals(previousText.get(key), value))
+            {
+                changedTextAttributes.put(key, value);
+            }
+        }
+        for (Object key : previousText.keySet())
+        {
+            if (!currentText.containsKey(key))
+            {
+                changedTextAttributes.put(key, null);
+            }
+        }
+        if (!changedTextAttributes.isEmpty())
+        {
+            changedFields.add(Field.TEXT);
+        }
+    }
+    
+    
+    /**
+     * Returns the addresses the service instance gained.
+     */
+    public Set<InetAddress> getAddedAddresses()
+    {
+        return Collections.unmodifiableSet(addedAddresses);
+    }
+    
+    
+    public Set<Field> getChangedFields()
+    {
+        return Collections.unmodifiableSet(changedFields);
+    }
+    
+    
+    /**
+     * Returns the text attributes that were added or changed, mapped to their new values, and the
+     * attributes that were removed, mapped to null.
+     */
+    public Map getChangedTextAttributes()
+    {
+        return Collections.unmodifiableMap(changedTextAttributes);
+    }
+    
+    
+    public ServiceInstance getCurrent()
+    {
+        return current;
+    }
+    
+    
+    public ServiceInstance getPrevious()
+    {
+        return previous;
+    }
+    
+    
+    /**
+     * Returns the addresses the service instance lost.
+     */
+    public Set<InetAddress> getRemovedAddresses()
+    {
+        return Collections.unmodifiableSet(removedAddresses);
+    }
+    
+    
+    public boolean isChanged(final Field field)
+    {
+        return changedFields.contains(field);
+    }
+    
+    
+    public boolean isEmpty()
+    {
+        return changedFields.isEmpty();
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(getClass().getSimpleName()).append(" [").append(current.getName()).append(": ").append(changedFields);
+        if (!addedAddresses.isEmpty())
+        {
+            builder.append(", added addresses: ").append(addedAddresses);
+        }
+        if (!removedAddresses.isEmpty())
+        {
+            builder.append(", removed addresses: ").append(removedAddresses);
+        }
+        if (!changedTextAttributes.isEmpty())
+        {
+            builder.append(", text: ").append(changedTextAttributes);
+        }
+        return builder.append("]").toString();
+    }
+    
+    
+    private static boolean equals(final Object o1, final Object o2)
+    {
+        if (o1 == o2)
+        {
+            return true;
+        } else if ((o1 == null) || (o2 == null))
+        {
+            return false;
+        } else if ((o1 instanceof byte[]) && (o2 instanceof byte[]))
+        {
+            return Arrays.equals((byte[]) o1, (byte[]) o2);
+        }
+        
+        return o1.equals(o2);
+    }
+    
+    
+    private static Set<InetAddress> toSet(final InetAddress[] addresses)
+    {
+        Set<InetAddress> set = new LinkedHashSet<InetAddress>();
+        if (addresses != null)
+        {
+            set.addAll(Arrays.asList(addresses));
+        }
+        return set;
+    }
+}
@@ -0,0 +1,469 @@
+package net.posick.mDNS;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.xbill.DNS.Name;
+import org.xbill.DNS.TextParseException;
+
+/**
+ * The ServiceDirectory holds the services found by the Service Discovery Operations of a
+ * MulticastDNSService, as they are discovered, updated and removed. The services are indexed by
+ * service type, subtype, host and text attribute keys, and are queried without network traffic.
+ *
+ * Reads are lock free and may run concurrently with updates. A service stays in the directory
+ * until it is removed by all of the Service Discovery Operations that found it.
+ *
+ * @author Steve Posick
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class ServiceDirectory
+{
+    /**
+     * A query over the ServiceDirectory. All criteria set must match, criteria not set match all
+     * services.
+     *
+     * @author Steve Posick
+     */
+    public static class Query
+    {
+        private Name type;
+        
+        private Name subtype;
+        
+        private Name host;
+        
+        private final Map<String, String> text = new LinkedHashMap<String, String>();
+        
+        
+        /**
+         * Matches the services on the host.
+         */
+        public Query host(final Name host)
+        {
+            this.host = host;
+            return this;
+        }
+        
+        
+        /**
+         * Matches the services registered under the subtype, for example
+         * "_color._sub._ipp._tcp.local.".
+         */
+        public Query subtype(final Name subtype)
+        {
+            this.subtype = subtype;
+            return this;
+        }
+        
+        
+        public Query subtype(final String subtype)
+        throws TextParseException
+        {
+            return subtype(Name.fromString(subtype, Name.root));
+        }
+        
+        
+        /**
+         * Matches the services having the text attribute, regardless of its value. Keys are case
+         * insensitive [RFC 6763 Section 6.4].
+         */
+        public Query text(final String key)
+        {
+            text.put(key.toLowerCase(), null);
+            return this;
+        }
+        
+        
+        /**
+         * Matches the services whose text attribute has the value.
+         */
+        public Query text(final String key, final String value)
+        {
+            text.put(key.toLowerCase(), value == null ? "" : value);
+            return this;
+        }
+        
+        
+        /**
+         * Matches the services of the service type, for example "_ipp._tcp.local.".
+         */
+        public Query type(final Name type)
+        {
+            this.type = type;
+            return this;
+        }
+        
+        
+        public Query type(final String type)
+        throws TextParseException
+        {
+            return type(Name.fromString(type, Name.root));
+        }
+        
+        
+        protected boolean matches(final Entry entry)
+        {
+            if ((type != null) && !type.equals(entry.type))
+            {
+                return false;
+            }
+            
+            if ((subtype != null) && !entry.subtypes.contains(subtype))
+            {
+                return false;
+            }
+            
+            if ((host != null) && !host.equals(entry.host))
+            {
+                return false;
+            }
+            
+            for (Map.Entry<String, String> attribute : text.entrySet())
+            {
+                if (!entry.text.containsKey(attribute.getKey()))
+                {
+                    return false;
+                }
+                
+                String value = attribute.getValue();
+                if ((value != null) && !value.equals(entry.text.get(attribute.getKey())))
+                {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + " [type: " + type + ", subtype: " + subtype + ", host: " + host + ", text: " + text + "]";
+        }
+    }
+    
+    
+    /**
+     * A service and its index keys.
+     */
+    protected static class Entry
+    {
+        private final ServiceInstance service;
+        
+        private final Name type;
+        
+        private final Set<Name> subtypes = new HashSet<Name>();
+        
+        private final Name host;
+        
+        private final Map<String, String> text = new LinkedHashMap<String, String>();
+        
+        private final Set<Object> owners;
+        
+        
+        protected Entry(final ServiceInstance service, final Set<Object> owners)
+        {
+            this.service = service;
+            this.owners = owners;
+            this.type = service.getName().getServiceTypeName();
+            this.host = service.getHost();
+            
+            Name[] pointers = service.getPointers();
+            if (pointers != null)
+            {
+                for (Name pointer : pointers)
+                {
+                    if ((pointer.labels() > 2) && "_sub".equalsIgnoreCase(pointer.getLabelString(1)))
+                    {
+                        subtypes.add(pointer);
+                    }
+                }
+            }
+            
+            Map attributes = service.getTextAttributes();
+            if (attributes != null)
+            {
+                for (Object o : attributes.entrySet())
+                {
+                    Map.Entry attribute = (Map.Entry) o;
+                    text.put(String.valueOf(attribute.getKey()).toLowerCase(), attribute.getValue() == null ? "" : String.valueOf(attribute.getValue()));
+                }
+            }
+        }
+    }
+    
+    private final ConcurrentMap<Name, Entry> entries = new ConcurrentHashMap<Name, Entry>();
+    
+    private final ConcurrentMap<Name, Set<Name>> byType = new ConcurrentHashMap<Name, Set<Name>>();
+    
+    private final ConcurrentMap<Name, Set<Name>> bySubtype = new ConcurrentHashMap<Name, Set<Name>>();
+    
+    private final ConcurrentMap<Name, Set<Name>> byHost = new ConcurrentHashMap<Name, Set<Name>>();
+    
+    private final ConcurrentMap<String, Set<Name>> byTextKey = new ConcurrentHashMap<String, Set<Name>>();
+    
+    
+    /**
+     * Returns the services matching the query.
+     *
+     * @param query The query
+     * @return The matching services
+     */
+    public ServiceInstance[] find(final Query query)
+    {
+        // Scan the smallest index set matching one of the criteria
+        Collection<Name> candidates = null;
+        if (query.type != null)
+        {
+            candidates = smallest(candidates, byType.get(query.type));
+        }
+        if (query.subtype != null)
+        {
+            candidates = smallest(candidates, bySubtype.get(query.subtype));
+        }
+        if (query.host != null)
+        {
+            candidates = smallest(candidates, byHost.get(query.host));
+        }
+        for (String key : query.text.keySet())
+        {
+            candidates = smallest(candidates, byTextKey.get(key));
+        }
+        if (candidates == null)
+        {
+            candidates = entries.keySet();
+        }
+        
+        List<ServiceInstance> results = new ArrayList<ServiceInstance>();
+        for (Name name : candidates)
+        {
+            Entry entry = entries.get(name);
+            if ((entry != null) && query.matches(entry))
+            {
+                results.add(entry.service);
+            }
+        }
+        
+        return results.toArray(new ServiceInstance[results.size()]);
+    }
+    
+    
+    public ServiceInstance get(final Name name)
+    {
+        Entry entry = entries.get(name);
+        return entry != null ? entry.service : null;
+    }
+    
+    
+    public ServiceInstance[] getServices()
+    {
+        List<ServiceInstance> results = new ArrayList<ServiceInstance>();
+        for (Entry entry : entries.values())
+        {
+            results.add(entry.service);
+        }
+        
+        return results.toArray(new ServiceInstance[results.size()]);
+    }
+    
+    
+    public ServiceInstance[] getServicesByHost(final Name host)
+    {
+        return find(new Query().host(host));
+    }
+    
+    
+    public ServiceInstance[] getServicesByType(final Name type)
+    {
+        return find(new Query().type(type));
+    }
+    
+    
+    public int size()
+    {
+        return entries.size();
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + " [services: " + entries.size() + ", types: " + byType.keySet() + "]";
+    }
+    
+    
+    /**
+     * Adds or replaces the service found by the owner.
+     *
+     * @param owner The Service Discovery Operation that found the service
+     * @param service The service
+     */
+    protected synchronized void put(final Object owner, final ServiceInstance service)
+    {
+        Name name = service.getName();
+        Entry previous = entries.get(name);
+        Set<Object> owners = new HashSet<Object>();
+        if (previous != null)
+        {
+            owners.addAll(previous.owners);
+        }
+        owners.add(owner);
+        
+        Entry entry = new Entry(service, Collections.unmodifiableSet(owners));
+        entries.put(name, entry);
+        index(entry);
+        if (previous != null)
+        {
+            unindex(previous, entry);
+        }
+    }
+    
+    
+    /**
+     * Removes the service found by the owner, the service is removed from the directory once all
+     * owners have removed it.
+     *
+     * @param owner The Service Discovery Operation that found the service
+     * @param name The name of the service
+     */
+    protected synchronized void remove(final Object owner, final Name name)
+    {
+        Entry entry = entries.get(name);
+        if ((entry == null) || !entry.owners.contains(owner))
+        {
+            return;
+        }
+        
+        Set<Object> owners = new HashSet<Object>(entry.owners);
+        owners.remove(owner);
+        if (owners.isEmpty())
+        {
+            entries.remove(name);
+            unindex(entry, null);
+        } else
+        {
+            entries.put(name, new Entry(entry.service, Collections.unmodifiableSet(owners)));
+        }
+    }
+    
+    
+    /**
+     * Removes all services found by the owner.
+     *
+     * @param owner The Service Discovery Operation
+     */
+    protected synchronized void removeAll(final Object owner)
+    {
+        for (Entry entry : entries.values())
+        {
+            if (entry.owners.contains(owner))
+            {
+                remove(owner, entry.service.getName());
+            }
+        }
+    }
+    
+    
+    private void index(final Entry entry)
+    {
+        Name name = entry.service.getName();
+        add(byType, entry.type, name);
+        for (Name subtype : entry.subtypes)
+        {
+            add(bySubtype, subtype, name);
+        }
+        add(byHost, entry.host, name);
+        for (String key : entry.text.keySet())
+        {
+            add(byTextKey, key, name);
+        }
+    }
+    
+    
+    /**
+     * Removes the index keys of the entry, except those of the retained entry.
+     */
+    private void unindex(final Entry entry, final Entry retained)
+    {
+        Name name = entry.service.getName();
+        if ((retained == null) || (entry.type == null) || !entry.type.equals(retained.type))
+        {
+            remove(byType, entry.type, name);
+        }
+        for (Name subtype : entry.subtypes)
+        {
+            if ((retained == null) || !retained.subtypes.contains(subtype))
+            {
+                remove(bySubtype, subtype, name);
+            }
+        }
+        if ((retained == null) || (entry.host == null) || !entry.host.equals(retained.host))
+        {
+            remove(byHost, entry.host, name);
+        }
+        for (String key : entry.text.keySet())
+        {
+            if ((retained == null) || !retained.text.containsKey(key))
+            {
+                remove(byTextKey, key, name);
+            }
+        }
+    }
+    
+    
+    private static <K> void add(final ConcurrentMap<K, Set<Name>> index, final K key, final Name name)
+    {
+        if (key == null)
+        {
+            return;
+        }
+        
+        Set<Name> names = index.get(key);
+        if (names == null)
+        {
+            names = Collections.newSetFromMap(new ConcurrentHashMap<Name, Boolean>());
+            index.put(key, names);
+        }
+        names.add(name);
+    }
+    
+    
+    private static <K> void remove(final ConcurrentMap<K, Set<Name>> index, final K key, final Name name)
+    {
+        if (key == null)
+        {
+            return;
+        }
+        
+        Set<Name> names = index.get(key);
+        if (names != null)
+        {
+            names.remove(name);
+            if (names.isEmpty())
+            {
+                index.remove(key, names);
+            }
+        }
+    }
+    
+    
+    private static Collection<Name> smallest(final Collection<Name> current, final Set<Name> candidates)
+    {
+        if (candidates == null)
+        {
+            return Collections.emptySet();
+        }
+        
+        return (current == null) || (candidates.size() < current.size()) ? candidates : current;
+    }
+}
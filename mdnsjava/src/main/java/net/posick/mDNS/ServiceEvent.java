@@ -0,0 +1,101 @@
+package net.posick.mDNS;
+
+import java.io.Serializable;
+
+/**
+ * A service discovery event, emitted by the ServiceEventPublisher.
+ *
+ * @author Steve Posick
+ */
+public class ServiceEvent implements Serializable
+{
+    private static final long serialVersionUID = 201610191200L;
+    
+    
+    public static enum Type
+    {
+        /**
+         * The service was discovered.
+         */
+        DISCOVERED,
+        
+        /**
+         * The records of a discovered service changed.
+         */
+        UPDATED,
+        
+        /**
+         * The service was removed, its records expired or it announced its departure.
+         */
+        REMOVED
+    }
+    
+    private final Type type;
+    
+    private final transient Object id;
+    
+    private final ServiceInstance service;
+    
+    private final ServiceDiff diff;
+    
+    
+    public ServiceEvent(final Type type, final Object id, final ServiceInstance service)
+    {
+        this(type, id, service, null);
+    }
+    
+    
+    public ServiceEvent(final Type type, final Object id, final ServiceInstance service, final ServiceDiff diff)
+    {
+        this.type = type;
+        this.id = id;
+        this.service = service;
+        this.diff = diff;
+    }
+    
+    
+    /**
+     * Returns the changes of an UPDATED event, otherwise null.
+     */
+    public ServiceDiff getDiff()
+    {
+        return diff;
+    }
+    
+    
+    /**
+     * Returns the id of the discovery operation that produced the event.
+     */
+    public Object getId()
+    {
+        return id;
+    }
+    
+    
+    public ServiceInstance getService()
+    {
+        return service;
+    }
+    
+    
+    /**
+     * Returns the name of the service, the key by which events are coalesced.
+     */
+    public ServiceName getServiceName()
+    {
+        return service.getName();
+    }
+    
+    
+    public Type getType()
+    {
+        return type;
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + " [" + type + ": " + service.getName() + (diff != null ? " " + diff.getChangedFields() : "") + "]";
+    }
+}
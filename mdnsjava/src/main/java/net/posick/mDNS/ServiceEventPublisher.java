@@ -0,0 +1,512 @@
+package net.posick.mDNS;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Options;
+
+import net.posick.mDNS.utils.Executors;
+import net.posick.mDNS.utils.Misc;
+
+/**
+ * The ServiceEventPublisher adapts the DNSSDListener callbacks of a service discovery operation to
+ * demand driven ServiceEvent streams. Each Subscriber receives events only as it requests them.
+ * Events awaiting demand are buffered per Subscriber, keeping only the latest event for each
+ * service, and the buffer is bounded (mdns_publisher_buffer_size). When the buffer is full the
+ * oldest pending discovery or update is dropped. Removals are never dropped, so that a Subscriber
+ * never keeps a service that is gone, the new event is dropped instead when only removals are
+ * pending.
+ *
+ * The Subscriber and Subscription interfaces follow the Reactive Streams specification, as does
+ * java.util.concurrent.Flow, and are trivially adapted to either. Signals to a Subscriber are
+ * serialized and delivered by the library executor.
+ *
+ * @author Steve Posick
+ */
+public class ServiceEventPublisher implements DNSSDUpdateListener, Closeable
+{
+    private static final Logger logger = Misc.getLogger(ServiceEventPublisher.class, Options.check("mdns_verbose"));
+    
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+    
+    
+    /**
+     * Receives the ServiceEvents requested via its Subscription.
+     */
+    public static interface Subscriber
+    {
+        public void onSubscribe(Subscription subscription);
+        
+        
+        public void onNext(ServiceEvent event);
+        
+        
+        public void onError(Throwable throwable);
+        
+        
+        public void onComplete();
+    }
+    
+    
+    /**
+     * Links a Subscriber to the ServiceEventPublisher.
+     */
+    public static interface Subscription
+    {
+        /**
+         * Requests up to n additional events. Long.MAX_VALUE requests an unbounded number of events.
+         */
+        public void request(long n);
+        
+        
+        public void cancel();
+    }
+    
+    
+    protected class EventSubscription implements Subscription, Runnable
+    {
+        private final Subscriber subscriber;
+        
+        private final LinkedHashMap<ServiceName, ServiceEvent> pending = new LinkedHashMap<ServiceName, ServiceEvent>();
+        
+        private long demand;
+        
+        private boolean subscribed;
+        
+        private boolean draining;
+        
+        private boolean completed;
+        
+        private boolean terminated;
+        
+        private Throwable error;
+        
+        
+        protected EventSubscription(final Subscriber subscriber)
+        {
+            this.subscriber = subscriber;
+        }
+        
+        
+        public void cancel()
+        {
+            synchronized (this)
+            {
+                terminated = true;
+                pending.clear();
+            }
+            subscriptions.remove(this);
+        }
+        
+        
+        public void request(final long n)
+        {
+            synchronized (this)
+            {
+                if (terminated)
+                {
+                    return;
+                } else if (n <= 0)
+                {
+                    // Reactive Streams rule 3.9
+                    error = new IllegalArgumentException("Non-positive request of " + n + " events.");
+                    pending.clear();
+                } else
+                {
+                    demand = (demand + n) < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            schedule();
+        }
+        
+        
+        public void run()
+        {
+            while (true)
+            {
+                ServiceEvent event = null;
+                Throwable failure = null;
+                boolean complete = false;
+                synchronized (this)
+                {
+                    if (terminated)
+                    {
+                        draining = false;
+                        return;
+                    } else if (error != null)
+                    {
+                        failure = error;
+                        terminated = true;
+                    } else if (!pending.isEmpty() && (demand > 0))
+                    {
+                        Iterator<ServiceEvent> i = pending.values().iterator();
+                        event = i.next();
+                        i.remove();
+                        if (demand != Long.MAX_VALUE)
+                        {
+                            demand-- ;
+                        }
+                    } else if (completed && pending.isEmpty())
+                    {
+                        complete = true;
+                        terminated = true;
+                    } else
+                    {
+                        draining = false;
+                        return;
+                    }
+                }
+                
+                try
+                {
+                    if (event != null)
+                    {
+                        subscriber.onNext(event);
+                        continue;
+                    }
+                    
+                    subscriptions.remove(this);
+                    if (failure != null)
+                    {
+                        subscriber.onError(failure);
+                    } else if (complete)
+                    {
+                        subscriber.onComplete();
+                    }
+                } catch (Throwable t)
+                {
+                    // Reactive Streams rule 2.13, a failing Subscriber is considered cancelled
+                    logger.log(Level.WARNING, "Subscriber \"" + subscriber + "\" failed - " + t.getMessage(), t);
+                    cancel();
+                }
+            }
+        }
+        
+        
+        protected void complete()
+        {
+            synchronized (this)
+            {
+                completed = true;
+            }
+            schedule();
+        }
+        
+        
+        protected void offer(final ServiceEvent event)
+        {
+            synchronized (this)
+            {
+                if (terminated || completed)
+                {
+                    return;
+                }
+                
+                ServiceName key = event.getServiceName();
+                ServiceEvent previous = pending.get(key);
+                if (previous != null)
+                {
+                    coalesced.incrementAndGet();
+                    ServiceEvent combined = coalesce(previous, event);
+                    if (combined != null)
+                    {
+                        pending.put(key, combined);
+                    } else
+                    {
+                        pending.remove(key);
+                    }
+                } else
+                {
+                    if ((pending.size() >= bufferSize) && !evict())
+                    {
+                        if (event.getType() != ServiceEvent.Type.REMOVED)
+                        {
+                            dropped.incrementAndGet();
+                            return;
+                        }
+                    }
+                    pending.put(key, event);
+                }
+            }
+            schedule();
+        }
+        
+        
+        /**
+         * Drops the oldest pending discovery or update. Must be called holding the lock of the
+         * Subscription.
+         * 
+         * @return true if an event was dropped, false if only removals are pending
+         */
+        private boolean evict()
+        {
+            for (Iterator<ServiceEvent> i = pending.values().iterator(); i.hasNext();)
+            {
+                if (i.next().getType() != ServiceEvent.Type.REMOVED)
+                {
+                    i.remove();
+                    dropped.incrementAndGet();
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        
+        protected void subscribed()
+        {
+            synchronized (this)
+            {
+                subscribed = true;
+            }
+            schedule();
+        }
+        
+        
+        private void schedule()
+        {
+            synchronized (this)
+            {
+                if (draining || !subscribed)
+                {
+                    return;
+                }
+                draining = true;
+            }
+            executors.execute(this);
+        }
+        
+        
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + " [subscriber: " + subscriber + ", demand: " + demand + ", pending: " + pending.size() + "]";
+        }
+    }
+    
+    
+    protected final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<EventSubscription>();
+    
+    protected final Executors executors = Executors.newInstance();
+    
+    protected final AtomicLong coalesced = new AtomicLong();
+    
+    protected final AtomicLong dropped = new AtomicLong();
+    
+    protected int bufferSize;
+    
+    protected boolean closed;
+    
+    
+    public ServiceEventPublisher()
+    {
+        int size = Options.intValue("mdns_publisher_buffer_size");
+        bufferSize = size > 0 ? size : DEFAULT_BUFFER_SIZE;
+    }
+    
+    
+    /**
+     * Completes all Subscriptions. Pending events are still delivered as they are requested.
+     */
+    public void close()
+    throws IOException
+    {
+        synchronized (this)
+        {
+            closed = true;
+        }
+        
+        for (EventSubscription subscription : subscriptions)
+        {
+            subscription.complete();
+        }
+    }
+    
+    
+    /**
+     * Returns the number of events replaced by a later event for the same service before delivery.
+     */
+    public long getCoalescedEvents()
+    {
+        return coalesced.get();
+    }
+    
+    
+    /**
+     * Returns the number of events dropped because a Subscriber's buffer was full.
+     */
+    public long getDroppedEvents()
+    {
+        return dropped.get();
+    }
+    
+    
+    public int getSubscriberCount()
+    {
+        return subscriptions.size();
+    }
+    
+    
+    public void handleException(final Object id, final Exception e)
+    {
+        // Discovery errors are transient, they do not terminate the Subscriptions.
+        if (logger.isLoggable(Level.FINE))
+        {
+            logger.logp(Level.FINE, getClass().getName(), "handleException", "Service discovery error - " + e.getMessage());
+        }
+    }
+    
+    
+    public void receiveMessage(final Object id, final Message m)
+    {
+    }
+    
+    
+    public void serviceDiscovered(final Object id, final ServiceInstance service)
+    {
+        publish(new ServiceEvent(ServiceEvent.Type.DISCOVERED, id, service));
+    }
+    
+    
+    public void serviceRemoved(final Object id, final ServiceInstance service)
+    {
+        publish(new ServiceEvent(ServiceEvent.Type.REMOVED, id, service));
+    }
+    
+    
+    public void serviceUpdated(final Object id, final ServiceInstance service, final ServiceDiff diff)
+    {
+        publish(new ServiceEvent(ServiceEvent.Type.UPDATED, id, service, diff));
+    }
+    
+    
+    /**
+     * Sets the maximum number of events buffered for each Subscriber.
+     */
+    public void setBufferSize(final int bufferSize)
+    {
+        this.bufferSize = bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE;
+    }
+    
+    
+    /**
+     * Subscribes the Subscriber to the events published after its subscription. A Subscriber
+     * subscribing after the publisher is closed is completed immediately.
+     *
+     * @param subscriber The Subscriber
+     */
+    public void subscribe(final Subscriber subscriber)
+    {
+        if (subscriber == null)
+        {
+            throw new NullPointerException("Subscriber is null");
+        }
+        
+        EventSubscription subscription = new EventSubscription(subscriber);
+        boolean isClosed;
+        synchronized (this)
+        {
+            isClosed = closed;
+            if (!isClosed)
+            {
+                subscriptions.add(subscription);
+            }
+        }
+        
+        try
+        {
+            subscriber.onSubscribe(subscription);
+        } catch (Throwable t)
+        {
+            logger.log(Level.WARNING, "Subscriber \"" + subscriber + "\" failed - " + t.getMessage(), t);
+            subscription.cancel();
+            return;
+        }
+        
+        if (isClosed)
+        {
+            subscription.complete();
+        }
+        subscription.subscribed();
+    }
+    
+    
+    /**
+     * Combines an undelivered event with a later event for the same service. An update of an
+     * undelivered discovery is delivered as the discovery of the updated service, and consecutive
+     * updates are delivered as one update spanning both. The removal of an undelivered discovery
+     * cancels both, and the rediscovery of a service whose removal is undelivered is delivered as
+     * an update, or not at all if the service is unchanged. Any other later event replaces the
+     * undelivered event.
+     * 
+     * @param previous The undelivered event
+     * @param event The later event
+     * @return The combined event, or null if the events cancel out
+     */
+    protected static ServiceEvent coalesce(final ServiceEvent previous, final ServiceEvent event)
+    {
+        switch (event.getType())
+        {
+            case UPDATED:
+                switch (previous.getType())
+                {
+                    case DISCOVERED:
+                        return new ServiceEvent(ServiceEvent.Type.DISCOVERED, event.getId(), event.getService());
+                    case UPDATED:
+                        if ((previous.getDiff() != null) && (event.getDiff() != null))
+                        {
+                            return new ServiceEvent(ServiceEvent.Type.UPDATED, event.getId(), event.getService(), new ServiceDiff(previous.getDiff().getPrevious(), event.getService()));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                break;
+            case REMOVED:
+                if (previous.getType() == ServiceEvent.Type.DISCOVERED)
+                {
+                    return null;
+                }
+                break;
+            case DISCOVERED:
+                if (previous.getType() == ServiceEvent.Type.REMOVED)
+                {
+                    ServiceDiff diff = new ServiceDiff(previous.getService(), event.getService());
+                    return diff.isEmpty() ? null : new ServiceEvent(ServiceEvent.Type.UPDATED, event.getId(), event.getService(), diff);
+                }
+                break;
+        }
+        
+        return event;
+    }
+    
+    
+    /**
+     * Publishes the event to all Subscribers.
+     *
+     * @param event The event
+     */
+    protected void publish(final ServiceEvent event)
+    {
+        for (EventSubscription subscription : subscriptions)
+        {
+            subscription.offer(event);
+        }
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + " [subscribers: " + subscriptions.size() + ", coalesced: " + coalesced.get() + ", dropped: " + dropped.get() + "]";
+    }
+}
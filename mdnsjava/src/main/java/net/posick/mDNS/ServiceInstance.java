@@ -76,7 +76,8 @@ public class ServiceInstance implements Serializable
             Map.Entry[] entries = (Map.Entry[]) textAttributes.entrySet().toArray(new Map.Entry[textAttributes.size()]);
             for (int index = 0; index < entries.length; index++ )
             {
-                text[index] = entries[index].getKey() + "=" + entries[index].getValue();
+                Object value = entries[index].getValue();
+                text[index] = entries[index].getKey() + "=" + (value instanceof byte[] ? MulticastDNSService.escapeText((byte[]) value) : value);
             }
         }
     }
@@ -1,20 +1,51 @@
 package net.posick.mDNS.net;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
 import java.net.MulticastSocket;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.logging.Level;
 
 import org.xbill.DNS.Options;
 
+import net.posick.mDNS.utils.Executors;
+
 public class DatagramProcessor extends NetworkProcessor
 {
+    /**
+     * Reads datagrams from one of the additional SO_REUSEPORT receive sockets.
+     * 
+     * @author Steve Posick
+     */
+    protected class ReusePortReader implements Runnable
+    {
+        private final DatagramSocket socket;
+        
+        
+        protected ReusePortReader(final DatagramSocket socket)
+        {
+            this.socket = socket;
+        }
+        
+        
+        public void run()
+        {
+            receive(socket);
+        }
+    }
+    
+    
     // The default UDP datagram payload size
     protected int maxPayloadSize = 512;
     
@@ -28,6 +59,10 @@ public class DatagramProcessor extends NetworkProcessor
     
     protected DatagramSocket socket;
     
+    protected NetworkInterface networkInterface;
+    
+    protected List<DatagramSocket> reusePortSockets = new ArrayList<DatagramSocket>();
+    
     private long lastPacket;
     
     
@@ -81,6 +116,12 @@ public class DatagramProcessor extends NetworkProcessor
             socket.joinGroup(address);
             
             this.socket = socket;
+            
+            int receiveSockets = Options.intValue("mdns_reuse_port_sockets");
+            if (receiveSockets > 1)
+            {
+                openReusePortSockets(receiveSockets - 1);
+            }
         } else
         {
             socket = new DatagramSocket(new InetSocketAddress(ifaceAddress, port));
@@ -102,6 +143,8 @@ public class DatagramProcessor extends NetworkProcessor
             }
         }
         
+        networkInterface = netIface;
+        
         if (netIface != null)
         {
             try
@@ -158,6 +201,11 @@ public class DatagramProcessor extends NetworkProcessor
         }
         
         socket.close();
+        
+        for (DatagramSocket reusePortSocket : reusePortSockets)
+        {
+            reusePortSocket.close();
+        }
     }
     
     
@@ -165,14 +213,25 @@ public class DatagramProcessor extends NetworkProcessor
     {
         return loopbackModeDisabled;
     }
-
-
+    
+    
     public boolean isReuseAddress()
     {
         return reuseAddress;
     }
     
     
+    /**
+     * Returns the NetworkInterface this processor is bound to, or null if it could not be determined.
+     * 
+     * @return The NetworkInterface this processor is bound to
+     */
+    public NetworkInterface getNetworkInterface()
+    {
+        return networkInterface;
+    }
+    
+    
     public int getTTL()
     {
         return ttl;
@@ -191,6 +250,55 @@ public class DatagramProcessor extends NetworkProcessor
     }
     
     
+    /**
+     * Returns true if the address is on the link of this processor's interface, that is within the
+     * network prefix of one of the interface's addresses, or an IPv6 link-local address scoped to
+     * the interface. The sockets bound to the mDNS port receive the multicast datagrams of every
+     * link, so the link of a datagram is determined by its source address.
+     * 
+     * @param address The address
+     * @return true if the address is on the link of this processor's interface
+     */
+    public boolean isOnLink(final InetAddress address)
+    {
+        NetworkInterface netIface = networkInterface;
+        if ((netIface == null) || (address == null))
+        {
+            return false;
+        }
+        
+        if ((address instanceof Inet6Address) && address.isLinkLocalAddress() && (((Inet6Address) address).getScopeId() != 0))
+        {
+            return ((Inet6Address) address).getScopeId() == netIface.getIndex();
+        }
+        
+        byte[] bytes = address.getAddress();
+        for (InterfaceAddress interfaceAddress : netIface.getInterfaceAddresses())
+        {
+            byte[] prefix = interfaceAddress.getAddress().getAddress();
+            if (prefix.length == bytes.length)
+            {
+                int bits = interfaceAddress.getNetworkPrefixLength();
+                int index = 0;
+                for (; (bits >= 8) && (index < bytes.length); bits -= 8, index++ )
+                {
+                    if (prefix[index] != bytes[index])
+                    {
+                        break;
+                    }
+                }
+                
+                if ((bits < 8) && ((bits <= 0) || (index >= bytes.length) || ((((prefix[index] ^ bytes[index]) & 0xFF) >> (8 - bits)) == 0)))
+                {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    
     @Override
     public boolean isOperational()
     {
@@ -199,6 +307,85 @@ public class DatagramProcessor extends NetworkProcessor
     
     
     public void run()
+    {
+        receive(socket);
+    }
+    
+    
+    @Override
+    public void start()
+    {
+        super.start();
+        
+        for (int index = 0; index < reusePortSockets.size(); index++ )
+        {
+            Thread t = new Thread(new ReusePortReader(reusePortSockets.get(index)));
+            t.setName("NetworkProcessor IO Read Thread [SO_REUSEPORT " + (index + 1) + "]");
+            t.setPriority(Executors.DEFAULT_NETWORK_THREAD_PRIORITY);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+    
+    
+    /**
+     * Opens additional receive sockets bound to the interface address with SO_REUSEPORT set, so
+     * that the kernel spreads unicast datagrams sent to the mDNS port across several reader threads.
+     * The kernel delivers a copy of every multicast datagram to every socket bound to the port, so
+     * only the primary socket joins the multicast group; the additional sockets are bound to the
+     * interface's unicast address and receive the unicast traffic (QU responses, direct queries).
+     * 
+     * SO_REUSEPORT is only available through NIO on Java 9 and later, so it is accessed reflectively.
+     * If it is not available the processor silently falls back to its single receive socket.
+     * 
+     * @param count The number of additional sockets to open
+     */
+    protected void openReusePortSockets(final int count)
+    {
+        Method setOption;
+        Object reusePortOption;
+        try
+        {
+            Class<?> socketOptionClass = Class.forName("java.net.SocketOption");
+            reusePortOption = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+            setOption = DatagramChannel.class.getMethod("setOption", new Class<?>[] {socketOptionClass, Object.class});
+        } catch (Exception e)
+        {
+            logger.logp(Level.INFO, getClass().getName(), "openReusePortSockets", "SO_REUSEPORT is not supported by this JVM, using a single receive socket - " + e.getMessage());
+            return;
+        }
+        
+        for (int index = 0; index < count; index++ )
+        {
+            DatagramChannel channel = null;
+            try
+            {
+                channel = DatagramChannel.open();
+                setOption.invoke(channel, new Object[] {reusePortOption, Boolean.TRUE});
+                DatagramSocket reusePortSocket = channel.socket();
+                reusePortSocket.setReuseAddress(true);
+                reusePortSocket.bind(new InetSocketAddress(ifaceAddress, port));
+                reusePortSockets.add(reusePortSocket);
+            } catch (Exception e)
+            {
+                logger.logp(Level.WARNING, getClass().getName(), "openReusePortSockets", "Could not open SO_REUSEPORT receive socket on \"" + ifaceAddress + ":" + port + "\" - " + e.getMessage());
+                if (channel != null)
+                {
+                    try
+                    {
+                        channel.close();
+                    } catch (IOException ioe)
+                    {
+                        // ignore
+                    }
+                }
+                return;
+            }
+        }
+    }
+    
+    
+    protected void receive(final DatagramSocket socket)
     {
         lastPacket = System.currentTimeMillis();
         while (!exit)
@@ -209,16 +396,7 @@ public class DatagramProcessor extends NetworkProcessor
                 final DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
                 socket.receive(datagram);
                 lastPacket = System.currentTimeMillis();
-                if (datagram.getLength() > 0)
-                {
-                    Packet packet = new Packet(datagram);
-                    if (logger.isLoggable(Level.FINE))
-                    {
-                        logger.logp(Level.FINE, getClass().getName(), "run", "-----> Received packet " + packet.id + " <-----");
-                        packet.timer.start();
-                    }
-                    executors.executeNetworkTask(new PacketRunner(listener, packet));
-                }
+                received(datagram);
             } catch (SecurityException e)
             {
                 logger.log(Level.WARNING, "Security issue receiving data from \"" + address + "\" - " + e.getMessage(), e);
@@ -233,6 +411,28 @@ public class DatagramProcessor extends NetworkProcessor
     }
     
     
+    /**
+     * Dispatches the datagram received to the listener. The datagram is tagged with the address of
+     * this processor's interface only if its source is on the interface's link, otherwise the
+     * interface it arrived on is unknown.
+     * 
+     * @param datagram The datagram
+     */
+    protected void received(final DatagramPacket datagram)
+    {
+        if (datagram.getLength() > 0)
+        {
+            Packet packet = new Packet(isOnLink(datagram.getAddress()) ? ifaceAddress : null, datagram);
+            if (logger.isLoggable(Level.FINE))
+            {
+                logger.logp(Level.FINE, getClass().getName(), "run", "-----> Received packet " + packet.id + " <-----");
+                packet.timer.start();
+            }
+            executors.executeNetworkTask(new PacketRunner(listener, packet));
+        }
+    }
+    
+    
     @Override
     public void send(final byte[] data)
     throws IOException
@@ -0,0 +1,154 @@
+package net.posick.mDNS.net;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xbill.DNS.Options;
+
+import net.posick.mDNS.utils.Executors;
+import net.posick.mDNS.utils.Misc;
+
+/**
+ * The NetworkMonitor periodically checks the multicast capable network interfaces and their
+ * addresses, notifying its listeners when they change, for example when an interface comes up or
+ * an address is acquired. The interfaces are only checked while listeners are registered.
+ *
+ * @author Steve Posick
+ */
+public class NetworkMonitor implements Runnable
+{
+    private static final Logger logger = Misc.getLogger(NetworkMonitor.class.getName(), Options.check("mdns_network_verbose") || Options.check("mdns_verbose"));
+    
+    public static final int DEFAULT_CHECK_INTERVAL = 5000;
+    
+    private static NetworkMonitor instance;
+    
+    
+    /**
+     * Notified when the network interfaces or their addresses change.
+     */
+    public static interface NetworkChangeListener
+    {
+        public void networkChanged();
+    }
+    
+    
+    private final List<NetworkChangeListener> listeners = new CopyOnWriteArrayList<NetworkChangeListener>();
+    
+    private final Executors executors = Executors.newInstance();
+    
+    private Set<String> lastState;
+    
+    private ScheduledFuture<?> future;
+    
+    
+    protected NetworkMonitor()
+    {
+    }
+    
+    
+    public static synchronized NetworkMonitor getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new NetworkMonitor();
+        }
+        
+        return instance;
+    }
+    
+    
+    public synchronized void addListener(final NetworkChangeListener listener)
+    {
+        listeners.add(listener);
+        if (future == null)
+        {
+            int interval = Options.intValue("mdns_network_check_interval");
+            interval = interval > 0 ? interval : DEFAULT_CHECK_INTERVAL;
+            lastState = getState();
+            future = executors.scheduleAtFixedRate(this, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    
+    public synchronized void removeListener(final NetworkChangeListener listener)
+    {
+        listeners.remove(listener);
+        if (listeners.isEmpty() && (future != null))
+        {
+            future.cancel(false);
+            future = null;
+        }
+    }
+    
+    
+    public void run()
+    {
+        Set<String> state = getState();
+        synchronized (this)
+        {
+            if ((state == null) || state.equals(lastState))
+            {
+                return;
+            }
+            lastState = state;
+        }
+        
+        if (logger.isLoggable(Level.FINE))
+        {
+            logger.logp(Level.FINE, getClass().getName(), "run", "Network change detected - " + state);
+        }
+        
+        for (NetworkChangeListener listener : listeners)
+        {
+            try
+            {
+                listener.networkChanged();
+            } catch (Exception e)
+            {
+                logger.log(Level.WARNING, "NetworkChangeListener \"" + listener + "\" failed - " + e.getMessage(), e);
+            }
+        }
+    }
+    
+    
+    /**
+     * Returns the names and addresses of the network interfaces that are up and support multicast,
+     * or null if the interfaces cannot be read.
+     */
+    protected Set<String> getState()
+    {
+        Set<String> state = new TreeSet<String>();
+        try
+        {
+            Enumeration<NetworkInterface> ifaces = NetworkInterface.getNetworkInterfaces();
+            while ((ifaces != null) && ifaces.hasMoreElements())
+            {
+                NetworkInterface iface = ifaces.nextElement();
+                if (iface.isUp() && iface.supportsMulticast() && !iface.isLoopback())
+                {
+                    Enumeration<InetAddress> addresses = iface.getInetAddresses();
+                    while (addresses.hasMoreElements())
+                    {
+                        state.add(iface.getName() + "/" + addresses.nextElement().getHostAddress());
+                    }
+                }
+            }
+        } catch (Exception e)
+        {
+            logger.logp(Level.FINE, getClass().getName(), "getState", "Error reading network interfaces - " + e.getMessage());
+            return null;
+        }
+        
+        return state;
+    }
+}
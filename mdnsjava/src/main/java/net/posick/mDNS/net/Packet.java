@@ -9,12 +9,20 @@ import net.posick.mDNS.utils.ExecutionTimer;
 
 public class Packet
 {
+    private final InetAddress interfaceAddress;
+    
     private final InetAddress address;
     
     private final int port;
     
     private final byte[] data;
     
+    private final int offset;
+    
+    private final int length;
+    
+    private final long time = System.currentTimeMillis();
+    
     protected static int sequence;
     
     protected int id;
@@ -24,16 +32,31 @@ public class Packet
     
     protected Packet(final DatagramPacket datagram)
     {
-        this(datagram.getAddress(), datagram.getPort(), datagram.getData(), datagram.getOffset(), datagram.getLength());
+        this(null, datagram);
+    }
+    
+    
+    protected Packet(final InetAddress interfaceAddress, final DatagramPacket datagram)
+    {
+        this(interfaceAddress, datagram.getAddress(), datagram.getPort(), datagram.getData(), datagram.getOffset(), datagram.getLength());
     }
     
     
     protected Packet(final InetAddress address, final int port, final byte[] data, final int offset, final int length)
+    {
+        this(null, address, port, data, offset, length);
+    }
+    
+    
+    protected Packet(final InetAddress interfaceAddress, final InetAddress address, final int port, final byte[] data, final int offset, final int length)
     {
         id = Packet.sequence++ ;
+        this.interfaceAddress = interfaceAddress;
         this.address = address;
         this.port = port;
         this.data = data;
+        this.offset = offset;
+        this.length = length;
     }
     
     
@@ -43,12 +66,45 @@ public class Packet
     }
     
     
+    /**
+     * Returns the address of the local interface the packet was received on, or null if unknown.
+     * 
+     * @return The address of the local interface the packet was received on
+     */
+    public InetAddress getInterfaceAddress()
+    {
+        return interfaceAddress;
+    }
+    
+    
     public byte[] getData()
     {
         return data;
     }
     
     
+    /**
+     * Returns the length of the packet's data within the data buffer.
+     * 
+     * @return The length of the packet's data
+     */
+    public int getLength()
+    {
+        return length;
+    }
+    
+    
+    /**
+     * Returns the offset of the packet's data within the data buffer.
+     * 
+     * @return The offset of the packet's data
+     */
+    public int getOffset()
+    {
+        return offset;
+    }
+    
+    
     public int getPort()
     {
         return port;
@@ -59,4 +115,15 @@ public class Packet
     {
         return new InetSocketAddress(address, port);
     }
+    
+    
+    /**
+     * Returns the time the packet was received, in milliseconds.
+     * 
+     * @return The time the packet was received
+     */
+    public long getTime()
+    {
+        return time;
+    }
 }
\ No newline at end of file
@@ -138,7 +138,7 @@ public class UnicastProcessor extends NetworkProcessor
                                         logger.logp(Level.FINE, getClass().getName(), "run", "Received message from " + channel.socket().getRemoteSocketAddress());
                                         Socket socket = channel.socket();
                                         int length = readBuffer.limit() - readBuffer.position() - readBuffer.remaining();
-                                        executors.executeNetworkTask(new PacketRunner(listener, new Packet(socket.getLocalAddress(), socket.getPort(), data, 0, length)));
+                                        executors.executeNetworkTask(new PacketRunner(listener, new Packet(ifaceAddress, socket.getLocalAddress(), socket.getPort(), data, 0, length)));
                                     }
                                 }
                                 
@@ -1,12 +1,15 @@
 package net.posick.mDNS.utils;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,309 +17,486 @@ import org.xbill.DNS.Options;
 
 import net.posick.mDNS.net.NetworkProcessor;
 
+/**
+ * The Executors class provides the thread pools used by mdnsjava. All pools are bounded, both in
+ * threads and in queued tasks, so that a flood of mDNS packets cannot create an unbounded number
+ * of threads. When a pool is saturated its RejectionPolicy decides what happens to new work, and
+ * the number of rejected tasks is recorded in the pool's metrics.
+ *
+ * The pools are configured using the dnsjava Options, for example
+ * "mdns_network_max_threads", "mdns_network_thread_queue_size" and "mdns_network_rejection_policy".
+ * Setting the "mdns_virtual_threads" option runs the cached, network and listener executors on
+ * virtual threads when the JVM supports them (JDK 21+), bounded by "mdns_virtual_max_threads".
+ *
+ * All scheduling is done by a single HashedWheelTimer, the expired tasks are run by the scheduled
+ * executor. Callers should cancel the returned ScheduledFuture once a timeout is no longer needed.
+ *
+ * @author Steve Posick
+ */
 public class Executors
 {
     public static final Logger logger = Misc.getLogger(Executors.class.getName(), Options.check("executors"));
     
     
-    public static final int DEFAULT_NETWORK_THREAD_PRIORITY = Thread.NORM_PRIORITY + 2;
-    
-    public static final int CORE_THREADS_NETWORK_EXECUTOR = 5;
-    
-    public static final int MAX_THREADS_NETWORK_EXECUTOR = Integer.MAX_VALUE;
-    
-    public static final int TTL_THREADS_NETWORK_EXECUTOR = 10000;
-    
-    public static final int QUEUE_SIZE_NETWORK_EXECUTOR = 50;
-    
-    public static final int DEFAULT_CACHED_THREAD_PRIORITY = Thread.NORM_PRIORITY;
-    
-    public static final int CORE_THREADS_CACHED_EXECUTOR = 5;
-    
-    public static final int MAX_THREADS_CACHED_EXECUTOR = Integer.MAX_VALUE;
-    
-    public static final int TTL_THREADS_CACHED_EXECUTOR = 10000;
-    
-    public static final int QUEUE_SIZE_CACHED_EXECUTOR = 5;
-    
-    public static final int DEFAULT_SCHEDULED_THREAD_PRIORITY = Thread.NORM_PRIORITY;
-    
-    public static final int CORE_THREADS_SCHEDULED_EXECUTOR = 5;
-    
-    public static final int MAX_THREADS_SCHEDULED_EXECUTOR = Integer.MAX_VALUE;
-    
-    public static final int TTL_THREADS_SCHEDULED_EXECUTOR = 10000;
-    
-    public static final TimeUnit THREAD_TTL_TIME_UNIT = TimeUnit.MILLISECONDS;
-
-    private static Executors executors;
-    
-    private final ScheduledThreadPoolExecutor scheduledExecutor;
-    
-    private final ThreadPoolExecutor executor;
-    
-    private final ThreadPoolExecutor networkExecutor;
-    
-    
-    private Executors()
+    /**
+     * The action taken when a task is submitted to a saturated pool.
+     */
+    public static enum RejectionPolicy
     {
-        scheduledExecutor = (ScheduledThreadPoolExecutor) java.util.concurrent.Executors.newScheduledThreadPool(CORE_THREADS_SCHEDULED_EXECUTOR, new ThreadFactory()
+        /** The rejected task is discarded. */
+        DROP_NEWEST,
+        
+        /** The oldest queued task is discarded and the rejected task is queued. Used for network ingress, newer packets are more relevant. */
+        DROP_OLDEST,
+        
+        /** The rejected task is run by the thread submitting it, slowing the submitter down. */
+        CALLER_RUNS,
+        
+        /** A RejectedExecutionException is thrown to the submitter. */
+        ABORT;
+        
+        
+        public static RejectionPolicy parse(final String value, final RejectionPolicy defaultPolicy)
         {
-            public Thread newThread(final Runnable r)
+            if ((value != null) && (value.length() > 0))
             {
-                Thread t = new Thread(r, "mDNS Scheduled Thread");
-                t.setDaemon(true);
-                
-                int threadPriority = DEFAULT_SCHEDULED_THREAD_PRIORITY;
                 try
                 {
-                    String value = Options.value("mdns_scheduled_thread_priority");
-                    if ((value == null) || (value.length() == 0))
-                    {
-                        value = Options.value("mdns_thread_priority");
-                    }
-                    if ((value != null) && (value.length() == 0))
-                    {
-                        threadPriority = Integer.parseInt(value);
-                    }
-                } catch (Exception e)
+                    return valueOf(value.trim().toUpperCase().replace('-', '_'));
+                } catch (IllegalArgumentException e)
                 {
-                    // ignore
+                    logger.logp(Level.WARNING, Executors.class.getName(), "RejectionPolicy.parse", "Unknown rejection policy \"" + value + "\", using " + defaultPolicy + ".");
                 }
-                t.setPriority(threadPriority);
-                t.setContextClassLoader(this.getClass().getClassLoader());
-                return t;
             }
-        });
-        String value = Options.value("mdns_scheduled_core_threads");
-        if (value != null && value.length() >= 0)
+            
+            return defaultPolicy;
+        }
+    }
+    
+    
+    /**
+     * A point in time snapshot of the state of a thread pool.
+     */
+    public static class PoolMetrics
+    {
+        private final String name;
+        
+        private final RejectionPolicy rejectionPolicy;
+        
+        private final int poolSize;
+        
+        private final int activeThreads;
+        
+        private final int largestPoolSize;
+        
+        private final int maximumPoolSize;
+        
+        private final int queueDepth;
+        
+        private final int queueCapacity;
+        
+        private final long taskCount;
+        
+        private final long completedTaskCount;
+        
+        private final long rejectedTaskCount;
+        
+        
+        protected PoolMetrics(final String name, final ThreadPoolExecutor executor, final PolicyHandler handler)
         {
-            try
-            {
-                scheduledExecutor.setCorePoolSize(Integer.valueOf(value));
-            } catch (NumberFormatException e)
-            {
-                // ignore
-            }
+            BlockingQueue<Runnable> queue = executor.getQueue();
+            this.name = name;
+            this.rejectionPolicy = handler.getPolicy();
+            this.poolSize = executor.getPoolSize();
+            this.activeThreads = executor.getActiveCount();
+            this.largestPoolSize = executor.getLargestPoolSize();
+            this.maximumPoolSize = executor.getMaximumPoolSize();
+            this.queueDepth = queue.size();
+            int remaining = queue.remainingCapacity();
+            this.queueCapacity = remaining == Integer.MAX_VALUE ? Integer.MAX_VALUE : queueDepth + remaining;
+            this.taskCount = executor.getTaskCount();
+            this.completedTaskCount = executor.getCompletedTaskCount();
+            this.rejectedTaskCount = handler.getRejectedCount();
         }
-        value = Options.value("mdns_scheduled_max_threads");
-        if (value != null && value.length() > 0)
+        
+        
+        public int getActiveThreads()
         {
-            try
-            {
-                scheduledExecutor.setMaximumPoolSize(Integer.valueOf(value));
-            } catch (NumberFormatException e)
-            {
-                // ignore
-            }
+            return activeThreads;
         }
-        value = Options.value("mdns_scheduled_thread_ttl");
-        if (value != null && value.length() > 0)
+        
+        
+        public long getCompletedTaskCount()
         {
-            try
-            {
-                scheduledExecutor.setKeepAliveTime(Integer.valueOf(value), THREAD_TTL_TIME_UNIT);
-            } catch (NumberFormatException e)
-            {
-                // ignore
-            }
-        } else
+            return completedTaskCount;
+        }
+        
+        
+        public int getLargestPoolSize()
         {
-            scheduledExecutor.setKeepAliveTime(TTL_THREADS_SCHEDULED_EXECUTOR, THREAD_TTL_TIME_UNIT);
+            return largestPoolSize;
         }
-        scheduledExecutor.allowCoreThreadTimeOut(true);
         
-        int cacheExecutorQueueSize = QUEUE_SIZE_CACHED_EXECUTOR;
-        try
+        
+        public int getMaximumPoolSize()
         {
-            value = Options.value("mdns_cached_thread_queue_size");
-            if ((value == null) || (value.length() == 0))
-            {
-                value = Options.value("mdns_thread_queue_size");
-            }
-            if ((value != null) && (value.length() > 0))
-            {
-                cacheExecutorQueueSize = Integer.parseInt(value);
-            }
-        } catch (Exception e)
+            return maximumPoolSize;
+        }
+        
+        
+        public String getName()
         {
-            // ignore
+            return name;
         }
         
-        executor = new ThreadPoolExecutor(CORE_THREADS_CACHED_EXECUTOR, MAX_THREADS_CACHED_EXECUTOR,
-        TTL_THREADS_CACHED_EXECUTOR, THREAD_TTL_TIME_UNIT,
-        new ArrayBlockingQueue<Runnable>(cacheExecutorQueueSize),
-        new ThreadFactory()
+        
+        public int getPoolSize()
         {
-            public Thread newThread(final Runnable r)
-            {
-                Thread t = new Thread(r, "mDNS Cached Thread");
-                t.setDaemon(true);
-                
-                int threadPriority = DEFAULT_CACHED_THREAD_PRIORITY;
-                try
-                {
-                    String value = Options.value("mdns_cached_thread_priority");
-                    if ((value == null) || (value.length() == 0))
-                    {
-                        value = Options.value("mdns_thread_priority");
-                    }
-                    if ((value != null) && (value.length() == 0))
-                    {
-                        threadPriority = Integer.parseInt(value);
-                    }
-                } catch (Exception e)
-                {
-                    // ignore
-                }
-                t.setPriority(threadPriority);
-                t.setContextClassLoader(NetworkProcessor.class.getClassLoader());
-                return t;
-            }
-        }, new RejectedExecutionHandler()
+            return poolSize;
+        }
+        
+        
+        public int getQueueCapacity()
         {
-            public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor)
-            {
-                logger.logp(Level.WARNING, getClass().getName(), "net.posick.mDNS.utils.RejectedExecutionHandler", "rejectedExecution", "Network Processing Queue Rejected Packet it is FULL. [size: " + executor.getQueue().size() + "]");
-            }
-        });
-        value = Options.value("mdns_executor_core_threads");
-        if (value != null && value.length() >= 0)
+            return queueCapacity;
+        }
+        
+        
+        public int getQueueDepth()
         {
-            try
-            {
-                executor.setCorePoolSize(Integer.valueOf(value));
-            } catch (NumberFormatException e)
-            {
-                // ignore
-            }
+            return queueDepth;
         }
-        value = Options.value("mdns_executor_max_threads");
-        if (value != null && value.length() > 0)
+        
+        
+        public long getRejectedTaskCount()
         {
-            try
-            {
-                executor.setMaximumPoolSize(Integer.valueOf(value));
-            } catch (NumberFormatException e)
-            {
-                // ignore
-            }
+            return rejectedTaskCount;
         }
-        value = Options.value("mdns_executor_thread_ttl");
-        if (value != null && value.length() > 0)
+        
+        
+        public RejectionPolicy getRejectionPolicy()
         {
-            try
-            {
-                executor.setKeepAliveTime(Integer.valueOf(value), THREAD_TTL_TIME_UNIT);
-            } catch (NumberFormatException e)
-            {
-                // ignore
-            }
-        } else
+            return rejectionPolicy;
+        }
+        
+        
+        public long getTaskCount()
         {
-            executor.setKeepAliveTime(TTL_THREADS_CACHED_EXECUTOR, THREAD_TTL_TIME_UNIT);
+            return taskCount;
         }
-        executor.allowCoreThreadTimeOut(true);
         
-        int networkExecutorQueueSize = QUEUE_SIZE_NETWORK_EXECUTOR;
-        try
+        
+        @Override
+        public String toString()
         {
-            value = Options.value("mdns_cached_thread_queue_size");
-            if ((value == null) || (value.length() == 0))
-            {
-                value = Options.value("mdns_thread_queue_size");
-            }
-            if ((value != null) && (value.length() > 0))
-            {
-                try
-                {
-                    networkExecutorQueueSize = Integer.parseInt(value);
-                } catch (NumberFormatException e)
-                {
-                }
-            }
-        } catch (Exception e)
+            return name + " [threads: " + poolSize + "/" + maximumPoolSize + " (active: " + activeThreads + ", largest: " + largestPoolSize + ")" +
+                   ", queue: " + queueDepth + "/" + (queueCapacity == Integer.MAX_VALUE ? "unbounded" : String.valueOf(queueCapacity)) +
+                   ", tasks: " + taskCount + " (completed: " + completedTaskCount + ", rejected: " + rejectedTaskCount + ")" +
+                   ", policy: " + rejectionPolicy + "]";
+        }
+    }
+    
+    
+    /**
+     * Applies a RejectionPolicy and counts rejected tasks. Warnings are logged for the first
+     * rejection and every REJECTION_LOG_INTERVAL rejections thereafter, so that a flood does not
+     * turn into a logging storm.
+     */
+    protected static class PolicyHandler implements RejectedExecutionHandler
+    {
+        private final String name;
+        
+        private final RejectionPolicy policy;
+        
+        private final AtomicLong rejected = new AtomicLong();
+        
+        
+        protected PolicyHandler(final String name, final RejectionPolicy policy)
         {
-            // ignore
+            this.name = name;
+            this.policy = policy;
         }
         
-        networkExecutor = new ThreadPoolExecutor(CORE_THREADS_CACHED_EXECUTOR, MAX_THREADS_CACHED_EXECUTOR,
-        TTL_THREADS_CACHED_EXECUTOR, THREAD_TTL_TIME_UNIT,
-        new ArrayBlockingQueue<Runnable>(networkExecutorQueueSize),
-        new ThreadFactory()
+        
+        public RejectionPolicy getPolicy()
         {
-            public Thread newThread(final Runnable r)
-            {
-                Thread t = new Thread(r, "Network Queue Processing Thread");
-                t.setDaemon(true);
-                
-                int threadPriority = DEFAULT_NETWORK_THREAD_PRIORITY;
-                try
-                {
-                    String value = Options.value("mdns_network_thread_priority");
-                    if ((value == null) || (value.length() == 0))
-                    {
-                        value = Options.value("mdns_thread_priority");
-                    }
-                    if ((value != null) && (value.length() == 0))
-                    {
-                        threadPriority = Integer.parseInt(value);
-                    }
-                    threadPriority = Integer.parseInt(value);
-                } catch (Exception e)
-                {
-                    // ignore
-                }
-                t.setPriority(threadPriority);
-                t.setContextClassLoader(NetworkProcessor.class.getClassLoader());
-                return t;
-            }
-        });
-        networkExecutor.setRejectedExecutionHandler(new RejectedExecutionHandler()
+            return policy;
+        }
+        
+        
+        public long getRejectedCount()
+        {
+            return rejected.get();
+        }
+        
+        
+        public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor)
         {
-            public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor)
+            long count = rejected.incrementAndGet();
+            if ((count == 1) || ((count % REJECTION_LOG_INTERVAL) == 0))
             {
-                Thread t = executor.getThreadFactory().newThread(r);
-                t.start();
+                logger.logp(Level.WARNING, getClass().getName(), "rejectedExecution", name + " is saturated, applying " + policy + " policy. [queue size: " + executor.getQueue().size() + ", rejected tasks: " + count + "]");
             }
-        });
-        value = Options.value("mdns_network_core_threads");
-        if (value != null && value.length() >= 0)
-        {
-            try
+            
+            if (executor.isShutdown())
             {
-                networkExecutor.setCorePoolSize(Integer.valueOf(value));
-            } catch (NumberFormatException e)
+                return;
+            }
+            
+            switch (policy)
             {
-                // ignore
+                case DROP_OLDEST:
+                    executor.getQueue().poll();
+                    executor.execute(r);
+                    break;
+                case CALLER_RUNS:
+                    r.run();
+                    break;
+                case ABORT:
+                    throw new RejectedExecutionException(name + " is saturated.");
+                case DROP_NEWEST:
+                default:
+                    break;
             }
         }
-        value = Options.value("mdns_network_max_threads");
-        if (value != null && value.length() > 0)
+    }
+    
+    
+    /**
+     * Creates named daemon threads, with the priority taken from the specified option, falling back
+     * to the "mdns_thread_priority" option and then the default priority. When virtual is true,
+     * virtual threads are created instead, thread priority does not apply to virtual threads.
+     */
+    protected static class PoolThreadFactory implements ThreadFactory
+    {
+        private final String name;
+        
+        private final int priority;
+        
+        private final ThreadFactory virtualThreadFactory;
+        
+        
+        protected PoolThreadFactory(final String name, final String priorityOption, final int defaultPriority)
         {
-            try
-            {
-                networkExecutor.setMaximumPoolSize(Integer.valueOf(value));
-            } catch (NumberFormatException e)
-            {
-                // ignore
-            }
+            this(name, priorityOption, defaultPriority, false);
         }
-        value = Options.value("mdns_network_thread_ttl");
-        if (value != null && value.length() > 0)
+        
+        
+        protected PoolThreadFactory(final String name, final String priorityOption, final int defaultPriority, final boolean virtual)
         {
-            try
-            {
-                networkExecutor.setKeepAliveTime(Integer.valueOf(value), THREAD_TTL_TIME_UNIT);
-            } catch (NumberFormatException e)
+            this.name = name;
+            this.priority = Math.max(Thread.MIN_PRIORITY, Math.min(Thread.MAX_PRIORITY, intOption(priorityOption, "mdns_thread_priority", defaultPriority)));
+            this.virtualThreadFactory = virtual ? newVirtualThreadFactory(name) : null;
+        }
+        
+        
+        public Thread newThread(final Runnable r)
+        {
+            if (virtualThreadFactory != null)
             {
-                // ignore
+                Thread t = virtualThreadFactory.newThread(r);
+                t.setContextClassLoader(NetworkProcessor.class.getClassLoader());
+                return t;
             }
-        } else
+            
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            t.setPriority(priority);
+            t.setContextClassLoader(NetworkProcessor.class.getClassLoader());
+            return t;
+        }
+    }
+    
+    
+    /**
+     * Thread.ofVirtual(), available on JDK 21 and later. Looked up reflectively, as the library
+     * targets Java 1.5.
+     */
+    private static final Method OF_VIRTUAL_METHOD = getMethod(Thread.class, "ofVirtual");
+    
+    /**
+     * Thread.isVirtual(), available on JDK 21 and later.
+     */
+    private static final Method IS_VIRTUAL_METHOD = getMethod(Thread.class, "isVirtual");
+    
+    public static final int DEFAULT_NETWORK_THREAD_PRIORITY = Thread.NORM_PRIORITY + 2;
+    
+    public static final int CORE_THREADS_NETWORK_EXECUTOR = 5;
+    
+    public static final int MAX_THREADS_NETWORK_EXECUTOR = Math.max(CORE_THREADS_NETWORK_EXECUTOR, Runtime.getRuntime().availableProcessors() * 2);
+    
+    public static final int TTL_THREADS_NETWORK_EXECUTOR = 10000;
+    
+    public static final int QUEUE_SIZE_NETWORK_EXECUTOR = 500;
+    
+    public static final RejectionPolicy REJECTION_POLICY_NETWORK_EXECUTOR = RejectionPolicy.DROP_OLDEST;
+    
+    public static final int DEFAULT_CACHED_THREAD_PRIORITY = Thread.NORM_PRIORITY;
+    
+    public static final int CORE_THREADS_CACHED_EXECUTOR = 5;
+    
+    public static final int MAX_THREADS_CACHED_EXECUTOR = 20;
+    
+    public static final int TTL_THREADS_CACHED_EXECUTOR = 10000;
+    
+    public static final int QUEUE_SIZE_CACHED_EXECUTOR = 100;
+    
+    public static final RejectionPolicy REJECTION_POLICY_CACHED_EXECUTOR = RejectionPolicy.CALLER_RUNS;
+    
+    public static final int DEFAULT_SCHEDULED_THREAD_PRIORITY = Thread.NORM_PRIORITY;
+    
+    public static final int CORE_THREADS_SCHEDULED_EXECUTOR = 5;
+    
+    public static final int MAX_THREADS_SCHEDULED_EXECUTOR = CORE_THREADS_SCHEDULED_EXECUTOR;
+    
+    public static final int QUEUE_SIZE_SCHEDULED_EXECUTOR = 1000;
+    
+    public static final int TTL_THREADS_SCHEDULED_EXECUTOR = 10000;
+    
+    public static final RejectionPolicy REJECTION_POLICY_SCHEDULED_EXECUTOR = RejectionPolicy.CALLER_RUNS;
+    
+    public static final int DEFAULT_LISTENER_THREAD_PRIORITY = Thread.NORM_PRIORITY;
+    
+    public static final int CORE_THREADS_LISTENER_EXECUTOR = 2;
+    
+    public static final int MAX_THREADS_LISTENER_EXECUTOR = 10;
+    
+    public static final int TTL_THREADS_LISTENER_EXECUTOR = 10000;
+    
+    public static final int QUEUE_SIZE_LISTENER_EXECUTOR = 500;
+    
+    /**
+     * The listener executor always rejects tasks it cannot queue, so that event delivery never
+     * runs on, or blocks, the thread publishing the event. Rejected deliveries are retried by the
+     * ListenerProcessor.
+     */
+    public static final RejectionPolicy REJECTION_POLICY_LISTENER_EXECUTOR = RejectionPolicy.ABORT;
+    
+    public static final TimeUnit THREAD_TTL_TIME_UNIT = TimeUnit.MILLISECONDS;
+    
+    public static final long REJECTION_LOG_INTERVAL = 1000;
+    
+    public static final int MAX_THREADS_VIRTUAL_EXECUTOR = 10000;
+    
+    private static Executors executors;
+    
+    private final HashedWheelTimer timer;
+    
+    private final ThreadPoolExecutor scheduledExecutor;
+    
+    private final PolicyHandler scheduledExecutorHandler;
+    
+    private final ThreadPoolExecutor executor;
+    
+    private final PolicyHandler executorHandler;
+    
+    private final ThreadPoolExecutor networkExecutor;
+    
+    private final PolicyHandler networkExecutorHandler;
+    
+    private final ThreadPoolExecutor listenerExecutor;
+    
+    private final PolicyHandler listenerExecutorHandler;
+    
+    private final boolean virtualThreads;
+    
+    
+    private Executors()
+    {
+        // Virtual Thread Mode - On JDK 21+ the cached, network and listener executors run their
+        // tasks on virtual threads, so blocked tasks do not hold platform threads. The pools remain
+        // bounded.
+        virtualThreads = Options.check("mdns_virtual_threads") && isVirtualThreadSupported();
+        if (Options.check("mdns_virtual_threads") && !virtualThreads)
         {
-            executor.setKeepAliveTime(TTL_THREADS_NETWORK_EXECUTOR, THREAD_TTL_TIME_UNIT);
+            logger.logp(Level.WARNING, getClass().getName(), "Executors", "Virtual threads are not supported by this JVM, using platform threads.");
         }
-        networkExecutor.allowCoreThreadTimeOut(true);
+        int virtualMaxThreads = intOption("mdns_virtual_max_threads", null, MAX_THREADS_VIRTUAL_EXECUTOR);
+        
+        // Scheduled Executor - Runs the tasks expired by the timer. The rejection policy is applied
+        // on the timer thread, caller runs executes the task on the timer thread.
+        scheduledExecutorHandler = new PolicyHandler("mDNS Scheduled Executor", RejectionPolicy.parse(Options.value("mdns_scheduled_rejection_policy"), REJECTION_POLICY_SCHEDULED_EXECUTOR));
+        scheduledExecutor = newThreadPool(intOption("mdns_scheduled_core_threads", null, CORE_THREADS_SCHEDULED_EXECUTOR),
+                                          intOption("mdns_scheduled_max_threads", null, MAX_THREADS_SCHEDULED_EXECUTOR),
+                                          intOption("mdns_scheduled_thread_ttl", null, TTL_THREADS_SCHEDULED_EXECUTOR),
+                                          intOption("mdns_scheduled_thread_queue_size", "mdns_thread_queue_size", QUEUE_SIZE_SCHEDULED_EXECUTOR),
+                                          new PoolThreadFactory("mDNS Scheduled Thread", "mdns_scheduled_thread_priority", DEFAULT_SCHEDULED_THREAD_PRIORITY),
+                                          scheduledExecutorHandler);
+        
+        // Timer - A single hashed wheel timer for all of the library's timeouts.
+        timer = new HashedWheelTimer("mDNS Timer Thread", scheduledExecutor,
+                                     intOption("mdns_timer_tick", null, (int) HashedWheelTimer.DEFAULT_TICK_DURATION), TimeUnit.MILLISECONDS,
+                                     intOption("mdns_timer_wheel_size", null, HashedWheelTimer.DEFAULT_WHEEL_SIZE));
+        
+        // Cached Executor - Asynchronous work, such as query callbacks.
+        executorHandler = new PolicyHandler("mDNS Cached Executor", RejectionPolicy.parse(Options.value("mdns_executor_rejection_policy"), REJECTION_POLICY_CACHED_EXECUTOR));
+        executor = newThreadPool(virtualThreads ? virtualMaxThreads : intOption("mdns_executor_core_threads", null, CORE_THREADS_CACHED_EXECUTOR),
+                                 virtualThreads ? virtualMaxThreads : intOption("mdns_executor_max_threads", null, MAX_THREADS_CACHED_EXECUTOR),
+                                 intOption("mdns_executor_thread_ttl", null, TTL_THREADS_CACHED_EXECUTOR),
+                                 intOption("mdns_cached_thread_queue_size", "mdns_thread_queue_size", QUEUE_SIZE_CACHED_EXECUTOR),
+                                 new PoolThreadFactory("mDNS Cached Thread", "mdns_cached_thread_priority", DEFAULT_CACHED_THREAD_PRIORITY, virtualThreads),
+                                 executorHandler);
+        
+        // Network Executor - Packet processing.
+        networkExecutorHandler = new PolicyHandler("mDNS Network Executor", RejectionPolicy.parse(Options.value("mdns_network_rejection_policy"), REJECTION_POLICY_NETWORK_EXECUTOR));
+        networkExecutor = newThreadPool(virtualThreads ? virtualMaxThreads : intOption("mdns_network_core_threads", null, CORE_THREADS_NETWORK_EXECUTOR),
+                                        virtualThreads ? virtualMaxThreads : intOption("mdns_network_max_threads", null, MAX_THREADS_NETWORK_EXECUTOR),
+                                        intOption("mdns_network_thread_ttl", null, TTL_THREADS_NETWORK_EXECUTOR),
+                                        intOption("mdns_network_thread_queue_size", "mdns_thread_queue_size", QUEUE_SIZE_NETWORK_EXECUTOR),
+                                        new PoolThreadFactory("Network Queue Processing Thread", "mdns_network_thread_priority", DEFAULT_NETWORK_THREAD_PRIORITY, virtualThreads),
+                                        networkExecutorHandler);
+        
+        // Listener Executor - Asynchronous listener event delivery. The rejection policy is not
+        // configurable, rejected deliveries stay queued and are retried by the ListenerProcessor.
+        listenerExecutorHandler = new PolicyHandler("mDNS Listener Executor", REJECTION_POLICY_LISTENER_EXECUTOR);
+        listenerExecutor = newThreadPool(virtualThreads ? virtualMaxThreads : intOption("mdns_listener_core_threads", null, CORE_THREADS_LISTENER_EXECUTOR),
+                                         virtualThreads ? virtualMaxThreads : intOption("mdns_listener_max_threads", null, MAX_THREADS_LISTENER_EXECUTOR),
+                                         intOption("mdns_listener_thread_ttl", null, TTL_THREADS_LISTENER_EXECUTOR),
+                                         intOption("mdns_listener_thread_queue_size", "mdns_thread_queue_size", QUEUE_SIZE_LISTENER_EXECUTOR),
+                                         new PoolThreadFactory("mDNS Listener Thread", "mdns_listener_thread_priority", DEFAULT_LISTENER_THREAD_PRIORITY, virtualThreads),
+                                         listenerExecutorHandler);
+    }
+    
+    
+    public PoolMetrics getExecutorMetrics()
+    {
+        return new PoolMetrics("mDNS Cached Executor", executor, executorHandler);
+    }
+    
+    
+    public PoolMetrics getListenerExecutorMetrics()
+    {
+        return new PoolMetrics("mDNS Listener Executor", listenerExecutor, listenerExecutorHandler);
+    }
+    
+    
+    public PoolMetrics getNetworkExecutorMetrics()
+    {
+        return new PoolMetrics("mDNS Network Executor", networkExecutor, networkExecutorHandler);
+    }
+    
+    
+    public PoolMetrics getScheduledExecutorMetrics()
+    {
+        return new PoolMetrics("mDNS Scheduled Executor", scheduledExecutor, scheduledExecutorHandler);
+    }
+    
+    
+    /**
+     * Returns true if the cached, network and listener executors run their tasks on virtual threads.
+     */
+    public boolean isVirtualThreadMode()
+    {
+        return virtualThreads;
+    }
+    
+    
+    /**
+     * Returns the number of timeouts scheduled on the timer that have not expired or been cancelled.
+     */
+    public int getPendingTimeouts()
+    {
+        return timer.getPendingTimeouts();
     }
     
     
@@ -326,6 +506,12 @@ public class Executors
     }
     
     
+    public boolean isListenerExecutorOperational()
+    {
+        return !listenerExecutor.isShutdown() && !listenerExecutor.isTerminated() && !listenerExecutor.isTerminating();
+    }
+    
+    
     public boolean isNetworkExecutorOperational()
     {
         return !networkExecutor.isShutdown() && !networkExecutor.isTerminated() && !networkExecutor.isTerminating();
@@ -334,41 +520,52 @@ public class Executors
     
     public boolean isScheduledExecutorOperational()
     {
-        return !scheduledExecutor.isShutdown() && !scheduledExecutor.isTerminated() && !scheduledExecutor.isTerminating();
+        return timer.isOperational() && !scheduledExecutor.isShutdown() && !scheduledExecutor.isTerminated() && !scheduledExecutor.isTerminating();
     }
-
-
+    
+    
     public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit)
     {
-        return scheduledExecutor.schedule(command, delay, unit);
+        return timer.schedule(command, delay, unit);
     }
-
-
+    
+    
     public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit)
     {
-        return scheduledExecutor.scheduleAtFixedRate(command, initialDelay, period, unit);
+        return timer.scheduleAtFixedRate(command, initialDelay, period, unit);
     }
-
-
+    
+    
     public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit)
     {
-        return scheduledExecutor.scheduleWithFixedDelay(command, initialDelay, delay, unit);
+        return timer.scheduleWithFixedDelay(command, initialDelay, delay, unit);
     }
-
-
+    
+    
     public void execute(Runnable command)
     {
         executor.execute(command);
     }
-
-
+    
+    
+    /**
+     * Executes a listener event delivery task.
+     * 
+     * @throws RejectedExecutionException If the listener executor is saturated
+     */
+    public void executeListenerTask(Runnable command)
+    {
+        listenerExecutor.execute(command);
+    }
+    
+    
     public void executeNetworkTask(Runnable command)
     {
         networkExecutor.execute(command);
     }
     
     
-    public static Executors newInstance()
+    public static synchronized Executors newInstance()
     {
         if (executors == null)
         {
@@ -377,4 +574,104 @@ public class Executors
         
         return executors;
     }
+    
+    
+    /**
+     * Returns true if the JVM supports virtual threads (JDK 21 and later).
+     */
+    public static boolean isVirtualThreadSupported()
+    {
+        return (OF_VIRTUAL_METHOD != null) && (IS_VIRTUAL_METHOD != null);
+    }
+    
+    
+    /**
+     * Returns true if the specified thread is a virtual thread. Always false on JVMs that do not
+     * support virtual threads.
+     */
+    public static boolean isVirtualThread(final Thread thread)
+    {
+        if ((IS_VIRTUAL_METHOD != null) && (thread != null))
+        {
+            try
+            {
+                return Boolean.TRUE.equals(IS_VIRTUAL_METHOD.invoke(thread));
+            } catch (Exception e)
+            {
+                // ignore
+            }
+        }
+        
+        return false;
+    }
+    
+    
+    /**
+     * Returns the integer value of the named option, or of the fallback option if the named option
+     * is not set, or the default value if neither is set or the value is not a number.
+     */
+    protected static int intOption(final String name, final String fallbackName, final int defaultValue)
+    {
+        String value = Options.value(name);
+        if (((value == null) || (value.length() == 0)) && (fallbackName != null))
+        {
+            value = Options.value(fallbackName);
+        }
+        
+        if ((value != null) && (value.length() > 0))
+        {
+            try
+            {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e)
+            {
+                logger.logp(Level.WARNING, Executors.class.getName(), "intOption", "Option \"" + name + "\" value \"" + value + "\" is not a number, using " + defaultValue + ".");
+            }
+        }
+        
+        return defaultValue;
+    }
+    
+    
+    private static Method getMethod(final Class<?> clazz, final String name, final Class<?>... parameterTypes)
+    {
+        try
+        {
+            return clazz.getMethod(name, parameterTypes);
+        } catch (Exception e)
+        {
+            return null;
+        }
+    }
+    
+    
+    /**
+     * Creates a ThreadFactory for virtual threads with the specified name, using
+     * Thread.ofVirtual().name(name).factory() reflectively.
+     */
+    private static ThreadFactory newVirtualThreadFactory(final String name)
+    {
+        try
+        {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = OF_VIRTUAL_METHOD.invoke(null);
+            builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e)
+        {
+            throw new IllegalStateException("Could not create virtual thread factory - " + e.getMessage(), e);
+        }
+    }
+    
+    
+    private static ThreadPoolExecutor newThreadPool(final int coreThreads, final int maxThreads, final int threadTTL, final int queueSize, final ThreadFactory threadFactory, final RejectedExecutionHandler handler)
+    {
+        int core = Math.max(1, coreThreads);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(core, Math.max(core, maxThreads),
+                                                         threadTTL, THREAD_TTL_TIME_UNIT,
+                                                         new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                                                         threadFactory, handler);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
 }
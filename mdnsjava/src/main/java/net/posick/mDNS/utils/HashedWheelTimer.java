@@ -0,0 +1,567 @@
+package net.posick.mDNS.utils;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xbill.DNS.Options;
+
+/**
+ * The HashedWheelTimer schedules timeouts on a circular array of buckets (the wheel), which a single
+ * thread advances once per tick. Scheduling and cancelling a timeout are O(1) operations, making
+ * the timer suitable for the large number of short lived timeouts created by in-flight queries.
+ * Timeouts are accurate to within one tick.
+ *
+ * Expired timeouts are run on the Executor provided to the constructor, so that a slow task does
+ * not delay the expiration of other timeouts. Cancelled timeouts are removed from the wheel on the
+ * next tick, so that the wheel is not filled with dead tasks.
+ *
+ * @author Steve Posick
+ */
+public class HashedWheelTimer
+{
+    public static final long DEFAULT_TICK_DURATION = 10;
+    
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    
+    private static final int STATE_WAITING = 0;
+    
+    private static final int STATE_RUNNING = 1;
+    
+    private static final int STATE_DONE = 2;
+    
+    private static final int STATE_CANCELLED = 3;
+    
+    
+    /**
+     * A timeout scheduled on the wheel. Periodic timeouts are re-inserted into the wheel after each
+     * run until they are cancelled or their task throws an exception.
+     */
+    protected class Timeout implements ScheduledFuture<Object>, Runnable
+    {
+        private final Runnable task;
+        
+        /**
+         * The period in nanoseconds. Positive for fixed rate, negative for fixed delay and zero for
+         * one-shot timeouts.
+         */
+        private final long period;
+        
+        private final AtomicInteger state = new AtomicInteger(STATE_WAITING);
+        
+        private volatile long deadline;
+        
+        private long remainingRounds;
+        
+        private Throwable failure;
+        
+        private Bucket bucket;
+        
+        private Timeout next;
+        
+        private Timeout prev;
+        
+        
+        protected Timeout(final Runnable task, final long deadline, final long period)
+        {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+        
+        
+        public boolean cancel(final boolean mayInterruptIfRunning)
+        {
+            for (;;)
+            {
+                int current = state.get();
+                if ((current == STATE_DONE) || (current == STATE_CANCELLED))
+                {
+                    return false;
+                }
+                
+                if (state.compareAndSet(current, STATE_CANCELLED))
+                {
+                    if (current == STATE_WAITING)
+                    {
+                        cancelledTimeouts.add(this);
+                    }
+                    done();
+                    return true;
+                }
+            }
+        }
+        
+        
+        public int compareTo(final Delayed o)
+        {
+            long diff = getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+        
+        
+        public Object get()
+        throws InterruptedException, ExecutionException
+        {
+            synchronized (this)
+            {
+                while (!isDone())
+                {
+                    wait();
+                }
+            }
+            
+            return result();
+        }
+        
+        
+        public Object get(final long timeout, final TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+        {
+            long waitTill = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (this)
+            {
+                long remaining;
+                while (!isDone())
+                {
+                    if ((remaining = waitTill - System.nanoTime()) <= 0)
+                    {
+                        throw new TimeoutException();
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+            
+            return result();
+        }
+        
+        
+        public long getDelay(final TimeUnit unit)
+        {
+            return unit.convert(deadline - (System.nanoTime() - startTime), TimeUnit.NANOSECONDS);
+        }
+        
+        
+        public boolean isCancelled()
+        {
+            return state.get() == STATE_CANCELLED;
+        }
+        
+        
+        public boolean isDone()
+        {
+            int current = state.get();
+            return (current == STATE_DONE) || (current == STATE_CANCELLED);
+        }
+        
+        
+        public void run()
+        {
+            if (state.get() != STATE_RUNNING)
+            {
+                return;
+            }
+            
+            try
+            {
+                task.run();
+            } catch (Throwable e)
+            {
+                logger.logp(Level.WARNING, getClass().getName(), "run", "Timer task \"" + task + "\" failed - " + e.getMessage(), e);
+                failure = e;
+                if (state.compareAndSet(STATE_RUNNING, STATE_DONE))
+                {
+                    done();
+                }
+                return;
+            }
+            
+            if (period == 0)
+            {
+                if (state.compareAndSet(STATE_RUNNING, STATE_DONE))
+                {
+                    done();
+                }
+            } else if (state.compareAndSet(STATE_RUNNING, STATE_WAITING))
+            {
+                deadline = period > 0 ? deadline + period : (System.nanoTime() - startTime) - period;
+                pendingTimeouts.add(this);
+            }
+        }
+        
+        
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + " [task: " + task + ", delay: " + getDelay(TimeUnit.MILLISECONDS) + "ms, period: " + TimeUnit.NANOSECONDS.toMillis(period) + "ms" + (isCancelled() ? ", cancelled" : "") + "]";
+        }
+        
+        
+        private synchronized void done()
+        {
+            notifyAll();
+        }
+        
+        
+        private Object result()
+        throws ExecutionException
+        {
+            if (isCancelled())
+            {
+                throw new CancellationException();
+            } else if (failure != null)
+            {
+                throw new ExecutionException(failure);
+            }
+            
+            return null;
+        }
+    }
+    
+    
+    /**
+     * A bucket of the wheel, a doubly linked list of Timeouts. Only accessed by the worker thread.
+     */
+    protected class Bucket
+    {
+        private Timeout head;
+        
+        private Timeout tail;
+        
+        
+        protected void add(final Timeout timeout)
+        {
+            timeout.bucket = this;
+            if (head == null)
+            {
+                head = tail = timeout;
+            } else
+            {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+        
+        
+        protected void expire(final long now)
+        {
+            // Only visit the timeouts present when expiration started, timeouts re-added below belong to a later round
+            Timeout last = tail;
+            Timeout timeout = last != null ? head : null;
+            while (timeout != null)
+            {
+                Timeout next = timeout != last ? timeout.next : null;
+                if (timeout.isCancelled())
+                {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0)
+                {
+                    remove(timeout);
+                    if (timeout.deadline <= now)
+                    {
+                        dispatch(timeout);
+                    } else
+                    {
+                        // Expiring early would break the timeout contract, place it in its proper bucket
+                        schedule(timeout, now);
+                    }
+                } else
+                {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+        
+        
+        protected void remove(final Timeout timeout)
+        {
+            if (timeout.bucket != this)
+            {
+                return;
+            }
+            
+            if (timeout.prev != null)
+            {
+                timeout.prev.next = timeout.next;
+            } else
+            {
+                head = timeout.next;
+            }
+            
+            if (timeout.next != null)
+            {
+                timeout.next.prev = timeout.prev;
+            } else
+            {
+                tail = timeout.prev;
+            }
+            
+            timeout.next = null;
+            timeout.prev = null;
+            timeout.bucket = null;
+            size--;
+        }
+    }
+    
+    
+    /**
+     * Advances the wheel one bucket per tick and expires the timeouts in the current bucket.
+     */
+    protected class Worker implements Runnable
+    {
+        public void run()
+        {
+            while (!stopped)
+            {
+                long deadline = tickDuration * (tick + 1);
+                long sleep = deadline - (System.nanoTime() - startTime);
+                if (sleep > 0)
+                {
+                    try
+                    {
+                        TimeUnit.NANOSECONDS.sleep(sleep);
+                    } catch (InterruptedException e)
+                    {
+                        // ignore
+                    }
+                    continue;
+                }
+                
+                processCancelledTimeouts();
+                transferPendingTimeouts(deadline);
+                wheel[(int) (tick & mask)].expire(deadline);
+                tick++;
+            }
+        }
+    }
+    
+    
+    private static final Logger logger = Misc.getLogger(HashedWheelTimer.class.getName(), Options.check("mdns_verbose"));
+    
+    private final Executor executor;
+    
+    private final long tickDuration;
+    
+    private final Bucket[] wheel;
+    
+    private final long mask;
+    
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    
+    private final long startTime = System.nanoTime();
+    
+    private final String name;
+    
+    private Thread workerThread;
+    
+    private volatile boolean stopped = false;
+    
+    private long tick;
+    
+    private volatile int size;
+    
+    
+    public HashedWheelTimer(final String name, final Executor executor)
+    {
+        this(name, executor, DEFAULT_TICK_DURATION, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+    }
+    
+    
+    /**
+     * Creates a new HashedWheelTimer. The wheel size is rounded up to a power of two.
+     *
+     * @param name The name of the worker thread
+     * @param executor The Executor used to run expired timeouts
+     * @param tickDuration The duration of a tick
+     * @param unit The unit of the tick duration
+     * @param wheelSize The number of buckets in the wheel
+     */
+    public HashedWheelTimer(final String name, final Executor executor, final long tickDuration, final TimeUnit unit, final int wheelSize)
+    {
+        if (executor == null)
+        {
+            throw new NullPointerException("Executor is null");
+        }
+        
+        int size = 1;
+        while (size < wheelSize)
+        {
+            size <<= 1;
+        }
+        
+        this.name = name;
+        this.executor = executor;
+        this.tickDuration = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+        this.wheel = new Bucket[size];
+        for (int index = 0; index < size; index++)
+        {
+            wheel[index] = new Bucket();
+        }
+        this.mask = size - 1;
+    }
+    
+    
+    /**
+     * Returns the number of timeouts that have been scheduled but not yet placed in the wheel plus
+     * the number of timeouts in the wheel.
+     */
+    public int getPendingTimeouts()
+    {
+        return size + pendingTimeouts.size();
+    }
+    
+    
+    public long getTickDuration(final TimeUnit unit)
+    {
+        return unit.convert(tickDuration, TimeUnit.NANOSECONDS);
+    }
+    
+    
+    public boolean isOperational()
+    {
+        return !stopped;
+    }
+    
+    
+    public ScheduledFuture<?> schedule(final Runnable task, final long delay, final TimeUnit unit)
+    {
+        return add(task, delay, 0, unit);
+    }
+    
+    
+    public ScheduledFuture<?> scheduleAtFixedRate(final Runnable task, final long initialDelay, final long period, final TimeUnit unit)
+    {
+        if (period <= 0)
+        {
+            throw new IllegalArgumentException("Period must be greater than zero");
+        }
+        return add(task, initialDelay, unit.toNanos(period), unit);
+    }
+    
+    
+    public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable task, final long initialDelay, final long delay, final TimeUnit unit)
+    {
+        if (delay <= 0)
+        {
+            throw new IllegalArgumentException("Delay must be greater than zero");
+        }
+        return add(task, initialDelay, -unit.toNanos(delay), unit);
+    }
+    
+    
+    /**
+     * Stops the timer. Timeouts that have not expired will not be run.
+     */
+    public synchronized void stop()
+    {
+        stopped = true;
+        if (workerThread != null)
+        {
+            workerThread.interrupt();
+        }
+    }
+    
+    
+    private Timeout add(final Runnable task, final long delay, final long period, final TimeUnit unit)
+    {
+        if (task == null)
+        {
+            throw new NullPointerException("Task is null");
+        }
+        
+        if (stopped)
+        {
+            throw new RejectedExecutionException(name + " has been stopped.");
+        }
+        
+        start();
+        
+        Timeout timeout = new Timeout(task, (System.nanoTime() - startTime) + Math.max(0, unit.toNanos(delay)), period);
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+    
+    
+    private void dispatch(final Timeout timeout)
+    {
+        if (timeout.state.compareAndSet(STATE_WAITING, STATE_RUNNING))
+        {
+            try
+            {
+                executor.execute(timeout);
+            } catch (RejectedExecutionException e)
+            {
+                logger.logp(Level.WARNING, getClass().getName(), "dispatch", "Timer task \"" + timeout.task + "\" rejected - " + e.getMessage());
+                timeout.failure = e;
+                timeout.state.set(STATE_DONE);
+                timeout.done();
+            }
+        }
+    }
+    
+    
+    private void processCancelledTimeouts()
+    {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null)
+        {
+            if (timeout.bucket != null)
+            {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+    
+    
+    private void schedule(final Timeout timeout, final long now)
+    {
+        long ticks = Math.max(timeout.deadline, now) / tickDuration;
+        timeout.remainingRounds = (ticks - tick) / wheel.length;
+        wheel[(int) (Math.max(ticks, tick) & mask)].add(timeout);
+        size++;
+    }
+    
+    
+    private synchronized void start()
+    {
+        if ((workerThread == null) && !stopped)
+        {
+            workerThread = new Thread(new Worker(), name);
+            workerThread.setDaemon(true);
+            workerThread.start();
+        }
+    }
+    
+    
+    private void transferPendingTimeouts(final long now)
+    {
+        // Limit the number of transfers per tick, so that a flood of new timeouts can not stall the wheel
+        for (int index = 0; index < 100000; index++)
+        {
+            Timeout timeout = pendingTimeouts.poll();
+            if (timeout == null)
+            {
+                break;
+            }
+            
+            if (!timeout.isCancelled())
+            {
+                schedule(timeout, now);
+            }
+        }
+    }
+}
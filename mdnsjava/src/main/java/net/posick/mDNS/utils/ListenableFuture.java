@@ -0,0 +1,247 @@
+package net.posick.mDNS.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A Future that is completed explicitly, by the operation producing its result, and that notifies
+ * FutureListeners upon completion, allowing asynchronous operations to be composed without blocking
+ * a thread. Listeners are called by the thread completing the future, or by the thread adding the
+ * listener if the future has already completed.
+ *
+ * Cancelling the future notifies its listeners, which allows the operation producing the result to
+ * release its resources, such as pending queries and timers.
+ *
+ * @author Steve Posick
+ */
+public class ListenableFuture<V> implements Future<V>
+{
+    private static final Logger logger = Logger.getLogger(ListenableFuture.class.getName());
+    
+    /**
+     * Notified when a ListenableFuture completes, successfully, exceptionally or by cancellation.
+     */
+    public static interface FutureListener<V>
+    {
+        public void operationComplete(ListenableFuture<V> future);
+    }
+    
+    private static final int PENDING = 0;
+    
+    private static final int SUCCEEDED = 1;
+    
+    private static final int FAILED = 2;
+    
+    private static final int CANCELLED = 3;
+    
+    private static final int COMPLETING = 4;
+    
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    
+    private final CountDownLatch latch = new CountDownLatch(1);
+    
+    private volatile V value;
+    
+    private volatile Throwable failure;
+    
+    private List<FutureListener<V>> listeners = new ArrayList<FutureListener<V>>(2);
+    
+    
+    public ListenableFuture()
+    {
+    }
+    
+    
+    /**
+     * Adds a listener that is notified when the future completes. If the future has already
+     * completed the listener is notified immediately.
+     *
+     * @param listener The listener
+     * @return This future
+     */
+    public ListenableFuture<V> addListener(final FutureListener<V> listener)
+    {
+        synchronized (this)
+        {
+            if (listeners != null)
+            {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        
+        notifyListener(listener);
+        return this;
+    }
+    
+    
+    public boolean cancel(final boolean mayInterruptIfRunning)
+    {
+        return complete(CANCELLED, null, new CancellationException());
+    }
+    
+    
+    public V get()
+    throws InterruptedException, ExecutionException
+    {
+        latch.await();
+        return result();
+    }
+    
+    
+    public V get(final long timeout, final TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (!latch.await(timeout, unit))
+        {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+    
+    
+    /**
+     * Returns the exception the future failed with, a CancellationException if it was cancelled,
+     * or null if it has not completed or completed successfully.
+     */
+    public Throwable getCause()
+    {
+        return failure;
+    }
+    
+    
+    /**
+     * Returns the result if the future completed successfully, otherwise the specified value.
+     * Does not block.
+     */
+    public V getNow(final V valueIfAbsent)
+    {
+        return state.get() == SUCCEEDED ? value : valueIfAbsent;
+    }
+    
+    
+    public boolean isCancelled()
+    {
+        return state.get() == CANCELLED;
+    }
+    
+    
+    public boolean isDone()
+    {
+        int current = state.get();
+        return (current != PENDING) && (current != COMPLETING);
+    }
+    
+    
+    /**
+     * Returns true if the future completed successfully.
+     */
+    public boolean isSuccess()
+    {
+        return state.get() == SUCCEEDED;
+    }
+    
+    
+    /**
+     * Completes the future with the specified result.
+     *
+     * @return true if the future was completed by this call
+     */
+    public boolean set(final V value)
+    {
+        return complete(SUCCEEDED, value, null);
+    }
+    
+    
+    /**
+     * Completes the future with the specified exception.
+     *
+     * @return true if the future was completed by this call
+     */
+    public boolean setException(final Throwable failure)
+    {
+        return complete(FAILED, null, failure);
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        switch (state.get())
+        {
+            case SUCCEEDED:
+                return getClass().getSimpleName() + " [succeeded: " + value + "]";
+            case FAILED:
+                return getClass().getSimpleName() + " [failed: " + failure + "]";
+            case CANCELLED:
+                return getClass().getSimpleName() + " [cancelled]";
+            default:
+                return getClass().getSimpleName() + " [pending]";
+        }
+    }
+    
+    
+    private boolean complete(final int newState, final V value, final Throwable failure)
+    {
+        // The result is assigned before the final state is published, so a reader that sees the
+        // final state also sees the result
+        if (!state.compareAndSet(PENDING, COMPLETING))
+        {
+            return false;
+        }
+        
+        this.value = value;
+        this.failure = failure;
+        state.set(newState);
+        latch.countDown();
+        
+        List<FutureListener<V>> tempListeners;
+        synchronized (this)
+        {
+            tempListeners = listeners;
+            listeners = null;
+        }
+        
+        for (FutureListener<V> listener : tempListeners)
+        {
+            notifyListener(listener);
+        }
+        return true;
+    }
+    
+    
+    private void notifyListener(final FutureListener<V> listener)
+    {
+        try
+        {
+            listener.operationComplete(this);
+        } catch (Exception e)
+        {
+            logger.log(Level.WARNING, "FutureListener \"" + listener + "\" failed - " + e.getMessage(), e);
+        }
+    }
+    
+    
+    private V result()
+    throws ExecutionException
+    {
+        switch (state.get())
+        {
+            case SUCCEEDED:
+                return value;
+            case CANCELLED:
+                throw new CancellationException();
+            default:
+                throw new ExecutionException(failure);
+        }
+    }
+}
@@ -6,12 +6,25 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Options;
+import org.xbill.DNS.ResolverListener;
+
 /**
  * The ListenerSupport class implements a performant, thread safe, listener subsystem
  * that does not create temporary objects during the event dispatch process. The order in which
@@ -19,6 +32,19 @@ import java.util.logging.Logger;
  * dispatch. A listener may halt the delivery of events to subsequent listeners by throwing a
  * StopDispatchException.
  * 
+ * Events are dispatched by a typed dispatcher that iterates the listener array, calling the
+ * listeners directly. A typed dispatcher is provided for ResolverListener, other interfaces, such
+ * as the DNSSDListener, register a DispatcherFactory. Interfaces without a DispatcherFactory are
+ * dispatched using a reflective Proxy.
+ * 
+ * In asynchronous mode, enabled by setAsynchronous or the "mdns_async_dispatch" option, each
+ * listener has its own bounded event queue drained by the listener executor, so that a slow
+ * listener cannot block the dispatching thread or the other listeners. When a listener's queue is
+ * full, events are dropped or, for events that describe the state of a service, coalesced with the
+ * queued event for the same service, as determined by the OverflowPolicy. Listeners that take
+ * longer than the slow listener threshold to handle an event are logged. A StopDispatchException
+ * has no effect in asynchronous mode, as the listeners are independent.
+ * 
  * @author Steve Posick
  */
 @SuppressWarnings("unchecked")
@@ -52,6 +78,30 @@ public class ListenerProcessor<T> implements Closeable
         public Object invoke(final Object proxy, final Method method, final Object[] args)
         throws Throwable
         {
+            if (processor.isAsynchronous())
+            {
+                processor.dispatchAsync(new Event(null)
+                {
+                    @Override
+                    protected void deliver(final Object listener)
+                    throws Exception
+                    {
+                        try
+                        {
+                            method.invoke(listener, args);
+                        } catch (InvocationTargetException e)
+                        {
+                            if (e.getTargetException() instanceof Exception)
+                            {
+                                throw (Exception) e.getTargetException();
+                            }
+                            throw e;
+                        }
+                    }
+                });
+                return null;
+            }
+            
             Object[] tempListeners = processor.listeners;
             for (Object listener : tempListeners)
             {
@@ -87,11 +137,503 @@ public class ListenerProcessor<T> implements Closeable
         }
     }
     
+    
+    /**
+     * The action taken when an event is dispatched to a listener whose queue is full.
+     */
+    public static enum OverflowPolicy
+    {
+        /** The oldest queued event is dropped. */
+        DROP_OLDEST,
+        
+        /** The new event is dropped. */
+        DROP_NEWEST,
+        
+        /** The new event is combined with a queued event for the same service, otherwise the oldest queued event is dropped. */
+        COALESCE;
+        
+        
+        public static OverflowPolicy parse(final String value, final OverflowPolicy defaultPolicy)
+        {
+            if ((value != null) && (value.length() > 0))
+            {
+                try
+                {
+                    return valueOf(value.trim().toUpperCase().replace('-', '_'));
+                } catch (IllegalArgumentException e)
+                {
+                    logger.log(Level.WARNING, "Unknown overflow policy \"" + value + "\", using " + defaultPolicy + ".");
+                }
+            }
+            
+            return defaultPolicy;
+        }
+    }
+    
+    
+    /**
+     * An event queued for asynchronous delivery. Events with a key may be coalesced with a queued
+     * event with an equal key, by default the newer event replaces the older.
+     */
+    public static abstract class Event
+    {
+        protected final Object key;
+        
+        
+        protected Event(final Object key)
+        {
+            this.key = key;
+        }
+        
+        
+        /**
+         * Combines this event with an undelivered event with an equal key.
+         * 
+         * @param queued The undelivered event
+         * @return The event queued in place of the undelivered event, or null to deliver neither
+         */
+        protected Event coalesce(final Event queued)
+        {
+            return this;
+        }
+        
+        
+        protected abstract void deliver(Object listener)
+        throws Exception;
+    }
+    
+    
+    /**
+     * A point in time snapshot of the state of a listener's asynchronous event queue.
+     */
+    public static class ListenerStatistics
+    {
+        private final Object listener;
+        
+        private final int queueDepth;
+        
+        private final int queueCapacity;
+        
+        private final long delivered;
+        
+        private final long dropped;
+        
+        private final long coalesced;
+        
+        private final long slowDeliveries;
+        
+        private final long maxDeliveryTime;
+        
+        
+        protected ListenerStatistics(final Object listener, final int queueDepth, final int queueCapacity, final long delivered, final long dropped, final long coalesced, final long slowDeliveries, final long maxDeliveryTime)
+        {
+            this.listener = listener;
+            this.queueDepth = queueDepth;
+            this.queueCapacity = queueCapacity;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.coalesced = coalesced;
+            this.slowDeliveries = slowDeliveries;
+            this.maxDeliveryTime = maxDeliveryTime;
+        }
+        
+        
+        public long getCoalesced()
+        {
+            return coalesced;
+        }
+        
+        
+        public long getDelivered()
+        {
+            return delivered;
+        }
+        
+        
+        public long getDropped()
+        {
+            return dropped;
+        }
+        
+        
+        public Object getListener()
+        {
+            return listener;
+        }
+        
+        
+        /**
+         * Returns the longest time, in milliseconds, the listener took to handle an event.
+         */
+        public long getMaxDeliveryTime()
+        {
+            return maxDeliveryTime;
+        }
+        
+        
+        public int getQueueCapacity()
+        {
+            return queueCapacity;
+        }
+        
+        
+        public int getQueueDepth()
+        {
+            return queueDepth;
+        }
+        
+        
+        public long getSlowDeliveries()
+        {
+            return slowDeliveries;
+        }
+        
+        
+        /**
+         * Returns true if the listener's queue is at least half full.
+         */
+        public boolean isLagging()
+        {
+            return queueDepth >= (queueCapacity / 2);
+        }
+        
+        
+        @Override
+        public String toString()
+        {
+            return listener + " [queue: " + queueDepth + "/" + queueCapacity + ", delivered: " + delivered + ", dropped: " + dropped + ", coalesced: " + coalesced + ", slow: " + slowDeliveries + ", max delivery time: " + maxDeliveryTime + "ms]";
+        }
+    }
+    
+    
+    /**
+     * The asynchronous event queue of a single listener. Events are delivered in order by at most
+     * one listener executor thread at a time.
+     */
+    protected static class ListenerQueue implements Runnable
+    {
+        /**
+         * The delay before a delivery rejected by the saturated listener executor is retried.
+         */
+        protected static final long RETRY_DELAY = 10;
+        
+        private final ListenerProcessor<?> processor;
+        
+        private final Object listener;
+        
+        private final LinkedList<Event> events = new LinkedList<Event>();
+        
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        
+        private final AtomicLong delivered = new AtomicLong();
+        
+        private final AtomicLong dropped = new AtomicLong();
+        
+        private final AtomicLong coalesced = new AtomicLong();
+        
+        private final AtomicLong slowDeliveries = new AtomicLong();
+        
+        private final AtomicLong rejected = new AtomicLong();
+        
+        private volatile long maxDeliveryTime;
+        
+        private boolean closed = false;
+        
+        
+        protected ListenerQueue(final ListenerProcessor<?> processor, final Object listener)
+        {
+            this.processor = processor;
+            this.listener = listener;
+        }
+        
+        
+        public void run()
+        {
+            for (;;)
+            {
+                Event event;
+                synchronized (events)
+                {
+                    event = events.poll();
+                    if (event == null)
+                    {
+                        scheduled.set(false);
+                        return;
+                    }
+                }
+                
+                long start = System.nanoTime();
+                try
+                {
+                    event.deliver(listener);
+                } catch (StopDispatchException e)
+                {
+                    // ignore, listeners are independent in asynchronous mode
+                } catch (Exception e)
+                {
+                    logger.log(Level.WARNING, "Listener \"" + listener + "\" failed to handle event - " + e.getMessage(), e);
+                }
+                
+                long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                delivered.incrementAndGet();
+                if (took > maxDeliveryTime)
+                {
+                    maxDeliveryTime = took;
+                }
+                
+                if (took > processor.slowListenerThreshold)
+                {
+                    long count = slowDeliveries.incrementAndGet();
+                    if ((count == 1) || ((count % 100) == 0))
+                    {
+                        logger.log(Level.WARNING, "Slow listener \"" + listener + "\" took " + took + "ms to handle an event. [slow deliveries: " + count + ", queue size: " + size() + "]");
+                    }
+                }
+            }
+        }
+        
+        
+        protected void close()
+        {
+            synchronized (events)
+            {
+                closed = true;
+                events.clear();
+            }
+        }
+        
+        
+        protected void offer(final Event event)
+        {
+            synchronized (events)
+            {
+                if (closed)
+                {
+                    return;
+                }
+                
+                OverflowPolicy overflowPolicy = processor.overflowPolicy;
+                if ((event.key != null) && (overflowPolicy == OverflowPolicy.COALESCE))
+                {
+                    for (ListIterator<Event> i = events.listIterator(); i.hasNext();)
+                    {
+                        Event queued = i.next();
+                        if (event.key.equals(queued.key))
+                        {
+                            Event combined = event.coalesce(queued);
+                            if (combined != null)
+                            {
+                                i.set(combined);
+                            } else
+                            {
+                                i.remove();
+                            }
+                            coalesced.incrementAndGet();
+                            return;
+                        }
+                    }
+                }
+                
+                if (events.size() >= processor.queueSize)
+                {
+                    long count = dropped.incrementAndGet();
+                    if ((count == 1) || ((count % 100) == 0))
+                    {
+                        logger.log(Level.WARNING, "Listener \"" + listener + "\" is lagging, its event queue is full, applying " + overflowPolicy + " policy. [dropped events: " + count + "]");
+                    }
+                    
+                    if (overflowPolicy == OverflowPolicy.DROP_NEWEST)
+                    {
+                        return;
+                    }
+                    events.removeFirst();
+                }
+                
+                events.addLast(event);
+            }
+            
+            if (scheduled.compareAndSet(false, true))
+            {
+                schedule();
+            }
+        }
+        
+        
+        /**
+         * Submits the queue to the listener executor. If the executor is saturated the events stay
+         * queued and the submission is retried after the retry delay, the publishing thread never
+         * delivers events itself.
+         */
+        protected void schedule()
+        {
+            synchronized (events)
+            {
+                if (closed)
+                {
+                    scheduled.set(false);
+                    return;
+                }
+            }
+            
+            Executors executors = Executors.newInstance();
+            try
+            {
+                executors.executeListenerTask(this);
+            } catch (RejectedExecutionException e)
+            {
+                long count = rejected.incrementAndGet();
+                if ((count == 1) || ((count % 100) == 0))
+                {
+                    logger.log(Level.WARNING, "Listener executor is saturated, retrying delivery to listener \"" + listener + "\" in " + RETRY_DELAY + "ms. [rejected deliveries: " + count + ", queue size: " + size() + "]");
+                }
+                
+                executors.schedule(new Runnable()
+                {
+                    public void run()
+                    {
+                        schedule();
+                    }
+                }, RETRY_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+        
+        
+        protected int size()
+        {
+            synchronized (events)
+            {
+                return events.size();
+            }
+        }
+        
+        
+        protected ListenerStatistics getStatistics()
+        {
+            return new ListenerStatistics(listener, size(), processor.queueSize, delivered.get(), dropped.get(), coalesced.get(), slowDeliveries.get(), maxDeliveryTime);
+        }
+    }
+    
+    
+    /**
+     * Creates typed dispatchers for a listener interface.
+     */
+    public static interface DispatcherFactory<T>
+    {
+        public T newDispatcher(ListenerProcessor<T> processor);
+    }
+    
+    
+    /**
+     * Typed dispatcher for ResolverListeners.
+     */
+    protected static class ResolverListenerDispatcher implements ResolverListener
+    {
+        private final ListenerProcessor<ResolverListener> processor;
+        
+        
+        protected ResolverListenerDispatcher(final ListenerProcessor<ResolverListener> processor)
+        {
+            this.processor = processor;
+        }
+        
+        
+        public void handleException(final Object id, final Exception e)
+        {
+            if (processor.isAsynchronous())
+            {
+                processor.dispatchAsync(new Event(null)
+                {
+                    @Override
+                    protected void deliver(final Object listener)
+                    throws Exception
+                    {
+                        ((ResolverListener) listener).handleException(id, e);
+                    }
+                });
+                return;
+            }
+            
+            Object[] tempListeners = processor.listeners;
+            for (Object listener : tempListeners)
+            {
+                try
+                {
+                    ((ResolverListener) listener).handleException(id, e);
+                } catch (Exception ex)
+                {
+                    if (stopDispatch(ex))
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+        
+        
+        public void receiveMessage(final Object id, final Message m)
+        {
+            if (processor.isAsynchronous())
+            {
+                processor.dispatchAsync(new Event(null)
+                {
+                    @Override
+                    protected void deliver(final Object listener)
+                    throws Exception
+                    {
+                        ((ResolverListener) listener).receiveMessage(id, m);
+                    }
+                });
+                return;
+            }
+            
+            Object[] tempListeners = processor.listeners;
+            for (Object listener : tempListeners)
+            {
+                try
+                {
+                    ((ResolverListener) listener).receiveMessage(id, m);
+                } catch (Exception e)
+                {
+                    if (stopDispatch(e))
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+    
+    
+    private static final Map<Class<?>, DispatcherFactory<?>> dispatcherFactories = new HashMap<Class<?>, DispatcherFactory<?>>();
+    
+    static
+    {
+        registerDispatcherFactory(ResolverListener.class, new DispatcherFactory<ResolverListener>()
+        {
+            public ResolverListener newDispatcher(final ListenerProcessor<ResolverListener> processor)
+            {
+                return new ResolverListenerDispatcher(processor);
+            }
+        });
+    }
+    
+    public static final int DEFAULT_QUEUE_SIZE = 256;
+    
+    public static final long DEFAULT_SLOW_LISTENER_THRESHOLD = 50;
+    
     private final Class<T> iface;
     
-    private Object[] listeners = new Object[0];
+    private volatile Object[] listeners = new Object[0];
+    
+    private volatile T dispatcher;
+    
+    private volatile ListenerQueue[] queues = null;
+    
+    private volatile int queueSize = DEFAULT_QUEUE_SIZE;
     
-    private T dispatcher;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE;
+    
+    private volatile long slowListenerThreshold = DEFAULT_SLOW_LISTENER_THRESHOLD;
     
     
     public ListenerProcessor(final Class<T> iface)
@@ -101,27 +643,159 @@ public class ListenerProcessor<T> implements Closeable
         {
             throw new IllegalArgumentException("\"" + iface.getName() + "\" is not an interface.");
         }
+        
+        queueSize = Math.max(1, Executors.intOption("mdns_listener_queue_size", null, DEFAULT_QUEUE_SIZE));
+        overflowPolicy = OverflowPolicy.parse(Options.value("mdns_listener_overflow_policy"), OverflowPolicy.COALESCE);
+        slowListenerThreshold = Executors.intOption("mdns_slow_listener_threshold", null, (int) DEFAULT_SLOW_LISTENER_THRESHOLD);
+        if (Options.check("mdns_async_dispatch"))
+        {
+            setAsynchronous(true);
+        }
     }
     
     
-    public void close()
+    public synchronized void close()
     throws IOException
     {
-        for (int i = 0; i < this.listeners.length; i++ )
+        // Replace, rather than clear, the array as it may be in use by a dispatch in progress
+        this.listeners = new Object[0];
+        
+        ListenerQueue[] tempQueues = queues;
+        if (tempQueues != null)
         {
-            this.listeners[i] = null;
+            for (ListenerQueue queue : tempQueues)
+            {
+                queue.close();
+            }
+            queues = new ListenerQueue[0];
         }
-        this.listeners = new Object[0];
     }
     
     
     public T getDispatcher()
     {
-        if (dispatcher == null)
+        T temp = dispatcher;
+        if (temp == null)
         {
-            dispatcher = (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {iface}, new Dispatcher(this));
+            DispatcherFactory<T> factory;
+            synchronized (dispatcherFactories)
+            {
+                factory = (DispatcherFactory<T>) dispatcherFactories.get(iface);
+            }
+            
+            if (factory != null)
+            {
+                temp = factory.newDispatcher(this);
+            } else
+            {
+                temp = (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {iface}, new Dispatcher(this));
+            }
+            dispatcher = temp;
         }
-        return dispatcher;
+        return temp;
+    }
+    
+    
+    /**
+     * Returns the statistics of each listener's asynchronous event queue, or an empty array if
+     * the processor is not in asynchronous mode.
+     */
+    public ListenerStatistics[] getListenerStatistics()
+    {
+        ListenerQueue[] tempQueues = queues;
+        if (tempQueues == null)
+        {
+            return new ListenerStatistics[0];
+        }
+        
+        ListenerStatistics[] statistics = new ListenerStatistics[tempQueues.length];
+        for (int index = 0; index < tempQueues.length; index++)
+        {
+            statistics[index] = tempQueues[index].getStatistics();
+        }
+        return statistics;
+    }
+    
+    
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+    
+    
+    public int getQueueSize()
+    {
+        return queueSize;
+    }
+    
+    
+    public long getSlowListenerThreshold()
+    {
+        return slowListenerThreshold;
+    }
+    
+    
+    public boolean isAsynchronous()
+    {
+        return queues != null;
+    }
+    
+    
+    /**
+     * Enables or disables asynchronous dispatch. Events already queued are still delivered when
+     * asynchronous dispatch is disabled.
+     * 
+     * @param asynchronous true to deliver events asynchronously
+     */
+    public synchronized void setAsynchronous(final boolean asynchronous)
+    {
+        if (asynchronous && (queues == null))
+        {
+            Object[] tempListeners = listeners;
+            ListenerQueue[] tempQueues = new ListenerQueue[tempListeners.length];
+            for (int index = 0; index < tempListeners.length; index++)
+            {
+                tempQueues[index] = new ListenerQueue(this, tempListeners[index]);
+            }
+            queues = tempQueues;
+        } else if (!asynchronous)
+        {
+            queues = null;
+        }
+    }
+    
+    
+    public void setOverflowPolicy(final OverflowPolicy overflowPolicy)
+    {
+        this.overflowPolicy = overflowPolicy != null ? overflowPolicy : OverflowPolicy.COALESCE;
+    }
+    
+    
+    /**
+     * Sets the maximum number of events queued for each listener in asynchronous mode.
+     */
+    public void setQueueSize(final int queueSize)
+    {
+        this.queueSize = Math.max(1, queueSize);
+    }
+    
+    
+    /**
+     * Sets the time, in milliseconds, after which a listener handling an event is considered slow.
+     */
+    public void setSlowListenerThreshold(final long slowListenerThreshold)
+    {
+        this.slowListenerThreshold = slowListenerThreshold;
+    }
+    
+    
+    /**
+     * Returns the registered listeners, in registration order. The array is replaced, never
+     * modified, when listeners are registered or unregistered and must not be modified by callers.
+     */
+    public Object[] getListeners()
+    {
+        return listeners;
     }
     
     
@@ -142,6 +816,13 @@ public class ListenerProcessor<T> implements Closeable
             
             T[] temp = (T[]) Arrays.copyOf(listeners, listeners.length + 1);
             temp[temp.length - 1] = listener;
+            
+            if (queues != null)
+            {
+                ListenerQueue[] tempQueues = Arrays.copyOf(queues, queues.length + 1);
+                tempQueues[tempQueues.length - 1] = new ListenerQueue(this, listener);
+                this.queues = tempQueues;
+            }
             this.listeners = temp;
             
             return listener;
@@ -169,6 +850,14 @@ public class ListenerProcessor<T> implements Closeable
                     System.arraycopy(temp, index + 1, temp, index, temp.length - index - 1);
                     this.listeners = Arrays.copyOf(temp, temp.length - 1);
                     
+                    if (queues != null)
+                    {
+                        ListenerQueue[] tempQueues = Arrays.copyOf(queues, queues.length);
+                        tempQueues[index].close();
+                        System.arraycopy(tempQueues, index + 1, tempQueues, index, tempQueues.length - index - 1);
+                        this.queues = Arrays.copyOf(tempQueues, tempQueues.length - 1);
+                    }
+                    
                     return (T) foundListener;
                 }
             }
@@ -178,6 +867,58 @@ public class ListenerProcessor<T> implements Closeable
     }
     
     
+    /**
+     * Queues the event for each listener, in asynchronous mode.
+     */
+    public void dispatchAsync(final Event event)
+    {
+        ListenerQueue[] tempQueues = queues;
+        if (tempQueues != null)
+        {
+            for (ListenerQueue queue : tempQueues)
+            {
+                queue.offer(event);
+            }
+        }
+    }
+    
+    
+    /**
+     * Registers the DispatcherFactory used to create dispatchers for the listener interface.
+     * 
+     * @param iface The listener interface
+     * @param factory The DispatcherFactory
+     */
+    public static <T> void registerDispatcherFactory(final Class<T> iface, final DispatcherFactory<T> factory)
+    {
+        synchronized (dispatcherFactories)
+        {
+            dispatcherFactories.put(iface, factory);
+        }
+    }
+    
+    
+    /**
+     * Handles an exception thrown by a listener during a typed dispatch. Returns true if the
+     * exception is a StopDispatchException, halting delivery to subsequent listeners. Otherwise,
+     * the exception is logged and rethrown, as it would be by the reflective Dispatcher.
+     */
+    public static boolean stopDispatch(final Exception e)
+    {
+        if (e instanceof StopDispatchException)
+        {
+            return true;
+        }
+        
+        logger.log(Level.WARNING, e.getMessage(), e);
+        if (e instanceof RuntimeException)
+        {
+            throw (RuntimeException) e;
+        }
+        throw new UndeclaredThrowableException(e);
+    }
+    
+    
     protected static final Class<?>[] getAllInterfaces(final Class<?> clazz)
     {
         LinkedHashSet<Class<?>> set = new LinkedHashSet<Class<?>>();
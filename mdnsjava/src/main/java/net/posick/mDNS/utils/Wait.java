@@ -1,5 +1,10 @@
 package net.posick.mDNS.utils;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.xbill.DNS.Options;
 
 import net.posick.mDNS.Querier;
@@ -7,52 +12,181 @@ import net.posick.mDNS.Querier;
 /**
  * The Wait utility provides default wait logic, such as waiting for responses.
  * 
+ * A wait for responses finishes as soon as its Completion reports that all questions are answered,
+ * once responses have been received and no further response arrived for the quiet time
+ * (mdns_resolve_quiet), or at the deadline (mdns_resolve_wait), whichever comes first. Arriving
+ * responses raise a Signal, which wakes the waiting thread.
+ * 
  * @author Steve Posick
  */
-@SuppressWarnings("rawtypes")
 public class Wait
 {
-    public static final long waitTill()
+    /**
+     * Reports whether the responses received so far are complete, ending the wait early.
+     */
+    public static interface Completion
     {
-        int wait = Options.intValue("mdns_resolve_wait");
-        return System.currentTimeMillis() + (wait > 0 ? wait : Querier.DEFAULT_RESPONSE_WAIT_TIME);
+        public boolean isComplete();
     }
     
-    
-    public static final void forResponse(Iterable monitor)
+    /**
+     * A signal raised as responses arrive. Waiters block on a Condition rather than on an object
+     * monitor, so waiting virtual threads are unmounted from their carrier thread instead of
+     * pinning it, and no response is missed between checking for responses and waiting.
+     */
+    public static class Signal
     {
-        synchronized (monitor)
+        private final Lock lock = new ReentrantLock();
+        
+        private final Condition raised = lock.newCondition();
+        
+        private int count;
+        
+        
+        /**
+         * Raises the signal, waking all waiting threads.
+         */
+        public void signal()
         {
-            long waitTill = waitTill();
-            while (!monitor.iterator().hasNext() && System.currentTimeMillis() < waitTill)
+            lock.lock();
+            try
             {
-                try
-                {
-                    monitor.wait(waitTill - System.currentTimeMillis());
-                } catch (InterruptedException e)
+                count++ ;
+                raised.signalAll();
+            } finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        
+        /**
+         * Returns the number of times the signal has been raised.
+         */
+        public int count()
+        {
+            lock.lock();
+            try
+            {
+                return count;
+            } finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        
+        /**
+         * Waits until the signal has been raised more than the specified number of times, or for
+         * the timeout.
+         * 
+         * @param count The number of times the signal was raised when last checked
+         * @param timeout The maximum time to wait in milliseconds
+         * @return The number of times the signal has been raised
+         */
+        public int await(final int count, final long timeout)
+        {
+            lock.lock();
+            try
+            {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+                while ((this.count == count) && (nanos > 0))
                 {
-                    // ignore
+                    try
+                    {
+                        nanos = raised.awaitNanos(nanos);
+                    } catch (InterruptedException e)
+                    {
+                        // ignore
+                    }
                 }
+                return this.count;
+            } finally
+            {
+                lock.unlock();
             }
         }
     }
     
     
-    public static final void forResponse(Object monitor)
+    /**
+     * Returns the time to wait for further responses after the last response was received. mDNS
+     * responders delay answers for shared records by 20-120 milliseconds [RFC 6762 Section 6].
+     */
+    public static final long quietTime()
+    {
+        int quiet = Options.intValue("mdns_resolve_quiet");
+        return quiet > 0 ? quiet : Querier.DEFAULT_RESPONSE_QUIET_TIME;
+    }
+    
+    
+    /**
+     * Returns the maximum time to wait for responses.
+     */
+    public static final long responseWaitTime()
     {
-        synchronized (monitor)
+        int wait = Options.intValue("mdns_resolve_wait");
+        return wait > 0 ? wait : Querier.DEFAULT_RESPONSE_WAIT_TIME;
+    }
+    
+    
+    public static final long waitTill()
+    {
+        return System.currentTimeMillis() + responseWaitTime();
+    }
+    
+    
+    /**
+     * Waits for responses, finishing once the signal has not been raised for the quiet time or at
+     * the deadline.
+     * 
+     * @param signal The signal, raised when a response arrives
+     * @return true if the wait finished before the deadline
+     */
+    public static final boolean forResponse(Signal signal)
+    {
+        return forResponse(signal, null);
+    }
+    
+    
+    /**
+     * Waits for responses, finishing when the completion is satisfied, once the signal has not
+     * been raised for the quiet time, or at the deadline. The completion is checked each time the
+     * signal is raised.
+     * 
+     * @param signal The signal, raised when a response arrives
+     * @param completion The completion, may be null
+     * @return true if the wait finished before the deadline
+     */
+    public static final boolean forResponse(Signal signal, Completion completion)
+    {
+        long waitTill = waitTill();
+        long quietTime = quietTime();
+        long lastResponse = 0;
+        int responses = 0;
+        int count = signal.count();
+        
+        while (true)
         {
-            long waitTill = waitTill();
-            while (System.currentTimeMillis() < waitTill)
+            long now = System.currentTimeMillis();
+            if (count != responses)
             {
-                try
-                {
-                    monitor.wait(waitTill - System.currentTimeMillis());
-                } catch (InterruptedException e)
-                {
-                    // ignore
-                }
+                responses = count;
+                lastResponse = now;
+            }
+            
+            if ((completion != null) && completion.isComplete())
+            {
+                return true;
+            } else if ((responses > 0) && ((now - lastResponse) >= quietTime))
+            {
+                return true;
+            } else if (now >= waitTill)
+            {
+                return false;
             }
+            
+            count = signal.await(responses, Math.min(waitTill, (responses > 0 ? lastResponse : now) + quietTime) - now);
         }
     }
 }
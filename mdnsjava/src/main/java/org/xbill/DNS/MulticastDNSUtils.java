@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.posick.mDNS.Constants;
 import net.posick.mDNS.utils.Misc;
 
 @SuppressWarnings({"rawtypes", "unchecked"})
@@ -113,6 +114,37 @@ public class MulticastDNSUtils
     }
     
     
+    /**
+     * Tests if the response message contains a record answering every question within the query
+     * message. Unlike answersAll, which compares the question sections, the answer, additional and
+     * authority sections are examined.
+     * 
+     * @param query The query message
+     * @param response The response message
+     * @return True if every question in the query message is answered by the response message.
+     */
+    public static boolean answersEveryQuestion(final Message query, final Message response)
+    {
+        return answersEveryQuestion(query, false, response);
+    }
+    
+    
+    /**
+     * Tests if every question within the query message is answered by a unique record, a record
+     * with the cache-flush bit set, in any of the response messages. No further answers are
+     * expected for such questions [RFC 6762 Section 10.2]. Questions of type ANY are never
+     * considered uniquely answered.
+     * 
+     * @param query The query message
+     * @param responses The response messages
+     * @return True if every question in the query message is answered by a unique record.
+     */
+    public static boolean answersEveryQuestionUniquely(final Message query, final Message... responses)
+    {
+        return answersEveryQuestion(query, true, responses);
+    }
+    
+    
     public static Record clone(final Record record)
     {
         return record.cloneRecord();
@@ -397,6 +429,119 @@ public class MulticastDNSUtils
     }
     
     
+    /**
+     * Splits a query and its Known Answers into messages no larger than the maximum size, as per
+     * RFC 6762 Section 7.2. The first message contains the questions and as many Known Answers as
+     * fit, the following messages contain only Known Answers. All but the last message have the
+     * TC (truncated) flag set, telling responders that more Known Answers follow.
+     * 
+     * @param query The query
+     * @param knownAnswers The Known Answers
+     * @param maxSize The maximum message size in bytes
+     * @return The messages
+     */
+    public static Message[] splitKnownAnswers(final Message query, final Record[] knownAnswers, final int maxSize)
+    {
+        List<Message> groups = new ArrayList<Message>();
+        Message group = newKnownAnswerMessage(query, extractRecords(query, Section.QUESTION));
+        for (int index = 0; index < knownAnswers.length; index++ )
+        {
+            // The first Known Answer is sent with the questions, even when they do not fit together
+            if (index > 0)
+            {
+                groups.add(group);
+                group = newKnownAnswerMessage(query, null);
+            }
+            group.addRecord(knownAnswers[index], Section.ANSWER);
+        }
+        groups.add(group);
+        
+        List<Message> messages = packMessages(groups, maxSize, Section.ANSWER);
+        for (int index = 0; index < (messages.size() - 1); index++ )
+        {
+            messages.get(index).getHeader().setFlag(Flags.TC);
+        }
+        
+        return messages.toArray(new Message[messages.size()]);
+    }
+    
+    
+    /**
+     * Packs groups of records into as few messages as possible, no larger than the maximum size.
+     * Each group is a message holding records that must be sent together. A message is started
+     * with the first group packed into it, the records of the given sections of the following
+     * groups are added to it while they fit. The records of a group are never split across
+     * messages, a group larger than the maximum size is sent in a message of its own. Records
+     * already in a message, such as the address records of a host shared by several groups, are
+     * not added to it again.
+     * 
+     * The size is estimated from uncompressed records, and measured when the estimate exceeds the
+     * maximum.
+     * 
+     * @param groups The groups of records, the groups starting a message are returned as messages
+     * @param maxSize The maximum message size in bytes
+     * @param sections The sections whose records are added to the message from the following groups
+     * @return The messages
+     */
+    public static <M extends Message> List<M> packMessages(final List<M> groups, final int maxSize, final int... sections)
+    {
+        List<M> messages = new ArrayList<M>();
+        M message = null;
+        int size = 0;
+        for (M group : groups)
+        {
+            if (message != null)
+            {
+                int length = 0;
+                for (int section : sections)
+                {
+                    for (Record record : group.getSectionArray(section))
+                    {
+                        if (!message.findRecord(record, section))
+                        {
+                            length += record.toWire(section).length;
+                        }
+                    }
+                }
+                
+                if ((size + length) > maxSize)
+                {
+                    size = message.toWire().length;
+                }
+                
+                if ((size + length) <= maxSize)
+                {
+                    for (int section : sections)
+                    {
+                        for (Record record : group.getSectionArray(section))
+                        {
+                            if (!message.findRecord(record, section))
+                            {
+                                message.addRecord(record, section);
+                            }
+                        }
+                    }
+                    size += length;
+                    continue;
+                }
+            }
+            
+            message = group;
+            messages.add(message);
+            size = Header.LENGTH;
+            for (int section = Section.QUESTION; section <= Section.ADDITIONAL; section++ )
+            {
+                for (Record record : message.getSectionArray(section))
+                {
+                    size += record.toWire(section).length;
+                }
+            }
+        }
+        
+        return messages;
+    }
+    
+    
     public static Message[] splitMessage(final Message message)
     {
         List messages = new ArrayList();
@@ -440,4 +585,89 @@ public class MulticastDNSUtils
         
         return (Message[]) messages.toArray(new Message[messages.size()]);
     }
+    
+    
+    private static boolean answersEveryQuestion(final Message query, final boolean unique, final Message... responses)
+    {
+        Record[] qRecords = MulticastDNSUtils.extractRecords(query, Section.QUESTION);
+        if (qRecords.length == 0)
+        {
+            return false;
+        }
+        
+        for (Record qRecord : qRecords)
+        {
+            if (unique && (qRecord.getType() == Type.ANY))
+            {
+                return false;
+            }
+            
+            boolean answered = false;
+            for (Message response : responses)
+            {
+                if ((response == null) || (response.getRcode() != Rcode.NOERROR))
+                {
+                    continue;
+                }
+                
+                switch (response.getHeader().getOpcode())
+                {
+                    case Opcode.QUERY :
+                    case Opcode.IQUERY :
+                    case Opcode.NOTIFY :
+                    case Opcode.STATUS :
+                        Record[] rRecords = MulticastDNSUtils.extractRecords(response, Section.ANSWER, Section.ADDITIONAL, Section.AUTHORITY);
+                        for (Record rRecord : rRecords)
+                        {
+                            if (qRecord.getName().equals(rRecord.getName()) &&
+                            ((qRecord.getType() == Type.ANY) || (qRecord.getType() == rRecord.getType())) &&
+                            (!unique || ((rRecord.getDClass() & Constants.CACHE_FLUSH) != 0)))
+                            {
+                                answered = true;
+                                break;
+                            }
+                        }
+                        break;
+                }
+                
+                if (answered)
+                {
+                    break;
+                }
+            }
+            
+            if (!answered)
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    
+    private static Message newKnownAnswerMessage(final Message query, final Record[] questions)
+    {
+        Message m = new Message();
+        Header header = (Header) query.getHeader().clone();
+        
+        // An unassigned ID is generated when first read, so each clone would otherwise get its own
+        header.setID(query.getHeader().getID());
+        for (int section = 0; section < 4; section++ )
+        {
+            header.setCount(section, 0);
+        }
+        header.unsetFlag(Flags.TC);
+        m.setHeader(header);
+        
+        if (questions != null)
+        {
+            for (Record question : questions)
+            {
+                m.addRecord(question, Section.QUESTION);
+            }
+        }
+        
+        return m;
+    }
 }
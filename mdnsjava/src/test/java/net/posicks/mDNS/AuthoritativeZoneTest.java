@@ -0,0 +1,224 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.DNAMERecord;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.PTRRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SRVRecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.AuthoritativeZone;
+
+/**
+ * Test Cases for the AuthoritativeZone
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class AuthoritativeZoneTest
+{
+    private static final int CACHE_FLUSH = 0x8000;
+    
+    private static final Name SERVICE_TYPE = Name.fromConstantString("_http._tcp.local.");
+    
+    private static final Name INSTANCE = Name.fromConstantString("Web._http._tcp.local.");
+    
+    private static final Name HOST = Name.fromConstantString("host.local.");
+    
+    private AuthoritativeZone zone;
+    
+    private InetAddress address1;
+    
+    private InetAddress address2;
+    
+    private InetAddress address3;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        zone = new AuthoritativeZone();
+        address1 = InetAddress.getByName("192.168.1.1");
+        address2 = InetAddress.getByName("192.168.1.2");
+        address3 = InetAddress.getByName("192.168.1.3");
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+    }
+    
+    
+    @Test
+    public void Test_Update_Adds_And_Replaces_Records()
+    {
+        zone.update(new ARecord(HOST, DClass.IN, 120, address1), new ARecord(HOST, DClass.IN, 120, address2));
+        assertEquals(2, zone.size());
+        assertEquals(2, zone.lookup(HOST, Type.A).length);
+        assertEquals(0, zone.lookup(HOST, Type.AAAA).length);
+        assertEquals(0, zone.lookup(INSTANCE, Type.ANY).length);
+        
+        // An equal record replaces the record, with its TTL
+        zone.update(new ARecord(HOST, DClass.IN, 240, address1));
+        assertEquals(2, zone.size());
+        for (Record record : zone.lookup(HOST, Type.A))
+        {
+            if (address1.equals(((ARecord) record).getAddress()))
+            {
+                assertEquals(240, record.getTTL());
+            }
+        }
+        
+        zone.update();
+        zone.update((Record[]) null);
+        assertEquals(2, zone.size());
+    }
+    
+    
+    @Test
+    public void Test_Goodbye_Removes_Record()
+    {
+        zone.update(new ARecord(HOST, DClass.IN | CACHE_FLUSH, 120, address1), new ARecord(HOST, DClass.IN | CACHE_FLUSH, 120, address2));
+        
+        // Goodbyes match regardless of the cache flush bit
+        zone.update(new ARecord(HOST, DClass.IN, 0, address1));
+        Record[] records = zone.lookup(HOST, Type.A);
+        assertEquals(1, records.length);
+        assertEquals(address2, ((ARecord) records[0]).getAddress());
+        assertEquals("Cache flush bit kept in the zone", DClass.IN, records[0].getDClass());
+        
+        // Goodbyes for records not in the zone are ignored
+        zone.update(new ARecord(HOST, DClass.IN, 0, address3));
+        assertEquals(1, zone.size());
+        
+        zone.update(new ARecord(HOST, DClass.IN | CACHE_FLUSH, 0, address2));
+        assertEquals(0, zone.size());
+        assertEquals(0, zone.getRecords().length);
+    }
+    
+    
+    @Test
+    public void Test_Cache_Flush_Replaces_RRset()
+    throws Exception
+    {
+        zone.update(new ARecord(HOST, DClass.IN, 120, address1), new ARecord(HOST, DClass.IN, 120, address2), new AAAARecord(HOST, DClass.IN, 120, InetAddress.getByName("fe80::1")));
+        
+        // Records of the flushed RRset that are not in the update are removed, other types are kept
+        zone.update(new ARecord(HOST, DClass.IN | CACHE_FLUSH, 120, address2), new ARecord(HOST, DClass.IN | CACHE_FLUSH, 120, address3));
+        Record[] records = zone.lookup(HOST, Type.A);
+        assertEquals(2, records.length);
+        for (Record record : records)
+        {
+            assertFalse("Flushed record retained", address1.equals(((ARecord) record).getAddress()));
+        }
+        assertEquals(1, zone.lookup(HOST, Type.AAAA).length);
+        
+        // A goodbye with the cache flush bit set does not flush the RRset
+        zone.update(new ARecord(HOST, DClass.IN | CACHE_FLUSH, 0, address2));
+        records = zone.lookup(HOST, Type.A);
+        assertEquals(1, records.length);
+        assertEquals(address3, ((ARecord) records[0]).getAddress());
+    }
+    
+    
+    @Test
+    public void Test_Answer_With_Additional_Records()
+    throws Exception
+    {
+        zone.update(new PTRRecord(SERVICE_TYPE, DClass.IN, 4500, INSTANCE), new SRVRecord(INSTANCE, DClass.IN | CACHE_FLUSH, 120, 0, 0, 80, HOST), new TXTRecord(INSTANCE, DClass.IN | CACHE_FLUSH, 4500, "path=/"), new ARecord(HOST, DClass.IN | CACHE_FLUSH, 120, address1));
+        
+        Message query = Message.newQuery(Record.newRecord(SERVICE_TYPE, Type.PTR, DClass.IN));
+        Message response = zone.answer(query);
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertEquals(query.getHeader().getID(), response.getHeader().getID());
+        assertEquals(1, response.getSectionArray(Section.ANSWER).length);
+        assertEquals(3, response.getSectionArray(Section.ADDITIONAL).length);
+        assertEquals(1, zone.queryKnownAnswers(query).length);
+        
+        response = zone.answer(Message.newQuery(Record.newRecord(INSTANCE, Type.ANY, DClass.IN)));
+        assertEquals(2, response.getSectionArray(Section.ANSWER).length);
+        assertEquals(1, response.getSectionArray(Section.ADDITIONAL).length);
+        
+        response = zone.answer(Message.newQuery(Record.newRecord(new Name("other.local."), Type.A, DClass.IN)));
+        assertEquals(Rcode.NXDOMAIN, response.getRcode());
+        assertEquals(0, response.getSectionArray(Section.ANSWER).length);
+        
+        zone.clear();
+        assertEquals(0, zone.size());
+    }
+    
+    
+    @Test
+    public void Test_Wire_Format_From_Templates()
+    throws Exception
+    {
+        zone.update(new PTRRecord(SERVICE_TYPE, DClass.IN, 4500, INSTANCE), new SRVRecord(INSTANCE, DClass.IN | CACHE_FLUSH, 120, 0, 0, 80, HOST), new TXTRecord(INSTANCE, DClass.IN | CACHE_FLUSH, 4500, "path=/"), new ARecord(HOST, DClass.IN | CACHE_FLUSH, 120, address1));
+        
+        Message response = zone.answer(Message.newQuery(Record.newRecord(SERVICE_TYPE, Type.PTR, DClass.IN)));
+        response.addRecord(new OPTRecord(1440, 0, 0), Section.ADDITIONAL);
+        byte[] wire = zone.toWire(response);
+        assertNotNull(wire);
+        assertTrue("Names not compressed", wire.length <= response.toWire().length);
+        
+        Message parsed = new Message(wire);
+        for (int section : new int[] {Section.ANSWER, Section.ADDITIONAL})
+        {
+            assertArrayEquals(response.getSectionArray(section), parsed.getSectionArray(section));
+        }
+        assertNotNull(parsed.getOPT());
+        
+        // Records not held by the zone are not encoded from templates
+        response.addRecord(new ARecord(HOST, DClass.IN, 120, address2), Section.ADDITIONAL);
+        assertNull(zone.toWire(response));
+        assertNull(zone.toWire(Message.newQuery(Record.newRecord(SERVICE_TYPE, Type.PTR, DClass.IN))));
+    }
+    
+    
+    @Test
+    public void Test_DNAME_Target_Not_Compressed()
+    throws Exception
+    {
+        Name alias = new Name("alias.local.");
+        zone.update(new ARecord(HOST, DClass.IN, 120, address1), new DNAMERecord(alias, DClass.IN, 120, HOST));
+        
+        Message response = new Message();
+        response.addRecord(zone.lookup(HOST, Type.A)[0], Section.ANSWER);
+        response.addRecord(zone.lookup(alias, Type.DNAME)[0], Section.ANSWER);
+        byte[] wire = zone.toWire(response);
+        
+        // The owner name of the A record precedes the DNAME, a compressed target would point to it
+        byte[] target = HOST.toWire();
+        int found = 0;
+        for (int offset = 0; offset <= (wire.length - target.length); offset++ )
+        {
+            boolean matches = true;
+            for (int index = 0; matches && (index < target.length); index++ )
+            {
+                matches = wire[offset + index] == target[index];
+            }
+            found += matches ? 1 : 0;
+        }
+        assertEquals("DNAME target compressed", 2, found);
+        assertArrayEquals(response.getSectionArray(Section.ANSWER), new Message(wire).getSectionArray(Section.ANSWER));
+    }
+}
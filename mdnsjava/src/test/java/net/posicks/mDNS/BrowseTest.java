@@ -0,0 +1,263 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.PTRRecord;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.Browse;
+
+/**
+ * Test Cases for the Browse
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class BrowseTest
+{
+    /**
+     * Exposes the shared Browse Operation registry. Never instantiated.
+     */
+    private static class SharedBrowse extends Browse
+    {
+        private SharedBrowse()
+        throws IOException
+        {
+            super();
+        }
+        
+        
+        static Object subscribe(final RecordingQuerier querier, final Record question, final ResolverListener listener)
+        {
+            return Browse.subscribe(querier, question, listener);
+        }
+        
+        
+        static void unsubscribe(final Object browseOperation, final ResolverListener listener)
+        {
+            Browse.unsubscribe((BrowseOperation) browseOperation, listener);
+        }
+        
+        
+        static boolean isShared(final Object browseOperation)
+        {
+            synchronized (sharedOperations)
+            {
+                return sharedOperations.containsValue(browseOperation);
+            }
+        }
+        
+        
+        static ResolverListener newSubscriber(final ResolverListener listener)
+        {
+            return new BrowseSubscriber(listener)
+            {
+            };
+        }
+    }
+    
+    
+    private static class RecordingListener implements ResolverListener
+    {
+        final List<Message> messages = new ArrayList<Message>();
+        
+        
+        public synchronized void receiveMessage(final Object id, final Message m)
+        {
+            messages.add(m);
+        }
+        
+        
+        public void handleException(final Object id, final Exception e)
+        {
+        }
+    }
+    
+    private Name serviceType;
+    
+    private Record question;
+    
+    private RecordingQuerier querier;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        serviceType = new Name("_http._tcp.local.");
+        question = Record.newRecord(serviceType, Type.PTR, DClass.IN);
+        querier = new RecordingQuerier();
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        querier.close();
+    }
+    
+    
+    @Test
+    public void Test_Identical_Browses_Share_One_Operation()
+    throws Exception
+    {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        Object operation = SharedBrowse.subscribe(querier, question, first);
+        
+        // The question class, including the unicast response bit, does not distinguish operations
+        Object joined = SharedBrowse.subscribe(querier, Record.newRecord(serviceType, Type.PTR, DClass.IN | 0x8000), second);
+        
+        assertSame(operation, joined);
+        assertTrue(SharedBrowse.isShared(operation));
+        assertEquals(1, querier.getListenerCount());
+        assertEquals(1, querier.awaitBroadcasts(1).size());
+        
+        querier.respond(response(new PTRRecord(serviceType, DClass.IN, 120, new Name("Test._http._tcp.local."))));
+        assertEquals(1, first.messages.size());
+        assertEquals(1, second.messages.size());
+        
+        SharedBrowse.unsubscribe(operation, first);
+        assertTrue(SharedBrowse.isShared(operation));
+        assertEquals(1, querier.getListenerCount());
+        
+        SharedBrowse.unsubscribe(operation, second);
+        assertFalse(SharedBrowse.isShared(operation));
+        assertEquals(0, querier.getListenerCount());
+    }
+    
+    
+    @Test
+    public void Test_Unsubscribe_While_Starting_Does_Not_Leak_Operation()
+    throws Exception
+    {
+        final RecordingListener listener = new RecordingListener();
+        RecordingQuerier racingQuerier = new RecordingQuerier()
+        {
+            @Override
+            public ResolverListener registerListener(final ResolverListener operation)
+            {
+                // The last subscriber unsubscribes while the operation is being started
+                Thread unsubscriber = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        SharedBrowse.unsubscribe(operation, listener);
+                    }
+                };
+                unsubscriber.start();
+                try
+                {
+                    unsubscriber.join(500);
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return super.registerListener(operation);
+            }
+        };
+        
+        try
+        {
+            Object operation = SharedBrowse.subscribe(racingQuerier, question, listener);
+            // The unsubscriber closes the operation once it has been started
+            long waitTill = System.currentTimeMillis() + 5000;
+            while ((racingQuerier.getListenerCount() > 0) && (System.currentTimeMillis() < waitTill))
+            {
+                Thread.sleep(10);
+            }
+            
+            assertFalse(SharedBrowse.isShared(operation));
+            assertEquals(0, racingQuerier.getListenerCount());
+        } finally
+        {
+            racingQuerier.close();
+        }
+    }
+    
+    
+    @Test
+    public void Test_Different_Questions_Use_Different_Operations()
+    throws Exception
+    {
+        RecordingListener listener = new RecordingListener();
+        Object http = SharedBrowse.subscribe(querier, question, listener);
+        Object ipp = SharedBrowse.subscribe(querier, Record.newRecord(new Name("_ipp._tcp.local."), Type.PTR, DClass.IN), listener);
+        RecordingQuerier otherQuerier = new RecordingQuerier();
+        Object other = SharedBrowse.subscribe(otherQuerier, question, listener);
+        
+        assertNotSame(http, ipp);
+        assertNotSame(http, other);
+        assertEquals(2, querier.getListenerCount());
+        assertEquals(1, otherQuerier.getListenerCount());
+        
+        SharedBrowse.unsubscribe(http, listener);
+        SharedBrowse.unsubscribe(ipp, listener);
+        SharedBrowse.unsubscribe(other, listener);
+        assertEquals(0, querier.getListenerCount());
+        assertEquals(0, otherQuerier.getListenerCount());
+    }
+    
+    
+    @Test
+    public void Test_Joining_Browse_Is_Sent_Current_Answers()
+    throws Exception
+    {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        Object operation = SharedBrowse.subscribe(querier, question, first);
+        SharedBrowse.subscribe(querier, question, second);
+        
+        assertEquals(1, querier.getAsyncQueries().size());
+        querier.asyncResponses.get(0).set(response(new PTRRecord(serviceType, DClass.IN, 120, new Name("Test._http._tcp.local."))));
+        assertEquals(0, first.messages.size());
+        assertEquals(1, second.messages.size());
+        
+        SharedBrowse.unsubscribe(operation, first);
+        SharedBrowse.unsubscribe(operation, second);
+    }
+    
+    
+    @Test
+    public void Test_Subscriber_Delivers_Each_Response_Once()
+    throws Exception
+    {
+        RecordingListener listener = new RecordingListener();
+        ResolverListener subscriber = SharedBrowse.newSubscriber(listener);
+        Message first = response(new PTRRecord(serviceType, DClass.IN, 120, new Name("Test._http._tcp.local.")));
+        Message second = response(new PTRRecord(serviceType, DClass.IN, 120, new Name("Other._http._tcp.local.")));
+        
+        subscriber.receiveMessage("a", first);
+        subscriber.receiveMessage("b", first);
+        subscriber.receiveMessage("b", second);
+        assertEquals(2, listener.messages.size());
+    }
+    
+    
+    private static Message response(final Record answer)
+    {
+        Message response = new Message();
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.AA);
+        response.addRecord(answer, Section.ANSWER);
+        return response;
+    }
+}
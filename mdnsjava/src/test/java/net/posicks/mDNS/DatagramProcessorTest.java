@@ -0,0 +1,169 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import net.posick.mDNS.net.DatagramProcessor;
+import net.posick.mDNS.net.Packet;
+import net.posick.mDNS.net.PacketListener;
+
+/**
+ * Test Cases for the DatagramProcessor
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DatagramProcessorTest
+{
+    private static class TestProcessor extends DatagramProcessor
+    {
+        TestProcessor(final InetAddress address)
+        throws IOException
+        {
+            super(address, address, 0, new PacketListener()
+            {
+                public void packetReceived(final Packet packet)
+                {
+                }
+            });
+        }
+        
+        
+        int openReceiveSockets(final int count)
+        {
+            openReusePortSockets(count);
+            return reusePortSockets.size();
+        }
+        
+        
+        List<DatagramSocket> receiveSockets()
+        {
+            return reusePortSockets;
+        }
+        
+        
+        /**
+         * Returns true if the JVM defines SO_REUSEPORT and the platform supports it on datagram
+         * channels.
+         */
+        boolean reusePortSupported()
+        {
+            try
+            {
+                DatagramChannel channel = DatagramChannel.open();
+                try
+                {
+                    return ((Set<?>) DatagramChannel.class.getMethod("supportedOptions").invoke(channel)).contains(reusePortOption());
+                } finally
+                {
+                    channel.close();
+                }
+            } catch (Exception e)
+            {
+                return false;
+            }
+        }
+        
+        
+        boolean isReusePort(final DatagramSocket socket)
+        throws Exception
+        {
+            Class<?> socketOptionClass = Class.forName("java.net.SocketOption");
+            Method getOption = DatagramChannel.class.getMethod("getOption", new Class<?>[] {socketOptionClass});
+            return Boolean.TRUE.equals(getOption.invoke(socket.getChannel(), new Object[] {reusePortOption()}));
+        }
+        
+        
+        private static Object reusePortOption()
+        throws Exception
+        {
+            return Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+        }
+    }
+    
+    private TestProcessor processor;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        processor = new TestProcessor(InetAddress.getByName("127.0.0.1"));
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        processor.close();
+    }
+    
+    
+    @Test
+    public void Test_No_Extra_Sockets_By_Default()
+    throws Exception
+    {
+        assertEquals(0, processor.openReceiveSockets(0));
+    }
+    
+    
+    @Test
+    public void Test_Extra_Sockets_Or_Single_Socket_Fallback()
+    throws Exception
+    {
+        int opened = processor.openReceiveSockets(2);
+        if (processor.reusePortSupported())
+        {
+            assertEquals(2, opened);
+            for (DatagramSocket socket : processor.receiveSockets())
+            {
+                assertTrue(socket.isBound());
+                assertEquals(InetAddress.getByName("127.0.0.1"), socket.getLocalAddress());
+                assertTrue("SO_REUSEPORT not set", processor.isReusePort(socket));
+            }
+        } else
+        {
+            assertEquals(0, opened);
+        }
+    }
+    
+    
+    @Test
+    public void Test_Close_Closes_Extra_Sockets()
+    throws Exception
+    {
+        processor.openReceiveSockets(2);
+        processor.close();
+        for (DatagramSocket socket : processor.receiveSockets())
+        {
+            assertTrue(socket.isClosed());
+        }
+    }
+    
+    
+    @Test
+    public void Test_Link_Of_Source_Address()
+    throws Exception
+    {
+        // The loopback interface holds 127.0.0.1/8
+        assertTrue(processor.isOnLink(InetAddress.getByName("127.0.0.1")));
+        assertTrue(processor.isOnLink(InetAddress.getByName("127.1.2.3")));
+        assertFalse(processor.isOnLink(InetAddress.getByName("128.0.0.1")));
+        assertFalse(processor.isOnLink(InetAddress.getByName("192.0.2.1")));
+        assertFalse(processor.isOnLink(null));
+    }
+}
@@ -0,0 +1,149 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import net.posick.mDNS.utils.Executors;
+import net.posick.mDNS.utils.Executors.PoolMetrics;
+import net.posick.mDNS.utils.Executors.RejectionPolicy;
+
+/**
+ * Test Cases for the Executors
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ExecutorsTest
+{
+    private Executors executors;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        executors = Executors.newInstance();
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+    }
+    
+    
+    @Test
+    public void Test_Parse_Rejection_Policy()
+    throws Exception
+    {
+        assertEquals(RejectionPolicy.DROP_OLDEST, RejectionPolicy.parse("drop-oldest", RejectionPolicy.ABORT));
+        assertEquals(RejectionPolicy.CALLER_RUNS, RejectionPolicy.parse(" caller_runs ", RejectionPolicy.ABORT));
+        assertEquals(RejectionPolicy.DROP_NEWEST, RejectionPolicy.parse("DROP_NEWEST", RejectionPolicy.ABORT));
+        assertEquals(RejectionPolicy.ABORT, RejectionPolicy.parse("unknown", RejectionPolicy.ABORT));
+        assertEquals(RejectionPolicy.ABORT, RejectionPolicy.parse("", RejectionPolicy.ABORT));
+        assertEquals(RejectionPolicy.ABORT, RejectionPolicy.parse(null, RejectionPolicy.ABORT));
+    }
+    
+    
+    @Test
+    public void Test_Pools_Are_Bounded()
+    throws Exception
+    {
+        PoolMetrics[] allMetrics = new PoolMetrics[] {executors.getNetworkExecutorMetrics(),
+                                                      executors.getExecutorMetrics(),
+                                                      executors.getListenerExecutorMetrics()};
+        for (PoolMetrics metrics : allMetrics)
+        {
+            assertTrue(metrics.toString(), metrics.getMaximumPoolSize() < Integer.MAX_VALUE);
+            assertTrue(metrics.toString(), metrics.getQueueCapacity() < Integer.MAX_VALUE);
+            assertTrue(metrics.toString(), metrics.getQueueDepth() <= metrics.getQueueCapacity());
+        }
+    }
+    
+    
+    @Test
+    public void Test_Default_Rejection_Policies()
+    throws Exception
+    {
+        assertEquals(Executors.REJECTION_POLICY_NETWORK_EXECUTOR, executors.getNetworkExecutorMetrics().getRejectionPolicy());
+        assertEquals(Executors.REJECTION_POLICY_CACHED_EXECUTOR, executors.getExecutorMetrics().getRejectionPolicy());
+        assertEquals(Executors.REJECTION_POLICY_SCHEDULED_EXECUTOR, executors.getScheduledExecutorMetrics().getRejectionPolicy());
+        assertEquals(RejectionPolicy.ABORT, executors.getListenerExecutorMetrics().getRejectionPolicy());
+    }
+    
+    
+    @Test
+    public void Test_Metrics_Count_Tasks()
+    throws Exception
+    {
+        long before = executors.getNetworkExecutorMetrics().getTaskCount();
+        final CountDownLatch latch = new CountDownLatch(3);
+        for (int index = 0; index < 3; index++ )
+        {
+            executors.executeNetworkTask(new Runnable()
+            {
+                public void run()
+                {
+                    latch.countDown();
+                }
+            });
+        }
+        
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(executors.getNetworkExecutorMetrics().getTaskCount() >= (before + 3));
+        assertEquals(0, executors.getNetworkExecutorMetrics().getRejectedTaskCount());
+    }
+    
+    
+    @Test
+    public void Test_Virtual_Thread_Support_Matches_JVM()
+    throws Exception
+    {
+        boolean ofVirtual;
+        try
+        {
+            Thread.class.getMethod("ofVirtual", new Class<?>[0]);
+            ofVirtual = true;
+        } catch (NoSuchMethodException e)
+        {
+            ofVirtual = false;
+        }
+        
+        assertEquals(ofVirtual, Executors.isVirtualThreadSupported());
+        assertFalse(Executors.isVirtualThread(Thread.currentThread()));
+    }
+    
+    
+    @Test
+    public void Test_Virtual_Thread_Mode_Requires_Option_And_Support()
+    throws Exception
+    {
+        if (!Executors.isVirtualThreadSupported())
+        {
+            assertFalse(executors.isVirtualThreadMode());
+        }
+        
+        final boolean[] virtual = new boolean[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        executors.execute(new Runnable()
+        {
+            public void run()
+            {
+                virtual[0] = Executors.isVirtualThread(Thread.currentThread());
+                latch.countDown();
+            }
+        });
+        
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(executors.isVirtualThreadMode(), virtual[0]);
+    }
+}
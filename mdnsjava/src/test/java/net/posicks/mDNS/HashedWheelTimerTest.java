@@ -0,0 +1,262 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import net.posick.mDNS.utils.HashedWheelTimer;
+
+/**
+ * Test Cases for the HashedWheelTimer
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class HashedWheelTimerTest
+{
+    private static final Executor DIRECT = new Executor()
+    {
+        public void execute(final Runnable command)
+        {
+            command.run();
+        }
+    };
+    
+    private HashedWheelTimer timer;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        // A small wheel, so that the longer delays wrap around it
+        timer = new HashedWheelTimer("HashedWheelTimerTest", DIRECT, 5, TimeUnit.MILLISECONDS, 6);
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        timer.stop();
+    }
+    
+    
+    @Test
+    public void Test_Schedule_Runs_Once_After_Delay()
+    throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        ScheduledFuture<?> future = timer.schedule(new Runnable()
+        {
+            public void run()
+            {
+                runs.incrementAndGet();
+                latch.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        
+        assertTrue("Timeout did not run", latch.await(2, TimeUnit.SECONDS));
+        assertTrue("Timeout ran early", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 45);
+        assertNull(future.get(1, TimeUnit.SECONDS));
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+        
+        Thread.sleep(100);
+        assertEquals(1, runs.get());
+        assertEquals(0, timer.getPendingTimeouts());
+    }
+    
+    
+    @Test
+    public void Test_Schedule_Wraps_Around_The_Wheel()
+    throws Exception
+    {
+        // 8 buckets of 5ms, a 150ms delay takes several rounds of the wheel
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.schedule(new Runnable()
+        {
+            public void run()
+            {
+                latch.countDown();
+            }
+        }, 150, TimeUnit.MILLISECONDS);
+        
+        assertTrue("Timeout did not run", latch.await(2, TimeUnit.SECONDS));
+        assertTrue("Timeout ran before its remaining rounds expired", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 145);
+    }
+    
+    
+    @Test
+    public void Test_Cancel_Prevents_Run()
+    throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        ScheduledFuture<?> future = timer.schedule(new Runnable()
+        {
+            public void run()
+            {
+                runs.incrementAndGet();
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+        
+        assertTrue(future.cancel(false));
+        assertFalse("Cancelled twice", future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        
+        Thread.sleep(250);
+        assertEquals(0, runs.get());
+        assertEquals(0, timer.getPendingTimeouts());
+        
+        try
+        {
+            future.get();
+            fail("CancellationException expected");
+        } catch (CancellationException e)
+        {
+            // expected
+        }
+    }
+    
+    
+    @Test
+    public void Test_Fixed_Rate_Repeats_Until_Cancelled()
+    throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(3);
+        ScheduledFuture<?> future = timer.scheduleAtFixedRate(new Runnable()
+        {
+            public void run()
+            {
+                runs.incrementAndGet();
+                latch.countDown();
+            }
+        }, 0, 20, TimeUnit.MILLISECONDS);
+        
+        assertTrue("Periodic timeout did not repeat", latch.await(2, TimeUnit.SECONDS));
+        assertFalse(future.isDone());
+        assertTrue(future.cancel(false));
+        
+        Thread.sleep(50);
+        int cancelledAt = runs.get();
+        Thread.sleep(100);
+        assertEquals("Periodic timeout ran after it was cancelled", cancelledAt, runs.get());
+    }
+    
+    
+    @Test
+    public void Test_Fixed_Delay_Repeats()
+    throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(3);
+        ScheduledFuture<?> future = timer.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                latch.countDown();
+            }
+        }, 10, 20, TimeUnit.MILLISECONDS);
+        
+        assertTrue("Periodic timeout did not repeat", latch.await(2, TimeUnit.SECONDS));
+        future.cancel(false);
+    }
+    
+    
+    @Test
+    public void Test_Invalid_Arguments()
+    {
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+            }
+        };
+        
+        try
+        {
+            timer.scheduleAtFixedRate(task, 0, 0, TimeUnit.MILLISECONDS);
+            fail("IllegalArgumentException expected for a zero period");
+        } catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        
+        try
+        {
+            timer.scheduleWithFixedDelay(task, 0, -1, TimeUnit.MILLISECONDS);
+            fail("IllegalArgumentException expected for a negative delay");
+        } catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        
+        try
+        {
+            timer.schedule(null, 0, TimeUnit.MILLISECONDS);
+            fail("NullPointerException expected for a null task");
+        } catch (NullPointerException e)
+        {
+            // expected
+        }
+        
+        try
+        {
+            new HashedWheelTimer("HashedWheelTimerTest", null);
+            fail("NullPointerException expected for a null executor");
+        } catch (NullPointerException e)
+        {
+            // expected
+        }
+    }
+    
+    
+    @Test
+    public void Test_Stop_Rejects_Timeouts()
+    {
+        assertTrue(timer.isOperational());
+        timer.stop();
+        assertFalse(timer.isOperational());
+        
+        try
+        {
+            timer.schedule(new Runnable()
+            {
+                public void run()
+                {
+                }
+            }, 10, TimeUnit.MILLISECONDS);
+            fail("RejectedExecutionException expected after stop");
+        } catch (RejectedExecutionException e)
+        {
+            // expected
+        }
+    }
+    
+    
+    @Test
+    public void Test_Tick_Duration()
+    {
+        assertEquals(5, timer.getTickDuration(TimeUnit.MILLISECONDS));
+        
+        HashedWheelTimer fine = new HashedWheelTimer("HashedWheelTimerTest", DIRECT, 10, TimeUnit.MICROSECONDS, 4);
+        assertEquals("Tick duration is not at least 1ms", 1, fine.getTickDuration(TimeUnit.MILLISECONDS));
+        fine.stop();
+    }
+}
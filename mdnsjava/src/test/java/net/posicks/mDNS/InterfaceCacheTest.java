@@ -0,0 +1,426 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Credibility;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Opcode;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.RRset;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.Update;
+
+import net.posick.mDNS.Constants;
+import net.posick.mDNS.MulticastDNSCache;
+import net.posick.mDNS.MulticastDNSMulticastOnlyQuerier;
+import net.posick.mDNS.net.DatagramProcessor;
+import net.posick.mDNS.net.PacketListener;
+
+/**
+ * Test Cases for the per interface cache partitions of the MulticastDNSMulticastOnlyQuerier
+ *
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class InterfaceCacheTest
+{
+    /**
+     * A DatagramProcessor posing as the processor of an interface on the link 10.x.0.0/16, whose
+     * datagrams are fed to it rather than received from its socket.
+     */
+    private static class LinkProcessor extends DatagramProcessor
+    {
+        LinkProcessor(final int link, final PacketListener listener)
+        throws IOException
+        {
+            super(InetAddress.getByName("127.0.0.1"), InetAddress.getByName(Constants.DEFAULT_IPv4_ADDRESS), 0, listener);
+            setInterfaceAddress(InetAddress.getByAddress(new byte[] {10, (byte) link, 0, 1}));
+        }
+        
+        
+        @Override
+        public boolean isOnLink(final InetAddress address)
+        {
+            byte[] bytes = address.getAddress();
+            byte[] iface = ifaceAddress.getAddress();
+            return (bytes.length == 4) && (bytes[0] == iface[0]) && (bytes[1] == iface[1]);
+        }
+        
+        
+        void setMaxPayloadSize(final int size)
+        {
+            maxPayloadSize = size;
+        }
+        
+        
+        void feed(final byte[] data, final InetAddress source)
+        {
+            received(new DatagramPacket(data, data.length, source, Constants.DEFAULT_PORT));
+        }
+    }
+    
+    
+    /**
+     * A MulticastDNSMulticastOnlyQuerier bound to the loopback interface, exposing its cache
+     * partitions.
+     */
+    private static class TestQuerier extends MulticastDNSMulticastOnlyQuerier
+    {
+        private final List<List<DatagramProcessor>> written = new ArrayList<List<DatagramProcessor>>();
+        
+        
+        TestQuerier(final InetAddress ifaceAddress)
+        throws IOException
+        {
+            super(ifaceAddress, InetAddress.getByName(Constants.DEFAULT_IPv4_ADDRESS));
+        }
+        
+        
+        void received(final InetAddress ifaceAddress, final Record... records)
+        {
+            Message response = new Message();
+            response.getHeader().setOpcode(Opcode.QUERY);
+            response.getHeader().setFlag(Flags.QR);
+            response.getHeader().setFlag(Flags.AA);
+            for (Record record : records)
+            {
+                response.addRecord(record, Section.ANSWER);
+            }
+            cacher.receiveMessage(ifaceAddress, response);
+        }
+        
+        
+        MulticastDNSCache partition(final InetAddress ifaceAddress)
+        {
+            return interfaceCaches.get(ifaceAddress);
+        }
+        
+        
+        MulticastDNSCache shared()
+        {
+            return cache;
+        }
+        
+        
+        List<DatagramProcessor> processors()
+        {
+            return multicastProcessors;
+        }
+        
+        
+        LinkProcessor addLink(final int link)
+        throws Exception
+        {
+            LinkProcessor processor = new LinkProcessor(link, this);
+            multicastProcessors.add(processor);
+            interfaceCaches.put(processor.getInterfaceAddress(), new MulticastDNSCache());
+            return processor;
+        }
+        
+        
+        void scope(final Message response, final InetAddress ifaceAddress)
+        {
+            scopeToInterface(response, ifaceAddress);
+        }
+        
+        
+        void respond(final Message response, final InetAddress ifaceAddress)
+        throws IOException
+        {
+            writeResponse(response, ifaceAddress);
+        }
+        
+        
+        @Override
+        protected void writeMessageToWire(final Message message, final List<DatagramProcessor> processors)
+        throws IOException
+        {
+            written.add(new ArrayList<DatagramProcessor>(processors));
+            super.writeMessageToWire(message, processors);
+        }
+    }
+    
+    private InetAddress loopback;
+    
+    private TestQuerier querier;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        loopback = InetAddress.getByName("127.0.0.1");
+        querier = new TestQuerier(loopback);
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        querier.close();
+    }
+    
+    
+    @Test
+    public void Test_Answers_Cached_In_Interface_Partition()
+    throws Exception
+    {
+        Name name = new Name("partitioned.local.");
+        querier.received(loopback, new ARecord(name, DClass.IN, 120, InetAddress.getByName("192.168.1.61")));
+        
+        assertEquals(1, querier.partition(loopback).queryCache(query(name), Credibility.ANY).getSectionArray(Section.ANSWER).length);
+        assertEquals(Rcode.NXDOMAIN, querier.shared().queryCache(query(name), Credibility.ANY).getRcode());
+    }
+    
+    
+    @Test
+    public void Test_Answers_From_Unknown_Interface_Cached_In_Shared_Cache()
+    throws Exception
+    {
+        Name name = new Name("unpartitioned.local.");
+        querier.received(InetAddress.getByName("10.99.99.99"), new ARecord(name, DClass.IN, 120, InetAddress.getByName("192.168.1.62")));
+        querier.received(null, new ARecord(name, DClass.IN, 120, InetAddress.getByName("192.168.1.63")));
+        
+        assertEquals(2, querier.shared().queryCache(query(name), Credibility.ANY).getSectionArray(Section.ANSWER).length);
+        assertEquals(0, querier.partition(loopback).queryCache(query(name), Credibility.ANY).getSectionArray(Section.ANSWER).length);
+    }
+    
+    
+    @Test
+    public void Test_Cache_Query_Merges_Zone_Shared_And_Partitions()
+    throws Exception
+    {
+        Name name = new Name("merged.local.");
+        Update update = new Update(new Name("local."));
+        update.add(new ARecord(name, DClass.IN, 120, InetAddress.getByName("192.168.1.64")));
+        querier.broadcast(update, false);
+        querier.received(null, new ARecord(name, DClass.IN, 120, InetAddress.getByName("192.168.1.65")));
+        querier.received(loopback, new ARecord(name, DClass.IN, 120, InetAddress.getByName("192.168.1.66")));
+        
+        Message response = querier.queryCache(query(name));
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertTrue(response.getHeader().getFlag(Flags.QR));
+        List<InetAddress> addresses = new ArrayList<InetAddress>();
+        for (Record record : response.getSectionArray(Section.ANSWER))
+        {
+            addresses.add(((ARecord) record).getAddress());
+        }
+        assertEquals(3, addresses.size());
+        assertTrue(addresses.contains(InetAddress.getByName("192.168.1.64")));
+        assertTrue(addresses.contains(InetAddress.getByName("192.168.1.65")));
+        assertTrue(addresses.contains(InetAddress.getByName("192.168.1.66")));
+    }
+    
+    
+    @Test
+    public void Test_Foreign_Link_Local_Addresses_Removed()
+    throws Exception
+    {
+        Name name = new Name("scoped.local.");
+        Record routable = new ARecord(name, DClass.IN, 120, InetAddress.getByName("192.168.1.67"));
+        Record linkLocal = new ARecord(name, DClass.IN, 120, InetAddress.getByName("169.254.1.67"));
+        Record linkLocal6 = new AAAARecord(name, DClass.IN, 120, InetAddress.getByName("fe80::1:67"));
+        Record loopbackAddress = new ARecord(name, DClass.IN, 120, loopback);
+        
+        Message response = new Message();
+        response.addRecord(routable, Section.ANSWER);
+        response.addRecord(linkLocal, Section.ANSWER);
+        response.addRecord(linkLocal6, Section.ADDITIONAL);
+        response.addRecord(loopbackAddress, Section.ADDITIONAL);
+        querier.scope(response, loopback);
+        
+        assertArrayEquals(new Record[] {routable}, response.getSectionArray(Section.ANSWER));
+        assertArrayEquals(new Record[] {loopbackAddress}, response.getSectionArray(Section.ADDITIONAL));
+    }
+    
+    
+    @Test
+    public void Test_Unknown_Interface_Not_Scoped()
+    throws Exception
+    {
+        Name name = new Name("unscoped.local.");
+        Record linkLocal = new ARecord(name, DClass.IN, 120, InetAddress.getByName("169.254.1.68"));
+        
+        Message response = new Message();
+        response.addRecord(linkLocal, Section.ANSWER);
+        querier.scope(response, InetAddress.getByName("10.99.99.99"));
+        
+        assertArrayEquals(new Record[] {linkLocal}, response.getSectionArray(Section.ANSWER));
+    }
+    
+    
+    @Test
+    public void Test_Response_Written_To_Receiving_Interface()
+    throws Exception
+    {
+        DatagramProcessor other = new DatagramProcessor(loopback, InetAddress.getByName(Constants.DEFAULT_IPv4_ADDRESS), 0, querier);
+        querier.processors().add(other);
+        
+        Message response = new Message();
+        response.getHeader().setRcode(Rcode.SERVFAIL);
+        response.addRecord(new ARecord(new Name("respond.local."), DClass.IN, 120, InetAddress.getByName("192.168.1.69")), Section.ANSWER);
+        querier.respond(response, loopback);
+        
+        assertTrue(response.getHeader().getFlag(Flags.AA));
+        assertTrue(response.getHeader().getFlag(Flags.QR));
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertEquals(1, querier.written.size());
+        assertEquals(1, querier.written.get(0).size());
+        assertEquals(querier.processors().get(0), querier.written.get(0).get(0));
+        
+        // Responses for unknown interfaces are written to all interfaces
+        querier.respond(response, InetAddress.getByName("10.99.99.99"));
+        assertEquals(2, querier.written.size());
+        assertEquals(2, querier.written.get(1).size());
+    }
+    
+    
+    @Test
+    public void Test_Goodbye_Removes_Partitioned_Record()
+    throws Exception
+    {
+        Name name = new Name("withdrawn.local.");
+        querier.received(loopback, new ARecord(name, DClass.IN, 120, InetAddress.getByName("192.168.1.60")));
+        assertEquals(1, answers(name).length);
+        
+        Update goodbye = new Update(new Name("local."));
+        goodbye.add(new ARecord(name, DClass.IN, 0, InetAddress.getByName("192.168.1.60")));
+        querier.broadcast(goodbye, false);
+        
+        assertEquals(0, answers(name).length);
+        assertEquals(0, querier.partition(loopback).queryCache(query(name), Credibility.ANY).getSectionArray(Section.ANSWER).length);
+    }
+    
+    
+    @Test
+    public void Test_Datagram_Received_By_Several_Sockets_Cached_Once()
+    throws Exception
+    {
+        LinkProcessor link1 = querier.addLink(1);
+        LinkProcessor link2 = querier.addLink(2);
+        final List<Message> dispatched = new ArrayList<Message>();
+        querier.registerListener(new ResolverListener()
+        {
+            public void receiveMessage(final Object id, final Message m)
+            {
+                synchronized (dispatched)
+                {
+                    dispatched.add(m);
+                }
+            }
+            
+            
+            public void handleException(final Object id, final Exception e)
+            {
+            }
+        });
+        
+        Name name = new Name("duplicated.local.");
+        Message response = new Message();
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.AA);
+        response.addRecord(new ARecord(name, DClass.IN, 120, InetAddress.getByName("10.2.0.7")), Section.ANSWER);
+        byte[] data = response.toWire();
+        
+        // Every socket receives the datagram sent on link 2
+        link1.feed(data, InetAddress.getByName("10.2.0.7"));
+        link2.feed(data, InetAddress.getByName("10.2.0.7"));
+        
+        long waitTill = System.currentTimeMillis() + 5000;
+        while ((answers(name).length == 0) && (System.currentTimeMillis() < waitTill))
+        {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        
+        assertEquals(1, querier.partition(link2.getInterfaceAddress()).queryCache(query(name), Credibility.ANY).getSectionArray(Section.ANSWER).length);
+        assertEquals(0, querier.partition(link1.getInterfaceAddress()).queryCache(query(name), Credibility.ANY).getSectionArray(Section.ANSWER).length);
+        assertEquals(0, querier.partition(loopback).queryCache(query(name), Credibility.ANY).getSectionArray(Section.ANSWER).length);
+        assertEquals(Rcode.NXDOMAIN, querier.shared().queryCache(query(name), Credibility.ANY).getRcode());
+        synchronized (dispatched)
+        {
+            assertEquals(1, dispatched.size());
+        }
+    }
+    
+    
+    @Test
+    public void Test_Stalled_Partition_Monitor_Not_Operational()
+    throws Exception
+    {
+        querier.partition(loopback).setCacheMonitor(new MulticastDNSCache.CacheMonitor()
+        {
+            public void begin()
+            {
+            }
+            
+            
+            public void check(final RRset rrs, final int credibility, final int expiresIn)
+            {
+            }
+            
+            
+            public void expired(final RRset rrs, final int credibility)
+            {
+            }
+            
+            
+            public void end()
+            {
+            }
+            
+            
+            public boolean isOperational()
+            {
+                return false;
+            }
+        });
+        
+        assertFalse(querier.isOperational());
+    }
+    
+    
+    @Test
+    public void Test_Max_Payload_Size_Of_Smallest_Interface()
+    throws Exception
+    {
+        int loopbackSize = querier.processors().get(0).getMaxPayloadSize();
+        querier.addLink(1).setMaxPayloadSize(loopbackSize + 100);
+        assertEquals(loopbackSize, querier.getMaxPayloadSize());
+        
+        querier.addLink(2).setMaxPayloadSize(500);
+        assertEquals(500, querier.getMaxPayloadSize());
+    }
+    
+    
+    private Record[] answers(final Name name)
+    {
+        return querier.queryCache(query(name)).getSectionArray(Section.ANSWER);
+    }
+    
+    
+    private static Message query(final Name name)
+    {
+        return Message.newQuery(Record.newRecord(name, Type.A, DClass.IN));
+    }
+}
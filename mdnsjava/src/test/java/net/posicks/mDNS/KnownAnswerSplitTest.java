@@ -0,0 +1,231 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.MulticastDNSUtils;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.PTRRecord;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.net.NetworkMonitor;
+import net.posick.mDNS.net.NetworkMonitor.NetworkChangeListener;
+
+/**
+ * Test Cases for the Known Answer splitting of browse queries and the NetworkMonitor change detection
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class KnownAnswerSplitTest
+{
+    private static final Name SERVICE_TYPE = Name.fromConstantString("_http._tcp.local.");
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+    }
+    
+    
+    @Test
+    public void Test_Known_Answers_That_Fit_Are_Not_Split()
+    throws Exception
+    {
+        Message query = Message.newQuery(Record.newRecord(SERVICE_TYPE, Type.PTR, DClass.IN));
+        Record[] knownAnswers = knownAnswers(3);
+        
+        Message[] messages = MulticastDNSUtils.splitKnownAnswers(query, knownAnswers, 1460);
+        assertEquals(1, messages.length);
+        assertFalse(messages[0].getHeader().getFlag(Flags.TC));
+        assertEquals(1, messages[0].getSectionArray(Section.QUESTION).length);
+        assertArrayEquals(knownAnswers, messages[0].getSectionArray(Section.ANSWER));
+        
+        messages = MulticastDNSUtils.splitKnownAnswers(query, new Record[0], 512);
+        assertEquals(1, messages.length);
+        assertEquals(1, messages[0].getSectionArray(Section.QUESTION).length);
+        assertEquals(0, messages[0].getSectionArray(Section.ANSWER).length);
+    }
+    
+    
+    @Test
+    public void Test_Known_Answers_Split_Across_Truncated_Messages()
+    throws Exception
+    {
+        Message query = Message.newQuery(Record.newRecord(SERVICE_TYPE, Type.PTR, DClass.IN));
+        Record[] knownAnswers = knownAnswers(100);
+        int maxSize = 512;
+        
+        Message[] messages = MulticastDNSUtils.splitKnownAnswers(query, knownAnswers, maxSize);
+        assertTrue("Known Answers were not split", messages.length > 1);
+        
+        int index = 0;
+        for (int m = 0; m < messages.length; m++)
+        {
+            Message message = messages[m];
+            assertTrue("Message " + m + " exceeds the maximum size", message.toWire().length <= maxSize);
+            assertEquals("TC flag of message " + m, m < (messages.length - 1), message.getHeader().getFlag(Flags.TC));
+            assertEquals("Questions in message " + m, m == 0 ? 1 : 0, message.getSectionArray(Section.QUESTION).length);
+            assertEquals(query.getHeader().getID(), message.getHeader().getID());
+            
+            Record[] answers = message.getSectionArray(Section.ANSWER);
+            assertTrue("Message " + m + " is empty", answers.length > 0);
+            for (Record answer : answers)
+            {
+                assertEquals("Known Answers out of order", knownAnswers[index++], answer);
+            }
+        }
+        assertEquals("Known Answers lost", knownAnswers.length, index);
+    }
+    
+    
+    @Test
+    public void Test_Oversized_Known_Answer_Is_Still_Sent()
+    throws Exception
+    {
+        Message query = Message.newQuery(Record.newRecord(SERVICE_TYPE, Type.PTR, DClass.IN));
+        Record[] knownAnswers = knownAnswers(2);
+        
+        Message[] messages = MulticastDNSUtils.splitKnownAnswers(query, knownAnswers, 12);
+        assertEquals(2, messages.length);
+        assertEquals(1, messages[0].getSectionArray(Section.ANSWER).length);
+        assertEquals(1, messages[1].getSectionArray(Section.ANSWER).length);
+        assertTrue(messages[0].getHeader().getFlag(Flags.TC));
+        assertFalse(messages[1].getHeader().getFlag(Flags.TC));
+    }
+    
+    
+    @Test
+    public void Test_Packed_Groups_Are_Not_Split_And_Share_Records()
+    throws Exception
+    {
+        Record[] answers = knownAnswers(30);
+        Record address = new ARecord(new Name("host.local."), DClass.IN, 120, InetAddress.getByName("192.168.1.10"));
+        List<Message> groups = new ArrayList<Message>();
+        for (int index = 0; index < answers.length; index += 3)
+        {
+            Message group = new Message();
+            for (int offset = 0; offset < 3; offset++ )
+            {
+                group.addRecord(answers[index + offset], Section.ANSWER);
+            }
+            group.addRecord(address, Section.ADDITIONAL);
+            groups.add(group);
+        }
+        
+        int maxSize = 512;
+        List<Message> messages = MulticastDNSUtils.packMessages(groups, maxSize, Section.ANSWER, Section.ADDITIONAL);
+        assertTrue("Groups were not split", messages.size() > 1);
+        assertTrue("Groups were not packed", messages.size() < groups.size());
+        
+        int index = 0;
+        for (Message message : messages)
+        {
+            assertTrue(message.toWire().length <= maxSize);
+            Record[] packed = message.getSectionArray(Section.ANSWER);
+            assertEquals("Group split across messages", 0, packed.length % 3);
+            for (Record answer : packed)
+            {
+                assertEquals(answers[index++], answer);
+            }
+            assertArrayEquals(new Record[] {address}, message.getSectionArray(Section.ADDITIONAL));
+        }
+        assertEquals(answers.length, index);
+    }
+    
+    
+    @Test
+    public void Test_Network_Change_Detection()
+    {
+        final Set<String> state = new TreeSet<String>();
+        state.add("eth0/192.168.1.10");
+        final boolean[] unreadable = new boolean[1];
+        
+        NetworkMonitor monitor = new NetworkMonitor()
+        {
+            @Override
+            protected Set<String> getState()
+            {
+                return unreadable[0] ? null : new TreeSet<String>(state);
+            }
+        };
+        
+        final AtomicInteger changes = new AtomicInteger();
+        NetworkChangeListener listener = new NetworkChangeListener()
+        {
+            public void networkChanged()
+            {
+                changes.incrementAndGet();
+            }
+        };
+        
+        monitor.addListener(listener);
+        try
+        {
+            monitor.run();
+            assertEquals("Change reported for an unchanged network", 0, changes.get());
+            
+            state.add("eth0/fe80::1");
+            monitor.run();
+            assertEquals(1, changes.get());
+            monitor.run();
+            assertEquals("Change reported twice", 1, changes.get());
+            
+            unreadable[0] = true;
+            monitor.run();
+            assertEquals("Change reported for unreadable interfaces", 1, changes.get());
+            unreadable[0] = false;
+            monitor.run();
+            assertEquals("Change reported after the interfaces could not be read", 1, changes.get());
+            
+            state.remove("eth0/192.168.1.10");
+            monitor.run();
+            assertEquals(2, changes.get());
+        } finally
+        {
+            monitor.removeListener(listener);
+        }
+        
+        state.add("wlan0/10.0.0.2");
+        monitor.run();
+        assertEquals("Change reported to a removed listener", 2, changes.get());
+    }
+    
+    
+    private static Record[] knownAnswers(final int count)
+    throws Exception
+    {
+        Record[] records = new Record[count];
+        for (int index = 0; index < count; index++)
+        {
+            records[index] = new PTRRecord(SERVICE_TYPE, DClass.IN, 4500, new Name("Service Instance " + index, SERVICE_TYPE));
+        }
+        
+        return records;
+    }
+}
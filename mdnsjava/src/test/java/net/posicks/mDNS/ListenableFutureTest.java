@@ -0,0 +1,177 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import net.posick.mDNS.utils.ListenableFuture;
+import net.posick.mDNS.utils.ListenableFuture.FutureListener;
+
+/**
+ * Test Cases for the ListenableFuture
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ListenableFutureTest
+{
+    private ListenableFuture<String> future;
+    
+    private List<String> notified;
+    
+    private FutureListener<String> listener;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        future = new ListenableFuture<String>();
+        notified = new ArrayList<String>();
+        listener = new FutureListener<String>()
+        {
+            public void operationComplete(final ListenableFuture<String> completed)
+            {
+                notified.add(completed.getNow("absent"));
+            }
+        };
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+    }
+    
+    
+    @Test
+    public void Test_Set_Completes_Once_And_Notifies_Listeners()
+    throws Exception
+    {
+        future.addListener(listener);
+        assertFalse(future.isDone());
+        assertEquals("absent", future.getNow("absent"));
+        
+        assertTrue(future.set("value"));
+        assertFalse("Completed twice", future.set("other"));
+        assertFalse(future.setException(new Exception()));
+        assertFalse(future.cancel(true));
+        
+        assertTrue(future.isDone());
+        assertTrue(future.isSuccess());
+        assertFalse(future.isCancelled());
+        assertNull(future.getCause());
+        assertEquals("value", future.get());
+        assertEquals("value", future.get(0, TimeUnit.MILLISECONDS));
+        assertEquals(1, notified.size());
+        assertEquals("value", notified.get(0));
+    }
+    
+    
+    @Test
+    public void Test_Listener_Added_After_Completion_Is_Notified()
+    throws Exception
+    {
+        future.set("value");
+        future.addListener(listener);
+        assertEquals(1, notified.size());
+        assertEquals("value", notified.get(0));
+    }
+    
+    
+    @Test
+    public void Test_Exception_Is_Reported_By_Get()
+    throws Exception
+    {
+        future.addListener(listener);
+        IllegalStateException failure = new IllegalStateException("failed");
+        assertTrue(future.setException(failure));
+        
+        assertTrue(future.isDone());
+        assertFalse(future.isSuccess());
+        assertSame(failure, future.getCause());
+        assertEquals(1, notified.size());
+        assertEquals("absent", notified.get(0));
+        try
+        {
+            future.get();
+            fail("ExecutionException not thrown");
+        } catch (ExecutionException e)
+        {
+            assertSame(failure, e.getCause());
+        }
+    }
+    
+    
+    @Test
+    public void Test_Cancel_Notifies_Listeners()
+    throws Exception
+    {
+        future.addListener(listener);
+        assertTrue(future.cancel(false));
+        
+        assertTrue(future.isDone());
+        assertTrue(future.isCancelled());
+        assertTrue(future.getCause() instanceof CancellationException);
+        assertEquals(1, notified.size());
+        try
+        {
+            future.get();
+            fail("CancellationException not thrown");
+        } catch (CancellationException e)
+        {
+            // expected
+        }
+    }
+    
+    
+    @Test
+    public void Test_Get_Times_Out_While_Pending()
+    throws Exception
+    {
+        try
+        {
+            future.get(10, TimeUnit.MILLISECONDS);
+            fail("TimeoutException not thrown");
+        } catch (TimeoutException e)
+        {
+            // expected
+        }
+        assertTrue(notified.isEmpty());
+    }
+    
+    
+    @Test
+    public void Test_Get_Blocks_Until_Completed()
+    throws Exception
+    {
+        new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(20);
+                } catch (InterruptedException e)
+                {
+                    // ignore
+                }
+                future.set("value");
+            }
+        }).start();
+        
+        assertEquals("value", future.get(5, TimeUnit.SECONDS));
+    }
+}
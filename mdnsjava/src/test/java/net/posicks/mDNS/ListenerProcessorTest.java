@@ -0,0 +1,792 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.ResolverListener;
+
+import net.posick.mDNS.DNSSDListener;
+import net.posick.mDNS.DNSSDListenerDispatcher;
+import net.posick.mDNS.DNSSDUpdateListener;
+import net.posick.mDNS.ServiceDiff;
+import net.posick.mDNS.ServiceInstance;
+import net.posick.mDNS.ServiceName;
+import net.posick.mDNS.utils.Executors;
+import net.posick.mDNS.utils.ListenerProcessor;
+import net.posick.mDNS.utils.ListenerProcessor.ListenerStatistics;
+import net.posick.mDNS.utils.ListenerProcessor.OverflowPolicy;
+import net.posick.mDNS.utils.ListenerProcessor.StopDispatchException;
+
+/**
+ * Test Cases for the ListenerProcessor
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ListenerProcessorTest
+{
+    public static interface Callback
+    {
+        public void call(String value)
+        throws StopDispatchException;
+    }
+    
+    
+    private static class RecordingListener implements ResolverListener
+    {
+        private final String name;
+        
+        private final List<String> calls;
+        
+        
+        RecordingListener(final String name, final List<String> calls)
+        {
+            this.name = name;
+            this.calls = calls;
+        }
+        
+        
+        public void receiveMessage(final Object id, final Message m)
+        {
+            calls.add(name);
+        }
+        
+        
+        public void handleException(final Object id, final Exception e)
+        {
+            calls.add(name + ":" + e.getMessage());
+        }
+    }
+    
+    /**
+     * Records the ids of the messages received, blocking on the first message until released.
+     */
+    private static class BlockingListener implements ResolverListener
+    {
+        final List<Object> ids = Collections.synchronizedList(new ArrayList<Object>());
+        
+        final CountDownLatch entered = new CountDownLatch(1);
+        
+        final CountDownLatch release = new CountDownLatch(1);
+        
+        
+        public void receiveMessage(final Object id, final Message m)
+        {
+            ids.add(id);
+            entered.countDown();
+            try
+            {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e)
+            {
+                // ignore
+            }
+        }
+        
+        
+        public void handleException(final Object id, final Exception e)
+        {
+        }
+    }
+    
+    /**
+     * Records the service events received, blocking on the first event until released.
+     */
+    private static class BlockingUpdateListener implements DNSSDUpdateListener
+    {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        
+        final CountDownLatch entered = new CountDownLatch(1);
+        
+        final CountDownLatch release = new CountDownLatch(1);
+        
+        
+        public void serviceDiscovered(final Object id, final ServiceInstance service)
+        {
+            received("discovered " + id + " port " + service.getPort());
+        }
+        
+        
+        public void serviceUpdated(final Object id, final ServiceInstance service, final ServiceDiff diff)
+        {
+            received("updated " + id + " port " + diff.getPrevious().getPort() + "->" + service.getPort());
+        }
+        
+        
+        public void serviceRemoved(final Object id, final ServiceInstance service)
+        {
+            received("removed " + id);
+        }
+        
+        
+        public void receiveMessage(final Object id, final Message m)
+        {
+        }
+        
+        
+        public void handleException(final Object id, final Exception e)
+        {
+        }
+        
+        
+        private void received(final String event)
+        {
+            events.add(event);
+            entered.countDown();
+            try
+            {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e)
+            {
+                // ignore
+            }
+        }
+    }
+    
+    private ListenerProcessor<ResolverListener> processor;
+    
+    private List<String> calls;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        processor = new ListenerProcessor<ResolverListener>(ResolverListener.class);
+        calls = new ArrayList<String>();
+        DNSSDListenerDispatcher.register();
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        processor.close();
+    }
+    
+    
+    @Test
+    public void Test_Typed_Dispatcher_Is_Not_A_Proxy()
+    throws Exception
+    {
+        assertFalse(Proxy.isProxyClass(processor.getDispatcher().getClass()));
+        assertSame(processor.getDispatcher(), processor.getDispatcher());
+    }
+    
+    
+    @Test
+    public void Test_Dispatch_In_Registration_Order()
+    throws Exception
+    {
+        processor.registerListener(new RecordingListener("a", calls));
+        processor.registerListener(new RecordingListener("b", calls));
+        processor.getDispatcher().receiveMessage("id", new Message());
+        processor.getDispatcher().handleException("id", new Exception("x"));
+        
+        assertEquals(4, calls.size());
+        assertEquals("a", calls.get(0));
+        assertEquals("b", calls.get(1));
+        assertEquals("a:x", calls.get(2));
+        assertEquals("b:x", calls.get(3));
+    }
+    
+    
+    @Test
+    public void Test_Duplicate_Registration_Returns_Registered_Listener()
+    throws Exception
+    {
+        RecordingListener listener = new RecordingListener("a", calls);
+        assertSame(listener, processor.registerListener(listener));
+        assertSame(listener, processor.registerListener(listener));
+        assertEquals(1, processor.getListeners().length);
+        assertSame(listener, processor.unregisterListener(listener));
+        assertNull(processor.unregisterListener(listener));
+        assertEquals(0, processor.getListeners().length);
+    }
+    
+    
+    @Test
+    public void Test_Stop_Dispatch_Halts_Later_Listeners()
+    throws Exception
+    {
+        processor.registerListener(new RecordingListener("a", calls));
+        processor.registerListener(new ResolverListener()
+        {
+            public void receiveMessage(final Object id, final Message m)
+            {
+                calls.add("stop");
+                ListenerProcessorTest.<RuntimeException>sneakyThrow(new StopDispatchException());
+            }
+            
+            
+            public void handleException(final Object id, final Exception e)
+            {
+            }
+        });
+        processor.registerListener(new RecordingListener("c", calls));
+        
+        processor.getDispatcher().receiveMessage("id", new Message());
+        
+        assertEquals(2, calls.size());
+        assertEquals("a", calls.get(0));
+        assertEquals("stop", calls.get(1));
+    }
+    
+    
+    @Test
+    public void Test_Listener_Exception_Is_Rethrown()
+    throws Exception
+    {
+        processor.registerListener(new ResolverListener()
+        {
+            public void receiveMessage(final Object id, final Message m)
+            {
+                throw new IllegalStateException("failed");
+            }
+            
+            
+            public void handleException(final Object id, final Exception e)
+            {
+            }
+        });
+        processor.registerListener(new RecordingListener("b", calls));
+        
+        try
+        {
+            processor.getDispatcher().receiveMessage("id", new Message());
+            fail("Exception not rethrown");
+        } catch (IllegalStateException e)
+        {
+            assertEquals("failed", e.getMessage());
+        }
+        assertTrue(calls.isEmpty());
+    }
+    
+    
+    @Test
+    public void Test_Registration_During_Dispatch_Uses_Snapshot()
+    throws Exception
+    {
+        final RecordingListener late = new RecordingListener("late", calls);
+        final RecordingListener removed = new RecordingListener("removed", calls);
+        processor.registerListener(new ResolverListener()
+        {
+            public void receiveMessage(final Object id, final Message m)
+            {
+                calls.add("first");
+                processor.registerListener(late);
+                processor.unregisterListener(removed);
+            }
+            
+            
+            public void handleException(final Object id, final Exception e)
+            {
+            }
+        });
+        processor.registerListener(removed);
+        Object[] before = processor.getListeners();
+        
+        processor.getDispatcher().receiveMessage("id", new Message());
+        
+        // The dispatch in progress sees the listeners registered when it started
+        assertEquals(2, calls.size());
+        assertEquals("first", calls.get(0));
+        assertEquals("removed", calls.get(1));
+        assertEquals(2, before.length);
+        assertNotSame(before, processor.getListeners());
+        
+        calls.clear();
+        processor.getDispatcher().receiveMessage("id", new Message());
+        assertEquals(2, calls.size());
+        assertEquals("first", calls.get(0));
+        assertEquals("late", calls.get(1));
+    }
+    
+    
+    @Test
+    public void Test_Proxy_Dispatcher_Stop_Dispatch()
+    throws Exception
+    {
+        ListenerProcessor<Callback> proxyProcessor = new ListenerProcessor<Callback>(Callback.class);
+        proxyProcessor.registerListener(new Callback()
+        {
+            public void call(final String value)
+            throws StopDispatchException
+            {
+                calls.add(value);
+                throw new StopDispatchException();
+            }
+        });
+        proxyProcessor.registerListener(new Callback()
+        {
+            public void call(final String value)
+            {
+                calls.add("not called");
+            }
+        });
+        
+        assertTrue(Proxy.isProxyClass(proxyProcessor.getDispatcher().getClass()));
+        proxyProcessor.getDispatcher().call("value");
+        assertEquals(1, calls.size());
+        assertEquals("value", calls.get(0));
+        proxyProcessor.close();
+    }
+    
+    
+    @Test
+    public void Test_Registered_DNSSD_Dispatcher_Is_Typed()
+    throws Exception
+    {
+        ListenerProcessor<DNSSDListener> dnssdProcessor = new ListenerProcessor<DNSSDListener>(DNSSDListener.class);
+        assertTrue(dnssdProcessor.getDispatcher() instanceof DNSSDListenerDispatcher);
+        dnssdProcessor.close();
+    }
+    
+    
+    @Test
+    public void Test_Updates_Only_Dispatched_To_Update_Listeners()
+    throws Exception
+    {
+        ListenerProcessor<DNSSDListener> dnssdProcessor = new ListenerProcessor<DNSSDListener>(DNSSDListener.class);
+        final List<String> events = new ArrayList<String>();
+        dnssdProcessor.registerListener(new DNSSDListener()
+        {
+            public void serviceDiscovered(final Object id, final ServiceInstance service)
+            {
+                events.add("plain discovered");
+            }
+            
+            
+            public void serviceRemoved(final Object id, final ServiceInstance service)
+            {
+            }
+            
+            
+            public void receiveMessage(final Object id, final Message m)
+            {
+            }
+            
+            
+            public void handleException(final Object id, final Exception e)
+            {
+            }
+        });
+        dnssdProcessor.registerListener(new DNSSDUpdateListener()
+        {
+            public void serviceUpdated(final Object id, final ServiceInstance service, final ServiceDiff diff)
+            {
+                events.add("updated " + diff.getChangedFields());
+            }
+            
+            
+            public void serviceDiscovered(final Object id, final ServiceInstance service)
+            {
+                events.add("update discovered");
+            }
+            
+            
+            public void serviceRemoved(final Object id, final ServiceInstance service)
+            {
+            }
+            
+            
+            public void receiveMessage(final Object id, final Message m)
+            {
+            }
+            
+            
+            public void handleException(final Object id, final Exception e)
+            {
+            }
+        });
+        
+        ServiceInstance previous = new ServiceInstance(new ServiceName("Test._http._tcp.local."), 0, 0, 80, new Name("host.local."), new InetAddress[0], new String[0]);
+        ServiceInstance current = new ServiceInstance(new ServiceName("Test._http._tcp.local."), 0, 0, 8080, new Name("host.local."), new InetAddress[0], new String[0]);
+        DNSSDUpdateListener dispatcher = (DNSSDUpdateListener) dnssdProcessor.getDispatcher();
+        dispatcher.serviceDiscovered("1", previous);
+        dispatcher.serviceUpdated("1", current, new ServiceDiff(previous, current));
+        
+        assertEquals("[plain discovered, update discovered, updated [PORT]]", events.toString());
+        dnssdProcessor.close();
+    }
+    
+    
+    @Test
+    public void Test_Async_Slow_Listener_Does_Not_Block_Others()
+    throws Exception
+    {
+        processor.setAsynchronous(true);
+        BlockingListener slow = new BlockingListener();
+        final CountDownLatch received = new CountDownLatch(2);
+        processor.registerListener(slow);
+        processor.registerListener(new ResolverListener()
+        {
+            public void receiveMessage(final Object id, final Message m)
+            {
+                received.countDown();
+            }
+            
+            
+            public void handleException(final Object id, final Exception e)
+            {
+            }
+        });
+        
+        processor.getDispatcher().receiveMessage("1", new Message());
+        processor.getDispatcher().receiveMessage("2", new Message());
+        
+        assertTrue("Fast listener blocked by slow listener", received.await(5, TimeUnit.SECONDS));
+        assertTrue(slow.entered.await(5, TimeUnit.SECONDS));
+        assertEquals(1, slow.ids.size());
+        slow.release.countDown();
+    }
+    
+    
+    @Test
+    public void Test_Async_Overflow_Drop_Newest()
+    throws Exception
+    {
+        BlockingListener listener = overflow(OverflowPolicy.DROP_NEWEST);
+        assertEquals("[1, 2, 3]", listener.ids.toString());
+    }
+    
+    
+    @Test
+    public void Test_Async_Overflow_Drop_Oldest()
+    throws Exception
+    {
+        BlockingListener listener = overflow(OverflowPolicy.DROP_OLDEST);
+        assertEquals("[1, 3, 4]", listener.ids.toString());
+    }
+    
+    
+    @Test
+    public void Test_Async_Coalesces_Service_Events()
+    throws Exception
+    {
+        ListenerProcessor<DNSSDListener> dnssdProcessor = new ListenerProcessor<DNSSDListener>(DNSSDListener.class);
+        dnssdProcessor.setAsynchronous(true);
+        dnssdProcessor.setOverflowPolicy(OverflowPolicy.COALESCE);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        dnssdProcessor.registerListener(new DNSSDListener()
+        {
+            public void serviceDiscovered(final Object id, final ServiceInstance service)
+            {
+                events.add("discovered " + id);
+                entered.countDown();
+                try
+                {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e)
+                {
+                    // ignore
+                }
+            }
+            
+            
+            public void serviceRemoved(final Object id, final ServiceInstance service)
+            {
+                events.add("removed " + id);
+            }
+            
+            
+            public void receiveMessage(final Object id, final Message m)
+            {
+            }
+            
+            
+            public void handleException(final Object id, final Exception e)
+            {
+            }
+        });
+        
+        ServiceInstance service = new ServiceInstance(new ServiceName("Test._http._tcp.local."), 0, 0, 80, new Name("host.local."), new InetAddress[0], new String[0]);
+        dnssdProcessor.getDispatcher().serviceDiscovered("1", service);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        dnssdProcessor.getDispatcher().serviceDiscovered("2", service);
+        dnssdProcessor.getDispatcher().serviceRemoved("3", service);
+        
+        // The removal of the undelivered discovery cancels both
+        ListenerStatistics statistics = dnssdProcessor.getListenerStatistics()[0];
+        assertEquals(0, statistics.getQueueDepth());
+        assertEquals(1, statistics.getCoalesced());
+        
+        dnssdProcessor.getDispatcher().serviceRemoved("4", service);
+        release.countDown();
+        awaitDelivered(dnssdProcessor, 2);
+        assertEquals("[discovered 1, removed 4]", events.toString());
+        dnssdProcessor.close();
+    }
+    
+    
+    @Test
+    public void Test_Async_Coalesces_Discovery_And_Update()
+    throws Exception
+    {
+        BlockingUpdateListener listener = new BlockingUpdateListener();
+        ListenerProcessor<DNSSDListener> dnssdProcessor = blockedServiceProcessor(listener);
+        ServiceInstance discovered = service(80);
+        ServiceInstance updated = service(8080);
+        dnssdProcessor.getDispatcher().serviceDiscovered("2", discovered);
+        ((DNSSDUpdateListener) dnssdProcessor.getDispatcher()).serviceUpdated("3", updated, new ServiceDiff(discovered, updated));
+        assertEquals(1, dnssdProcessor.getListenerStatistics()[0].getCoalesced());
+        
+        listener.release.countDown();
+        awaitDelivered(dnssdProcessor, 2);
+        assertEquals("[discovered 1 port 1, discovered 3 port 8080]", listener.events.toString());
+        dnssdProcessor.close();
+    }
+    
+    
+    @Test
+    public void Test_Async_Coalesces_Consecutive_Updates()
+    throws Exception
+    {
+        BlockingUpdateListener listener = new BlockingUpdateListener();
+        ListenerProcessor<DNSSDListener> dnssdProcessor = blockedServiceProcessor(listener);
+        ServiceInstance first = service(80);
+        ServiceInstance second = service(8080);
+        ServiceInstance third = service(8443);
+        DNSSDUpdateListener dispatcher = (DNSSDUpdateListener) dnssdProcessor.getDispatcher();
+        dispatcher.serviceUpdated("2", second, new ServiceDiff(first, second));
+        dispatcher.serviceUpdated("3", third, new ServiceDiff(second, third));
+        
+        listener.release.countDown();
+        awaitDelivered(dnssdProcessor, 2);
+        assertEquals("[discovered 1 port 1, updated 3 port 80->8443]", listener.events.toString());
+        dnssdProcessor.close();
+    }
+    
+    
+    @Test
+    public void Test_Async_Removal_Cancels_Undelivered_Discovery()
+    throws Exception
+    {
+        BlockingUpdateListener listener = new BlockingUpdateListener();
+        ListenerProcessor<DNSSDListener> dnssdProcessor = blockedServiceProcessor(listener);
+        ServiceInstance discovered = service(80);
+        ServiceInstance updated = service(8080);
+        dnssdProcessor.getDispatcher().serviceDiscovered("2", discovered);
+        ((DNSSDUpdateListener) dnssdProcessor.getDispatcher()).serviceUpdated("3", updated, new ServiceDiff(discovered, updated));
+        dnssdProcessor.getDispatcher().serviceRemoved("4", updated);
+        assertEquals(0, dnssdProcessor.getListenerStatistics()[0].getQueueDepth());
+        
+        // A removal following an update replaces the update
+        ((DNSSDUpdateListener) dnssdProcessor.getDispatcher()).serviceUpdated("5", updated, new ServiceDiff(discovered, updated));
+        dnssdProcessor.getDispatcher().serviceRemoved("6", updated);
+        
+        listener.release.countDown();
+        awaitDelivered(dnssdProcessor, 2);
+        assertEquals("[discovered 1 port 1, removed 6]", listener.events.toString());
+        dnssdProcessor.close();
+    }
+    
+    
+    @Test
+    public void Test_Async_Rediscovery_After_Undelivered_Removal_Is_Update()
+    throws Exception
+    {
+        BlockingUpdateListener listener = new BlockingUpdateListener();
+        ListenerProcessor<DNSSDListener> dnssdProcessor = blockedServiceProcessor(listener);
+        dnssdProcessor.getDispatcher().serviceRemoved("2", service(80));
+        dnssdProcessor.getDispatcher().serviceDiscovered("3", service(8080));
+        
+        listener.release.countDown();
+        awaitDelivered(dnssdProcessor, 2);
+        assertEquals("[discovered 1 port 1, updated 3 port 80->8080]", listener.events.toString());
+        dnssdProcessor.close();
+    }
+    
+    
+    @Test
+    public void Test_Async_Slow_Listener_Detection()
+    throws Exception
+    {
+        processor.setAsynchronous(true);
+        processor.setSlowListenerThreshold(10);
+        processor.registerListener(new ResolverListener()
+        {
+            public void receiveMessage(final Object id, final Message m)
+            {
+                try
+                {
+                    Thread.sleep("slow".equals(id) ? 50 : 0);
+                } catch (InterruptedException e)
+                {
+                    // ignore
+                }
+            }
+            
+            
+            public void handleException(final Object id, final Exception e)
+            {
+            }
+        });
+        
+        processor.getDispatcher().receiveMessage("fast", new Message());
+        processor.getDispatcher().receiveMessage("slow", new Message());
+        awaitDelivered(processor, 2);
+        
+        ListenerStatistics statistics = processor.getListenerStatistics()[0];
+        assertEquals(1, statistics.getSlowDeliveries());
+        assertTrue(statistics.toString(), statistics.getMaxDeliveryTime() >= 40);
+        assertEquals(0, statistics.getDropped());
+    }
+    
+    
+    @Test
+    public void Test_Async_Saturated_Executor_Retries_Delivery()
+    throws Exception
+    {
+        processor.setAsynchronous(true);
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        processor.registerListener(new ResolverListener()
+        {
+            public void receiveMessage(final Object id, final Message m)
+            {
+                threads.add(Thread.currentThread());
+            }
+            
+            
+            public void handleException(final Object id, final Exception e)
+            {
+            }
+        });
+        
+        // Saturate the listener executor, occupying every thread and queue slot
+        Executors executors = Executors.newInstance();
+        final CountDownLatch release = new CountDownLatch(1);
+        long rejected = executors.getListenerExecutorMetrics().getRejectedTaskCount();
+        try
+        {
+            while (executors.getListenerExecutorMetrics().getRejectedTaskCount() == rejected)
+            {
+                try
+                {
+                    executors.executeListenerTask(new Runnable()
+                    {
+                        public void run()
+                        {
+                            try
+                            {
+                                release.await(5, TimeUnit.SECONDS);
+                            } catch (InterruptedException e)
+                            {
+                                // ignore
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e)
+                {
+                    // saturated
+                }
+            }
+            
+            processor.getDispatcher().receiveMessage("1", new Message());
+            Thread.sleep(50);
+            assertEquals(0, threads.size());
+            assertEquals(1, processor.getListenerStatistics()[0].getQueueDepth());
+        } finally
+        {
+            release.countDown();
+        }
+        
+        awaitDelivered(processor, 1);
+        assertNotSame(Thread.currentThread(), threads.get(0));
+    }
+    
+    
+    /**
+     * Returns an asynchronous, coalescing, DNSSD processor whose listener is blocked handling the
+     * discovery of another service.
+     */
+    private static ListenerProcessor<DNSSDListener> blockedServiceProcessor(final BlockingUpdateListener listener)
+    throws Exception
+    {
+        ListenerProcessor<DNSSDListener> dnssdProcessor = new ListenerProcessor<DNSSDListener>(DNSSDListener.class);
+        dnssdProcessor.setAsynchronous(true);
+        dnssdProcessor.setOverflowPolicy(OverflowPolicy.COALESCE);
+        dnssdProcessor.registerListener(listener);
+        
+        ServiceInstance other = new ServiceInstance(new ServiceName("Other._http._tcp.local."), 0, 0, 1, new Name("other.local."), new InetAddress[0], new String[0]);
+        dnssdProcessor.getDispatcher().serviceDiscovered("1", other);
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        return dnssdProcessor;
+    }
+    
+    
+    private static ServiceInstance service(final int port)
+    throws Exception
+    {
+        return new ServiceInstance(new ServiceName("Test._http._tcp.local."), 0, 0, port, new Name("host.local."), new InetAddress[0], new String[0]);
+    }
+    
+    
+    /**
+     * Dispatches four events to a listener with a queue of two, while the listener is blocked
+     * handling the first event, and returns the listener once all events are delivered.
+     */
+    private BlockingListener overflow(final OverflowPolicy policy)
+    throws Exception
+    {
+        processor.setAsynchronous(true);
+        processor.setQueueSize(2);
+        processor.setOverflowPolicy(policy);
+        BlockingListener listener = new BlockingListener();
+        processor.registerListener(listener);
+        
+        processor.getDispatcher().receiveMessage("1", new Message());
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        for (String id : new String[] {"2", "3", "4"})
+        {
+            processor.getDispatcher().receiveMessage(id, new Message());
+        }
+        
+        ListenerStatistics statistics = processor.getListenerStatistics()[0];
+        assertEquals(2, statistics.getQueueDepth());
+        assertEquals(1, statistics.getDropped());
+        assertTrue(statistics.isLagging());
+        
+        listener.release.countDown();
+        awaitDelivered(processor, 3);
+        return listener;
+    }
+    
+    
+    private static void awaitDelivered(final ListenerProcessor<?> processor, final long count)
+    throws InterruptedException
+    {
+        long waitTill = System.currentTimeMillis() + 5000;
+        while ((processor.getListenerStatistics()[0].getDelivered() < count) && (System.currentTimeMillis() < waitTill))
+        {
+            Thread.sleep(5);
+        }
+        assertEquals(count, processor.getListenerStatistics()[0].getDelivered());
+    }
+    
+    
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> void sneakyThrow(final Throwable e)
+    throws E
+    {
+        throw (E) e;
+    }
+}
@@ -0,0 +1,141 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.CachingQuerier;
+import net.posick.mDNS.Lookup;
+import net.posick.mDNS.Querier;
+import net.posick.mDNS.utils.ListenableFuture;
+import net.posick.mDNS.utils.Wait;
+
+/**
+ * Test Cases for the Lookup of records using Queriers that are not AsyncQueriers
+ *
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class LookupTest
+{
+    /**
+     * Exposes the asynchronous send of the Lookup. Never instantiated.
+     */
+    private static class AsyncLookup extends Lookup
+    {
+        private AsyncLookup()
+        throws IOException
+        {
+            super();
+        }
+        
+        
+        static ListenableFuture<Message> send(final Querier querier, final Message query)
+        {
+            return sendAsync(querier, query);
+        }
+    }
+    
+    /**
+     * Delegates to a RecordingQuerier, except for the ResolverListener based sendAsync operation,
+     * which never calls its listener.
+     */
+    private static class SilentQuerier implements InvocationHandler
+    {
+        private final RecordingQuerier querier;
+        
+        
+        SilentQuerier(final RecordingQuerier querier)
+        {
+            this.querier = querier;
+        }
+        
+        
+        public Object invoke(final Object proxy, final Method method, final Object[] args)
+        throws Throwable
+        {
+            if ("sendAsync".equals(method.getName()) && (args.length == 2))
+            {
+                return args[0];
+            }
+            
+            try
+            {
+                return method.invoke(querier, args);
+            } catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        }
+    }
+    
+    private RecordingQuerier recordingQuerier;
+    
+    private Querier querier;
+    
+    private Name name;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        recordingQuerier = new RecordingQuerier();
+        querier = (Querier) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Querier.class, CachingQuerier.class}, new SilentQuerier(recordingQuerier));
+        name = new Name("silent.local.");
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        recordingQuerier.close();
+    }
+    
+    
+    @Test
+    public void Test_Unanswered_Query_Completes_At_Deadline()
+    throws Exception
+    {
+        long start = System.currentTimeMillis();
+        Message response = AsyncLookup.send(querier, Message.newQuery(Record.newRecord(name, Type.A, DClass.IN))).get(5, TimeUnit.SECONDS);
+        
+        long took = System.currentTimeMillis() - start;
+        assertTrue("Took " + took + "ms", took >= (Wait.responseWaitTime() - 5));
+        assertEquals(Rcode.NXDOMAIN, response.getRcode());
+    }
+    
+    
+    @Test
+    public void Test_Deadline_Completes_With_Cached_Answers()
+    throws Exception
+    {
+        Record cached = new ARecord(name, DClass.IN, 120, InetAddress.getByName("192.168.1.70"));
+        recordingQuerier.cache(cached);
+        
+        Message response = AsyncLookup.send(querier, Message.newQuery(Record.newRecord(name, Type.A, DClass.IN))).get(5, TimeUnit.SECONDS);
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertArrayEquals(new Record[] {cached}, response.getSectionArray(Section.ANSWER));
+    }
+}
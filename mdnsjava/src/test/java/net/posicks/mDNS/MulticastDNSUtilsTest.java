@@ -0,0 +1,101 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.MulticastDNSUtils;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.Constants;
+
+/**
+ * Test Cases for the MulticastDNSUtils
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MulticastDNSUtilsTest
+{
+    private Name host;
+    
+    private Message query;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        host = new Name("host.local.");
+        query = new Message();
+        query.addRecord(Record.newRecord(host, Type.A, DClass.IN), Section.QUESTION);
+        query.addRecord(Record.newRecord(host, Type.TXT, DClass.IN), Section.QUESTION);
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+    }
+    
+    
+    @Test
+    public void Test_Answers_Every_Question()
+    throws Exception
+    {
+        Message response = response(new ARecord(host, DClass.IN, 120, InetAddress.getByName("192.168.1.1")));
+        assertFalse(MulticastDNSUtils.answersEveryQuestion(query, response));
+        
+        response.addRecord(new TXTRecord(host, DClass.IN, 120, "txt"), Section.ADDITIONAL);
+        assertTrue(MulticastDNSUtils.answersEveryQuestion(query, response));
+        assertFalse("Shared records are not unique answers", MulticastDNSUtils.answersEveryQuestionUniquely(query, response));
+    }
+    
+    
+    @Test
+    public void Test_Answers_Every_Question_Uniquely_Across_Responses()
+    throws Exception
+    {
+        Message first = response(new ARecord(host, DClass.IN | Constants.CACHE_FLUSH, 120, InetAddress.getByName("192.168.1.1")));
+        Message second = response(new TXTRecord(host, DClass.IN | Constants.CACHE_FLUSH, 120, "txt"));
+        
+        assertFalse(MulticastDNSUtils.answersEveryQuestionUniquely(query, first));
+        assertTrue(MulticastDNSUtils.answersEveryQuestionUniquely(query, first, second));
+    }
+    
+    
+    @Test
+    public void Test_ANY_Question_Is_Never_Uniquely_Answered()
+    throws Exception
+    {
+        Message anyQuery = new Message();
+        anyQuery.addRecord(Record.newRecord(host, Type.ANY, DClass.IN), Section.QUESTION);
+        Message response = response(new ARecord(host, DClass.IN | Constants.CACHE_FLUSH, 120, InetAddress.getByName("192.168.1.1")));
+        
+        assertTrue(MulticastDNSUtils.answersEveryQuestion(anyQuery, response));
+        assertFalse(MulticastDNSUtils.answersEveryQuestionUniquely(anyQuery, response));
+    }
+    
+    
+    private static Message response(final Record answer)
+    {
+        Message response = new Message();
+        response.getHeader().setFlag(Flags.QR);
+        response.addRecord(answer, Section.ANSWER);
+        return response;
+    }
+}
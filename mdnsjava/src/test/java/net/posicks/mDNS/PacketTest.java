@@ -0,0 +1,101 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import net.posick.mDNS.net.Packet;
+
+/**
+ * Test Cases for the Packet
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PacketTest
+{
+    private static class TestPacket extends Packet
+    {
+        TestPacket(final DatagramPacket datagram)
+        {
+            super(datagram);
+        }
+        
+        
+        TestPacket(final InetAddress interfaceAddress, final DatagramPacket datagram)
+        {
+            super(interfaceAddress, datagram);
+        }
+        
+        
+        TestPacket(final InetAddress interfaceAddress, final InetAddress address, final int port, final byte[] data)
+        {
+            super(interfaceAddress, address, port, data, 0, data.length);
+        }
+    }
+    
+    private InetAddress ifaceAddress;
+    
+    private InetAddress sourceAddress;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        ifaceAddress = InetAddress.getByName("192.168.1.10");
+        sourceAddress = InetAddress.getByName("192.168.1.20");
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+    }
+    
+    
+    @Test
+    public void Test_Datagram_Carries_Interface_Address()
+    throws Exception
+    {
+        byte[] data = new byte[] {1, 2, 3};
+        DatagramPacket datagram = new DatagramPacket(data, data.length, new InetSocketAddress(sourceAddress, 5353));
+        Packet packet = new TestPacket(ifaceAddress, datagram);
+        
+        assertEquals(ifaceAddress, packet.getInterfaceAddress());
+        assertEquals(sourceAddress, packet.getAddress());
+        assertEquals(5353, packet.getPort());
+        assertSame(data, packet.getData());
+    }
+    
+    
+    @Test
+    public void Test_Address_Constructor_Carries_Interface_Address()
+    throws Exception
+    {
+        Packet packet = new TestPacket(ifaceAddress, sourceAddress, 5353, new byte[12]);
+        
+        assertEquals(ifaceAddress, packet.getInterfaceAddress());
+        assertEquals(new InetSocketAddress(sourceAddress, 5353), packet.getSocketAddress());
+    }
+    
+    
+    @Test
+    public void Test_Interface_Address_Unknown_By_Default()
+    throws Exception
+    {
+        byte[] data = new byte[12];
+        Packet packet = new TestPacket(new DatagramPacket(data, data.length, new InetSocketAddress(sourceAddress, 5353)));
+        
+        assertNull(packet.getInterfaceAddress());
+    }
+}
@@ -0,0 +1,231 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.PendingQueryTable;
+import net.posick.mDNS.PendingQueryTable.PendingQuery;
+
+/**
+ * Test Cases for the PendingQueryTable
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PendingQueryTableTest
+{
+    /**
+     * Records the responses and exceptions delivered to it.
+     */
+    private static class RecordingListener implements ResolverListener
+    {
+        private final List<Message> responses = new ArrayList<Message>();
+        
+        private final List<Exception> exceptions = new ArrayList<Exception>();
+        
+        
+        public synchronized void handleException(final Object id, final Exception e)
+        {
+            exceptions.add(e);
+        }
+        
+        
+        public synchronized void receiveMessage(final Object id, final Message m)
+        {
+            responses.add(m);
+        }
+    }
+    
+    
+    private static final Name HOST = Name.fromConstantString("host.local.");
+    
+    private static final Name OTHER_HOST = Name.fromConstantString("other.local.");
+    
+    private PendingQueryTable table;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        table = new PendingQueryTable();
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        table.close();
+    }
+    
+    
+    @Test
+    public void Test_Single_Query_Completed_By_First_Response()
+    throws Exception
+    {
+        RecordingListener listener = new RecordingListener();
+        PendingQuery pendingQuery = table.add("id", query(HOST, Type.A), listener, 10, TimeUnit.SECONDS);
+        assertEquals(1, table.size());
+        
+        assertTrue(table.dispatch(response(new ARecord(HOST, DClass.IN, 120, InetAddress.getByName("192.168.1.1")))));
+        assertTrue(pendingQuery.isDone());
+        assertEquals(0, table.size());
+        assertEquals(1, listener.responses.size());
+        
+        assertFalse("Completed query answered twice", table.dispatch(response(new ARecord(HOST, DClass.IN, 120, InetAddress.getByName("192.168.1.2")))));
+        assertEquals(1, listener.responses.size());
+    }
+    
+    
+    @Test
+    public void Test_Only_Matching_Responses_Delivered()
+    throws Exception
+    {
+        RecordingListener listener = new RecordingListener();
+        table.add("id", query(HOST, Type.A), listener, 10, TimeUnit.SECONDS);
+        
+        assertFalse("Delivered a record of another name", table.dispatch(response(new ARecord(OTHER_HOST, DClass.IN, 120, InetAddress.getByName("192.168.1.1")))));
+        assertFalse("Delivered a record of another type", table.dispatch(response(new TXTRecord(HOST, DClass.IN, 120, "txt"))));
+        
+        Message query = query(HOST, Type.A);
+        query.addRecord(new ARecord(HOST, DClass.IN, 120, InetAddress.getByName("192.168.1.1")), Section.ANSWER);
+        assertFalse("Delivered a query", table.dispatch(query));
+        
+        assertEquals(0, listener.responses.size());
+        assertEquals(1, table.size());
+        
+        // Names compare case insensitively, answers are matched in the additional section too
+        Message response = new Message();
+        response.getHeader().setFlag(Flags.QR);
+        response.addRecord(new ARecord(Name.fromString("HOST.Local."), DClass.IN, 120, InetAddress.getByName("192.168.1.1")), Section.ADDITIONAL);
+        assertTrue(table.dispatch(response));
+        assertEquals(1, listener.responses.size());
+    }
+    
+    
+    @Test
+    public void Test_ANY_Question_Matches_All_Types()
+    throws Exception
+    {
+        RecordingListener listener = new RecordingListener();
+        table.add("id", query(HOST, Type.ANY), listener, 10, TimeUnit.SECONDS);
+        
+        assertTrue(table.dispatch(response(new TXTRecord(HOST, DClass.IN, 120, "txt"))));
+        assertEquals(1, listener.responses.size());
+    }
+    
+    
+    @Test
+    public void Test_Continuous_Query_Receives_Responses_Until_Cancelled()
+    throws Exception
+    {
+        RecordingListener listener = new RecordingListener();
+        PendingQuery pendingQuery = table.add("id", query(HOST, Type.A), listener, 10, TimeUnit.SECONDS, false);
+        
+        assertTrue(table.dispatch(response(new ARecord(HOST, DClass.IN, 120, InetAddress.getByName("192.168.1.1")))));
+        assertTrue(table.dispatch(response(new ARecord(HOST, DClass.IN, 120, InetAddress.getByName("192.168.1.2")))));
+        assertEquals(2, listener.responses.size());
+        assertFalse(pendingQuery.isDone());
+        
+        assertTrue(pendingQuery.cancel());
+        assertFalse("Cancelled twice", pendingQuery.cancel());
+        assertEquals(0, table.size());
+        assertFalse(table.dispatch(response(new ARecord(HOST, DClass.IN, 120, InetAddress.getByName("192.168.1.3")))));
+        assertEquals(2, listener.responses.size());
+    }
+    
+    
+    @Test
+    public void Test_Query_Expires_Without_Notification()
+    throws Exception
+    {
+        RecordingListener listener = new RecordingListener();
+        PendingQuery pendingQuery = table.add("id", query(HOST, Type.A), listener, 100, TimeUnit.MILLISECONDS);
+        
+        long waitTill = System.currentTimeMillis() + 2000;
+        while (!pendingQuery.isDone() && (System.currentTimeMillis() < waitTill))
+        {
+            Thread.sleep(20);
+        }
+        
+        assertTrue("Query did not expire", pendingQuery.isDone());
+        assertEquals(0, table.size());
+        assertFalse(table.dispatch(response(new ARecord(HOST, DClass.IN, 120, InetAddress.getByName("192.168.1.1")))));
+        assertEquals(0, listener.responses.size());
+        assertEquals(0, listener.exceptions.size());
+    }
+    
+    
+    @Test
+    public void Test_Exception_Delivered_By_Id()
+    throws Exception
+    {
+        RecordingListener listener1 = new RecordingListener();
+        RecordingListener listener2 = new RecordingListener();
+        table.add("id1", query(HOST, Type.A), listener1, 10, TimeUnit.SECONDS);
+        table.add("id2", query(OTHER_HOST, Type.A), listener2, 10, TimeUnit.SECONDS);
+        
+        table.dispatchException("id1", new IOException("failed"));
+        assertEquals(1, listener1.exceptions.size());
+        assertEquals(0, listener2.exceptions.size());
+        assertEquals(1, table.size());
+    }
+    
+    
+    @Test
+    public void Test_Remove_By_Listener_And_Close()
+    throws Exception
+    {
+        RecordingListener listener1 = new RecordingListener();
+        RecordingListener listener2 = new RecordingListener();
+        table.add("id1", query(HOST, Type.A), listener1, 10, TimeUnit.SECONDS);
+        table.add("id2", query(HOST, Type.A), listener1, 10, TimeUnit.SECONDS);
+        table.add("id3", query(HOST, Type.A), listener2, 10, TimeUnit.SECONDS);
+        
+        assertTrue(table.remove(listener1));
+        assertFalse(table.remove(listener1));
+        assertEquals(1, table.size());
+        
+        table.close();
+        assertEquals(0, table.size());
+        assertFalse(table.dispatch(response(new ARecord(HOST, DClass.IN, 120, InetAddress.getByName("192.168.1.1")))));
+        assertEquals(0, listener2.responses.size());
+    }
+    
+    
+    private static Message query(final Name name, final int type)
+    {
+        return Message.newQuery(Record.newRecord(name, type, DClass.IN));
+    }
+    
+    
+    private static Message response(final Record record)
+    {
+        Message response = new Message();
+        response.getHeader().setFlag(Flags.QR);
+        response.addRecord(record, Section.ANSWER);
+        return response;
+    }
+}
@@ -0,0 +1,359 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Options;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SRVRecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.MulticastDNSService;
+import net.posick.mDNS.ServiceInstance;
+import net.posick.mDNS.ServiceName;
+import net.posick.mDNS.ServiceRegistrationException;
+import net.posick.mDNS.utils.ListenableFuture;
+
+/**
+ * Test Cases for the renaming and simultaneous probe tiebreaking of the Prober
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ProberTest
+{
+    /**
+     * Exposes the probing helpers of the MulticastDNSService, it is never instantiated.
+     */
+    private static class Probing extends MulticastDNSService
+    {
+        private Probing()
+        throws IOException
+        {
+            super();
+        }
+        
+        
+        private static ServiceName next(final ServiceName name)
+        throws TextParseException
+        {
+            return nextServiceName(name);
+        }
+        
+        
+        private static int tiebreak(final Record[] ours, final Record[] theirs)
+        {
+            Record[] sortedOurs = ours.clone();
+            Record[] sortedTheirs = theirs.clone();
+            Arrays.sort(sortedOurs, PROBE_RECORD_ORDER);
+            Arrays.sort(sortedTheirs, PROBE_RECORD_ORDER);
+            return compareProbeRecords(sortedOurs, sortedTheirs);
+        }
+    }
+    
+    /**
+     * A RecordingQuerier that records the time each broadcast was sent.
+     */
+    private static class TimedQuerier extends RecordingQuerier
+    {
+        private final List<Long> times = new ArrayList<Long>();
+        
+        
+        @Override
+        public void broadcast(final Message message, final boolean addKnownAnswers)
+        throws IOException
+        {
+            synchronized (this)
+            {
+                times.add(System.currentTimeMillis());
+            }
+            super.broadcast(message, addKnownAnswers);
+        }
+        
+        
+        synchronized long getTime(final int index)
+        {
+            return times.get(index);
+        }
+    }
+    
+    
+    private static final Name NAME = Name.fromConstantString("Printer._ipp._tcp.local.");
+    
+    private static final Name HOST = Name.fromConstantString("host.local.");
+    
+    private TimedQuerier querier;
+    
+    private TestService service;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        querier = new TimedQuerier();
+        service = TestService.newInstance(querier);
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        service.close();
+        querier.close();
+    }
+    
+    
+    @Test
+    public void Test_Probes_Batched_In_One_Packet()
+    throws Exception
+    {
+        ServiceInstance printer = printer("Printer");
+        ServiceInstance scanner = printer("Scanner");
+        List<ListenableFuture<ServiceInstance>> futures = service.probe(printer, scanner);
+        assertSame(printer, futures.get(0).get(5, TimeUnit.SECONDS));
+        assertSame(scanner, futures.get(1).get(5, TimeUnit.SECONDS));
+        
+        List<Message> probes = querier.getBroadcasts();
+        assertEquals(3, probes.size());
+        for (Message probe : probes)
+        {
+            Record[] questions = probe.getSectionArray(Section.QUESTION);
+            assertEquals(2, questions.length);
+            assertEquals(NAME, questions[0].getName());
+            assertEquals(Type.ANY, questions[0].getType());
+            assertEquals(new Name("Scanner._ipp._tcp.local."), questions[1].getName());
+            
+            // The proposed SRV and TXT records of both services
+            assertEquals(4, probe.getSectionArray(Section.AUTHORITY).length);
+            assertFalse(probe.getHeader().getFlag(Flags.QR));
+        }
+    }
+    
+    
+    @Test
+    public void Test_Three_Probes_250ms_Apart_Then_Completion()
+    throws Exception
+    {
+        ListenableFuture<ServiceInstance> future = service.probe(printer("Printer")).get(0);
+        ServiceInstance probed = future.get(5, TimeUnit.SECONDS);
+        long completed = System.currentTimeMillis();
+        
+        assertEquals(new ServiceName("Printer._ipp._tcp.local."), probed.getName());
+        assertEquals(3, querier.getBroadcasts().size());
+        for (int index = 1; index < 3; index++ )
+        {
+            long interval = querier.getTime(index) - querier.getTime(index - 1);
+            assertTrue("Probes sent " + interval + "ms apart", interval >= (MulticastDNSService.PROBE_INTERVAL - 50));
+        }
+        
+        // Unanswered for 250 milliseconds after the third probe
+        long unanswered = completed - querier.getTime(2);
+        assertTrue("Completed " + unanswered + "ms after the third probe", unanswered >= (MulticastDNSService.PROBE_INTERVAL - 50));
+        assertEquals(0, querier.getListenerCount());
+    }
+    
+    
+    @Test
+    public void Test_Conflicting_SRV_Response_Renames_Service()
+    throws Exception
+    {
+        ListenableFuture<ServiceInstance> future = service.probe(printer("Printer")).get(0);
+        querier.awaitBroadcasts(1);
+        
+        // Our own SRV record is not a conflict, the TTL is ignored
+        querier.respond(response(new SRVRecord(NAME, DClass.IN | 0x8000, 4500, 0, 0, 631, HOST)));
+        querier.respond(response(srv(DClass.IN, 632)));
+        
+        ServiceInstance probed = future.get(5, TimeUnit.SECONDS);
+        assertEquals(new ServiceName("Printer (2)._ipp._tcp.local."), probed.getName());
+        assertEquals(631, probed.getPort());
+        
+        // The renamed service is probed three times
+        List<Message> probes = querier.getBroadcasts();
+        int renamed = 0;
+        for (Message probe : probes)
+        {
+            if (new Name("Printer (2)._ipp._tcp.local.").equals(probe.getQuestion().getName()))
+            {
+                renamed++ ;
+            }
+        }
+        assertEquals(3, renamed);
+        assertEquals(NAME, probes.get(0).getQuestion().getName());
+    }
+    
+    
+    @Test
+    public void Test_Lost_Tiebreak_Defers_Probing_One_Second()
+    throws Exception
+    {
+        ListenableFuture<ServiceInstance> future = service.probe(printer("Printer")).get(0);
+        int sent = querier.awaitBroadcasts(1).size();
+        
+        // A simultaneous probe with a lexicographically later SRV record
+        Message theirs = new Message();
+        theirs.addRecord(Record.newRecord(NAME, Type.ANY, DClass.IN), Section.QUESTION);
+        theirs.addRecord(new TXTRecord(NAME, DClass.IN, 4500, "rp=printer"), Section.AUTHORITY);
+        theirs.addRecord(srv(DClass.IN, 632), Section.AUTHORITY);
+        long deferred = System.currentTimeMillis();
+        querier.respond(theirs);
+        
+        ServiceInstance probed = future.get(5, TimeUnit.SECONDS);
+        assertEquals(new ServiceName("Printer._ipp._tcp.local."), probed.getName());
+        
+        // Probing starts again, three probes, one second later
+        assertEquals(sent + 3, querier.getBroadcasts().size());
+        long delay = querier.getTime(sent) - deferred;
+        assertTrue("Probed again after " + delay + "ms", delay >= 1000);
+    }
+    
+    
+    @Test
+    public void Test_No_Auto_Rename_Fails_On_Conflict()
+    throws Exception
+    {
+        ListenableFuture<ServiceInstance> future = service.probe(printer("Printer")).get(0);
+        querier.awaitBroadcasts(1);
+        
+        Options.set("mdns_no_auto_rename");
+        try
+        {
+            querier.respond(response(srv(DClass.IN, 632)));
+        } finally
+        {
+            Options.unset("mdns_no_auto_rename");
+        }
+        
+        try
+        {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Probing a name in use must fail when auto renaming is disabled");
+        } catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof ServiceRegistrationException);
+        }
+    }
+    
+    
+    @Test
+    public void Test_Next_Service_Name()
+    throws Exception
+    {
+        assertEquals(new ServiceName("Printer (2)._ipp._tcp.local."), Probing.next(new ServiceName("Printer._ipp._tcp.local.")));
+        assertEquals(new ServiceName("Printer (3)._ipp._tcp.local."), Probing.next(new ServiceName("Printer (2)._ipp._tcp.local.")));
+        assertEquals(new ServiceName("Printer (10)._ipp._tcp.local."), Probing.next(new ServiceName("Printer (9)._ipp._tcp.local.")));
+        assertEquals("Printer (2)", Probing.next(new ServiceName("Printer._ipp._tcp.local.")).getInstance());
+    }
+    
+    
+    @Test
+    public void Test_Next_Service_Name_Without_Rename_Suffix()
+    throws Exception
+    {
+        // Parentheses that are not a rename suffix are kept
+        ServiceName next = Probing.next(new ServiceName("Printer (Lobby)._ipp._tcp.local."));
+        assertEquals("Printer (Lobby) (2)", next.getInstance());
+        
+        // Dots in the instance name stay within the instance label
+        next = Probing.next(new ServiceName("Printer\\.Lobby._ipp._tcp.local."));
+        assertEquals("Printer.Lobby (2)", next.getInstance());
+        assertEquals(new Name("_ipp._tcp.local."), next.getServiceTypeName());
+    }
+    
+    
+    @Test
+    public void Test_Tiebreak_Identical_Records()
+    throws Exception
+    {
+        Record[] ours = new Record[] {srv(DClass.IN, 631), new TXTRecord(NAME, DClass.IN, 4500, "rp=printer")};
+        Record[] theirs = new Record[] {new TXTRecord(NAME, DClass.IN, 4500, "rp=printer"), srv(DClass.IN, 631)};
+        assertEquals(0, Probing.tiebreak(ours, theirs));
+        
+        // The cache flush bit and TTL are ignored
+        theirs = new Record[] {new TXTRecord(NAME, DClass.IN | 0x8000, 120, "rp=printer"), srv(DClass.IN | 0x8000, 631)};
+        assertEquals(0, Probing.tiebreak(ours, theirs));
+    }
+    
+    
+    @Test
+    public void Test_Tiebreak_Lexicographically_Later_Records_Win()
+    throws Exception
+    {
+        assertTrue(Probing.tiebreak(new Record[] {srv(DClass.IN, 631)}, new Record[] {srv(DClass.IN, 632)}) < 0);
+        assertTrue(Probing.tiebreak(new Record[] {srv(DClass.IN, 632)}, new Record[] {srv(DClass.IN, 631)}) > 0);
+        
+        // Classes are compared first, then types
+        assertTrue(Probing.tiebreak(new Record[] {srv(DClass.CH, 1)}, new Record[] {srv(DClass.IN, 2)}) > 0);
+        assertTrue(Probing.tiebreak(new Record[] {new ARecord(NAME, DClass.IN, 120, InetAddress.getByName("192.168.1.1"))}, new Record[] {srv(DClass.IN, 1)}) < 0);
+        
+        // Rdata is compared as unsigned bytes [RFC 6762 Section 8.2]
+        Record[] ours = new Record[] {new ARecord(HOST, DClass.IN, 120, InetAddress.getByName("169.254.200.50"))};
+        Record[] theirs = new Record[] {new ARecord(HOST, DClass.IN, 120, InetAddress.getByName("169.254.99.200"))};
+        assertTrue(Probing.tiebreak(ours, theirs) > 0);
+        assertTrue(Probing.tiebreak(theirs, ours) < 0);
+    }
+    
+    
+    @Test
+    public void Test_Tiebreak_Longer_Record_Set_Wins()
+    throws Exception
+    {
+        Record[] ours = new Record[] {srv(DClass.IN, 631), new TXTRecord(NAME, DClass.IN, 4500, "rp=printer")};
+        Record[] theirs = new Record[] {new TXTRecord(NAME, DClass.IN, 4500, "rp=printer")};
+        assertTrue(Probing.tiebreak(ours, theirs) > 0);
+        assertTrue(Probing.tiebreak(theirs, ours) < 0);
+        
+        // The first differing record decides, not the number of records
+        theirs = new Record[] {srv(DClass.IN, 631)};
+        assertTrue("The TXT record sorts before the SRV record", Probing.tiebreak(ours, theirs) < 0);
+        assertTrue(Probing.tiebreak(theirs, ours) > 0);
+    }
+    
+    
+    private static ServiceInstance printer(final String instance)
+    throws IOException
+    {
+        return new ServiceInstance(new ServiceName(instance + "._ipp._tcp.local."), 0, 0, 631, HOST, "rp=printer");
+    }
+    
+    
+    private static Message response(final Record... answers)
+    {
+        Message response = new Message();
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.AA);
+        for (Record answer : answers)
+        {
+            response.addRecord(answer, Section.ANSWER);
+        }
+        return response;
+    }
+    
+    
+    private static Record srv(final int dclass, final int port)
+    {
+        return new SRVRecord(NAME, dclass, 120, 0, 0, port, HOST);
+    }
+}
@@ -0,0 +1,191 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.PTRRecord;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.QuestionMatcher;
+
+/**
+ * Test Cases for the QuestionMatcher
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QuestionMatcherTest
+{
+    private static final Name SERVICE_TYPE = Name.fromConstantString("_http._tcp.local.");
+    
+    private static final Name INSTANCE = Name.fromConstantString("Test Service._http._tcp.local.");
+    
+    private static final Name HOST = Name.fromConstantString("host.local.");
+    
+    private InetAddress address;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        address = InetAddress.getByName("192.168.1.1");
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+    }
+    
+    
+    @Test
+    public void Test_Name_And_Type_Matching()
+    {
+        QuestionMatcher matcher = new QuestionMatcher(query(SERVICE_TYPE, Type.PTR));
+        
+        assertTrue(matcher.answers(new PTRRecord(SERVICE_TYPE, DClass.IN, 4500, INSTANCE)));
+        assertTrue("Names compare case insensitively", matcher.answers(new PTRRecord(Name.fromConstantString("_HTTP._tcp.local."), DClass.IN, 4500, INSTANCE)));
+        assertFalse("Matched a record of another type", matcher.answers(new TXTRecord(SERVICE_TYPE, DClass.IN, 4500, "txt")));
+        assertFalse("Matched a record of another name", matcher.answers(new PTRRecord(Name.fromConstantString("_ipp._tcp.local."), DClass.IN, 4500, INSTANCE)));
+        assertFalse("Matched a record of another class", matcher.answers(new PTRRecord(SERVICE_TYPE, DClass.CH, 4500, INSTANCE)));
+        assertFalse(matcher.answers((Record) null));
+    }
+    
+    
+    @Test
+    public void Test_Subdomain_And_Parent_Domain_Matching()
+    throws Exception
+    {
+        QuestionMatcher matcher = new QuestionMatcher(query(SERVICE_TYPE, Type.PTR));
+        
+        assertTrue("Subdomain not matched", matcher.answers(new PTRRecord(new Name("_printer._sub", SERVICE_TYPE), DClass.IN, 4500, INSTANCE)));
+        assertTrue("Parent domain not matched", matcher.answers(new PTRRecord(Name.fromConstantString("_tcp.local."), DClass.IN, 4500, INSTANCE)));
+        assertFalse("Sibling domain matched", matcher.answers(new PTRRecord(Name.fromConstantString("_http._udp.local."), DClass.IN, 4500, INSTANCE)));
+    }
+    
+    
+    @Test
+    public void Test_ANY_Type_And_Class()
+    {
+        QuestionMatcher matcher = new QuestionMatcher(query(INSTANCE, Type.ANY));
+        assertTrue(matcher.answers(new TXTRecord(INSTANCE, DClass.IN, 4500, "txt")));
+        
+        matcher = new QuestionMatcher(Message.newQuery(Record.newRecord(HOST, Type.A, DClass.ANY)));
+        assertTrue(matcher.answers(new ARecord(HOST, DClass.CH, 120, address)));
+        
+        // The cache flush bit of the record class is ignored
+        matcher = new QuestionMatcher(query(HOST, Type.A));
+        assertTrue(matcher.answers(new ARecord(HOST, DClass.IN | 0x8000, 120, address)));
+    }
+    
+    
+    @Test
+    public void Test_Multiple_Queries()
+    {
+        QuestionMatcher matcher = new QuestionMatcher(query(SERVICE_TYPE, Type.PTR), query(HOST, Type.A));
+        
+        assertTrue(matcher.answers(new PTRRecord(SERVICE_TYPE, DClass.IN, 4500, INSTANCE)));
+        assertTrue(matcher.answers(new ARecord(HOST, DClass.IN, 120, address)));
+        assertFalse(matcher.answers(new TXTRecord(HOST, DClass.IN, 120, "txt")));
+        
+        matcher = new QuestionMatcher();
+        assertFalse(matcher.answers(new ARecord(HOST, DClass.IN, 120, address)));
+    }
+    
+    
+    @Test
+    public void Test_Message_Sections()
+    {
+        QuestionMatcher matcher = new QuestionMatcher(query(HOST, Type.A));
+        
+        Message response = new Message();
+        response.getHeader().setFlag(Flags.QR);
+        response.addRecord(new PTRRecord(SERVICE_TYPE, DClass.IN, 4500, INSTANCE), Section.ANSWER);
+        assertFalse(matcher.answers(response));
+        
+        response.addRecord(new ARecord(HOST, DClass.IN, 120, address), Section.ADDITIONAL);
+        assertTrue("Additional section not matched", matcher.answers(response));
+        assertFalse(matcher.answers((Message) null));
+    }
+    
+    
+    @Test
+    public void Test_Cached_Results_Are_Consistent()
+    {
+        QuestionMatcher matcher = new QuestionMatcher(1, query(SERVICE_TYPE, Type.PTR));
+        Record match = new PTRRecord(SERVICE_TYPE, DClass.IN, 4500, INSTANCE);
+        Record miss = new ARecord(HOST, DClass.IN, 120, address);
+        
+        // A cache of one entry is evicted on every alternate lookup
+        for (int index = 0; index < 10; index++ )
+        {
+            assertTrue(matcher.answers(match));
+            assertFalse(matcher.answers(miss));
+        }
+    }
+    
+    
+    @Test
+    public void Test_Concurrent_Lookups_Are_Consistent()
+    throws Exception
+    {
+        final QuestionMatcher matcher = new QuestionMatcher(8, query(SERVICE_TYPE, Type.ANY));
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int index = 0; index < threads.length; index++ )
+        {
+            threads[index] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int count = 0; count < 2000; count++ )
+                        {
+                            Name instance = new Name("Service " + (count % 32), SERVICE_TYPE);
+                            Name host = new Name("host-" + (count % 32) + ".local.");
+                            if (!matcher.answers(new TXTRecord(instance, DClass.IN, 4500, "path=/")) || matcher.answers(new ARecord(host, DClass.IN, 120, address)))
+                            {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e)
+                    {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            threads[index].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        
+        assertEquals(0, errors.get());
+    }
+    
+    
+    private static Message query(final Name name, final int type)
+    {
+        return Message.newQuery(Record.newRecord(name, type, DClass.IN));
+    }
+}
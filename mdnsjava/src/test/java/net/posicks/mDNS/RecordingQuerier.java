@@ -0,0 +1,301 @@
+package net.posicks.mDNS;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.MulticastDNSUtils;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Opcode;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TSIG;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.AsyncQuerier;
+import net.posick.mDNS.CachingQuerier;
+import net.posick.mDNS.Constants;
+import net.posick.mDNS.utils.ListenableFuture;
+import net.posick.mDNS.utils.ListenerProcessor;
+
+/**
+ * A Querier that records the messages sent to it instead of sending them to the network, so that
+ * the lookups can be tested without opening sockets. Responses are delivered to the registered
+ * listeners using respond, and the records added using cache are answered by queryCache. The
+ * records added using authoritative are answered by queryAuthoritative, and by queryCache.
+ * 
+ * @author Steve Posick
+ */
+public class RecordingQuerier implements AsyncQuerier, CachingQuerier
+{
+    protected final List<Message> broadcasts = new ArrayList<Message>();
+    
+    protected final List<Message> asyncQueries = new ArrayList<Message>();
+    
+    protected final List<ListenableFuture<Message>> asyncResponses = new ArrayList<ListenableFuture<Message>>();
+    
+    protected final List<Record> cache = new ArrayList<Record>();
+    
+    protected final List<Record> authoritative = new ArrayList<Record>();
+    
+    protected final ListenerProcessor<ResolverListener> listeners = new ListenerProcessor<ResolverListener>(ResolverListener.class);
+    
+    
+    /**
+     * Waits up to 5 seconds for the specified number of broadcasts, returning the broadcasts sent.
+     */
+    public synchronized List<Message> awaitBroadcasts(final int count)
+    throws InterruptedException
+    {
+        long waitTill = System.currentTimeMillis() + 5000;
+        long now;
+        while ((broadcasts.size() < count) && ((now = System.currentTimeMillis()) < waitTill))
+        {
+            wait(waitTill - now);
+        }
+        return getBroadcasts();
+    }
+    
+    
+    public void broadcast(final Message message, final boolean addKnownAnswers)
+    throws IOException
+    {
+        synchronized (this)
+        {
+            broadcasts.add(message);
+            notifyAll();
+        }
+    }
+    
+    
+    /**
+     * Adds the records to the records answered by queryCache.
+     */
+    public synchronized void cache(final Record... records)
+    {
+        for (Record record : records)
+        {
+            cache.add(record);
+        }
+    }
+    
+    
+    /**
+     * Adds the records to the records this querier is authoritative for.
+     */
+    public synchronized void authoritative(final Record... records)
+    {
+        for (Record record : records)
+        {
+            authoritative.add(record);
+            cache.add(record);
+        }
+    }
+    
+    
+    public synchronized void clearCache()
+    {
+        cache.clear();
+    }
+    
+    
+    public void close()
+    throws IOException
+    {
+        listeners.close();
+    }
+    
+    
+    public synchronized List<Message> getAsyncQueries()
+    {
+        return new ArrayList<Message>(asyncQueries);
+    }
+    
+    
+    public synchronized List<Message> getBroadcasts()
+    {
+        return new ArrayList<Message>(broadcasts);
+    }
+    
+    
+    public int getListenerCount()
+    {
+        return listeners.getListeners().length;
+    }
+    
+    
+    public Name[] getMulticastDomains()
+    {
+        return Constants.ALL_MULTICAST_DNS_DOMAINS;
+    }
+    
+    
+    public boolean isIPv4()
+    {
+        return true;
+    }
+    
+    
+    public boolean isIPv6()
+    {
+        return true;
+    }
+    
+    
+    public boolean isOperational()
+    {
+        return true;
+    }
+    
+    
+    public synchronized Message queryCache(final Message query)
+    {
+        return answer(query, cache);
+    }
+    
+    
+    public synchronized Message queryAuthoritative(final Message query)
+    {
+        return answer(query, authoritative);
+    }
+    
+    
+    private static Message answer(final Message query, final List<Record> records)
+    {
+        Message response = new Message(query.getHeader().getID());
+        for (Record question : MulticastDNSUtils.extractRecords(query, Section.QUESTION))
+        {
+            response.addRecord(question, Section.QUESTION);
+            for (Record record : records)
+            {
+                if (record.getName().equals(question.getName()) && ((question.getType() == Type.ANY) || (question.getType() == record.getType())))
+                {
+                    response.addRecord(record, Section.ANSWER);
+                }
+            }
+        }
+        
+        if (response.getHeader().getCount(Section.ANSWER) > 0)
+        {
+            response.getHeader().setFlag(Flags.QR);
+        } else
+        {
+            response.getHeader().setRcode(Rcode.NXDOMAIN);
+        }
+        return response;
+    }
+    
+    
+    public ResolverListener registerListener(final ResolverListener listener)
+    {
+        return listeners.registerListener(listener);
+    }
+    
+    
+    /**
+     * Delivers the message to the registered listeners, as if it was received from the network.
+     */
+    public void respond(final Message message)
+    {
+        listeners.getDispatcher().receiveMessage(message.getHeader().getID(), message);
+    }
+    
+    
+    public Message send(final Message query)
+    throws IOException
+    {
+        throw new IOException("Not supported by the " + getClass().getSimpleName());
+    }
+    
+    
+    public synchronized ListenableFuture<Message> sendAsync(final Message query)
+    {
+        ListenableFuture<Message> future = new ListenableFuture<Message>();
+        asyncQueries.add(query);
+        asyncResponses.add(future);
+        return future;
+    }
+    
+    
+    /**
+     * Records updates, the announcements and goodbyes of registrations, as broadcasts. Queries are
+     * not supported.
+     */
+    public Object sendAsync(final Message query, final ResolverListener listener)
+    {
+        if (query.getHeader().getOpcode() != Opcode.UPDATE)
+        {
+            throw new UnsupportedOperationException("Not supported by the " + getClass().getSimpleName());
+        }
+        
+        try
+        {
+            broadcast(query, false);
+        } catch (IOException e)
+        {
+            listener.handleException(query.getHeader().getID(), e);
+        }
+        return query.getHeader().getID();
+    }
+    
+    
+    public void setEDNS(final int level)
+    {
+    }
+    
+    
+    @SuppressWarnings("rawtypes")
+    public void setEDNS(final int level, final int payloadSize, final int flags, final List options)
+    {
+    }
+    
+    
+    public void setIgnoreTruncation(final boolean flag)
+    {
+    }
+    
+    
+    public void setPort(final int port)
+    {
+    }
+    
+    
+    public void setRetryWaitTime(final int secs)
+    {
+    }
+    
+    
+    public void setRetryWaitTime(final int secs, final int msecs)
+    {
+    }
+    
+    
+    public void setTCP(final boolean flag)
+    {
+    }
+    
+    
+    public void setTimeout(final int secs)
+    {
+    }
+    
+    
+    public void setTimeout(final int secs, final int msecs)
+    {
+    }
+    
+    
+    public void setTSIGKey(final TSIG key)
+    {
+    }
+    
+    
+    public ResolverListener unregisterListener(final ResolverListener listener)
+    {
+        return listeners.unregisterListener(listener);
+    }
+}
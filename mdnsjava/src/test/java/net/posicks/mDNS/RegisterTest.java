@@ -0,0 +1,186 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.MulticastDNSUtils;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.PTRRecord;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.Update;
+
+import net.posick.mDNS.MulticastDNSService;
+import net.posick.mDNS.ServiceInstance;
+import net.posick.mDNS.ServiceName;
+
+/**
+ * Test Cases for the batched announcements of the MulticastDNSService Register operation
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RegisterTest
+{
+    private RecordingQuerier querier;
+    
+    private TestService service;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        querier = new RecordingQuerier();
+        service = TestService.newInstance(querier);
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        service.close();
+        querier.close();
+    }
+    
+    
+    @Test
+    public void Test_Batch_Is_Packed_Into_Few_Packets()
+    throws Exception
+    {
+        ServiceInstance[] services = new ServiceInstance[100];
+        for (int index = 0; index < services.length; index++ )
+        {
+            services[index] = newService("Service " + index + "._http._tcp.local.", "host.local.", "192.168.1.10");
+        }
+        
+        Update[] updates = service.getAnnouncements(services);
+        assertTrue("Sent " + updates.length + " packets", updates.length <= 12);
+        
+        int servicesPointers = 0;
+        Set<Name> announced = new HashSet<Name>();
+        for (Update update : updates)
+        {
+            assertTrue(update.toWire().length <= 1400);
+            
+            Set<Name> srvNames = new HashSet<Name>();
+            Set<Name> ptrTargets = new HashSet<Name>();
+            for (Record record : MulticastDNSUtils.extractRecords(update, Section.UPDATE))
+            {
+                if (record.getType() == Type.SRV)
+                {
+                    srvNames.add(record.getName());
+                } else if (record.getType() == Type.PTR)
+                {
+                    if (record.getName().toString().startsWith("_services._dns-sd._udp."))
+                    {
+                        servicesPointers++ ;
+                    } else
+                    {
+                        ptrTargets.add(((PTRRecord) record).getTarget());
+                    }
+                }
+            }
+            
+            // A service's records are never split across packets
+            assertEquals(ptrTargets, srvNames);
+            announced.addAll(srvNames);
+            
+            if (!srvNames.isEmpty())
+            {
+                assertEquals(1, count(update, Section.ADDITIONAL, Type.A));
+                assertEquals(srvNames.size() + 1, count(update, Section.ADDITIONAL, Type.NSEC));
+            }
+        }
+        
+        assertEquals(100, announced.size());
+        assertEquals(1, servicesPointers);
+    }
+    
+    
+    @Test
+    public void Test_Binary_Text_Value_Announced_As_Bytes()
+    throws Exception
+    {
+        Map<String, Object> text = new LinkedHashMap<String, Object>();
+        text.put("id", new byte[] {'a', 0, (byte) 0x80});
+        ServiceInstance instance = new ServiceInstance(new ServiceName("Binary._http._tcp.local."), 0, 0, 80, new Name("host.local."), new InetAddress[] {InetAddress.getByName("192.168.1.10")}, text);
+        
+        Update[] updates = service.getAnnouncements(instance);
+        for (Record record : MulticastDNSUtils.extractRecords(updates[0], Section.UPDATE))
+        {
+            if (record.getType() == Type.TXT)
+            {
+                assertArrayEquals(new byte[] {'i', 'd', '=', 'a', 0, (byte) 0x80}, (byte[]) ((TXTRecord) record).getStringsAsByteArrays().get(0));
+                return;
+            }
+        }
+        fail("TXT record not announced");
+    }
+    
+    
+    @Test
+    public void Test_Host_Records_Only_Sent_With_Their_Services()
+    throws Exception
+    {
+        Update[] updates = service.getAnnouncements(newService("One._http._tcp.local.", "one.local.", "192.168.1.10"), newService("Two._ipp._tcp.local.", "two.local.", "192.168.1.20"));
+        assertEquals(1, updates.length);
+        
+        List<Name> hosts = new ArrayList<Name>();
+        for (Record record : MulticastDNSUtils.extractRecords(updates[0], Section.ADDITIONAL))
+        {
+            if (record.getType() == Type.A)
+            {
+                hosts.add(record.getName());
+            }
+        }
+        assertEquals("[one.local., two.local.]", hosts.toString());
+        
+        List<Name> types = new ArrayList<Name>();
+        for (Record record : MulticastDNSUtils.extractRecords(updates[0], Section.UPDATE))
+        {
+            if ((record.getType() == Type.PTR) && record.getName().toString().startsWith("_services._dns-sd._udp."))
+            {
+                types.add(((PTRRecord) record).getTarget());
+            }
+        }
+        assertEquals("[_http._tcp.local., _ipp._tcp.local.]", types.toString());
+    }
+    
+    
+    private static ServiceInstance newService(final String name, final String host, final String address)
+    throws Exception
+    {
+        return new ServiceInstance(new ServiceName(name), 0, 0, 80, new Name(host), new InetAddress[] {InetAddress.getByName(address)}, new String[] {"path=/"});
+    }
+    
+    
+    private static int count(final Message message, final int section, final int type)
+    {
+        int count = 0;
+        for (Record record : MulticastDNSUtils.extractRecords(message, section))
+        {
+            if (record.getType() == type)
+            {
+                count++ ;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,168 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.EnumSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.Name;
+
+import net.posick.mDNS.ServiceDiff;
+import net.posick.mDNS.ServiceDiff.Field;
+import net.posick.mDNS.ServiceInstance;
+import net.posick.mDNS.ServiceName;
+
+/**
+ * Test Cases for the ServiceDiff
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ServiceDiffTest
+{
+    private ServiceName name;
+    
+    private Name host;
+    
+    private InetAddress address1;
+    
+    private InetAddress address2;
+    
+    private InetAddress address3;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        name = new ServiceName("Test Service._http._tcp.local.");
+        host = new Name("host.local.");
+        address1 = InetAddress.getByName("192.168.1.1");
+        address2 = InetAddress.getByName("192.168.1.2");
+        address3 = InetAddress.getByName("fe80::1");
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+    }
+    
+    
+    @Test
+    public void Test_Identical_Services_Have_No_Differences()
+    {
+        ServiceInstance previous = new ServiceInstance(name, 0, 0, 80, host, new InetAddress[] {address1, address2}, "path=/", "v=1");
+        ServiceInstance current = new ServiceInstance(name, 0, 0, 80, host, new InetAddress[] {address2, address1}, "v=1", "path=/");
+        
+        ServiceDiff diff = new ServiceDiff(previous, current);
+        assertTrue(diff.toString(), diff.isEmpty());
+        assertTrue(diff.getChangedFields().isEmpty());
+        assertTrue(diff.getAddedAddresses().isEmpty());
+        assertTrue(diff.getRemovedAddresses().isEmpty());
+        assertTrue(diff.getChangedTextAttributes().isEmpty());
+        assertSame(previous, diff.getPrevious());
+        assertSame(current, diff.getCurrent());
+    }
+    
+    
+    @Test
+    public void Test_SRV_Field_Changes()
+    throws Exception
+    {
+        ServiceInstance previous = new ServiceInstance(name, 0, 0, 80, host, new InetAddress[] {address1}, new String[0]);
+        ServiceInstance current = new ServiceInstance(name, 1, 2, 8080, new Name("other.local."), new InetAddress[] {address1}, new String[0]);
+        
+        ServiceDiff diff = new ServiceDiff(previous, current);
+        assertFalse(diff.isEmpty());
+        assertEquals(EnumSet.of(Field.HOST, Field.PORT, Field.PRIORITY, Field.WEIGHT), diff.getChangedFields());
+        assertTrue(diff.isChanged(Field.PORT));
+        assertFalse(diff.isChanged(Field.ADDRESSES));
+        assertFalse(diff.isChanged(Field.TEXT));
+        
+        // Host names compare case insensitively
+        current = new ServiceInstance(name, 0, 0, 80, new Name("HOST.local."), new InetAddress[] {address1}, new String[0]);
+        assertTrue(new ServiceDiff(previous, current).isEmpty());
+    }
+    
+    
+    @Test
+    public void Test_Address_Changes()
+    {
+        ServiceInstance previous = new ServiceInstance(name, 0, 0, 80, host, new InetAddress[] {address1, address2}, new String[0]);
+        ServiceInstance current = new ServiceInstance(name, 0, 0, 80, host, new InetAddress[] {address2, address3}, new String[0]);
+        
+        ServiceDiff diff = new ServiceDiff(previous, current);
+        assertEquals(EnumSet.of(Field.ADDRESSES), diff.getChangedFields());
+        assertEquals(1, diff.getAddedAddresses().size());
+        assertTrue(diff.getAddedAddresses().contains(address3));
+        assertEquals(1, diff.getRemovedAddresses().size());
+        assertTrue(diff.getRemovedAddresses().contains(address1));
+        
+        // A service resolved without addresses
+        diff = new ServiceDiff(new ServiceInstance(name, 0, 0, 80, host, (InetAddress[]) null, new String[0]), current);
+        assertEquals(2, diff.getAddedAddresses().size());
+        assertTrue(diff.getRemovedAddresses().isEmpty());
+    }
+    
+    
+    @Test
+    public void Test_Text_Attribute_Changes()
+    {
+        ServiceInstance previous = new ServiceInstance(name, 0, 0, 80, host, new InetAddress[] {address1}, "path=/", "v=1", "removed=yes");
+        ServiceInstance current = new ServiceInstance(name, 0, 0, 80, host, new InetAddress[] {address1}, "path=/", "v=2", "added=yes");
+        
+        ServiceDiff diff = new ServiceDiff(previous, current);
+        assertEquals(EnumSet.of(Field.TEXT), diff.getChangedFields());
+        assertEquals(3, diff.getChangedTextAttributes().size());
+        assertEquals("2", diff.getChangedTextAttributes().get("v"));
+        assertEquals("yes", diff.getChangedTextAttributes().get("added"));
+        assertTrue(diff.getChangedTextAttributes().containsKey("removed"));
+        assertNull(diff.getChangedTextAttributes().get("removed"));
+        assertFalse(diff.getChangedTextAttributes().containsKey("path"));
+    }
+    
+    
+    @Test
+    public void Test_Results_Are_Unmodifiable()
+    {
+        ServiceInstance previous = new ServiceInstance(name, 0, 0, 80, host, new InetAddress[] {address1}, "v=1");
+        ServiceInstance current = new ServiceInstance(name, 0, 0, 81, host, new InetAddress[] {address2}, "v=2");
+        
+        ServiceDiff diff = new ServiceDiff(previous, current);
+        try
+        {
+            diff.getChangedFields().clear();
+            fail("Changed fields are modifiable");
+        } catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+        
+        try
+        {
+            diff.getAddedAddresses().clear();
+            fail("Added addresses are modifiable");
+        } catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+        
+        try
+        {
+            diff.getChangedTextAttributes().clear();
+            fail("Changed text attributes are modifiable");
+        } catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+        
+        assertEquals(EnumSet.of(Field.PORT, Field.ADDRESSES, Field.TEXT), diff.getChangedFields());
+    }
+}
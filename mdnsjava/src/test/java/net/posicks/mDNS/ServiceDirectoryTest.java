@@ -0,0 +1,197 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.Name;
+
+import net.posick.mDNS.ServiceDirectory;
+import net.posick.mDNS.ServiceDirectory.Query;
+import net.posick.mDNS.ServiceInstance;
+import net.posick.mDNS.ServiceName;
+
+/**
+ * Test Cases for the ServiceDirectory
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ServiceDirectoryTest
+{
+    /**
+     * Exposes the updates made by the Service Discovery Operations.
+     */
+    private static class TestDirectory extends ServiceDirectory
+    {
+        protected void found(final Object owner, final ServiceInstance service)
+        {
+            put(owner, service);
+        }
+        
+        
+        protected void lost(final Object owner, final Name name)
+        {
+            remove(owner, name);
+        }
+        
+        
+        protected void stopped(final Object owner)
+        {
+            removeAll(owner);
+        }
+    }
+    
+    
+    private static final Object BROWSE_1 = "Browse 1";
+    
+    private static final Object BROWSE_2 = "Browse 2";
+    
+    private TestDirectory directory;
+    
+    private Name host1;
+    
+    private Name host2;
+    
+    private InetAddress[] addresses;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        directory = new TestDirectory();
+        host1 = new Name("host1.local.");
+        host2 = new Name("host2.local.");
+        addresses = new InetAddress[] {InetAddress.getByName("192.168.1.1")};
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+    }
+    
+    
+    @Test
+    public void Test_Find_By_Type_And_Host()
+    throws Exception
+    {
+        ServiceInstance printer = service("Printer._ipp._tcp.local.", host1, "color=T");
+        ServiceInstance web1 = service("Web 1._http._tcp.local.", host1, "path=/");
+        ServiceInstance web2 = service("Web 2._http._tcp.local.", host2, "path=/admin");
+        directory.found(BROWSE_1, printer);
+        directory.found(BROWSE_1, web1);
+        directory.found(BROWSE_2, web2);
+        
+        assertEquals(3, directory.size());
+        assertSame(printer, directory.get(printer.getName()));
+        assertNull(directory.get(new Name("Unknown._ipp._tcp.local.")));
+        assertServices(new ServiceInstance[] {web1, web2}, directory.getServicesByType(new Name("_http._tcp.local.")));
+        assertServices(new ServiceInstance[] {printer, web1}, directory.getServicesByHost(host1));
+        assertServices(new ServiceInstance[] {web1}, directory.find(new Query().type("_http._tcp.local.").host(host1)));
+        assertServices(new ServiceInstance[] {printer, web1, web2}, directory.find(new Query()));
+        assertServices(new ServiceInstance[0], directory.find(new Query().type("_ftp._tcp.local.")));
+    }
+    
+    
+    @Test
+    public void Test_Find_By_Text_And_Subtype()
+    throws Exception
+    {
+        ServiceInstance color = service("Color._ipp._tcp.local.", host1, "Color=T", "duplex");
+        color.addPointer(new Name("_color._sub._ipp._tcp.local."));
+        ServiceInstance mono = service("Mono._ipp._tcp.local.", host2, "color=F");
+        directory.found(BROWSE_1, color);
+        directory.found(BROWSE_1, mono);
+        
+        assertServices(new ServiceInstance[] {color, mono}, directory.find(new Query().text("COLOR")));
+        assertServices(new ServiceInstance[] {color}, directory.find(new Query().text("color", "T")));
+        assertServices(new ServiceInstance[] {color}, directory.find(new Query().text("duplex")));
+        assertServices(new ServiceInstance[] {color}, directory.find(new Query().subtype("_color._sub._ipp._tcp.local.")));
+        assertServices(new ServiceInstance[0], directory.find(new Query().subtype("_color._sub._ipp._tcp.local.").text("color", "F")));
+    }
+    
+    
+    @Test
+    public void Test_Update_Reindexes_Service()
+    throws Exception
+    {
+        directory.found(BROWSE_1, service("Web._http._tcp.local.", host1, "path=/"));
+        ServiceInstance moved = service("Web._http._tcp.local.", host2, "version=2");
+        directory.found(BROWSE_1, moved);
+        
+        assertEquals(1, directory.size());
+        assertSame(moved, directory.get(moved.getName()));
+        assertServices(new ServiceInstance[0], directory.getServicesByHost(host1));
+        assertServices(new ServiceInstance[] {moved}, directory.getServicesByHost(host2));
+        assertServices(new ServiceInstance[0], directory.find(new Query().text("path")));
+        assertServices(new ServiceInstance[] {moved}, directory.find(new Query().text("version", "2")));
+    }
+    
+    
+    @Test
+    public void Test_Service_Removed_By_All_Owners()
+    throws Exception
+    {
+        ServiceInstance web = service("Web._http._tcp.local.", host1, "path=/");
+        directory.found(BROWSE_1, web);
+        directory.found(BROWSE_2, web);
+        
+        directory.lost("Other Browse", web.getName());
+        assertEquals(1, directory.size());
+        
+        directory.lost(BROWSE_1, web.getName());
+        assertEquals("Service removed while still found by an operation", 1, directory.size());
+        assertServices(new ServiceInstance[] {web}, directory.getServicesByHost(host1));
+        
+        directory.lost(BROWSE_2, web.getName());
+        assertEquals(0, directory.size());
+        assertNull(directory.get(web.getName()));
+        assertServices(new ServiceInstance[0], directory.getServicesByHost(host1));
+        assertServices(new ServiceInstance[0], directory.find(new Query().text("path")));
+    }
+    
+    
+    @Test
+    public void Test_Remove_All_Of_Owner()
+    throws Exception
+    {
+        ServiceInstance web1 = service("Web 1._http._tcp.local.", host1, "path=/");
+        ServiceInstance web2 = service("Web 2._http._tcp.local.", host2, "path=/");
+        directory.found(BROWSE_1, web1);
+        directory.found(BROWSE_1, web2);
+        directory.found(BROWSE_2, web2);
+        
+        directory.stopped(BROWSE_1);
+        assertServices(new ServiceInstance[] {web2}, directory.getServices());
+        
+        directory.stopped(BROWSE_2);
+        assertEquals(0, directory.size());
+    }
+    
+    
+    private ServiceInstance service(final String name, final Name host, final String... text)
+    throws Exception
+    {
+        return new ServiceInstance(new ServiceName(name), 0, 0, 80, host, addresses, text);
+    }
+    
+    
+    private static void assertServices(final ServiceInstance[] expected, final ServiceInstance[] actual)
+    {
+        Set<ServiceInstance> expectedSet = new HashSet<ServiceInstance>(Arrays.asList(expected));
+        Set<ServiceInstance> actualSet = new HashSet<ServiceInstance>(Arrays.asList(actual));
+        assertEquals(expectedSet, actualSet);
+        assertEquals("Duplicate services returned", expected.length, actual.length);
+    }
+}
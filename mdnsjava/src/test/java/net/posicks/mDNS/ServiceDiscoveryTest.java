@@ -0,0 +1,418 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Options;
+import org.xbill.DNS.PTRRecord;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SRVRecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.Constants;
+import net.posick.mDNS.DNSSDUpdateListener;
+import net.posick.mDNS.MulticastDNSService;
+import net.posick.mDNS.ServiceDiff;
+import net.posick.mDNS.ServiceInstance;
+
+/**
+ * Test Cases for the Service Discovery Operation of the MulticastDNSService
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ServiceDiscoveryTest
+{
+    private static class RecordingListener implements DNSSDUpdateListener
+    {
+        final List<ServiceInstance> discovered = new ArrayList<ServiceInstance>();
+        
+        final List<ServiceDiff> updated = new ArrayList<ServiceDiff>();
+        
+        final List<ServiceInstance> removed = new ArrayList<ServiceInstance>();
+        
+        
+        public synchronized void serviceDiscovered(final Object id, final ServiceInstance service)
+        {
+            discovered.add(service);
+        }
+        
+        
+        public synchronized void serviceUpdated(final Object id, final ServiceInstance service, final ServiceDiff diff)
+        {
+            updated.add(diff);
+        }
+        
+        
+        public synchronized void serviceRemoved(final Object id, final ServiceInstance service)
+        {
+            removed.add(service);
+        }
+        
+        
+        public void receiveMessage(final Object id, final Message m)
+        {
+        }
+        
+        
+        public void handleException(final Object id, final Exception e)
+        {
+        }
+    }
+    
+    private Name serviceType;
+    
+    private Name instanceName;
+    
+    private Name host;
+    
+    private RecordingQuerier querier;
+    
+    private TestService service;
+    
+    private RecordingListener listener;
+    
+    private Object discovery;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        serviceType = new Name("_http._tcp.local.");
+        instanceName = new Name("Test._http._tcp.local.");
+        host = new Name("host.local.");
+        querier = new RecordingQuerier();
+        service = TestService.newInstance(querier);
+        listener = new RecordingListener();
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        if (discovery != null)
+        {
+            service.stopServiceDiscovery(discovery);
+        }
+        service.close();
+        querier.close();
+    }
+    
+    
+    @Test
+    public void Test_Complete_Response_Is_Discovered_Without_Query()
+    throws Exception
+    {
+        startServiceDiscovery();
+        querier.respond(response(ptr(120), srv(), txt(), address()));
+        
+        assertEquals(1, listener.discovered.size());
+        ServiceInstance discovered = listener.discovered.get(0);
+        assertEquals(instanceName, discovered.getName().getServiceRRName());
+        assertEquals(8080, discovered.getPort());
+        assertEquals(host, discovered.getHost());
+        assertTrue(querier.getAsyncQueries().isEmpty());
+    }
+    
+    
+    @Test
+    public void Test_Missing_Records_Are_Queried_Once()
+    throws Exception
+    {
+        startServiceDiscovery();
+        querier.respond(response(ptr(120)));
+        querier.respond(response(ptr(120)));
+        
+        assertTrue(listener.discovered.isEmpty());
+        List<Message> queries = querier.getAsyncQueries();
+        assertEquals(1, queries.size());
+        Record[] questions = queries.get(0).getSectionArray(Section.QUESTION);
+        assertEquals(2, questions.length);
+        assertEquals(Type.SRV, questions[0].getType());
+        assertEquals(Type.TXT, questions[1].getType());
+        assertEquals(instanceName, questions[0].getName());
+    }
+    
+    
+    @Test
+    public void Test_Records_Arriving_In_Later_Responses_Complete_Instance()
+    throws Exception
+    {
+        startServiceDiscovery();
+        querier.respond(response(ptr(120), srv()));
+        querier.respond(response(ptr(120), txt()));
+        assertTrue(listener.discovered.isEmpty());
+        
+        querier.respond(response(ptr(120), srv(), address()));
+        assertEquals(1, listener.discovered.size());
+    }
+    
+    
+    @Test
+    public void Test_Query_Response_With_SRV_Reports_Instance()
+    throws Exception
+    {
+        startServiceDiscovery();
+        querier.respond(response(ptr(120)));
+        querier.asyncResponses.get(0).set(response(srv()));
+        
+        assertEquals(1, listener.discovered.size());
+        assertEquals(8080, listener.discovered.get(0).getPort());
+    }
+    
+    
+    @Test
+    public void Test_Unresolved_Instance_Is_Dropped_Until_Seen_Again()
+    throws Exception
+    {
+        startServiceDiscovery();
+        querier.respond(response(ptr(120)));
+        querier.asyncResponses.get(0).set(new Message());
+        assertTrue(listener.discovered.isEmpty());
+        
+        querier.respond(response(ptr(120)));
+        assertEquals(2, querier.getAsyncQueries().size());
+    }
+    
+    
+    @Test
+    public void Test_Goodbye_Removes_Discovered_Instance()
+    throws Exception
+    {
+        startServiceDiscovery();
+        querier.respond(response(ptr(120), srv(), txt(), address()));
+        querier.respond(response(ptr(0)));
+        
+        assertEquals(1, listener.removed.size());
+        assertEquals(instanceName, listener.removed.get(0).getName().getServiceRRName());
+    }
+    
+    
+    @Test
+    public void Test_Cache_Flush_TXT_Announcement_Updates_Service()
+    throws Exception
+    {
+        startServiceDiscovery();
+        querier.respond(response(ptr(120), srv(), txt(), address()));
+        
+        // The TXT record is announced alone, as updateText does
+        querier.respond(response(new TXTRecord(instanceName, DClass.IN | Constants.CACHE_FLUSH, 4500, "path=/v2")));
+        
+        assertEquals(1, listener.updated.size());
+        ServiceDiff diff = listener.updated.get(0);
+        assertEquals(EnumSet.of(ServiceDiff.Field.TEXT), diff.getChangedFields());
+        assertEquals("/v2", diff.getCurrent().getTextAttributes().get("path"));
+        assertEquals("/", diff.getPrevious().getTextAttributes().get("path"));
+        assertEquals(Collections.singleton("path"), diff.getChangedTextAttributes().keySet());
+        assertEquals(1, listener.discovered.size());
+    }
+    
+    
+    @Test
+    public void Test_SRV_Port_Change_Updates_Service()
+    throws Exception
+    {
+        startServiceDiscovery();
+        querier.respond(response(ptr(120), srv(), txt(), address()));
+        querier.respond(response(new SRVRecord(instanceName, DClass.IN | Constants.CACHE_FLUSH, 120, 0, 0, 8081, host)));
+        
+        assertEquals(1, listener.updated.size());
+        ServiceDiff diff = listener.updated.get(0);
+        assertEquals(EnumSet.of(ServiceDiff.Field.PORT), diff.getChangedFields());
+        assertEquals(8080, diff.getPrevious().getPort());
+        assertEquals(8081, diff.getCurrent().getPort());
+    }
+    
+    
+    @Test
+    public void Test_Address_Change_Updates_Service()
+    throws Exception
+    {
+        startServiceDiscovery();
+        querier.respond(response(ptr(120), srv(), txt(), address()));
+        querier.respond(response(new ARecord(host, DClass.IN | Constants.CACHE_FLUSH, 120, InetAddress.getByName("192.168.1.11"))));
+        
+        assertEquals(1, listener.updated.size());
+        ServiceDiff diff = listener.updated.get(0);
+        assertEquals(EnumSet.of(ServiceDiff.Field.ADDRESSES), diff.getChangedFields());
+        assertEquals(Collections.singleton(InetAddress.getByName("192.168.1.11")), diff.getAddedAddresses());
+        assertEquals(Collections.singleton(InetAddress.getByName("192.168.1.10")), diff.getRemovedAddresses());
+        assertArrayEquals(new InetAddress[] {InetAddress.getByName("192.168.1.11")}, diff.getCurrent().getAddresses());
+    }
+    
+    
+    @Test
+    public void Test_TTL_Refresh_Does_Not_Update_Service()
+    throws Exception
+    {
+        startServiceDiscovery();
+        querier.respond(response(ptr(120), srv(), txt(), address()));
+        
+        querier.respond(response(ptr(4500), new SRVRecord(instanceName, DClass.IN | Constants.CACHE_FLUSH, 4500, 0, 0, 8080, host), new TXTRecord(instanceName, DClass.IN | Constants.CACHE_FLUSH, 4500, "path=/"),
+                        new ARecord(host, DClass.IN | Constants.CACHE_FLUSH, 4500, InetAddress.getByName("192.168.1.10"))));
+        querier.respond(response(new TXTRecord(instanceName, DClass.IN, 4500, "path=/")));
+        
+        assertTrue(listener.updated.isEmpty());
+        assertEquals(1, listener.discovered.size());
+        assertTrue(listener.removed.isEmpty());
+    }
+    
+    
+    @Test
+    public void Test_Passive_Sends_No_Queries()
+    throws Exception
+    {
+        startPassiveServiceDiscovery();
+        querier.respond(response(ptr(120)));
+        
+        assertTrue(listener.discovered.isEmpty());
+        assertTrue(querier.getAsyncQueries().isEmpty());
+        assertTrue(querier.getBroadcasts().isEmpty());
+        
+        querier.respond(response(ptr(120), srv(), txt(), address()));
+        assertEquals(1, listener.discovered.size());
+    }
+    
+    
+    @Test
+    public void Test_Passive_Starts_From_Cache()
+    throws Exception
+    {
+        querier.cache(ptr(120), srv(), txt(), address());
+        startPassiveServiceDiscovery();
+        
+        assertEquals(1, listener.discovered.size());
+        assertEquals(8080, listener.discovered.get(0).getPort());
+    }
+    
+    
+    @Test
+    public void Test_Passive_Resolves_Missing_Records_From_Cache()
+    throws Exception
+    {
+        startPassiveServiceDiscovery();
+        querier.cache(srv(), txt(), address());
+        querier.respond(response(ptr(120)));
+        
+        assertEquals(1, listener.discovered.size());
+        assertTrue(querier.getAsyncQueries().isEmpty());
+    }
+    
+    
+    @Test
+    public void Test_Passive_Ignores_Queries()
+    throws Exception
+    {
+        startPassiveServiceDiscovery();
+        Message query = response(ptr(120), srv(), txt(), address());
+        query.getHeader().unsetFlag(Flags.QR);
+        querier.respond(query);
+        
+        assertTrue(listener.discovered.isEmpty());
+    }
+    
+    
+    @Test
+    public void Test_Passive_Removes_Services_On_Goodbye_And_Expiry()
+    throws Exception
+    {
+        Options.set("mdns_passive_expiry_interval", "50");
+        try
+        {
+            startPassiveServiceDiscovery();
+        } finally
+        {
+            Options.unset("mdns_passive_expiry_interval");
+        }
+        
+        querier.respond(response(ptr(120), srv(), txt(), address()));
+        querier.respond(response(ptr(0)));
+        assertEquals(1, listener.removed.size());
+        
+        querier.cache(srv());
+        querier.respond(response(ptr(120), srv(), txt(), address()));
+        assertEquals(2, listener.discovered.size());
+        Thread.sleep(200);
+        assertEquals(1, listener.removed.size());
+        
+        querier.clearCache();
+        long waitTill = System.currentTimeMillis() + 5000;
+        while ((listener.removed.size() < 2) && (System.currentTimeMillis() < waitTill))
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(2, listener.removed.size());
+    }
+    
+    
+    private void startServiceDiscovery()
+    throws IOException
+    {
+        discovery = service.startServiceDiscovery(TestService.newBrowse(querier, serviceType), listener);
+    }
+    
+    
+    private void startPassiveServiceDiscovery()
+    throws IOException
+    {
+        discovery = service.startPassiveServiceDiscovery(TestService.newBrowse(querier, serviceType), listener);
+    }
+    
+    
+    private Record ptr(final long ttl)
+    {
+        return new PTRRecord(serviceType, DClass.IN, ttl, instanceName);
+    }
+    
+    
+    private Record srv()
+    {
+        return new SRVRecord(instanceName, DClass.IN, 120, 0, 0, 8080, host);
+    }
+    
+    
+    private Record txt()
+    {
+        return new TXTRecord(instanceName, DClass.IN, 120, "path=/");
+    }
+    
+    
+    private Record address()
+    throws Exception
+    {
+        return new ARecord(host, DClass.IN, 120, InetAddress.getByName("192.168.1.10"));
+    }
+    
+    
+    private static Message response(final Record... answers)
+    {
+        Message response = new Message();
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.AA);
+        for (Record answer : answers)
+        {
+            response.addRecord(answer, Section.ANSWER);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,313 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.Name;
+
+import net.posick.mDNS.ServiceEvent;
+import net.posick.mDNS.ServiceEventPublisher;
+import net.posick.mDNS.ServiceEventPublisher.Subscriber;
+import net.posick.mDNS.ServiceEventPublisher.Subscription;
+import net.posick.mDNS.ServiceInstance;
+import net.posick.mDNS.ServiceName;
+
+/**
+ * Test Cases for the ServiceEventPublisher
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ServiceEventPublisherTest
+{
+    private static class RecordingSubscriber implements Subscriber
+    {
+        final List<ServiceEvent> events = new ArrayList<ServiceEvent>();
+        
+        Subscription subscription;
+        
+        Throwable error;
+        
+        boolean completed;
+        
+        
+        public synchronized void onSubscribe(final Subscription subscription)
+        {
+            this.subscription = subscription;
+        }
+        
+        
+        public synchronized void onNext(final ServiceEvent event)
+        {
+            events.add(event);
+            notifyAll();
+        }
+        
+        
+        public synchronized void onError(final Throwable throwable)
+        {
+            error = throwable;
+            notifyAll();
+        }
+        
+        
+        public synchronized void onComplete()
+        {
+            completed = true;
+            notifyAll();
+        }
+        
+        
+        synchronized List<ServiceEvent> awaitEvents(final int count)
+        throws InterruptedException
+        {
+            long waitTill = System.currentTimeMillis() + 5000;
+            long now;
+            while ((events.size() < count) && ((now = System.currentTimeMillis()) < waitTill))
+            {
+                wait(waitTill - now);
+            }
+            return new ArrayList<ServiceEvent>(events);
+        }
+        
+        
+        synchronized boolean awaitTerminated()
+        throws InterruptedException
+        {
+            long waitTill = System.currentTimeMillis() + 5000;
+            long now;
+            while (!completed && (error == null) && ((now = System.currentTimeMillis()) < waitTill))
+            {
+                wait(waitTill - now);
+            }
+            return completed || (error != null);
+        }
+    }
+    
+    private ServiceEventPublisher publisher;
+    
+    private RecordingSubscriber subscriber;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        publisher = new ServiceEventPublisher();
+        subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        publisher.close();
+    }
+    
+    
+    @Test
+    public void Test_Events_Are_Delivered_On_Demand()
+    throws Exception
+    {
+        publisher.serviceDiscovered("id", service("One"));
+        publisher.serviceDiscovered("id", service("Two"));
+        Thread.sleep(50);
+        assertTrue(subscriber.awaitEvents(0).isEmpty());
+        
+        subscriber.subscription.request(1);
+        List<ServiceEvent> events = subscriber.awaitEvents(1);
+        assertEquals(1, events.size());
+        assertEquals(ServiceEvent.Type.DISCOVERED, events.get(0).getType());
+        assertEquals(name("One"), events.get(0).getServiceName());
+        
+        Thread.sleep(50);
+        assertEquals(1, subscriber.awaitEvents(0).size());
+        
+        subscriber.subscription.request(Long.MAX_VALUE);
+        events = subscriber.awaitEvents(2);
+        assertEquals(2, events.size());
+        assertEquals(name("Two"), events.get(1).getServiceName());
+    }
+    
+    
+    @Test
+    public void Test_Pending_Events_Coalesce_Per_Service()
+    throws Exception
+    {
+        ServiceInstance first = service("One");
+        ServiceInstance second = service("One");
+        publisher.serviceDiscovered("id", first);
+        publisher.serviceDiscovered("id", second);
+        assertEquals(1, publisher.getCoalescedEvents());
+        
+        subscriber.subscription.request(Long.MAX_VALUE);
+        List<ServiceEvent> events = subscriber.awaitEvents(1);
+        Thread.sleep(50);
+        assertEquals(1, subscriber.awaitEvents(0).size());
+        assertSame(second, events.get(0).getService());
+    }
+    
+    
+    @Test
+    public void Test_Full_Buffer_Drops_Oldest_Event()
+    throws Exception
+    {
+        publisher.setBufferSize(2);
+        publisher.serviceDiscovered("id", service("One"));
+        publisher.serviceDiscovered("id", service("Two"));
+        publisher.serviceDiscovered("id", service("Three"));
+        assertEquals(1, publisher.getDroppedEvents());
+        
+        subscriber.subscription.request(Long.MAX_VALUE);
+        List<ServiceEvent> events = subscriber.awaitEvents(2);
+        assertEquals(2, events.size());
+        assertEquals(name("Two"), events.get(0).getServiceName());
+        assertEquals(name("Three"), events.get(1).getServiceName());
+    }
+    
+    
+    @Test
+    public void Test_Full_Buffer_Never_Drops_Removals()
+    throws Exception
+    {
+        publisher.setBufferSize(2);
+        publisher.serviceRemoved("id", service("One"));
+        publisher.serviceDiscovered("id", service("Two"));
+        publisher.serviceDiscovered("id", service("Three"));
+        assertEquals(1, publisher.getDroppedEvents());
+        
+        // Only removals are pending, discoveries are dropped and removals are kept
+        publisher.serviceRemoved("id", service("Four"));
+        publisher.serviceDiscovered("id", service("Five"));
+        publisher.serviceRemoved("id", service("Six"));
+        assertEquals(3, publisher.getDroppedEvents());
+        
+        subscriber.subscription.request(Long.MAX_VALUE);
+        List<ServiceEvent> events = subscriber.awaitEvents(3);
+        Thread.sleep(50);
+        events = subscriber.awaitEvents(0);
+        assertEquals(3, events.size());
+        assertEquals(ServiceEvent.Type.REMOVED, events.get(0).getType());
+        assertEquals(name("One"), events.get(0).getServiceName());
+        assertEquals(ServiceEvent.Type.REMOVED, events.get(1).getType());
+        assertEquals(name("Four"), events.get(1).getServiceName());
+        assertEquals(ServiceEvent.Type.REMOVED, events.get(2).getType());
+        assertEquals(name("Six"), events.get(2).getServiceName());
+    }
+    
+    
+    @Test
+    public void Test_Discovery_Then_Removal_Cancel_Out()
+    throws Exception
+    {
+        publisher.serviceDiscovered("id", service("One"));
+        publisher.serviceRemoved("id", service("One"));
+        publisher.serviceDiscovered("id", service("Two"));
+        
+        subscriber.subscription.request(Long.MAX_VALUE);
+        List<ServiceEvent> events = subscriber.awaitEvents(1);
+        Thread.sleep(50);
+        assertEquals(1, subscriber.awaitEvents(0).size());
+        assertEquals(name("Two"), events.get(0).getServiceName());
+    }
+    
+    
+    @Test
+    public void Test_Removal_Then_Discovery_Is_Update()
+    throws Exception
+    {
+        publisher.serviceRemoved("id", service("One", 80));
+        publisher.serviceDiscovered("id", service("One", 8080));
+        
+        // A rediscovery of the unchanged service is not delivered
+        publisher.serviceRemoved("id", service("Two", 80));
+        publisher.serviceDiscovered("id", service("Two", 80));
+        
+        subscriber.subscription.request(Long.MAX_VALUE);
+        List<ServiceEvent> events = subscriber.awaitEvents(1);
+        Thread.sleep(50);
+        assertEquals(1, subscriber.awaitEvents(0).size());
+        assertEquals(ServiceEvent.Type.UPDATED, events.get(0).getType());
+        assertEquals(name("One"), events.get(0).getServiceName());
+        assertEquals(80, events.get(0).getDiff().getPrevious().getPort());
+        assertEquals(8080, events.get(0).getService().getPort());
+    }
+    
+    
+    @Test
+    public void Test_Close_Completes_After_Pending_Events()
+    throws Exception
+    {
+        publisher.serviceDiscovered("id", service("One"));
+        publisher.close();
+        publisher.serviceRemoved("id", service("One"));
+        
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.awaitTerminated());
+        assertTrue(subscriber.completed);
+        assertEquals(1, subscriber.events.size());
+        assertEquals(ServiceEvent.Type.DISCOVERED, subscriber.events.get(0).getType());
+        assertEquals(0, publisher.getSubscriberCount());
+        
+        RecordingSubscriber late = new RecordingSubscriber();
+        publisher.subscribe(late);
+        assertTrue(late.awaitTerminated());
+        assertTrue(late.completed);
+    }
+    
+    
+    @Test
+    public void Test_Non_Positive_Request_Signals_Error()
+    throws Exception
+    {
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.awaitTerminated());
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+    
+    
+    @Test
+    public void Test_Cancel_Stops_Delivery()
+    throws Exception
+    {
+        subscriber.subscription.cancel();
+        assertEquals(0, publisher.getSubscriberCount());
+        
+        subscriber.subscription.request(Long.MAX_VALUE);
+        publisher.serviceDiscovered("id", service("One"));
+        Thread.sleep(50);
+        assertTrue(subscriber.awaitEvents(0).isEmpty());
+    }
+    
+    
+    private static ServiceName name(final String instance)
+    throws Exception
+    {
+        return new ServiceName(instance + "._http._tcp.local.");
+    }
+    
+    
+    private static ServiceInstance service(final String instance)
+    throws Exception
+    {
+        return service(instance, 80);
+    }
+    
+    
+    private static ServiceInstance service(final String instance, final int port)
+    throws Exception
+    {
+        return new ServiceInstance(name(instance), 0, 0, port, new Name("host.local."), new InetAddress[0], new String[0]);
+    }
+}
@@ -0,0 +1,133 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Opcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.ServiceInstance;
+import net.posick.mDNS.ServiceName;
+
+/**
+ * Test Cases for the services registered on behalf of other hosts by the SleepProxy
+ *
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SleepProxyTest
+{
+    private RecordingQuerier querier;
+    
+    private TestService service;
+    
+    private Name host;
+    
+    private ServiceInstance sleeper;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        querier = new RecordingQuerier();
+        service = TestService.newInstance(querier);
+        host = new Name("sleeper.local.");
+        sleeper = new ServiceInstance(new ServiceName("Sleeper._http._tcp.local."), 0, 0, 80, host, new InetAddress[] {InetAddress.getByName("192.168.1.50")}, "path=/");
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        service.close();
+        querier.close();
+    }
+    
+    
+    @Test
+    public void Test_Expired_Lease_Sends_Goodbyes()
+    throws Exception
+    {
+        ServiceInstance[] registered = service.registerProxy(Collections.singletonList(sleeper), 300, TimeUnit.MILLISECONDS);
+        assertEquals(1, registered.length);
+        assertEquals(sleeper.getName(), registered[0].getName());
+        assertArrayEquals(new Name[] {host}, service.getProxiedHosts());
+        
+        int sent = querier.getBroadcasts().size();
+        List<Message> broadcasts = querier.awaitBroadcasts(sent + 1);
+        assertEquals(sent + 1, broadcasts.size());
+        assertEquals(0, service.getProxiedHosts().length);
+        
+        // The goodbyes withdraw the services and the address records of the host
+        Record[] goodbyes = broadcasts.get(sent).getSectionArray(Section.UPDATE);
+        boolean address = false;
+        for (Record record : goodbyes)
+        {
+            assertEquals("Goodbye with a TTL " + record, 0, record.getTTL());
+            address |= (record.getType() == Type.A) && InetAddress.getByName("192.168.1.50").equals(((ARecord) record).getAddress());
+        }
+        assertTrue("Address record not withdrawn", address);
+        assertFalse(service.renewProxy(host, 1, TimeUnit.SECONDS));
+    }
+    
+    
+    @Test
+    public void Test_Renewed_Lease_Not_Expired()
+    throws Exception
+    {
+        service.registerProxy(Collections.singletonList(sleeper), 300, TimeUnit.MILLISECONDS);
+        assertTrue(service.renewProxy(host, 5, TimeUnit.SECONDS));
+        
+        Thread.sleep(600);
+        assertArrayEquals(new Name[] {host}, service.getProxiedHosts());
+        
+        assertTrue(service.unregisterProxy(host).get().booleanValue());
+        assertEquals(0, service.getProxiedHosts().length);
+        assertFalse(service.unregisterProxy(host).get().booleanValue());
+    }
+    
+    
+    @Test
+    public void Test_Proxied_Services_Not_Probed_Again()
+    throws Exception
+    {
+        service.registerProxy(Collections.singletonList(sleeper), 5, TimeUnit.SECONDS);
+        int probes = count(querier.getBroadcasts(), Opcode.QUERY);
+        assertTrue("Service not probed", probes > 0);
+        
+        service.registerProxy(Collections.singletonList(sleeper), 5, TimeUnit.SECONDS);
+        assertEquals(probes, count(querier.getBroadcasts(), Opcode.QUERY));
+        assertTrue("Service not re-announced", count(querier.getBroadcasts(), Opcode.UPDATE) >= 2);
+    }
+    
+    
+    private static int count(final List<Message> messages, final int opcode)
+    {
+        int count = 0;
+        for (Message message : messages)
+        {
+            if (message.getHeader().getOpcode() == opcode)
+            {
+                count++ ;
+            }
+        }
+        
+        return count;
+    }
+}
@@ -0,0 +1,164 @@
+package net.posicks.mDNS;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.Update;
+
+import net.posick.mDNS.Browse;
+import net.posick.mDNS.MulticastDNSService;
+import net.posick.mDNS.Querier;
+import net.posick.mDNS.ServiceInstance;
+import net.posick.mDNS.ServiceName;
+import net.posick.mDNS.utils.ListenableFuture;
+
+/**
+ * A MulticastDNSService using a RecordingQuerier, so that no sockets are opened, exposing the
+ * probes of its Prober and the announcement and goodbye packets of its Register and Unregister
+ * operations.
+ * 
+ * @author Steve Posick
+ */
+public class TestService extends MulticastDNSService
+{
+    private class TestProber extends Prober
+    {
+        private List<ListenableFuture<ServiceInstance>> start(final ServiceInstance... services)
+        {
+            List<ListenableFuture<ServiceInstance>> futures = new ArrayList<ListenableFuture<ServiceInstance>>();
+            // Holding the lock of the Prober adds all services before the first probe is sent
+            synchronized (this)
+            {
+                for (ServiceInstance service : services)
+                {
+                    futures.add(probe(service));
+                }
+            }
+            return futures;
+        }
+    }
+    
+    private final TestProber testProber = new TestProber();
+    
+    
+    private TestService()
+    throws IOException
+    {
+        super();
+    }
+    
+    
+    /**
+     * Creates a TestService using the RecordingQuerier.
+     */
+    static TestService newInstance(final RecordingQuerier querier)
+    throws IOException
+    {
+        synchronized (MulticastDNSService.class)
+        {
+            Querier previous = defaultQuerier;
+            defaultQuerier = querier;
+            try
+            {
+                return new TestService();
+            } finally
+            {
+                defaultQuerier = previous;
+            }
+        }
+    }
+    
+    
+    /**
+     * Creates a Browse of the service type using the RecordingQuerier.
+     */
+    static Browse newBrowse(final RecordingQuerier querier, final Name serviceType)
+    throws IOException
+    {
+        synchronized (MulticastDNSService.class)
+        {
+            Querier previous = defaultQuerier;
+            defaultQuerier = querier;
+            try
+            {
+                return new Browse(new Name[] {serviceType}, Type.PTR, DClass.IN);
+            } finally
+            {
+                defaultQuerier = previous;
+            }
+        }
+    }
+    
+    
+    /**
+     * Probes the services together, returning the futures of the probes in the order of the services.
+     */
+    List<ListenableFuture<ServiceInstance>> probe(final ServiceInstance... services)
+    {
+        return testProber.start(services);
+    }
+    
+    
+    /**
+     * Returns the announcement packets of the services.
+     */
+    Update[] getAnnouncements(final ServiceInstance... services)
+    throws IOException
+    {
+        return new Register(services)
+        {
+            Update[] packets()
+            throws IOException
+            {
+                return getAnnouncements(services);
+            }
+        }.packets();
+    }
+    
+    
+    /**
+     * Returns the goodbye packets of the services.
+     */
+    Update[] getGoodbyes(final ServiceInstance... services)
+    throws IOException
+    {
+        return new Unregister(services)
+        {
+            Update[] packets()
+            throws IOException
+            {
+                return getGoodbyes();
+            }
+        }.packets();
+    }
+    
+    
+    /**
+     * Returns the goodbye packets of the services unregistered by name.
+     */
+    Update[] getGoodbyes(final ServiceName... serviceNames)
+    throws IOException
+    {
+        return new Unregister(serviceNames)
+        {
+            Update[] packets()
+            throws IOException
+            {
+                return getGoodbyes();
+            }
+        }.packets();
+    }
+    
+    
+    @Override
+    public void close()
+    throws IOException
+    {
+        testProber.close();
+        super.close();
+    }
+}
@@ -0,0 +1,196 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.PTRRecord;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SRVRecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.Update;
+
+import net.posick.mDNS.AuthoritativeZone;
+import net.posick.mDNS.Constants;
+import net.posick.mDNS.ServiceInstance;
+import net.posick.mDNS.ServiceName;
+
+/**
+ * Test Cases for the goodbye packets sent when services are unregistered
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class UnregisterTest
+{
+    private RecordingQuerier querier;
+    
+    private TestService service;
+    
+    private Name host;
+    
+    private InetAddress[] addresses;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        querier = new RecordingQuerier();
+        service = TestService.newInstance(querier);
+        host = new Name("host.local.");
+        addresses = new InetAddress[] {InetAddress.getByName("192.168.1.1"), InetAddress.getByName("fe80::1")};
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        service.close();
+        querier.close();
+    }
+    
+    
+    @Test
+    public void Test_Goodbye_Records_Have_Zero_TTL()
+    throws Exception
+    {
+        ServiceInstance printer = new ServiceInstance(new ServiceName("Printer._ipp._tcp.local."), 0, 0, 631, host, addresses, "rp=printer");
+        
+        Update[] updates = service.getGoodbyes(printer);
+        assertEquals(1, updates.length);
+        
+        Record[] records = updates[0].getSectionArray(Section.UPDATE);
+        assertEquals(3, records.length);
+        assertEquals(1, count(records, Type.PTR));
+        assertEquals(1, count(records, Type.SRV));
+        assertEquals(1, count(records, Type.TXT));
+        for (Record record : records)
+        {
+            assertEquals("Goodbye with a TTL " + record, 0, record.getTTL());
+            assertEquals(DClass.IN, record.getDClass());
+        }
+    }
+    
+    
+    @Test
+    public void Test_Goodbyes_By_Name_Use_Cached_Records()
+    throws Exception
+    {
+        ServiceName name = new ServiceName("Printer._ipp._tcp.local.");
+        Name shortSRVName = name.getServiceRRName();
+        querier.cache(new SRVRecord(shortSRVName, DClass.IN + Constants.CACHE_FLUSH, 120, 0, 0, 631, host), new TXTRecord(shortSRVName, DClass.IN + Constants.CACHE_FLUSH, 4500, "rp=printer"));
+        
+        Record[] records = service.getGoodbyes(name)[0].getSectionArray(Section.UPDATE);
+        assertEquals(3, records.length);
+        for (Record record : records)
+        {
+            assertEquals("Goodbye with a TTL " + record, 0, record.getTTL());
+            assertEquals(DClass.IN, record.getDClass());
+            if (record.getType() == Type.SRV)
+            {
+                assertEquals(631, ((SRVRecord) record).getPort());
+            }
+        }
+    }
+    
+    
+    @Test
+    public void Test_Goodbyes_By_Name_Without_Cached_Records()
+    throws Exception
+    {
+        Record[] records = service.getGoodbyes(new ServiceName("Printer._ipp._tcp.local."))[0].getSectionArray(Section.UPDATE);
+        assertEquals(1, records.length);
+        assertEquals(Type.PTR, records[0].getType());
+    }
+    
+    
+    @Test
+    public void Test_Goodbyes_Packed_Into_Packets()
+    throws Exception
+    {
+        ServiceInstance[] services = new ServiceInstance[100];
+        for (int index = 0; index < services.length; index++ )
+        {
+            services[index] = new ServiceInstance(new ServiceName("Service Instance Number " + index + "._http._tcp.local."), 0, 0, 8000 + index, host, addresses, "path=/service/" + index, "version=1.0");
+        }
+        
+        Update[] updates = service.getGoodbyes(services);
+        assertTrue("Goodbyes were not split", updates.length > 1);
+        assertTrue("Goodbyes were not packed, " + updates.length + " packets", updates.length < (services.length / 4));
+        
+        Set<Name> withdrawn = new HashSet<Name>();
+        for (Update update : updates)
+        {
+            assertTrue("Packet exceeds the maximum size", update.toWire().length <= 1400);
+            
+            // The records of a service are sent in the same packet
+            Set<Name> srvNames = new HashSet<Name>();
+            Set<Name> ptrTargets = new HashSet<Name>();
+            for (Record record : update.getSectionArray(Section.UPDATE))
+            {
+                if (record.getType() == Type.SRV)
+                {
+                    srvNames.add(record.getName());
+                } else if (record.getType() == Type.PTR)
+                {
+                    ptrTargets.add(((PTRRecord) record).getTarget());
+                }
+            }
+            assertEquals(srvNames, ptrTargets);
+            withdrawn.addAll(srvNames);
+        }
+        assertEquals(services.length, withdrawn.size());
+    }
+    
+    
+    @Test
+    public void Test_Goodbyes_Withdraw_Announced_Records()
+    throws Exception
+    {
+        ServiceInstance printer = new ServiceInstance(new ServiceName("Printer._ipp._tcp.local."), 10, 20, 631, host, addresses, "rp=printer");
+        Name shortSRVName = printer.getName().getServiceRRName();
+        
+        AuthoritativeZone zone = new AuthoritativeZone();
+        for (Update update : service.getAnnouncements(printer))
+        {
+            zone.update(update.getSectionArray(Section.UPDATE));
+        }
+        SRVRecord srv = (SRVRecord) zone.lookup(shortSRVName, Type.SRV)[0];
+        assertEquals(10, srv.getPriority());
+        assertEquals(20, srv.getWeight());
+        
+        for (Update update : service.getGoodbyes(printer))
+        {
+            zone.update(update.getSectionArray(Section.UPDATE));
+        }
+        assertEquals(0, zone.lookup(shortSRVName, Type.ANY).length);
+    }
+    
+    
+    private static int count(final Record[] records, final int type)
+    {
+        int count = 0;
+        for (Record record : records)
+        {
+            if (record.getType() == type)
+            {
+                count++ ;
+            }
+        }
+        
+        return count;
+    }
+}
@@ -0,0 +1,157 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SRVRecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.Type;
+
+import net.posick.mDNS.Constants;
+import net.posick.mDNS.ServiceName;
+
+/**
+ * Test Cases for the TXT record updates of registered services
+ *
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class UpdateTextTest
+{
+    private RecordingQuerier querier;
+    
+    private TestService service;
+    
+    private ServiceName name;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        querier = new RecordingQuerier();
+        service = TestService.newInstance(querier);
+        name = new ServiceName("Sensor._http._tcp.local.");
+        querier.authoritative(new SRVRecord(name.getServiceRRName(), DClass.IN + Constants.CACHE_FLUSH, 120, 0, 0, 80, new Name("host.local.")));
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+        service.close();
+        querier.close();
+    }
+    
+    
+    @Test
+    public void Test_Only_TXT_Record_Announced()
+    throws Exception
+    {
+        Map<String, String> text = new LinkedHashMap<String, String>();
+        text.put("load", "0.75");
+        text.put("busy", null);
+        service.updateText(name, text);
+        
+        List<Message> broadcasts = querier.awaitBroadcasts(1);
+        assertEquals(1, broadcasts.size());
+        Record[] records = broadcasts.get(0).getSectionArray(Section.UPDATE);
+        assertEquals(1, records.length);
+        assertEquals(Type.TXT, records[0].getType());
+        assertEquals(name.getServiceRRName(), records[0].getName());
+        assertEquals(DClass.IN + Constants.CACHE_FLUSH, records[0].getDClass());
+        assertEquals(2, ((TXTRecord) records[0]).getStrings().size());
+        assertEquals("load=0.75", ((TXTRecord) records[0]).getStrings().get(0));
+        assertEquals("busy", ((TXTRecord) records[0]).getStrings().get(1));
+        assertEquals(0, broadcasts.get(0).getSectionArray(Section.ADDITIONAL).length);
+        
+        // The announcement is repeated
+        assertEquals(2, querier.awaitBroadcasts(2).size());
+    }
+    
+    
+    @Test
+    public void Test_Binary_Value_Sent_As_Bytes()
+    throws Exception
+    {
+        byte[] value = new byte[] {0, 1, '"', '\\', 'a', (byte) 0xFF};
+        Map<String, Object> text = new LinkedHashMap<String, Object>();
+        text.put("key", value);
+        service.updateText(name, text);
+        
+        List<Message> broadcasts = querier.awaitBroadcasts(1);
+        TXTRecord txt = (TXTRecord) broadcasts.get(0).getSectionArray(Section.UPDATE)[0];
+        byte[] expected = new byte[4 + value.length];
+        System.arraycopy("key=".getBytes("US-ASCII"), 0, expected, 0, 4);
+        System.arraycopy(value, 0, expected, 4, value.length);
+        assertArrayEquals(expected, (byte[]) txt.getStringsAsByteArrays().get(0));
+    }
+    
+    
+    @Test
+    public void Test_Superseded_Repeat_Not_Sent()
+    throws Exception
+    {
+        Map<String, String> text = new LinkedHashMap<String, String>();
+        text.put("load", "0.75");
+        service.updateText(name, text);
+        text.put("load", "0.80");
+        service.updateText(name, text);
+        
+        Thread.sleep(1500);
+        List<Message> broadcasts = querier.awaitBroadcasts(3);
+        assertEquals(3, broadcasts.size());
+        TXTRecord repeated = (TXTRecord) broadcasts.get(2).getSectionArray(Section.UPDATE)[0];
+        assertEquals("load=0.80", repeated.getStrings().get(0));
+    }
+    
+    
+    @Test
+    public void Test_Empty_Text_Is_Single_Empty_String()
+    throws Exception
+    {
+        service.updateText(name, null);
+        TXTRecord txt = (TXTRecord) querier.awaitBroadcasts(1).get(0).getSectionArray(Section.UPDATE)[0];
+        assertEquals(1, txt.getStrings().size());
+        assertEquals("", txt.getStrings().get(0));
+    }
+    
+    
+    @Test(expected = IOException.class)
+    public void Test_Cached_Service_Rejected()
+    throws Exception
+    {
+        ServiceName overheard = new ServiceName("Overheard._http._tcp.local.");
+        querier.cache(new SRVRecord(overheard.getServiceRRName(), DClass.IN + Constants.CACHE_FLUSH, 120, 0, 0, 80, new Name("other.local.")));
+        try
+        {
+            service.updateText(overheard, new LinkedHashMap<String, String>());
+        } finally
+        {
+            assertTrue(querier.getBroadcasts().isEmpty());
+        }
+    }
+    
+    
+    @Test(expected = IOException.class)
+    public void Test_Unregistered_Service_Rejected()
+    throws Exception
+    {
+        service.updateText(new ServiceName("Unknown._http._tcp.local."), new LinkedHashMap<String, String>());
+    }
+}
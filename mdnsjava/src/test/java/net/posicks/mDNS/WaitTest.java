@@ -0,0 +1,149 @@
+package net.posicks.mDNS;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import net.posick.mDNS.utils.Wait;
+import net.posick.mDNS.utils.Wait.Completion;
+
+/**
+ * Test Cases for the Wait
+ * 
+ * @author Steve Posick
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class WaitTest
+{
+    private List<Object> responses;
+    
+    private Wait.Signal received;
+    
+    
+    @Before
+    public void setUp()
+    throws Exception
+    {
+        responses = new ArrayList<Object>();
+        received = new Wait.Signal();
+    }
+    
+    
+    @After
+    public void tearDown()
+    throws Exception
+    {
+    }
+    
+    
+    @Test
+    public void Test_Completion_Ends_Wait_Early()
+    throws Exception
+    {
+        respondAfter(20);
+        long start = System.currentTimeMillis();
+        assertTrue(Wait.forResponse(received, new Completion()
+        {
+            public boolean isComplete()
+            {
+                synchronized (responses)
+                {
+                    return !responses.isEmpty();
+                }
+            }
+        }));
+        
+        long took = System.currentTimeMillis() - start;
+        assertTrue("Took " + took + "ms", took < Wait.quietTime());
+    }
+    
+    
+    @Test
+    public void Test_Quiet_Time_Ends_Wait_After_Last_Response()
+    throws Exception
+    {
+        respondAfter(20);
+        long start = System.currentTimeMillis();
+        assertTrue(Wait.forResponse(received, null));
+        
+        long took = System.currentTimeMillis() - start;
+        assertTrue("Took " + took + "ms", took >= (20 + Wait.quietTime()) - 5);
+        assertTrue("Took " + took + "ms", took < Wait.responseWaitTime());
+        assertEquals(1, responses.size());
+    }
+    
+    
+    @Test
+    public void Test_Wait_Without_Responses_Ends_At_Deadline()
+    throws Exception
+    {
+        long start = System.currentTimeMillis();
+        assertFalse(Wait.forResponse(received, null));
+        
+        long took = System.currentTimeMillis() - start;
+        assertTrue("Took " + took + "ms", took >= (Wait.responseWaitTime() - 5));
+    }
+    
+    
+    @Test
+    public void Test_Responses_Before_Wait_Are_Counted()
+    throws Exception
+    {
+        synchronized (responses)
+        {
+            responses.add("response");
+        }
+        received.signal();
+        
+        long start = System.currentTimeMillis();
+        assertTrue(Wait.forResponse(received, null));
+        
+        long took = System.currentTimeMillis() - start;
+        assertTrue("Took " + took + "ms", took >= (Wait.quietTime() - 5));
+        assertTrue("Took " + took + "ms", took < Wait.responseWaitTime());
+    }
+    
+    
+    @Test
+    public void Test_Signal_Wakes_Waiting_Thread()
+    throws Exception
+    {
+        respondAfter(20);
+        long start = System.currentTimeMillis();
+        assertEquals(1, received.await(0, Wait.responseWaitTime()));
+        
+        long took = System.currentTimeMillis() - start;
+        assertTrue("Took " + took + "ms", took < Wait.responseWaitTime());
+        assertEquals(1, received.await(0, Wait.responseWaitTime()));
+    }
+    
+    
+    private void respondAfter(final long millis)
+    {
+        new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e)
+                {
+                    return;
+                }
+                synchronized (responses)
+                {
+                    responses.add("response");
+                }
+                received.signal();
+            }
+        }).start();
+    }
+}